@@ -2,13 +2,18 @@ package com.soomla.example;
 
 import android.content.Context;
 import android.widget.Toast;
+import com.soomla.store.IBillingTimeoutHandler;
+import com.soomla.store.IPurchaseQuantityHandler;
+import com.soomla.store.IShoppingCartHandler;
 import com.soomla.store.IStoreEventHandler;
+import com.soomla.store.ShoppingCart;
 import com.soomla.store.StoreConfig;
 import com.soomla.store.domain.data.GoogleMarketItem;
 import com.soomla.store.domain.data.VirtualCurrencyPack;
 import com.soomla.store.domain.data.VirtualGood;
 
-public class ExampleEventHandler implements IStoreEventHandler {
+public class ExampleEventHandler implements IStoreEventHandler, IPurchaseQuantityHandler, IShoppingCartHandler,
+        IBillingTimeoutHandler {
 
     private Context mContext;
     private StoreExampleActivity mActivityI;
@@ -29,7 +34,17 @@ public class ExampleEventHandler implements IStoreEventHandler {
 
     @Override
     public void onVirtualGoodPurchased(VirtualGood good) {
-        showToastIfDebug(good.getName() + " was just purchased");
+        // the quantity is shown by onVirtualGoodPurchased(good, quantity), which is called right after this.
+    }
+
+    @Override
+    public void onVirtualGoodPurchased(VirtualGood good, int quantity) {
+        showToastIfDebug(quantity + " " + good.getName() + " were just purchased");
+    }
+
+    @Override
+    public void onShoppingCartPurchased(ShoppingCart cart) {
+        showToastIfDebug(cart.size() + " goods were just purchased");
     }
 
     @Override
@@ -52,6 +67,11 @@ public class ExampleEventHandler implements IStoreEventHandler {
         showToastIfDebug("Billing is not supported");
     }
 
+    @Override
+    public void onBillingRequestTimedOut(String method) {
+        showToastIfDebug("Billing request timed out: " + method);
+    }
+
     @Override
     public void onMarketPurchaseProcessStarted(GoogleMarketItem googleMarketItem) {
         showToastIfDebug("Market purchase started for productId: " + googleMarketItem);
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.billing;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.soomla.store.StoreConfig;
+
+import java.util.HashMap;
+
+/**
+ * Keeps a single connection to the MarketBillingService for the whole application.
+ *
+ * Every user of the connection calls {@link #acquire(android.content.Context, boolean)} and later {@link #release()}. The
+ * connection is kept while it's referenced, and for {@link StoreConfig#BILLING_IDLE_TIMEOUT_MILLIS} after the last
+ * reference was released, so opening the store again shortly after it was closed doesn't bind again.
+ *
+ * The result of CHECK_BILLING_SUPPORTED is cached for as long as the connection is up: later acquires report the
+ * cached result to the {@link PurchaseObserver} instead of asking Android Market again.
+ * If the MarketBillingService disconnects while the connection is referenced, {@link BillingService} binds again.
+ * The {@link BillingService} that Android starts for the commands of the {@link BillingReceiver} holds a reference
+ * while it runs, and its requests are sent through this connection.
+ *
+ * All the functions here should be called from the main UI thread.
+ */
+public class BillingConnectionManager {
+
+    public static BillingConnectionManager getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Adds a reference to the connection, binding to the MarketBillingService if it's not bound yet.
+     * The first acquire of a connection checks if in-app billing is supported, and the {@link PurchaseObserver} is
+     * notified with the result.
+     * @param context is used to bind to the MarketBillingService.
+     * @param notifyBillingSupported if true and the result was already cached, the {@link PurchaseObserver} is
+     *                               notified (asynchronously) with the cached result.
+     * @return the {@link BillingService} to send requests through. It's valid until the matching {@link #release()}.
+     */
+    public synchronized BillingService acquire(Context context, boolean notifyBillingSupported) {
+        mHandler.removeCallbacks(mIdleUnbind);
+        mReferences++;
+
+        if (mBillingService == null) {
+            mBillingService = new BillingService();
+            Context appContext = context.getApplicationContext();
+            mBillingService.setContext(appContext != null ? appContext : context);
+        }
+
+        final Boolean supported = mBillingSupported.get(Consts.ITEM_TYPE_INAPP);
+        if (supported == null) {
+            if (!mCheckPending) {
+                mCheckPending = mBillingService.checkBillingSupported(Consts.ITEM_TYPE_INAPP);
+                if (!mCheckPending) {
+                    Log.e(TAG, "There's no connectivity with the billing service.");
+                }
+            }
+        } else if (notifyBillingSupported) {
+            if (StoreConfig.debug) {
+                Log.d(TAG, "billing supported (cached): " + supported);
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    ResponseHandler.checkBillingSupportedResponse(supported, Consts.ITEM_TYPE_INAPP);
+                }
+            });
+        }
+
+        return mBillingService;
+    }
+
+    /**
+     * Removes a reference that was added by {@link #acquire(android.content.Context, boolean)}. When there are no references
+     * left, the connection is closed after {@link StoreConfig#BILLING_IDLE_TIMEOUT_MILLIS}.
+     */
+    public synchronized void release() {
+        if (mReferences == 0) {
+            Log.w(TAG, "release() was called more times than acquire()");
+            return;
+        }
+
+        mReferences--;
+        if (mReferences == 0) {
+            mHandler.postDelayed(mIdleUnbind, StoreConfig.BILLING_IDLE_TIMEOUT_MILLIS);
+        }
+    }
+
+    /**
+     * @return true if the connection is referenced.
+     */
+    public synchronized boolean isAcquired() {
+        return mReferences > 0;
+    }
+
+    /** Package functions (called by BillingService) **/
+
+    /**
+     * @return true if the given service holds the connection and it's referenced (or waiting for its idle timeout),
+     * which means it should bind again after the MarketBillingService disconnected.
+     */
+    synchronized boolean shouldReconnect(BillingService service) {
+        return service == mBillingService;
+    }
+
+    /**
+     * @return the service that holds the connection, or null if there's no connection.
+     */
+    synchronized BillingService getBillingService() {
+        return mBillingService;
+    }
+
+    synchronized void onBillingSupported(boolean supported, String type) {
+        mBillingSupported.put(type, supported);
+        mCheckPending = false;
+    }
+
+    synchronized void onDisconnected() {
+        // the MarketBillingService might have been updated. check again after the next connection.
+        mBillingSupported.clear();
+        mCheckPending = false;
+    }
+
+    /** Private functions **/
+
+    private BillingConnectionManager() {
+        mHandler = new Handler(Looper.getMainLooper());
+        mIdleUnbind = new Runnable() {
+            @Override
+            public void run() {
+                unbindIfIdle();
+            }
+        };
+    }
+
+    private synchronized void unbindIfIdle() {
+        if (mReferences > 0 || mBillingService == null) {
+            return;
+        }
+
+        if (StoreConfig.debug) {
+            Log.d(TAG, "billing connection is idle. unbinding.");
+        }
+        mBillingService.unbind();
+        mBillingService = null;
+        mBillingSupported.clear();
+        mCheckPending = false;
+    }
+
+    /** Private members **/
+
+    private static final String TAG = "SOOMLA BillingConnectionManager";
+
+    private static final BillingConnectionManager sInstance = new BillingConnectionManager();
+
+    private final Handler                  mHandler;
+    private final Runnable                 mIdleUnbind;
+    private final HashMap<String, Boolean> mBillingSupported = new HashMap<String, Boolean>();
+
+    private BillingService mBillingService;
+    private int            mReferences   = 0;
+    private boolean        mCheckPending = false;
+}
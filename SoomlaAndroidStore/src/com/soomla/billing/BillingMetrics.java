@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.billing;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counters of the work {@link BillingService} does, by request method (for example: "GET_PURCHASE_INFORMATION"):
+ * - submits: the notification commands that asked for a request (one per intent or per verified batch).
+ * - requests: the billing requests that were created. Submits that arrive within the coalescing window are merged
+ *   into one request, so this is usually lower than the submits.
+ * - binder calls: the calls to the MarketBillingService (IMarketBillingService.sendBillingRequest).
+ * - retries: the times a request was sent again, after the MarketBillingService crashed or the request timed out.
+ * - timeouts: the requests that passed their deadline (whether they were sent again or not).
+ *
+ * It also keeps the number of rebinds to the MarketBillingService and the depth of the request queues: the requests
+ * waiting for the connection (pending) and the requests waiting for their response code (sent).
+ *
+ * Use {@link #toString()} to log all of them.
+ */
+public class BillingMetrics {
+
+    public static BillingMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @param method is a request method.
+     * @return the number of notification commands that asked for a request with the given method.
+     */
+    public synchronized long getSubmitCount(String method) {
+        return get(mSubmits, method);
+    }
+
+    /**
+     * @param method is a request method.
+     * @return the number of billing requests that were created with the given method.
+     */
+    public synchronized long getRequestCount(String method) {
+        return get(mRequests, method);
+    }
+
+    /**
+     * @param method is a request method.
+     * @return the number of calls to the MarketBillingService with the given method.
+     */
+    public synchronized long getBinderCallCount(String method) {
+        return get(mBinderCalls, method);
+    }
+
+    /**
+     * @return the number of calls to the MarketBillingService, with all methods.
+     */
+    public synchronized long getBinderCallCount() {
+        long count = 0;
+        for (long calls : mBinderCalls.values()) {
+            count += calls;
+        }
+        return count;
+    }
+
+    /**
+     * @param method is a request method.
+     * @return the number of times a request with the given method was sent again.
+     */
+    public synchronized long getRetryCount(String method) {
+        return get(mRetries, method);
+    }
+
+    /**
+     * @param method is a request method.
+     * @return the number of requests with the given method that timed out.
+     */
+    public synchronized long getTimeoutCount(String method) {
+        return get(mTimeouts, method);
+    }
+
+    /**
+     * @return the number of times a rebind to the MarketBillingService was scheduled.
+     */
+    public synchronized long getRebindCount() {
+        return mRebinds;
+    }
+
+    /**
+     * @return the number of requests that are waiting for the connection to the MarketBillingService.
+     */
+    public synchronized int getPendingRequestCount() {
+        return mPendingRequests;
+    }
+
+    /**
+     * @return the number of requests that were sent and are waiting for their response code.
+     */
+    public synchronized int getSentRequestCount() {
+        return mSentRequests;
+    }
+
+    /**
+     * @return the largest number of pending and sent requests together, since the last {@link #reset()}.
+     */
+    public synchronized int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    public synchronized void reset() {
+        mSubmits.clear();
+        mRequests.clear();
+        mBinderCalls.clear();
+        mRetries.clear();
+        mTimeouts.clear();
+        mRebinds = 0;
+        mMaxQueueDepth = mPendingRequests + mSentRequests;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "submits: " + mSubmits + ", requests: " + mRequests + ", binder calls: " + mBinderCalls +
+                ", retries: " + mRetries + ", timeouts: " + mTimeouts + ", rebinds: " + mRebinds +
+                ", pending: " + mPendingRequests + ", sent: " + mSentRequests + ", max queue depth: " + mMaxQueueDepth;
+    }
+
+    /** Package functions (called by BillingService) **/
+
+    synchronized void onSubmit(String method) {
+        increment(mSubmits, method);
+    }
+
+    synchronized void onRequest(String method) {
+        increment(mRequests, method);
+    }
+
+    synchronized void onBinderCall(String method) {
+        increment(mBinderCalls, method);
+    }
+
+    synchronized void onRetry(String method) {
+        increment(mRetries, method);
+    }
+
+    synchronized void onTimeout(String method) {
+        increment(mTimeouts, method);
+    }
+
+    synchronized void onRebind() {
+        mRebinds++;
+    }
+
+    synchronized void onQueueDepth(int pending, int sent) {
+        mPendingRequests = pending;
+        mSentRequests = sent;
+        mMaxQueueDepth = Math.max(mMaxQueueDepth, pending + sent);
+    }
+
+    /** Private functions **/
+
+    private BillingMetrics() { }
+
+    private static long get(Map<String, Long> counters, String method) {
+        Long count = counters.get(method);
+        return count != null ? count : 0;
+    }
+
+    private static void increment(Map<String, Long> counters, String method) {
+        counters.put(method, get(counters, method) + 1);
+    }
+
+    /** Private members **/
+
+    private static final BillingMetrics sInstance = new BillingMetrics();
+
+    private final TreeMap<String, Long> mSubmits     = new TreeMap<String, Long>();
+    private final TreeMap<String, Long> mRequests    = new TreeMap<String, Long>();
+    private final TreeMap<String, Long> mBinderCalls = new TreeMap<String, Long>();
+    private final TreeMap<String, Long> mRetries     = new TreeMap<String, Long>();
+    private final TreeMap<String, Long> mTimeouts    = new TreeMap<String, Long>();
+
+    private long mRebinds         = 0;
+    private int  mPendingRequests = 0;
+    private int  mSentRequests    = 0;
+    private int  mMaxQueueDepth   = 0;
+}
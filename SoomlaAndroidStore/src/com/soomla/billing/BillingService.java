@@ -24,15 +24,24 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
 import com.android.vending.billing.IMarketBillingService;
 import com.soomla.store.StoreConfig;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
 
 
 /**
@@ -50,6 +59,12 @@ public class BillingService extends Service implements ServiceConnection {
     /** The service connection to the remote MarketBillingService. */
     private static IMarketBillingService mService;
 
+    /**
+     * The instance that is bound to the MarketBillingService (or binding to it). Only this instance binds, unbinds
+     * and drops {@link #mService}. Requests of other instances are sent through its connection.
+     */
+    private static BillingService sConnection;
+
     /**
      * The list of requests that are pending while we are waiting for the
      * connection to the MarketBillingService to be established.
@@ -64,6 +79,46 @@ public class BillingService extends Service implements ServiceConnection {
     private static HashMap<Long, BillingRequest> mSentRequests =
         new HashMap<Long, BillingRequest>();
 
+    /**
+     * The requests that timed out and are waiting for their backoff before they're sent again. They're in neither
+     * {@link #mPendingRequests} nor {@link #mSentRequests} until then. Only used on the main UI thread.
+     */
+    private static HashSet<BillingRequest> sScheduledRetries = new HashSet<BillingRequest>();
+
+    /** Verifies and applies purchase state changes on background threads. */
+    private static PurchaseNotificationPipeline sPipeline;
+
+    private static Handler sMainHandler;
+
+    /** True while a bind to the MarketBillingService is in progress (between bindService and onServiceConnected). */
+    private static boolean sBinding = false;
+
+    /** Rebinding after a crash or a disconnect is delayed by a backoff that grows with every attempt. */
+    private static boolean sRebindScheduled = false;
+    private static int     sRebindAttempts  = 0;
+    private static boolean sSweepScheduled  = false;
+    private static final Random sRandom     = new Random();
+
+    /**
+     * Notification commands that arrive within this window are merged into a single request per method.
+     */
+    private static final long COALESCING_WINDOW_MILLIS = 150;
+
+    /**
+     * The notification ids collected during the current coalescing window, and the largest startId of the commands
+     * they came from. Only used on the main UI thread.
+     */
+    private static LinkedHashSet<String> sPurchaseInfoIds = new LinkedHashSet<String>();
+    private static LinkedHashSet<String> sConfirmIds = new LinkedHashSet<String>();
+    private static int sPurchaseInfoStartId = -1;
+    private static int sConfirmStartId = -1;
+    private static boolean sCoalescingScheduled = false;
+
+    /**
+     * The notification ids that still have to reach Android Market, saved so they survive the process.
+     */
+    private static PersistentRequestQueue sRequestQueue;
+
     /**
      * The base class for all requests that use the MarketBillingService.
      * Each derived class overrides the run() method to call the appropriate
@@ -76,6 +131,10 @@ public class BillingService extends Service implements ServiceConnection {
         private final int mStartId;
         protected long mRequestId;
 
+        /** The time (SystemClock.elapsedRealtime) after which this request is considered lost. */
+        private long mDeadline;
+        private int  mRetries = 0;
+
         public BillingRequest(int startId) {
             mStartId = startId;
         }
@@ -84,19 +143,39 @@ public class BillingService extends Service implements ServiceConnection {
             return mStartId;
         }
 
+        /**
+         * @return the instance that created this request. If the request has a startId, it's the started service
+         * that has to be stopped once the request ran.
+         */
+        public BillingService getService() {
+            return BillingService.this;
+        }
+
         /**
          * Run the request, starting the connection if necessary.
          * @return true if the request was executed or queued; false if there
          * was an error starting the connection
          */
         public boolean runOrWaitRequest() {
+            BillingMetrics.getInstance().onRequest(getMethod());
+            return enqueue();
+        }
+
+        /**
+         * Adds this request to the pending requests and runs it if the service is connected.
+         * @return true if the request was executed or queued; false if there was an error starting the connection
+         */
+        private boolean enqueue() {
+            mDeadline = SystemClock.elapsedRealtime() + getTimeoutMillis();
             mPendingRequests.add(this);
+            scheduleSweep();
 
             if (mService != null) {
                 runPendingRequests();
                 return true;
             } else {
-                return bindToMarketBillingService();
+                updateQueueDepth();
+                return getConnection().bindToMarketBillingService();
             }
         }
 
@@ -116,6 +195,8 @@ public class BillingService extends Service implements ServiceConnection {
                         Log.d(TAG, "request id: " + mRequestId);
                     }
                     if (mRequestId >= 0) {
+                        // the response code has to arrive within the timeout from now.
+                        mDeadline = SystemClock.elapsedRealtime() + getTimeoutMillis();
                         mSentRequests.put(mRequestId, this);
                     }
                     return true;
@@ -135,8 +216,31 @@ public class BillingService extends Service implements ServiceConnection {
         protected void onRemoteException(RemoteException e) {
             Log.w(TAG, "remote billing service crashed");
 
-            onServiceDisconnected(null);
-            responseCodeReceived(Consts.ResponseCode.RESULT_ERROR);
+            // the request stays on the pending queue and is sent again after the service was bound again
+            // (see runPendingRequests). the error is reported only if it runs out of retries.
+            getConnection().onServiceDisconnected(null);
+        }
+
+        /**
+         * @return how long (in milliseconds) this request may wait for the connection and then for its response
+         * code, before it's considered lost.
+         */
+        protected long getTimeoutMillis() {
+            return StoreConfig.BILLING_REQUEST_TIMEOUT_MILLIS;
+        }
+
+        /**
+         * @return true if this request can be sent again after it timed out waiting for its response code.
+         */
+        protected boolean isRetriable() {
+            return true;
+        }
+
+        /**
+         * This is called when this request timed out and will not be sent again.
+         */
+        protected void requestTimedOut() {
+            ResponseHandler.requestTimedOut(getMethod());
         }
 
         /**
@@ -145,6 +249,21 @@ public class BillingService extends Service implements ServiceConnection {
          */
         abstract protected long run() throws RemoteException;
 
+        /**
+         * @return the method of this request (for example: "REQUEST_PURCHASE").
+         */
+        abstract protected String getMethod();
+
+        /**
+         * Sends the given request bundle to the MarketBillingService. All the binder calls go through here so they
+         * can be counted (see {@link BillingMetrics}).
+         * @throws android.os.RemoteException
+         */
+        protected Bundle sendBillingRequest(Bundle request) throws RemoteException {
+            BillingMetrics.getInstance().onBinderCall(request.getString(Consts.BILLING_REQUEST_METHOD));
+            return mService.sendBillingRequest(request);
+        }
+
         /**
          * This is called when Android Market sends a response code for this
          * request.
@@ -196,19 +315,25 @@ public class BillingService extends Service implements ServiceConnection {
             mProductType = itemType;
         }
 
+        @Override
+        protected String getMethod() {
+            return "CHECK_BILLING_SUPPORTED";
+        }
+
         @Override
         protected long run() throws RemoteException {
-            Bundle request = makeRequestBundle("CHECK_BILLING_SUPPORTED");
+            Bundle request = makeRequestBundle(getMethod());
             if (mProductType != null) {
                 request.putString(Consts.BILLING_REQUEST_ITEM_TYPE, mProductType);
             }
-            Bundle response = mService.sendBillingRequest(request);
+            Bundle response = sendBillingRequest(request);
             int responseCode = response.getInt(Consts.BILLING_RESPONSE_RESPONSE_CODE);
             if (StoreConfig.debug) {
                 Log.i(TAG, "CheckBillingSupported response code: " +
                         Consts.ResponseCode.valueOf(responseCode));
             }
             boolean billingSupported = (responseCode == Consts.ResponseCode.RESULT_OK.ordinal());
+            BillingConnectionManager.getInstance().onBillingSupported(billingSupported, mProductType);
             ResponseHandler.checkBillingSupportedResponse(billingSupported, mProductType);
             return Consts.BILLING_RESPONSE_INVALID_REQUEST_ID;
         }
@@ -261,16 +386,37 @@ public class BillingService extends Service implements ServiceConnection {
             mProductType = itemType;
         }
 
+        @Override
+        protected String getMethod() {
+            return "REQUEST_PURCHASE";
+        }
+
+        /**
+         * The response code of a purchase request only arrives after the user finished with the buy page.
+         */
+        @Override
+        protected long getTimeoutMillis() {
+            return StoreConfig.BILLING_PURCHASE_TIMEOUT_MILLIS;
+        }
+
+        /**
+         * Sending a purchase request again would show the buy page again.
+         */
+        @Override
+        protected boolean isRetriable() {
+            return false;
+        }
+
         @Override
         protected long run() throws RemoteException {
-            Bundle request = makeRequestBundle("REQUEST_PURCHASE");
+            Bundle request = makeRequestBundle(getMethod());
             request.putString(Consts.BILLING_REQUEST_ITEM_ID, mProductId);
             request.putString(Consts.BILLING_REQUEST_ITEM_TYPE, mProductType);
             // Note that the developer payload is optional.
             if (mDeveloperPayload != null) {
                 request.putString(Consts.BILLING_REQUEST_DEVELOPER_PAYLOAD, mDeveloperPayload);
             }
-            Bundle response = mService.sendBillingRequest(request);
+            Bundle response = sendBillingRequest(request);
             PendingIntent pendingIntent
                     = response.getParcelable(Consts.BILLING_RESPONSE_PURCHASE_INTENT);
             if (pendingIntent == null) {
@@ -301,15 +447,29 @@ public class BillingService extends Service implements ServiceConnection {
             mNotifyIds = notifyIds;
         }
 
+        @Override
+        protected String getMethod() {
+            return "CONFIRM_NOTIFICATIONS";
+        }
+
         @Override
         protected long run() throws RemoteException {
-            Bundle request = makeRequestBundle("CONFIRM_NOTIFICATIONS");
+            Bundle request = makeRequestBundle(getMethod());
             request.putStringArray(Consts.BILLING_REQUEST_NOTIFY_IDS, mNotifyIds);
-            Bundle response = mService.sendBillingRequest(request);
+            Bundle response = sendBillingRequest(request);
             logResponseCode("confirmNotifications", response);
             return response.getLong(Consts.BILLING_RESPONSE_REQUEST_ID,
                     Consts.BILLING_RESPONSE_INVALID_REQUEST_ID);
         }
+
+        @Override
+        protected void responseCodeReceived(Consts.ResponseCode responseCode) {
+            if (responseCode == Consts.ResponseCode.RESULT_OK ||
+                    responseCode == Consts.ResponseCode.RESULT_DEVELOPER_ERROR) {
+                // a developer error is final, sending the same ids again won't change it.
+                getRequestQueue().remove(PersistentRequestQueue.CONFIRM_NOTIFICATIONS, mNotifyIds);
+            }
+        }
     }
 
     /**
@@ -324,14 +484,19 @@ public class BillingService extends Service implements ServiceConnection {
             mNotifyIds = notifyIds;
         }
 
+        @Override
+        protected String getMethod() {
+            return "GET_PURCHASE_INFORMATION";
+        }
+
         @Override
         protected long run() throws RemoteException {
             mNonce = Security.generateNonce();
 
-            Bundle request = makeRequestBundle("GET_PURCHASE_INFORMATION");
+            Bundle request = makeRequestBundle(getMethod());
             request.putLong(Consts.BILLING_REQUEST_NONCE, mNonce);
             request.putStringArray(Consts.BILLING_REQUEST_NOTIFY_IDS, mNotifyIds);
-            Bundle response = mService.sendBillingRequest(request);
+            Bundle response = sendBillingRequest(request);
             logResponseCode("getPurchaseInformation", response);
             return response.getLong(Consts.BILLING_RESPONSE_REQUEST_ID,
                     Consts.BILLING_RESPONSE_INVALID_REQUEST_ID);
@@ -342,6 +507,15 @@ public class BillingService extends Service implements ServiceConnection {
             super.onRemoteException(e);
             Security.removeNonce(mNonce);
         }
+
+        @Override
+        protected void responseCodeReceived(Consts.ResponseCode responseCode) {
+            if (responseCode == Consts.ResponseCode.RESULT_OK ||
+                    responseCode == Consts.ResponseCode.RESULT_DEVELOPER_ERROR) {
+                // a developer error is final, sending the same ids again won't change it.
+                getRequestQueue().remove(PersistentRequestQueue.GET_PURCHASE_INFORMATION, mNotifyIds);
+            }
+        }
     }
 
     /**
@@ -357,13 +531,18 @@ public class BillingService extends Service implements ServiceConnection {
             super(-1);
         }
 
+        @Override
+        protected String getMethod() {
+            return "RESTORE_TRANSACTIONS";
+        }
+
         @Override
         protected long run() throws RemoteException {
             mNonce = Security.generateNonce();
 
-            Bundle request = makeRequestBundle("RESTORE_TRANSACTIONS");
+            Bundle request = makeRequestBundle(getMethod());
             request.putLong(Consts.BILLING_REQUEST_NONCE, mNonce);
-            Bundle response = mService.sendBillingRequest(request);
+            Bundle response = sendBillingRequest(request);
             logResponseCode("restoreTransactions", response);
             return response.getLong(Consts.BILLING_RESPONSE_REQUEST_ID,
                     Consts.BILLING_RESPONSE_INVALID_REQUEST_ID);
@@ -393,6 +572,23 @@ public class BillingService extends Service implements ServiceConnection {
         attachBaseContext(context);
     }
 
+    /**
+     * This is called when the {@link BillingReceiver} starts the service. The started service sends its requests
+     * through the connection of the {@link BillingConnectionManager}, so it holds a reference to that connection
+     * until it stops itself.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        BillingConnectionManager.getInstance().acquire(this, false);
+    }
+
+    @Override
+    public void onDestroy() {
+        BillingConnectionManager.getInstance().release();
+        super.onDestroy();
+    }
+
     /**
      * We don't support binding to this service, only starting the service.
      */
@@ -446,6 +642,11 @@ public class BillingService extends Service implements ServiceConnection {
      * @return true if the bind succeeded; false otherwise
      */
     private boolean bindToMarketBillingService() {
+        if (sBinding) {
+            // we're already waiting for onServiceConnected.
+            return true;
+        }
+
         try {
             if (StoreConfig.debug) {
                 Log.i(TAG, "binding to Market billing service");
@@ -456,6 +657,8 @@ public class BillingService extends Service implements ServiceConnection {
                     Context.BIND_AUTO_CREATE);
 
             if (bindResult) {
+                sBinding = true;
+                sConnection = this;
                 return true;
             } else {
                 Log.e(TAG, "Could not bind to service.");
@@ -473,7 +676,7 @@ public class BillingService extends Service implements ServiceConnection {
      * @return true if supported; false otherwise
      */
     public boolean checkBillingSupported(String itemType) {
-        return mService != null && new CheckBillingSupported(itemType).runOrWaitRequest();
+        return new CheckBillingSupported(itemType).runOrWaitRequest();
     }
 
     /**
@@ -513,8 +716,14 @@ public class BillingService extends Service implements ServiceConnection {
      * state changes.
      * @return false if there was an error connecting to Market
      */
-    private boolean confirmNotifications(int startId, String[] notifyIds) {
-        return new ConfirmNotifications(startId, notifyIds).runOrWaitRequest();
+    boolean confirmNotifications(int startId, String[] notifyIds) {
+        getRequestQueue().add(PersistentRequestQueue.CONFIRM_NOTIFICATIONS, notifyIds);
+        BillingMetrics.getInstance().onSubmit(PersistentRequestQueue.CONFIRM_NOTIFICATIONS);
+
+        sConfirmIds.addAll(Arrays.asList(notifyIds));
+        sConfirmStartId = Math.max(sConfirmStartId, startId);
+        scheduleCoalescedRequests();
+        return true;
     }
 
     /**
@@ -531,37 +740,255 @@ public class BillingService extends Service implements ServiceConnection {
      * @return false if there was an error connecting to Android Market
      */
     private boolean getPurchaseInformation(int startId, String[] notifyIds) {
-        return new GetPurchaseInformation(startId, notifyIds).runOrWaitRequest();
+        getRequestQueue().add(PersistentRequestQueue.GET_PURCHASE_INFORMATION, notifyIds);
+        BillingMetrics.getInstance().onSubmit(PersistentRequestQueue.GET_PURCHASE_INFORMATION);
+
+        sPurchaseInfoIds.addAll(Arrays.asList(notifyIds));
+        sPurchaseInfoStartId = Math.max(sPurchaseInfoStartId, startId);
+        scheduleCoalescedRequests();
+        return true;
     }
 
     /**
-     * Verifies that the data was signed with the given signature, and calls
+     * Sends the notification ids that were collected during the coalescing window once it's over: all of them in
+     * one GET_PURCHASE_INFORMATION request and one CONFIRM_NOTIFICATIONS request. The largest startId of the merged
+     * commands is used, so the service is only stopped after the last of them was handled.
+     * This runs in the main UI thread.
+     */
+    private void scheduleCoalescedRequests() {
+        if (sCoalescingScheduled) {
+            return;
+        }
+        sCoalescingScheduled = true;
+
+        getMainHandler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                sCoalescingScheduled = false;
+
+                if (!sPurchaseInfoIds.isEmpty()) {
+                    String[] notifyIds = sPurchaseInfoIds.toArray(new String[sPurchaseInfoIds.size()]);
+                    int startId = sPurchaseInfoStartId;
+                    sPurchaseInfoIds.clear();
+                    sPurchaseInfoStartId = -1;
+                    new GetPurchaseInformation(startId, notifyIds).runOrWaitRequest();
+                }
+
+                if (!sConfirmIds.isEmpty()) {
+                    String[] notifyIds = sConfirmIds.toArray(new String[sConfirmIds.size()]);
+                    int startId = sConfirmStartId;
+                    sConfirmIds.clear();
+                    sConfirmStartId = -1;
+                    new ConfirmNotifications(startId, notifyIds).runOrWaitRequest();
+                }
+            }
+        }, COALESCING_WINDOW_MILLIS);
+    }
+
+    /**
+     * Queues the notification ids that were saved in the {@link PersistentRequestQueue} by an earlier process but
+     * never reached Android Market. Ids that belong to requests of this process (waiting, sent or scheduled to be
+     * sent again) are skipped, so nothing is sent twice. This runs in the main UI thread, when the service connects.
+     */
+    private void replayPersistedRequests() {
+        HashSet<String> purchaseInfoIds = new HashSet<String>(sPurchaseInfoIds);
+        HashSet<String> confirmIds = new HashSet<String>(sConfirmIds);
+        ArrayList<BillingRequest> requests = new ArrayList<BillingRequest>(mPendingRequests);
+        requests.addAll(mSentRequests.values());
+        requests.addAll(sScheduledRetries);
+        for (BillingRequest request : requests) {
+            if (request instanceof GetPurchaseInformation) {
+                purchaseInfoIds.addAll(Arrays.asList(((GetPurchaseInformation) request).mNotifyIds));
+            } else if (request instanceof ConfirmNotifications) {
+                confirmIds.addAll(Arrays.asList(((ConfirmNotifications) request).mNotifyIds));
+            }
+        }
+
+        String[] lostPurchaseInfoIds = getRequestQueue().replay(
+                PersistentRequestQueue.GET_PURCHASE_INFORMATION, purchaseInfoIds);
+        if (lostPurchaseInfoIds.length > 0) {
+            new GetPurchaseInformation(-1, lostPurchaseInfoIds).runOrWaitRequest();
+        }
+        String[] lostConfirmIds = getRequestQueue().replay(
+                PersistentRequestQueue.CONFIRM_NOTIFICATIONS, confirmIds);
+        if (lostConfirmIds.length > 0) {
+            new ConfirmNotifications(-1, lostConfirmIds).runOrWaitRequest();
+        }
+
+        if (StoreConfig.debug && (lostPurchaseInfoIds.length > 0 || lostConfirmIds.length > 0)) {
+            Log.d(TAG, "replaying " + lostPurchaseInfoIds.length + " purchase information and " +
+                    lostConfirmIds.length + " confirmation notification ids");
+        }
+    }
+
+    /**
+     * Binds to the MarketBillingService again after a jittered exponential backoff (see {@link #getBackoffMillis(int)}),
+     * so a crashing service isn't bound in a tight loop. The backoff is reset once a request runs successfully.
+     * This runs in the main UI thread.
+     */
+    private void scheduleRebind() {
+        if (sRebindScheduled || sBinding) {
+            return;
+        }
+        sRebindScheduled = true;
+
+        long delay = getBackoffMillis(sRebindAttempts++);
+        if (StoreConfig.debug) {
+            Log.d(TAG, "reconnecting to the billing service in " + delay + "ms");
+        }
+        BillingMetrics.getInstance().onRebind();
+        getMainHandler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                sRebindScheduled = false;
+                if (mService == null) {
+                    getConnection().bindToMarketBillingService();
+                }
+            }
+        }, delay);
+    }
+
+    /**
+     * Makes sure {@link #sweepExpiredRequests()} runs while there are requests waiting.
+     * This runs in the main UI thread.
+     */
+    private void scheduleSweep() {
+        if (sSweepScheduled) {
+            return;
+        }
+        sSweepScheduled = true;
+
+        getMainHandler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                sSweepScheduled = false;
+                sweepExpiredRequests();
+            }
+        }, StoreConfig.BILLING_SWEEP_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Removes the requests that passed their deadline.
+     * A sent request that is retriable and has retries left is sent again after a backoff. Any other expired
+     * request is failed with {@link BillingRequest#requestTimedOut()}. (The notification ids of expired
+     * GET_PURCHASE_INFORMATION and CONFIRM_NOTIFICATIONS requests stay in the {@link PersistentRequestQueue} and are
+     * replayed on the next bind, up to {@link StoreConfig#BILLING_MAX_REPLAYS} times.)
+     * This runs in the main UI thread.
+     */
+    private void sweepExpiredRequests() {
+        long now = SystemClock.elapsedRealtime();
+        ArrayList<BillingRequest> expired = new ArrayList<BillingRequest>();
+
+        Iterator<BillingRequest> pending = mPendingRequests.iterator();
+        while (pending.hasNext()) {
+            BillingRequest request = pending.next();
+            if (request.mDeadline <= now) {
+                pending.remove();
+                expired.add(request);
+
+                // runPendingRequests() never ran this request, so it won't stop the service it was started with.
+                if (request.getStartId() >= 0) {
+                    request.getService().stopSelf(request.getStartId());
+                }
+            }
+        }
+
+        ArrayList<BillingRequest> retries = new ArrayList<BillingRequest>();
+        Iterator<BillingRequest> sent = mSentRequests.values().iterator();
+        while (sent.hasNext()) {
+            BillingRequest request = sent.next();
+            if (request.mDeadline <= now) {
+                sent.remove();
+                if (request.isRetriable() && request.mRetries < StoreConfig.BILLING_MAX_RETRIES) {
+                    retries.add(request);
+                } else {
+                    expired.add(request);
+                }
+            }
+        }
+
+        for (BillingRequest request : expired) {
+            Log.w(TAG, request.getMethod() + " timed out");
+            BillingMetrics.getInstance().onTimeout(request.getMethod());
+            request.requestTimedOut();
+        }
+
+        for (final BillingRequest request : retries) {
+            request.mRetries++;
+            BillingMetrics.getInstance().onTimeout(request.getMethod());
+            BillingMetrics.getInstance().onRetry(request.getMethod());
+
+            long delay = getBackoffMillis(request.mRetries - 1);
+            if (StoreConfig.debug) {
+                Log.d(TAG, request.getMethod() + " timed out. sending it again in " + delay + "ms");
+            }
+            sScheduledRetries.add(request);
+            getMainHandler().postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    sScheduledRetries.remove(request);
+                    request.enqueue();
+                }
+            }, delay);
+        }
+
+        updateQueueDepth();
+        if (!mPendingRequests.isEmpty() || !mSentRequests.isEmpty()) {
+            scheduleSweep();
+        }
+    }
+
+    private void updateQueueDepth() {
+        BillingMetrics.getInstance().onQueueDepth(mPendingRequests.size(), mSentRequests.size());
+    }
+
+    /**
+     * Calculates an exponential backoff with "equal jitter": half of the delay is fixed and the other half is
+     * random, so clients that failed together don't retry together.
+     * @param attempt is the number of attempts that were already made (starting from 0).
+     * @return the delay (in milliseconds) before the next attempt.
+     */
+    private static long getBackoffMillis(int attempt) {
+        long delay = Math.min(StoreConfig.BILLING_BACKOFF_MAX_MILLIS,
+                StoreConfig.BILLING_BACKOFF_BASE_MILLIS << Math.min(attempt, 20));
+        return delay / 2 + (long) (sRandom.nextDouble() * (delay / 2));
+    }
+
+    private PersistentRequestQueue getRequestQueue() {
+        synchronized (BillingService.class) {
+            if (sRequestQueue == null) {
+                Context context = getApplicationContext();
+                sRequestQueue = new PersistentRequestQueue(context != null ? context : this);
+            }
+            return sRequestQueue;
+        }
+    }
+
+    /**
+     * Hands a purchase state change to the {@link PurchaseNotificationPipeline}, which verifies that the data was
+     * signed with the given signature and calls
      * {@link ResponseHandler#purchaseResponse(Context, Consts.PurchaseState, String, String, long, String)}
-     * for each verified purchase.
+     * for each verified purchase, all on background threads. This returns immediately.
      * @param startId an identifier for the invocation instance of this service
      * @param signedData the signed JSON string (signed, not encrypted)
      * @param signature the signature for the data, signed with the private key
      */
     private void purchaseStateChanged(int startId, String signedData, String signature) {
-        ArrayList<Security.VerifiedPurchase> purchases;
-        purchases = Security.verifyPurchase(signedData, signature);
-        if (purchases == null) {
-            // TODO: consider posting an error to ResponseHandler from here ...
-            return;
-        }
+        getPipeline().submit(this, startId, signedData, signature);
+    }
 
-        ArrayList<String> notifyList = new ArrayList<String>();
-        for (Security.VerifiedPurchase vp : purchases) {
-            if (vp.notificationId != null) {
-                notifyList.add(vp.notificationId);
-            }
-            ResponseHandler.purchaseResponse(this, vp.purchaseState, vp.productId,
-                    vp.orderId, vp.purchaseTime, vp.developerPayload);
+    private static synchronized PurchaseNotificationPipeline getPipeline() {
+        if (sPipeline == null) {
+            sPipeline = new PurchaseNotificationPipeline(getMainHandler());
         }
-        if (!notifyList.isEmpty()) {
-            String[] notifyIds = notifyList.toArray(new String[notifyList.size()]);
-            confirmNotifications(startId, notifyIds);
+        return sPipeline;
+    }
+
+    private static synchronized Handler getMainHandler() {
+        if (sMainHandler == null) {
+            sMainHandler = new Handler(Looper.getMainLooper());
         }
+        return sMainHandler;
     }
 
     /**
@@ -585,6 +1012,7 @@ public class BillingService extends Service implements ServiceConnection {
             request.responseCodeReceived(responseCode);
         }
         mSentRequests.remove(requestId);
+        updateQueueDepth();
     }
 
     /**
@@ -592,34 +1020,48 @@ public class BillingService extends Service implements ServiceConnection {
      * service to be established.  This runs in the main UI thread.
      */
     private void runPendingRequests() {
-        int maxStartId = -1;
+        HashMap<BillingService, Integer> maxStartIds = new HashMap<BillingService, Integer>();
         BillingRequest request;
         while ((request = mPendingRequests.peek()) != null) {
             if (request.runIfConnected()) {
                 // Remove the request
                 mPendingRequests.remove();
-
-                // Remember the largest startId, which is the most recent
-                // request to start this service.
-                if (maxStartId < request.getStartId()) {
-                    maxStartId = request.getStartId();
+                sRebindAttempts = 0;
+
+                // Remember the largest startId of the service that created the request, which is the most recent
+                // request to start that service.
+                if (request.getStartId() >= 0) {
+                    Integer maxStartId = maxStartIds.get(request.getService());
+                    if (maxStartId == null || maxStartId < request.getStartId()) {
+                        maxStartIds.put(request.getService(), request.getStartId());
+                    }
                 }
             } else {
-                // The service crashed, so restart it. Note that this leaves
-                // the current request on the queue.
-                bindToMarketBillingService();
+                // The service crashed, so restart it after a backoff. Note that this
+                // leaves the current request on the queue, unless it ran out of retries.
+                if (request.mRetries >= StoreConfig.BILLING_MAX_RETRIES) {
+                    Log.e(TAG, request.getMethod() + " failed after " + request.mRetries + " retries");
+                    mPendingRequests.remove();
+                    request.responseCodeReceived(Consts.ResponseCode.RESULT_ERROR);
+                } else {
+                    request.mRetries++;
+                    BillingMetrics.getInstance().onRetry(request.getMethod());
+                }
+                updateQueueDepth();
+                scheduleRebind();
                 return;
             }
         }
+        updateQueueDepth();
 
-        // If we get here then all the requests ran successfully.  If maxStartId
-        // is not -1, then one of the requests started the service, so we can
-        // stop it now.
-        if (maxStartId >= 0) {
+        // If we get here then all the requests ran successfully. The services that were
+        // started for these requests can stop now. (The instance that runs this is the
+        // one that is bound, which was never started.)
+        for (Map.Entry<BillingService, Integer> entry : maxStartIds.entrySet()) {
             if (StoreConfig.debug) {
-                Log.i(TAG, "stopping service, startId: " + maxStartId);
+                Log.i(TAG, "stopping service, startId: " + entry.getValue());
             }
-            stopSelf(maxStartId);
+            entry.getKey().stopSelf(entry.getValue());
         }
     }
 
@@ -632,8 +1074,11 @@ public class BillingService extends Service implements ServiceConnection {
         if (StoreConfig.debug) {
             Log.d(TAG, "Billing service connected");
         }
+        sBinding = false;
+        sConnection = this;
         mService = IMarketBillingService.Stub.asInterface(service);
         if (mService != null){
+            replayPersistedRequests();
             runPendingRequests();
         }
         else{
@@ -643,11 +1088,18 @@ public class BillingService extends Service implements ServiceConnection {
 
     /**
      * This is called when we are disconnected from the MarketBillingService.
+     * If this service holds the {@link BillingConnectionManager}'s connection, it binds again right away so the
+     * users of the connection don't notice.
      */
     @Override
     public void onServiceDisconnected(ComponentName name) {
         Log.w(TAG, "Billing service disconnected");
 
+        if (sConnection != this) {
+            // this instance isn't bound. the connection belongs to another instance.
+            return;
+        }
+
         if (mService != null) {
             try {
                 unbindService(this);
@@ -657,17 +1109,47 @@ public class BillingService extends Service implements ServiceConnection {
         }
 
         mService = null;
+        sBinding = false;
+        sConnection = null;
+
+        BillingConnectionManager connectionManager = BillingConnectionManager.getInstance();
+        connectionManager.onDisconnected();
+        if (connectionManager.shouldReconnect(this)) {
+            scheduleRebind();
+        }
     }
 
     /**
      * Unbinds from the MarketBillingService. Call this when the application
      * terminates to avoid leaking a ServiceConnection.
+     * This does nothing if the connection belongs to another instance.
      */
     public void unbind() {
+        if (sConnection != this) {
+            return;
+        }
+
         try {
             unbindService(this);
         } catch (IllegalArgumentException e) {
             // This might happen if the service was disconnected
         }
+
+        // unbindService doesn't call onServiceDisconnected, so the binder has to be dropped here.
+        mService = null;
+        sBinding = false;
+        sConnection = null;
+    }
+
+    /**
+     * @return the instance requests bind through: the one that is bound (or binding), otherwise the one that holds
+     * the {@link BillingConnectionManager}'s connection, otherwise this one.
+     */
+    private BillingService getConnection() {
+        if (sConnection != null) {
+            return sConnection;
+        }
+        BillingService connection = BillingConnectionManager.getInstance().getBillingService();
+        return connection != null ? connection : this;
     }
 }
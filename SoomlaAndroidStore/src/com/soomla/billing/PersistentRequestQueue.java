@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.billing;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.text.TextUtils;
+import android.util.Log;
+import com.soomla.store.StoreConfig;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * A durable copy of the notification ids that still have to be sent to Android Market in GET_PURCHASE_INFORMATION
+ * and CONFIRM_NOTIFICATIONS requests.
+ * {@link BillingService} adds notification ids here before it queues a request and removes them once Android Market
+ * accepted the request. If the process dies in between, the ids that are left are replayed when the service binds
+ * again, so only the lost work is sent again instead of a full RESTORE_TRANSACTIONS.
+ * An id is replayed at most {@link StoreConfig#BILLING_MAX_REPLAYS} times, so an id that Android Market keeps
+ * rejecting (or that keeps timing out) is eventually dropped instead of being replayed forever.
+ *
+ * Every request method is a set of notification ids (so adding the same id twice keeps one copy) with the number of
+ * times each one was replayed, saved in the shared preferences as one newline-separated string. The shared
+ * preferences are written asynchronously, so nothing here blocks the main thread on disk.
+ */
+class PersistentRequestQueue {
+
+    public static final String GET_PURCHASE_INFORMATION = "GET_PURCHASE_INFORMATION";
+    public static final String CONFIRM_NOTIFICATIONS    = "CONFIRM_NOTIFICATIONS";
+
+    /** Constructor
+     *
+     * @param context is used to open the shared preferences.
+     */
+    PersistentRequestQueue(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Adds the given notification ids to the given request method. Ids that are already there are ignored.
+     * @param method is {@link #GET_PURCHASE_INFORMATION} or {@link #CONFIRM_NOTIFICATIONS}.
+     * @param notifyIds are the notification ids to add.
+     */
+    synchronized void add(String method, String[] notifyIds) {
+        LinkedHashMap<String, Integer> ids = get(method);
+        boolean changed = false;
+        for (String notifyId : notifyIds) {
+            if (!ids.containsKey(notifyId)) {
+                ids.put(notifyId, 0);
+                changed = true;
+            }
+        }
+        if (changed) {
+            save(method, ids);
+        }
+    }
+
+    /**
+     * Removes the given notification ids from the given request method.
+     * @param method is {@link #GET_PURCHASE_INFORMATION} or {@link #CONFIRM_NOTIFICATIONS}.
+     * @param notifyIds are the notification ids to remove.
+     */
+    synchronized void remove(String method, String[] notifyIds) {
+        LinkedHashMap<String, Integer> ids = get(method);
+        boolean changed = false;
+        for (String notifyId : notifyIds) {
+            changed |= ids.remove(notifyId) != null;
+        }
+        if (changed) {
+            save(method, ids);
+        }
+    }
+
+    /**
+     * Fetch the notification ids of the given request method that are not in the given collection, to be replayed.
+     * Each returned id counts as replayed once more. Ids that were already replayed
+     * {@link StoreConfig#BILLING_MAX_REPLAYS} times are dropped instead of returned.
+     * @param method is {@link #GET_PURCHASE_INFORMATION} or {@link #CONFIRM_NOTIFICATIONS}.
+     * @param excluded are ids to leave out (for example: ids of requests that are already queued in memory).
+     * @return the notification ids to replay, in the order they were added.
+     */
+    synchronized String[] replay(String method, Collection<String> excluded) {
+        LinkedHashMap<String, Integer> ids = get(method);
+        ArrayList<String> replayed = new ArrayList<String>();
+        int dropped = 0;
+
+        Iterator<Map.Entry<String, Integer>> entries = ids.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Integer> entry = entries.next();
+            if (excluded.contains(entry.getKey())) {
+                continue;
+            }
+            if (entry.getValue() >= StoreConfig.BILLING_MAX_REPLAYS) {
+                entries.remove();
+                dropped++;
+                continue;
+            }
+            entry.setValue(entry.getValue() + 1);
+            replayed.add(entry.getKey());
+        }
+
+        if (dropped > 0) {
+            Log.e(TAG, "dropping " + dropped + " notification ids of " + method + " that were replayed " +
+                    StoreConfig.BILLING_MAX_REPLAYS + " times.");
+        }
+        if (dropped > 0 || !replayed.isEmpty()) {
+            save(method, ids);
+        }
+        return replayed.toArray(new String[replayed.size()]);
+    }
+
+    /** Private functions **/
+
+    private LinkedHashMap<String, Integer> get(String method) {
+        LinkedHashMap<String, Integer> ids = mIds.get(method);
+        if (ids == null) {
+            ids = new LinkedHashMap<String, Integer>();
+            String saved = mPrefs.getString(method, null);
+            if (!TextUtils.isEmpty(saved)) {
+                for (String line : saved.split(SEPARATOR)) {
+                    // lines saved before replays were counted have no count.
+                    int separator = line.lastIndexOf(REPLAYS_SEPARATOR);
+                    int replays = 0;
+                    if (separator >= 0) {
+                        try {
+                            replays = Integer.parseInt(line.substring(separator + 1));
+                            line = line.substring(0, separator);
+                        } catch (NumberFormatException e) {
+                            replays = 0;
+                        }
+                    }
+                    ids.put(line, replays);
+                }
+            }
+            mIds.put(method, ids);
+        }
+        return ids;
+    }
+
+    private void save(String method, LinkedHashMap<String, Integer> ids) {
+        SharedPreferences.Editor edit = mPrefs.edit();
+        if (ids.isEmpty()) {
+            edit.remove(method);
+        } else {
+            ArrayList<String> lines = new ArrayList<String>(ids.size());
+            for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+                lines.add(entry.getKey() + REPLAYS_SEPARATOR + entry.getValue());
+            }
+            edit.putString(method, TextUtils.join(SEPARATOR, lines));
+        }
+        apply(edit);
+
+        if (StoreConfig.debug) {
+            Log.d(TAG, ids.size() + " notification ids are waiting for " + method);
+        }
+    }
+
+    /**
+     * Writes the given edit without blocking the calling thread. SharedPreferences.Editor.apply() needs API level 9,
+     * so older versions commit on a background thread instead.
+     */
+    private static void apply(final SharedPreferences.Editor edit) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            edit.apply();
+            return;
+        }
+
+        synchronized (PersistentRequestQueue.class) {
+            if (sCommitExecutor == null) {
+                sCommitExecutor = Executors.newSingleThreadExecutor();
+            }
+        }
+        sCommitExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                edit.commit();
+            }
+        });
+    }
+
+    /** Private members **/
+
+    private static final String TAG               = "SOOMLA PersistentRequestQueue";
+    private static final String PREFS_NAME        = "soomla.billing.requests";
+    private static final String SEPARATOR         = "\n";
+    private static final String REPLAYS_SEPARATOR = "\t";
+
+    private static Executor sCommitExecutor;
+
+    private final SharedPreferences                               mPrefs;
+    private final HashMap<String, LinkedHashMap<String, Integer>> mIds =
+            new HashMap<String, LinkedHashMap<String, Integer>>();
+}
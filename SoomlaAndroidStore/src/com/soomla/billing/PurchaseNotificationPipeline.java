@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.billing;
+
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+import com.soomla.store.StoreConfig;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes PURCHASE_STATE_CHANGED notifications off the main thread, in two stages:
+ *
+ * 1. verify: the signature of every notification is verified and its orders are parsed on a pool with one thread
+ *    per core, so the many notifications of a large restore are verified in parallel.
+ * 2. grant: the verified purchases are handed to {@link ResponseHandler#purchaseResponse} on a single worker
+ *    thread, in the order the notifications were received, no matter which verification finished first. The
+ *    {@link PurchaseObserver} applies them to the storage there and only posts the resulting events to the UI thread.
+ *
+ * Once all the purchases of a notification were applied, its notification ids are confirmed back on the main thread
+ * (requests to the MarketBillingService are only sent from the main thread).
+ */
+class PurchaseNotificationPipeline {
+
+    /** Constructor
+     *
+     * @param mainHandler is a handler on the main thread. notifications are confirmed on it.
+     */
+    PurchaseNotificationPipeline(Handler mainHandler) {
+        mMainHandler = mainHandler;
+        mVerifyExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new WorkerThreadFactory("SoomlaBillingVerify"));
+        mGrantExecutor = Executors.newSingleThreadExecutor(new WorkerThreadFactory("SoomlaBillingGrant"));
+    }
+
+    /**
+     * Queues a PURCHASE_STATE_CHANGED notification. This returns immediately.
+     * @param service is the service that received the notification. It confirms the notification.
+     * @param startId is the identifier of the invocation of the service that received the notification.
+     * @param signedData is the signed JSON string.
+     * @param signature is the signature of the signed data.
+     */
+    void submit(final BillingService service, final int startId, final String signedData,
+                final String signature) {
+        final StageListener listener = sStageListener;
+        final StageTimes times = listener != null ? new StageTimes(System.nanoTime()) : null;
+
+        final Future<ArrayList<Security.VerifiedPurchase>> verification = mVerifyExecutor.submit(
+                new Callable<ArrayList<Security.VerifiedPurchase>>() {
+            @Override
+            public ArrayList<Security.VerifiedPurchase> call() {
+                if (times == null) {
+                    return Security.verifyPurchase(signedData, signature);
+                }
+
+                times.verifyStarted = System.nanoTime();
+                ArrayList<Security.VerifiedPurchase> purchases = Security.verifyPurchase(signedData, signature);
+                times.verifyFinished = System.nanoTime();
+                return purchases;
+            }
+        });
+
+        // the grant executor runs one task at a time in the order they were submitted, and every task waits for
+        // its own verification. that's what keeps the grants in the order of the notifications.
+        mGrantExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ArrayList<Security.VerifiedPurchase> purchases = awaitVerification(verification);
+                if (purchases == null) {
+                    if (times != null) {
+                        times.grantStarted = times.grantFinished = System.nanoTime();
+                        listener.onNotificationProcessed(times, false, 0);
+                    }
+                    return;
+                }
+                if (times != null) {
+                    times.grantStarted = System.nanoTime();
+                }
+
+                final ArrayList<String> notifyList = new ArrayList<String>();
+                for (Security.VerifiedPurchase vp : purchases) {
+                    if (vp.notificationId != null) {
+                        notifyList.add(vp.notificationId);
+                    }
+                    ResponseHandler.purchaseResponse(service, vp.purchaseState, vp.productId,
+                            vp.orderId, vp.purchaseTime, vp.developerPayload);
+                }
+
+                if (times != null) {
+                    times.grantFinished = System.nanoTime();
+                    listener.onNotificationProcessed(times, true, purchases.size());
+                }
+
+                if (StoreConfig.debug) {
+                    Log.d(TAG, "applied " + purchases.size() + " purchases");
+                }
+
+                if (!notifyList.isEmpty()) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            service.confirmNotifications(startId,
+                                    notifyList.toArray(new String[notifyList.size()]));
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Receives the stage timings of every notification that goes through the pipeline. This is meant for benchmarks:
+     * nothing is measured while no listener is set.
+     */
+    interface StageListener {
+
+        /**
+         * Called on the grant thread once a notification was handled.
+         * @param times are the times the notification passed each stage.
+         * @param verified is false if the notification failed verification (and nothing was granted).
+         * @param purchases is the number of purchases that were granted.
+         */
+        void onNotificationProcessed(StageTimes times, boolean verified, int purchases);
+    }
+
+    /**
+     * The times (System.nanoTime) a notification passed each stage of the pipeline.
+     */
+    static class StageTimes {
+
+        StageTimes(long submitted) {
+            this.submitted = submitted;
+        }
+
+        final long    submitted;
+        long          verifyStarted;
+        long          verifyFinished;
+        long          grantStarted;
+        long          grantFinished;
+    }
+
+    static void setStageListener(StageListener listener) {
+        sStageListener = listener;
+    }
+
+    /** Private functions **/
+
+    private static ArrayList<Security.VerifiedPurchase> awaitVerification(
+            Future<ArrayList<Security.VerifiedPurchase>> verification) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return verification.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Log.e(TAG, "purchase verification failed", e.getCause());
+            return null;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        public WorkerThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, mName + "-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+        private final String        mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+    }
+
+    /** Private members **/
+
+    private static final String TAG = "SOOMLA PurchaseNotificationPipeline";
+
+    private static volatile StageListener sStageListener;
+
+    private final Handler         mMainHandler;
+    private final ExecutorService mVerifyExecutor;
+    private final ExecutorService mGrantExecutor;
+}
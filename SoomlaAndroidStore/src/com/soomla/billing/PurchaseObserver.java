@@ -23,6 +23,7 @@ import android.app.PendingIntent.CanceledException;
 import android.content.Intent;
 import android.content.IntentSender;
 import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import com.soomla.billing.BillingService.RequestPurchase;
 import com.soomla.billing.BillingService.RestoreTransactions;
@@ -97,6 +98,14 @@ public abstract class PurchaseObserver {
     public abstract void onRestoreTransactionsResponse(RestoreTransactions request,
             ResponseCode responseCode);
 
+    /**
+     * This is called when a request to Android Market didn't get a response code in time (and ran out of retries).
+     * The default implementation does nothing.
+     * @param method the method of the request (for example: "REQUEST_PURCHASE" or "RESTORE_TRANSACTIONS")
+     */
+    public void onRequestTimedOut(String method) {
+    }
+
 
 
     /** -----------------------    PURCHASE INTENT FUNCTIONS    --------------------------- **/
@@ -130,16 +139,46 @@ public abstract class PurchaseObserver {
         }
     }
 
+    /**
+     * Applies a purchase state change to the local storage, before the UI is notified of it. This runs on the
+     * billing worker thread (see {@link PurchaseNotificationPipeline}), one purchase at a time and in the order
+     * the purchases were received, so implementations can write to the storage here without blocking the UI.
+     * The default implementation does nothing.
+     * @param purchaseState the purchase state of the item
+     * @param productId a string identifying the item (the "SKU")
+     * @param orderId a string identifying the order (can be used to detect replayed notifications)
+     * @param purchaseTime the time the product was purchased, in milliseconds since the epoch (Jan 1, 1970)
+     * @return true if {@link #onPurchaseStateChange(Consts.PurchaseState, String, long, String)} should be
+     * posted to the UI thread for this change. false if there's nothing to tell the UI (a replayed order, for
+     * example).
+     */
+    public boolean applyPurchaseStateChange(PurchaseState purchaseState, String productId, String orderId,
+                                            long purchaseTime, String developerPayload) {
+        return true;
+    }
+
     /**
      * Updates the UI after the database has been updated.  This method runs
      * in a background thread so it has to post a Runnable to run on the UI
-     * thread.
+     * thread. The storage is updated first, on the calling thread
+     * (see {@link #applyPurchaseStateChange(Consts.PurchaseState, String, String, long, String)}).
      * @param purchaseState the purchase state of the item
      * @param itemId a string identifying the item
+     * @param orderId a string identifying the order. it is only passed to
+     * {@link #applyPurchaseStateChange(Consts.PurchaseState, String, String, long, String)}.
      */
     public void postPurchaseStateChange(final PurchaseState purchaseState, final String itemId,
-                                 final long purchaseTime, final String developerPayload) {
-        mHandler.post(new Runnable() {
+                                 final String orderId, final long purchaseTime, final String developerPayload) {
+        if (!applyPurchaseStateChange(purchaseState, itemId, orderId, purchaseTime, developerPayload)) {
+            return;
+        }
+
+        Handler handler = mHandler;
+        if (handler == null) {
+            // the store was never opened. the events still go to the UI thread.
+            handler = new Handler(Looper.getMainLooper());
+        }
+        handler.post(new Runnable() {
             @Override
             public void run() {
                 onPurchaseStateChange(
@@ -176,7 +215,7 @@ public abstract class PurchaseObserver {
 
     private static final String TAG = "SOOMLA PurchaseObserver";
     private Activity mActivity;
-    private Handler mHandler;
+    private volatile Handler mHandler;
     private Method mStartIntentSender;
     private Object[] mStartIntentSenderArgs = new Object[5];
 }
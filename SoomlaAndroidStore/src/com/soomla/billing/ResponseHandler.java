@@ -118,7 +118,7 @@ public class ResponseHandler {
         synchronized(ResponseHandler.class) {
             if (sPurchaseObserver != null) {
                 sPurchaseObserver.postPurchaseStateChange(
-                        purchaseState, productId, purchaseTime, developerPayload);
+                        purchaseState, productId, orderId, purchaseTime, developerPayload);
             }
         }
     }
@@ -158,4 +158,15 @@ public class ResponseHandler {
             sPurchaseObserver.onRestoreTransactionsResponse(request, responseCode);
         }
     }
+
+    /**
+     * This is called when a request to Android Market didn't get a response code in time and will not be sent
+     * again.
+     * @param method the method of the request (for example: "REQUEST_PURCHASE")
+     */
+    public static void requestTimedOut(String method) {
+        if (sPurchaseObserver != null) {
+            sPurchaseObserver.onRequestTimedOut(method);
+        }
+    }
 }
@@ -35,7 +35,9 @@ import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Security-related methods. For a secure implementation, all of this code
@@ -54,6 +56,9 @@ public class Security {
 
     private static AESObfuscator mAesObfuscator = null;
 
+    /** The last public key that was generated by {@link #getPublicKey(String)}. */
+    private static volatile CachedPublicKey sCachedPublicKey = null;
+
     /**
      * This keeps track of the nonces that we generated and sent to the
      * server.  We need to keep track of these until we get back the purchase
@@ -62,8 +67,9 @@ public class Security {
      * send us a new "notify" message and we will re-generate a new nonce.
      * This has to be "static" so that the {@link BillingReceiver} can
      * check if a nonce exists.
+     * Nonces are generated on the main thread and checked on the billing worker threads, so the set is synchronized.
      */
-    private static HashSet<Long> sKnownNonces = new HashSet<Long>();
+    private static Set<Long> sKnownNonces = Collections.synchronizedSet(new HashSet<Long>());
 
     /**
      * A class to hold the verified purchase information.
@@ -129,7 +135,7 @@ public class Security {
                 Log.w(TAG, "Empty signature. Stopping verification.");
                 return null;
             }
-            PublicKey key = Security.generatePublicKey(StoreConfig.publicKey);
+            PublicKey key = getPublicKey(StoreConfig.publicKey);
             verified = Security.verify(key, signedData, signature);
             if (!verified) {
                 Log.w(TAG, "signature does not match data.");
@@ -214,6 +220,30 @@ public class Security {
         }
     }
 
+    /**
+     * Fetch the PublicKey of the given Base64-encoded public key. The last generated key is reused, so verifying a
+     * batch of notifications decodes the key once.
+     */
+    private static PublicKey getPublicKey(String encodedPublicKey) {
+        CachedPublicKey cached = sCachedPublicKey;
+        if (cached == null || !cached.mEncodedPublicKey.equals(encodedPublicKey)) {
+            cached = new CachedPublicKey(encodedPublicKey, generatePublicKey(encodedPublicKey));
+            sCachedPublicKey = cached;
+        }
+        return cached.mPublicKey;
+    }
+
+    private static class CachedPublicKey {
+
+        public CachedPublicKey(String encodedPublicKey, PublicKey publicKey) {
+            mEncodedPublicKey = encodedPublicKey;
+            mPublicKey = publicKey;
+        }
+
+        private final String    mEncodedPublicKey;
+        private final PublicKey mPublicKey;
+    }
+
     /**
      * Verifies that the signature from the server matches the computed
      * signature on the data.  Returns true if the data is correctly signed.
@@ -111,6 +111,51 @@ public class AESObfuscator {
         }
     }
 
+    public byte[] obfuscateBytes(byte[] original) {
+        if (original == null) {
+            return null;
+        }
+        try {
+            // Header is prepended as an integrity check, just like in obfuscateString.
+            byte[] headerBytes = header.getBytes(UTF8);
+            byte[] plain = new byte[headerBytes.length + original.length];
+            System.arraycopy(headerBytes, 0, plain, 0, headerBytes.length);
+            System.arraycopy(original, 0, plain, headerBytes.length, original.length);
+            return mEncryptor.doFinal(plain);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Invalid environment", e);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Invalid environment", e);
+        }
+    }
+
+    public byte[] unobfuscateToBytes(byte[] obfuscated) throws ValidationException {
+        if (obfuscated == null || obfuscated.length == 0) {
+            return null;
+        }
+        try {
+            byte[] result = mDecryptor.doFinal(obfuscated);
+            byte[] headerBytes = header.getBytes(UTF8);
+            if (result.length < headerBytes.length) {
+                throw new ValidationException("Header not found (invalid data or key)");
+            }
+            for (int i = 0; i < headerBytes.length; i++) {
+                if (result[i] != headerBytes[i]) {
+                    throw new ValidationException("Header not found (invalid data or key)");
+                }
+            }
+            byte[] original = new byte[result.length - headerBytes.length];
+            System.arraycopy(result, headerBytes.length, original, 0, original.length);
+            return original;
+        } catch (IllegalBlockSizeException e) {
+            throw new ValidationException(e.getMessage());
+        } catch (BadPaddingException e) {
+            throw new ValidationException(e.getMessage());
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Invalid environment", e);
+        }
+    }
+
     /**
      * Indicates that an error occurred while validating the integrity of data managed by an
      * {@link AESObfuscator}.}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * An asynchronous {@link StoreController} operation. The storage work runs on the store's worker thread and the
+ * result is delivered on the callback executor: first the store events (see {@link #onSucceeded(Object)}), then
+ * the {@link IStoreCallback}.
+ * @param <T> is the type of the result of the operation.
+ */
+abstract class AsyncStoreTask<T> implements Callable<T> {
+
+    /** Constructor
+     *
+     * @param callback is notified when the operation completes. May be null.
+     * @param callbackExecutor is the executor the events and the callback are delivered on.
+     */
+    AsyncStoreTask(IStoreCallback<T> callback, Executor callbackExecutor) {
+        mCallback = callback;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Does the storage work of the operation. This runs on the store's worker thread.
+     * @return the result of the operation.
+     * @throws Exception if the operation failed. Nothing may be changed in that case.
+     */
+    protected abstract T doInBackground() throws Exception;
+
+    /**
+     * Fires the store events of a successful operation. This runs on the callback executor, right before
+     * {@link IStoreCallback#onSuccess(Object)}.
+     * @param result is the result of the operation.
+     */
+    protected void onSucceeded(T result) {
+    }
+
+    /**
+     * docs in {@link Callable#call()}.
+     */
+    @Override
+    public final T call() throws Exception {
+        final T result;
+        try {
+            result = doInBackground();
+        } catch (final Exception e) {
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCallback != null) {
+                        mCallback.onFailure(e);
+                    }
+                }
+            });
+            throw e;
+        }
+
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                onSucceeded(result);
+                if (mCallback != null) {
+                    mCallback.onSuccess(result);
+                }
+            }
+        });
+        return result;
+    }
+
+    /** Private members **/
+
+    private final IStoreCallback<T> mCallback;
+    private final Executor          mCallbackExecutor;
+}
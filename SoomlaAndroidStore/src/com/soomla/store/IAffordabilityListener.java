@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store;
+
+import com.soomla.store.domain.data.VirtualGood;
+
+/**
+ * This interface represents a listener to changes in the affordability of virtual goods.
+ * If you want, you can implement your own using this interface and add it to
+ * {@link com.soomla.store.data.AffordabilityIndex} using
+ * 'StorageManager.getInstance().getAffordabilityIndex().addListener([your listener here]);'
+ * The listener is called after the change is committed, on the main thread or on the executor it was added with.
+ */
+public interface IAffordabilityListener {
+
+    /**
+     * The user just became able, or unable, to afford the given virtual good.
+     * @param good is the virtual good whose affordability changed.
+     * @param goodOrdinal is the ordinal of the virtual good in the current catalog.
+     * @param affordable is true if the user can now afford the virtual good.
+     */
+    void onAffordabilityChanged(VirtualGood good, int goodOrdinal, boolean affordable);
+}
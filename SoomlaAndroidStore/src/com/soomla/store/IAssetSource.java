@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This interface represents the place the assets referenced by the storefront JSON (images, for example) are
+ * fetched from when they're not in the {@link com.soomla.store.data.StoreAssetCache} yet.
+ * There's no default source. Set one (for example a {@link com.soomla.store.data.UrlAssetSource} with the base URL of
+ * your assets, or your own) using 'StoreAssetCache.getInstance().setSource([your source here]);'
+ */
+public interface IAssetSource {
+
+    /**
+     * Opens the asset with the given reference. This is always called on a background thread.
+     * @param reference is the reference of the asset, as it appears in the storefront JSON.
+     * @return a stream of the asset's bytes. The caller closes it.
+     * @throws IOException if the asset can't be fetched.
+     */
+    InputStream open(String reference) throws IOException;
+}
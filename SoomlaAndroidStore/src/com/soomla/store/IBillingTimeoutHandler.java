@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store;
+
+/**
+ * This interface represents an optional addition to {@link IStoreEventHandler}.
+ * If your event handler also implements this interface, it is told when a billing request is given up because Google
+ * Play didn't answer it in time (see {@link StoreConfig#BILLING_REQUEST_TIMEOUT_MILLIS}).
+ */
+public interface IBillingTimeoutHandler {
+
+    /**
+     * A billing request didn't get a response from Google Play in time and was given up.
+     * @param method is the method of the request (for example: "REQUEST_PURCHASE").
+     */
+    void onBillingRequestTimedOut(String method);
+}
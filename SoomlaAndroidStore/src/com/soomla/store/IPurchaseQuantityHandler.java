@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store;
+
+import com.soomla.store.domain.data.VirtualGood;
+
+/**
+ * This interface represents an optional addition to {@link IStoreEventHandler}.
+ * If your event handler also implements this interface, it is told how many units of a virtual good were purchased
+ * at once. It is called right after {@link IStoreEventHandler#onVirtualGoodPurchased(VirtualGood)}, which is still
+ * called once per purchase.
+ */
+public interface IPurchaseQuantityHandler {
+
+    /**
+     * A virtual good was just purchased.
+     * @param good is the virtual good that was just purchased.
+     * @param quantity is the number of units that were purchased at once.
+     */
+    void onVirtualGoodPurchased(VirtualGood good, int quantity);
+}
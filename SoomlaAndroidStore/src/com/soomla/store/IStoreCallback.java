@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store;
+
+/**
+ * This interface represents the completion callback of an asynchronous {@link StoreController} operation
+ * (for example: {@link StoreController#buyVirtualGoodAsync(String, int, IStoreCallback, java.util.concurrent.Executor)}).
+ * Exactly one of its functions is called, on the executor that was given with the operation.
+ * @param <T> is the type of the result of the operation.
+ */
+public interface IStoreCallback<T> {
+
+    /**
+     * The operation completed. The matching store event was already fired.
+     * @param result is the result of the operation.
+     */
+    void onSuccess(T result);
+
+    /**
+     * The operation failed and nothing was changed.
+     * @param e is the reason (for example: {@link com.soomla.store.exceptions.InsufficientFundsException}).
+     */
+    void onFailure(Exception e);
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store;
+
+import com.soomla.store.data.StoreInfo;
+import com.soomla.store.domain.data.VirtualGood;
+import com.soomla.store.exceptions.VirtualItemNotFoundException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A list of virtual goods and the quantities the user wants to buy of each of them, purchased all at once with
+ * {@link StoreController#checkout(ShoppingCart)}.
+ * Adding a virtual good that's already in the cart adds to its quantity. Virtual goods keep the order they were
+ * first added in.
+ */
+public class ShoppingCart {
+
+    /**
+     * Adds one unit of the virtual good with the given item id.
+     * @param itemId is the item id of the virtual good.
+     * @throws VirtualItemNotFoundException
+     */
+    public void add(String itemId) throws VirtualItemNotFoundException {
+        add(itemId, 1);
+    }
+
+    /**
+     * Adds the given quantity of the virtual good with the given item id.
+     * @param itemId is the item id of the virtual good.
+     * @param quantity is the number of units to add.
+     * @throws VirtualItemNotFoundException
+     */
+    public void add(String itemId, int quantity) throws VirtualItemNotFoundException {
+        add(StoreInfo.getInstance().getVirtualGoodByItemId(itemId), quantity);
+    }
+
+    /**
+     * Adds the given quantity of the given virtual good.
+     * @param good is the virtual good.
+     * @param quantity is the number of units to add.
+     */
+    public void add(VirtualGood good, int quantity) {
+        if (quantity <= 0){
+            throw new IllegalArgumentException("quantity must be positive: " + quantity);
+        }
+
+        Integer current = mQuantities.get(good);
+        long total = (long) quantity + (current != null ? current : 0);
+        if (total > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("quantity is too large: " + total);
+        }
+        mQuantities.put(good, (int) total);
+    }
+
+    /**
+     * Removes the given virtual good from the cart.
+     * @param good is the virtual good to remove.
+     */
+    public void remove(VirtualGood good) {
+        mQuantities.remove(good);
+    }
+
+    public void clear() {
+        mQuantities.clear();
+    }
+
+    /**
+     * @param good is a virtual good.
+     * @return the quantity of the given virtual good in the cart, or 0 if it's not in the cart.
+     */
+    public int getQuantity(VirtualGood good) {
+        Integer quantity = mQuantities.get(good);
+        return quantity != null ? quantity : 0;
+    }
+
+    /**
+     * @return the virtual goods in the cart, in the order they were first added.
+     */
+    public List<VirtualGood> getVirtualGoods() {
+        return new ArrayList<VirtualGood>(mQuantities.keySet());
+    }
+
+    public int size() {
+        return mQuantities.size();
+    }
+
+    public boolean isEmpty() {
+        return mQuantities.isEmpty();
+    }
+
+    /** Private members **/
+
+    private LinkedHashMap<VirtualGood, Integer> mQuantities = new LinkedHashMap<VirtualGood, Integer>();
+}
@@ -37,13 +37,25 @@ public class StoreConfig {
     public static String customSecret = "ChangeMe!!!";
 
     /*
-    if the value of this variable is true, metadata (or more specifically your IStoreAssets) that was previously
-    saved in the local DB will be deleted every time you start the application.
+    if the value of this variable is true, metadata (or more specifically your IStoreAssets) is always taken from
+    your implementation of IStoreAssets and not from the local DB. the metadata in the local DB is only rewritten when
+    the content of your IStoreAssets actually changed (it's compared by a hash that's saved next to it).
 
-    another way to delete just the METADATA table is to upgrade the database version.
+    if it's false, metadata that was previously saved in the local DB wins. another way to replace just the METADATA
+    table is to upgrade the database version.
      */
     public static final boolean DB_VOLATILE_METADATA = true;
 
+    /*
+    if this is true, virtual goods that are loaded from the local DB are only created when they're first accessed.
+    startup time and memory then depend on the number of virtual goods you actually use and not on the size of your
+    catalog. use StoreInfo.getVirtualGoods(offset, count) to page through the virtual goods in list UIs.
+
+    NOTE: when DB_VOLATILE_METADATA is true your IStoreAssets are used as is, so this only applies when StoreInfo is
+        loaded from the local DB.
+     */
+    public static final boolean LAZY_CATALOG = false;
+
     /*
     if this is true than the database will be deleted whenever the application loads.
     don't release your game with this option set to true !!!!!!!!!!!!
@@ -65,4 +77,64 @@ public class StoreConfig {
      */
     public static final boolean DB_SECURE = true;
 
+    /*
+    the maximum size (in bytes) of the storefront assets (images) that are kept in the application's cache directory.
+    the least recently used assets are deleted first (see StoreAssetCache).
+     */
+    public static final long ASSET_CACHE_DISK_SIZE = 20 * 1024 * 1024;
+
+    /*
+    the maximum size (in bytes) of the decoded storefront assets that are kept in memory.
+     */
+    public static final int ASSET_CACHE_MEMORY_SIZE = 4 * 1024 * 1024;
+
+    /*
+    if this is true, the assets referenced by the storefront sections you set with
+    StoreAssetCache.getInstance().setPrefetchSections(...) are downloaded to the asset cache in the background when the
+    store opens. you also need to set the source of the assets (for example a UrlAssetSource with the base URL of your
+    assets) with StoreAssetCache.getInstance().setSource(...).
+     */
+    public static final boolean ASSET_PREFETCH = false;
+
+    /*
+    the time (in milliseconds) the connection to Google Play's billing service is kept after the store was closed and
+    no other request is using it. opening the store again within this time doesn't bind to the billing service again.
+     */
+    public static final long BILLING_IDLE_TIMEOUT_MILLIS = 60 * 1000;
+
+    /*
+    the time (in milliseconds) a billing request may wait for the connection to Google Play's billing service and then
+    for its response code. requests that pass it are sent again (up to BILLING_MAX_RETRIES times) or fail with
+    IBillingTimeoutHandler.onBillingRequestTimedOut.
+    purchase requests get BILLING_PURCHASE_TIMEOUT_MILLIS, as their response code only arrives after the user is done
+    with the buy page. they are never sent again automatically.
+     */
+    public static final long BILLING_REQUEST_TIMEOUT_MILLIS  = 2 * 60 * 1000;
+    public static final long BILLING_PURCHASE_TIMEOUT_MILLIS = 15 * 60 * 1000;
+
+    /*
+    how often (in milliseconds) the billing requests that are waiting are checked for timeouts.
+     */
+    public static final long BILLING_SWEEP_INTERVAL_MILLIS = 30 * 1000;
+
+    /*
+    the number of times a billing request is sent again after the billing service crashed or the request timed out.
+     */
+    public static final int BILLING_MAX_RETRIES = 5;
+
+    /*
+    the number of times the notification ids that Google Play didn't accept yet are sent again when the connection to
+    the billing service is made again (after the application was restarted, for example). ids are dropped after that,
+    so an id that keeps failing isn't sent forever. purchases whose ids were dropped come back with
+    RESTORE_TRANSACTIONS.
+     */
+    public static final int BILLING_MAX_REPLAYS = 3;
+
+    /*
+    retries and reconnections to the billing service wait for an exponential backoff: it starts at
+    BILLING_BACKOFF_BASE_MILLIS, doubles with every attempt up to BILLING_BACKOFF_MAX_MILLIS, and half of it is random.
+     */
+    public static final long BILLING_BACKOFF_BASE_MILLIS = 1000;
+    public static final long BILLING_BACKOFF_MAX_MILLIS  = 5 * 60 * 1000;
+
 }
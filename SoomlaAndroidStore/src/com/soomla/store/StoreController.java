@@ -19,12 +19,15 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import com.soomla.billing.BillingConnectionManager;
 import com.soomla.billing.BillingService;
 import com.soomla.billing.Consts;
 import com.soomla.billing.PurchaseObserver;
 import com.soomla.billing.ResponseHandler;
 import com.soomla.store.data.StorageManager;
+import com.soomla.store.data.StoreAssetCache;
 import com.soomla.store.data.StoreInfo;
 import com.soomla.store.domain.data.GoogleMarketItem;
 import com.soomla.store.domain.data.VirtualCurrency;
@@ -36,9 +39,14 @@ import com.soomla.store.exceptions.VirtualItemNotFoundException;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * This class is where all the important stuff happens. You can use it to purchase products from Google Play,
@@ -85,12 +93,13 @@ public class StoreController extends PurchaseObserver {
 
         StorageManager.getInstance().initialize(context);
         StoreInfo.getInstance().initialize(storeAssets);
+        StoreAssetCache.getInstance().initialize(context);
 
         ResponseHandler.register(this);
 
-        if (startBillingService(context)) {
-            tryRestoreTransactions();
-        }
+        BillingConnectionManager.getInstance().acquire(context, true);
+        tryRestoreTransactions();
+        BillingConnectionManager.getInstance().release();
     }
 
     /**
@@ -100,9 +109,7 @@ public class StoreController extends PurchaseObserver {
     public void buyCurrencyPack(String productId) throws VirtualItemNotFoundException{
         try {
             StoreEventHandlers.getInstance().onMarketPurchaseProcessStarted(StoreInfo.getInstance().getPackByGoogleProductId(productId).getmGoogleItem());
-            if (!mBillingService.requestPurchase(productId, Consts.ITEM_TYPE_INAPP, "")){
-                StoreEventHandlers.getInstance().onUnexpectedErrorInStore();
-            }
+            requestPurchase(productId);
         } catch (VirtualItemNotFoundException e) {
             Log.e(TAG, "The currency pack associated with the given productId must be defined in your IStoreAssets " +
                     "(and thus must exist in StoreInfo. (productId: " + productId + "). Unexpected error is emitted.");
@@ -117,46 +124,62 @@ public class StoreController extends PurchaseObserver {
      * @throws VirtualItemNotFoundException
      */
     public void buyVirtualGood(String itemId) throws InsufficientFundsException, VirtualItemNotFoundException{
+        buyVirtualGood(itemId, 1);
+    }
+
+    /**
+     * Start a purchase process of the given quantity of a virtual good.
+     * The total price of all units (see {@link com.soomla.store.domain.data.AbstractPriceModel#getTotalPrice(VirtualGood, int)})
+     * is validated once, and the goods and currencies are updated in a single database transaction, so either all
+     * units are purchased or none.
+     * @param itemId is the item id of the required virtual good.
+     * @param quantity is the number of units to purchase.
+     * @throws InsufficientFundsException
+     * @throws VirtualItemNotFoundException
+     */
+    public void buyVirtualGood(String itemId, final int quantity) throws InsufficientFundsException,
+            VirtualItemNotFoundException{
+        if (quantity <= 0){
+            throw new IllegalArgumentException("quantity must be positive: " + quantity);
+        }
+
         StoreEventHandlers.getInstance().onGoodsPurchaseProcessStarted();
         VirtualGood good = StoreInfo.getInstance().getVirtualGoodByItemId(itemId);
 
-        // fetching currencies and amounts that the user needs in order to purchase the current
-        // {@link VirtualGood}.
-        HashMap<String, Integer> currencyValues = good.getCurrencyValues();
-
-        // preparing list of {@link VirtualCurrency} objects.
-        List<VirtualCurrency> virtualCurrencies = new ArrayList<VirtualCurrency>();
-        for (String currencyItemId : currencyValues.keySet()){
-            virtualCurrencies.add(StoreInfo.getInstance().getVirtualCurrencyByItemId(currencyItemId));
-        }
-
-        // checking if the user has enough of each of the virtual currencies in order to purchase this virtual
-        // good.
-        VirtualCurrency needMore = null;
-        for (VirtualCurrency virtualCurrency : virtualCurrencies){
-            int currencyBalance = StorageManager.getInstance().getVirtualCurrencyStorage().getBalance
-                    (virtualCurrency);
-            int currencyBalanceNeeded = currencyValues.get(virtualCurrency.getItemId());
-            if (currencyBalance < currencyBalanceNeeded){
-                needMore = virtualCurrency;
-                break;
-            }
+        LinkedHashMap<VirtualGood, Integer> quantities = new LinkedHashMap<VirtualGood, Integer>();
+        quantities.put(good, quantity);
+        purchaseVirtualGoods(quantities);
+
+        StoreEventHandlers.getInstance().onVirtualGoodPurchased(good, quantity);
+    }
+
+    /**
+     * Purchase all the virtual goods in the given cart at once.
+     * The total prices of all virtual goods are summed per currency and validated once, and all goods and currencies
+     * are updated in a single database transaction, so either the whole cart is purchased or nothing is.
+     * {@link StoreEventHandlers#onVirtualGoodPurchased(VirtualGood, int)} is fired for every virtual good in the cart,
+     * followed by {@link StoreEventHandlers#onShoppingCartPurchased(ShoppingCart)}.
+     * @param cart is the cart to purchase. It's not cleared.
+     * @throws InsufficientFundsException if the user doesn't have enough of one of the currencies for the whole cart.
+     * @throws VirtualItemNotFoundException if a price uses a currency that's not in the store.
+     */
+    public void checkout(ShoppingCart cart) throws InsufficientFundsException, VirtualItemNotFoundException{
+        if (cart.isEmpty()){
+            throw new IllegalArgumentException("the shopping cart is empty");
         }
 
-        // if the user has enough, the virtual good is purchased.
-        if (needMore == null){
-            StorageManager.getInstance().getVirtualGoodsStorage().add(good, 1);
-            for (VirtualCurrency virtualCurrency : virtualCurrencies){
-                int currencyBalanceNeeded = currencyValues.get(virtualCurrency.getItemId());
-                StorageManager.getInstance().getVirtualCurrencyStorage().remove(virtualCurrency,
-                        currencyBalanceNeeded);
-            }
+        StoreEventHandlers.getInstance().onGoodsPurchaseProcessStarted();
 
-            StoreEventHandlers.getInstance().onVirtualGoodPurchased(good);
+        LinkedHashMap<VirtualGood, Integer> quantities = new LinkedHashMap<VirtualGood, Integer>();
+        for (VirtualGood good : cart.getVirtualGoods()){
+            quantities.put(good, cart.getQuantity(good));
         }
-        else {
-            throw new InsufficientFundsException(needMore.getItemId());
+        purchaseVirtualGoods(quantities);
+
+        for (Map.Entry<VirtualGood, Integer> entry : quantities.entrySet()){
+            StoreEventHandlers.getInstance().onVirtualGoodPurchased(entry.getKey(), entry.getValue());
         }
+        StoreEventHandlers.getInstance().onShoppingCartPurchased(cart);
     }
 
     /**
@@ -168,9 +191,7 @@ public class StoreController extends PurchaseObserver {
             GoogleMarketItem googleMarketItem = StoreInfo.getInstance().getGoogleManagedItemByProductId(productId);
 
             StoreEventHandlers.getInstance().onMarketPurchaseProcessStarted(googleMarketItem);
-            if (!mBillingService.requestPurchase(productId, Consts.ITEM_TYPE_INAPP, "")){
-                StoreEventHandlers.getInstance().onUnexpectedErrorInStore();
-            }
+            requestPurchase(productId);
         } catch (VirtualItemNotFoundException e) {
             Log.e(TAG, "The google market (MANAGED) item associated with the given productId must be defined in your IStoreAssets " +
                     "and thus must exist in StoreInfo. (productId: " + productId + "). Unexpected error is emitted. can't continue purchase !");
@@ -180,22 +201,22 @@ public class StoreController extends PurchaseObserver {
 
     /**
      * Make a VirtualGood equipped by the user.
+     * If the equip slots of its category are all taken (see
+     * {@link com.soomla.store.domain.data.VirtualCategory#getEquipSlots()}), the virtual goods of the category that
+     * were equipped first are unequipped, in the same database transaction, and
+     * {@link StoreEventHandlers#onVirtualGoodUnequipped(VirtualGood)} is fired for each of them.
      * @param itemId is the item id of the required virtual good.
      * @throws NotEnoughGoodsException
      * @throws VirtualItemNotFoundException
      */
     public void equipVirtualGood(String itemId) throws NotEnoughGoodsException, VirtualItemNotFoundException{
-        VirtualGood good = StoreInfo.getInstance().getVirtualGoodByItemId(itemId);
-
-        // if the user has enough, the virtual good is purchased.
-        if (StorageManager.getInstance().getVirtualGoodsStorage().getBalance(good) > 0){
-            StorageManager.getInstance().getVirtualGoodsStorage().equip(good, true);
+        List<VirtualGood> unequipped = new ArrayList<VirtualGood>();
+        VirtualGood good = equip(itemId, unequipped);
 
-            StoreEventHandlers.getInstance().onVirtualGoodEquipped(good);
-        }
-        else {
-            throw new NotEnoughGoodsException(itemId);
+        for (VirtualGood unequippedGood : unequipped){
+            StoreEventHandlers.getInstance().onVirtualGoodUnequipped(unequippedGood);
         }
+        StoreEventHandlers.getInstance().onVirtualGoodEquipped(good);
     }
 
     /**
@@ -204,13 +225,167 @@ public class StoreController extends PurchaseObserver {
      * @throws VirtualItemNotFoundException
      */
     public void unequipVirtualGood(String itemId) throws VirtualItemNotFoundException{
-        VirtualGood good = StoreInfo.getInstance().getVirtualGoodByItemId(itemId);
-
-        StorageManager.getInstance().getVirtualGoodsStorage().equip(good, false);
+        VirtualGood good = unequip(itemId);
 
         StoreEventHandlers.getInstance().onVirtualGoodUnequipped(good);
     }
 
+    /** Asynchronous operations **/
+
+    /**
+     * Start a purchase process of the given quantity of a virtual good, without blocking the calling thread.
+     * The purchase runs on the store's worker thread (see {@link #buyVirtualGood(String, int)}). The result, and the
+     * {@link StoreEventHandlers#onVirtualGoodPurchased(VirtualGood, int)} event, are delivered on the given executor.
+     * @param itemId is the item id of the required virtual good.
+     * @param quantity is the number of units to purchase.
+     * @param callback is notified when the purchase completes or fails. May be null.
+     * @param callbackExecutor is the executor the event and the callback are delivered on.
+     * @return a future of the purchased virtual good.
+     */
+    public Future<VirtualGood> buyVirtualGoodAsync(final String itemId, final int quantity,
+                                                   IStoreCallback<VirtualGood> callback, Executor callbackExecutor){
+        if (quantity <= 0){
+            throw new IllegalArgumentException("quantity must be positive: " + quantity);
+        }
+
+        StoreEventHandlers.getInstance().onGoodsPurchaseProcessStarted();
+        return submit(new AsyncStoreTask<VirtualGood>(callback, callbackExecutor) {
+            @Override
+            protected VirtualGood doInBackground() throws Exception {
+                VirtualGood good = StoreInfo.getInstance().getVirtualGoodByItemId(itemId);
+
+                LinkedHashMap<VirtualGood, Integer> quantities = new LinkedHashMap<VirtualGood, Integer>();
+                quantities.put(good, quantity);
+                purchaseVirtualGoods(quantities);
+                return good;
+            }
+
+            @Override
+            protected void onSucceeded(VirtualGood good) {
+                StoreEventHandlers.getInstance().onVirtualGoodPurchased(good, quantity);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #buyVirtualGoodAsync(String, int, IStoreCallback, Executor)} with a quantity of one. The event
+     * and the callback are delivered on the main thread.
+     */
+    public Future<VirtualGood> buyVirtualGoodAsync(String itemId, IStoreCallback<VirtualGood> callback){
+        return buyVirtualGoodAsync(itemId, 1, callback, getMainThreadExecutor());
+    }
+
+    /**
+     * Purchase all the virtual goods in the given cart at once, without blocking the calling thread.
+     * The purchase runs on the store's worker thread (see {@link #checkout(ShoppingCart)}). The result and the
+     * events are delivered on the given executor.
+     * NOTE: the cart is copied when this is called, so it can be changed right after.
+     * @param cart is the cart to purchase.
+     * @param callback is notified when the purchase completes or fails. May be null.
+     * @param callbackExecutor is the executor the events and the callback are delivered on.
+     * @return a future of the purchased cart (the copy).
+     */
+    public Future<ShoppingCart> checkoutAsync(ShoppingCart cart, IStoreCallback<ShoppingCart> callback,
+                                              Executor callbackExecutor){
+        if (cart.isEmpty()){
+            throw new IllegalArgumentException("the shopping cart is empty");
+        }
+
+        final ShoppingCart copy = new ShoppingCart();
+        final LinkedHashMap<VirtualGood, Integer> quantities = new LinkedHashMap<VirtualGood, Integer>();
+        for (VirtualGood good : cart.getVirtualGoods()){
+            copy.add(good, cart.getQuantity(good));
+            quantities.put(good, cart.getQuantity(good));
+        }
+
+        StoreEventHandlers.getInstance().onGoodsPurchaseProcessStarted();
+        return submit(new AsyncStoreTask<ShoppingCart>(callback, callbackExecutor) {
+            @Override
+            protected ShoppingCart doInBackground() throws Exception {
+                purchaseVirtualGoods(quantities);
+                return copy;
+            }
+
+            @Override
+            protected void onSucceeded(ShoppingCart cart) {
+                for (Map.Entry<VirtualGood, Integer> entry : quantities.entrySet()){
+                    StoreEventHandlers.getInstance().onVirtualGoodPurchased(entry.getKey(), entry.getValue());
+                }
+                StoreEventHandlers.getInstance().onShoppingCartPurchased(cart);
+            }
+        });
+    }
+
+    /**
+     * Make a VirtualGood equipped by the user, without blocking the calling thread.
+     * See {@link #equipVirtualGood(String)}.
+     * @param itemId is the item id of the required virtual good.
+     * @param callback is notified when the virtual good is equipped or it can't be. May be null.
+     * @param callbackExecutor is the executor the event and the callback are delivered on.
+     * @return a future of the equipped virtual good.
+     */
+    public Future<VirtualGood> equipVirtualGoodAsync(final String itemId, IStoreCallback<VirtualGood> callback,
+                                                     Executor callbackExecutor){
+        return submit(new AsyncStoreTask<VirtualGood>(callback, callbackExecutor) {
+            @Override
+            protected VirtualGood doInBackground() throws Exception {
+                return equip(itemId, mUnequipped);
+            }
+
+            @Override
+            protected void onSucceeded(VirtualGood good) {
+                for (VirtualGood unequippedGood : mUnequipped){
+                    StoreEventHandlers.getInstance().onVirtualGoodUnequipped(unequippedGood);
+                }
+                StoreEventHandlers.getInstance().onVirtualGoodEquipped(good);
+            }
+
+            private final List<VirtualGood> mUnequipped = new ArrayList<VirtualGood>();
+        });
+    }
+
+    /**
+     * Make a VirtualGood unequipped by the user, without blocking the calling thread.
+     * See {@link #unequipVirtualGood(String)}.
+     * @param itemId is the item id of the required virtual good.
+     * @param callback is notified when the virtual good is unequipped or it can't be. May be null.
+     * @param callbackExecutor is the executor the event and the callback are delivered on.
+     * @return a future of the unequipped virtual good.
+     */
+    public Future<VirtualGood> unequipVirtualGoodAsync(final String itemId, IStoreCallback<VirtualGood> callback,
+                                                       Executor callbackExecutor){
+        return submit(new AsyncStoreTask<VirtualGood>(callback, callbackExecutor) {
+            @Override
+            protected VirtualGood doInBackground() throws Exception {
+                return unequip(itemId);
+            }
+
+            @Override
+            protected void onSucceeded(VirtualGood good) {
+                StoreEventHandlers.getInstance().onVirtualGoodUnequipped(good);
+            }
+        });
+    }
+
+    /**
+     * @return an executor that runs tasks on the main thread. Use it to get the results of the asynchronous
+     * operations on the UI thread.
+     */
+    public Executor getMainThreadExecutor(){
+        synchronized (this) {
+            if (mMainThreadExecutor == null) {
+                final Handler handler = new Handler(Looper.getMainLooper());
+                mMainThreadExecutor = new Executor() {
+                    @Override
+                    public void execute(Runnable runnable) {
+                        handler.post(runnable);
+                    }
+                };
+            }
+            return mMainThreadExecutor;
+        }
+    }
+
     /**
      * Call this function when you open the actual store window
      * @param activity is the activity being opened (or the activity that contains the store)/
@@ -234,7 +409,12 @@ public class StoreController extends PurchaseObserver {
         StoreInfo.getInstance().initializeFromDB();
 
         /* Billing */
-        startBillingService(activity.getApplicationContext());
+        BillingConnectionManager.getInstance().acquire(activity.getApplicationContext(), true);
+
+        /* Storefront assets */
+        if (StoreConfig.ASSET_PREFETCH) {
+            StoreAssetCache.getInstance().prefetch();
+        }
 
         StoreEventHandlers.getInstance().onOpeningStore();
     }
@@ -247,7 +427,7 @@ public class StoreController extends PurchaseObserver {
 
         StoreEventHandlers.getInstance().onClosingStore();
 
-        stopBillingService();
+        BillingConnectionManager.getInstance().release();
 //        ResponseHandler.unregister(this);
     }
 
@@ -284,20 +464,35 @@ public class StoreController extends PurchaseObserver {
     }
 
     /**
-     * docs in {@link PurchaseObserver#onPurchaseStateChange(com.soomla.billing.Consts.PurchaseState, String, long, String)}.
+     * docs in {@link PurchaseObserver#applyPurchaseStateChange(com.soomla.billing.Consts.PurchaseState, String, String, long, String)}.
+     * This runs on the billing worker thread. The events are fired later, on the UI thread, by
+     * {@link #onPurchaseStateChange(com.soomla.billing.Consts.PurchaseState, String, long, String)}.
      */
     @Override
-    public void onPurchaseStateChange(Consts.PurchaseState purchaseState, String productId, long purchaseTime, String developerPayload) {
-        GoogleMarketItem googleMarketItem = null;
+    public boolean applyPurchaseStateChange(Consts.PurchaseState purchaseState, String productId,
+                                            final String orderId, long purchaseTime, String developerPayload) {
+        // Market may deliver the same notification more than once. An order that was already granted is ignored.
+        if (purchaseState == Consts.PurchaseState.PURCHASED &&
+                StorageManager.getInstance().getProcessedOrdersStorage().isProcessed(orderId)) {
+            if (StoreConfig.debug){
+                Log.d(TAG, "order " + orderId + " was already processed. ignoring.");
+            }
+            return false;
+        }
+
         try {
 
-            VirtualCurrencyPack pack = StoreInfo.getInstance().getPackByGoogleProductId(productId);
-            googleMarketItem = pack.getmGoogleItem();
+            final VirtualCurrencyPack pack = StoreInfo.getInstance().getPackByGoogleProductId(productId);
 
             // updating the currency balance
             if (purchaseState == Consts.PurchaseState.PURCHASED) {
-                StorageManager.getInstance().getVirtualCurrencyStorage().add(
-                        pack.getVirtualCurrency(), pack.getCurrencyAmount());
+                grantOrder(orderId, new Runnable() {
+                    @Override
+                    public void run() {
+                        StorageManager.getInstance().getVirtualCurrencyStorage().add(
+                                pack.getVirtualCurrency(), pack.getCurrencyAmount());
+                    }
+                });
             }
 
             if (purchaseState == Consts.PurchaseState.REFUNDED){
@@ -308,11 +503,16 @@ public class StoreController extends PurchaseObserver {
         } catch (VirtualItemNotFoundException e) {
 
             try {
-                googleMarketItem = StoreInfo.getInstance().getGoogleManagedItemByProductId(productId);
+                final GoogleMarketItem managedItem = StoreInfo.getInstance().getGoogleManagedItemByProductId(productId);
 
                 // updating the MANAGED item
                 if (purchaseState == Consts.PurchaseState.PURCHASED) {
-                    StorageManager.getInstance().getGoogleManagedItemsStorage().add(googleMarketItem);
+                    grantOrder(orderId, new Runnable() {
+                        @Override
+                        public void run() {
+                            StorageManager.getInstance().getGoogleManagedItemsStorage().add(managedItem);
+                        }
+                    });
                 }
 
                 if (purchaseState == Consts.PurchaseState.REFUNDED){
@@ -320,18 +520,38 @@ public class StoreController extends PurchaseObserver {
                     // A friendly refund policy is nice for the user.
                 }
 
+            } catch (VirtualItemNotFoundException e1) {
+                // the unexpected error is emitted on the UI thread by onPurchaseStateChange.
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * docs in {@link PurchaseObserver#onPurchaseStateChange(com.soomla.billing.Consts.PurchaseState, String, long, String)}.
+     * The storage was already updated by
+     * {@link #applyPurchaseStateChange(com.soomla.billing.Consts.PurchaseState, String, String, long, String)}, so
+     * this only fires the events.
+     */
+    @Override
+    public void onPurchaseStateChange(Consts.PurchaseState purchaseState, String productId, long purchaseTime,
+                                      String developerPayload) {
+        GoogleMarketItem googleMarketItem;
+        try {
+            googleMarketItem = StoreInfo.getInstance().getPackByGoogleProductId(productId).getmGoogleItem();
+        } catch (VirtualItemNotFoundException e) {
+            try {
+                googleMarketItem = StoreInfo.getInstance().getGoogleManagedItemByProductId(productId);
             } catch (VirtualItemNotFoundException e1) {
                 Log.e(TAG, "ERROR : Couldn't find the " + purchaseState.name() +
                         " VirtualCurrencyPack OR GoogleMarketItem  with productId: " + productId +
                         ". It's unexpected so an unexpected error is being emitted.");
                 StoreEventHandlers.getInstance().onUnexpectedErrorInStore();
+                return;
             }
         }
 
-        if (googleMarketItem == null){
-            return;
-        }
-
         // here we just post the appropriate event.
         if (purchaseState == Consts.PurchaseState.PURCHASED) {
             StoreEventHandlers.getInstance().onMarketPurchase(googleMarketItem);
@@ -384,53 +604,186 @@ public class StoreController extends PurchaseObserver {
             }
         }
 
-        // we're stopping the billing service only if the store was not opened while the request was sent
-        if (!mStoreOpen) {
-            stopBillingService();
+        // releasing the reference that was acquired when the request was sent (in tryRestoreTransactions). the
+        // connection stays up if the store is open.
+        if (mRestoringTransactions) {
+            mRestoringTransactions = false;
+            BillingConnectionManager.getInstance().release();
         }
     }
 
 
+    /**
+     * docs in {@link PurchaseObserver#onRequestTimedOut(String)}.
+     */
+    @Override
+    public void onRequestTimedOut(String method) {
+        Log.e(TAG, "Billing request timed out: " + method);
+
+        // the restore transactions response will never arrive. releasing its reference to the billing connection.
+        if (method.equals("RESTORE_TRANSACTIONS") && mRestoringTransactions) {
+            mRestoringTransactions = false;
+            BillingConnectionManager.getInstance().release();
+        }
+
+        StoreEventHandlers.getInstance().onBillingRequestTimedOut(method);
+    }
+
+
     /** Private methods **/
 
-    private void tryRestoreTransactions() {
-        SharedPreferences prefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        boolean initialized = prefs.getBoolean(DB_INITIALIZED, false);
-        if (!initialized) {
-            if (StoreConfig.debug){
-                Log.d(TAG, "sending restore transaction request");
+    /**
+     * Runs the given operation on the store's worker thread. There's a single worker thread, so operations run one
+     * at a time, in the order they were submitted (and in particular, in order per item).
+     */
+    private <T> Future<T> submit(AsyncStoreTask<T> task) {
+        synchronized (this) {
+            if (mWorker == null) {
+                mWorker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "SoomlaStoreWorker");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
             }
-            mBillingService.restoreTransactions();
         }
+        return mWorker.submit(task);
     }
 
-    private boolean startBillingService(Context context) {
-        mLock.lock();
-        if (mBillingService == null) {
-            mBillingService = new BillingService();
-            mBillingService.setContext(context);
+    /**
+     * Equips the virtual good with the given item id, without firing events.
+     * @param unequipped is filled with the virtual goods of the same category that were unequipped to make room.
+     */
+    private VirtualGood equip(String itemId, List<VirtualGood> unequipped) throws NotEnoughGoodsException,
+            VirtualItemNotFoundException{
+        VirtualGood good = StoreInfo.getInstance().getVirtualGoodByItemId(itemId);
 
-            if (!mBillingService.checkBillingSupported(Consts.ITEM_TYPE_INAPP)){
-                if (StoreConfig.debug){
-                    Log.d(TAG, "There's no connectivity with the billing service.");
+        // the balance can't change between the check and the equip.
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            // if the user has enough, the virtual good is equipped.
+            if (StorageManager.getInstance().getVirtualGoodsStorage().getBalance(good) > 0){
+                unequipped.addAll(StorageManager.getInstance().getVirtualGoodsStorage().equip(good));
+                return good;
+            }
+            else {
+                throw new NotEnoughGoodsException(itemId);
+            }
+        }
+    }
+
+    /**
+     * Unequips the virtual good with the given item id, without firing events.
+     */
+    private VirtualGood unequip(String itemId) throws VirtualItemNotFoundException{
+        VirtualGood good = StoreInfo.getInstance().getVirtualGoodByItemId(itemId);
+
+        StorageManager.getInstance().getVirtualGoodsStorage().unequip(good);
+        return good;
+    }
+
+    /**
+     * Purchases the given quantities of virtual goods. The total prices of all virtual goods are summed per currency
+     * and validated once, and all goods and currencies are updated in a single database transaction.
+     */
+    private void purchaseVirtualGoods(final LinkedHashMap<VirtualGood, Integer> quantities)
+            throws InsufficientFundsException, VirtualItemNotFoundException{
+        // the balances can't change between the price calculation and the purchase.
+        synchronized (StorageManager.getInstance().getDatabase()) {
+
+            // summing up the currencies and amounts that the user needs in order to purchase all the virtual goods.
+            // totals are longs so the sum of many prices can't overflow.
+            HashMap<String, Long> totals = new HashMap<String, Long>();
+            for (Map.Entry<VirtualGood, Integer> entry : quantities.entrySet()){
+                VirtualGood good = entry.getKey();
+                HashMap<String, Integer> price = good.getPriceModel().getTotalPrice(good, entry.getValue());
+                for (Map.Entry<String, Integer> amount : price.entrySet()){
+                    Long total = totals.get(amount.getKey());
+                    totals.put(amount.getKey(), (total != null ? total : 0) + amount.getValue());
                 }
+            }
 
-                mLock.unlock();
-                return false;
+            // checking if the user has enough of each of the virtual currencies in order to purchase all the
+            // virtual goods.
+            final List<VirtualCurrency> virtualCurrencies = new ArrayList<VirtualCurrency>();
+            final List<Integer> currencyAmounts = new ArrayList<Integer>();
+            for (Map.Entry<String, Long> total : totals.entrySet()){
+                VirtualCurrency virtualCurrency = StoreInfo.getInstance().getVirtualCurrencyByItemId(total.getKey());
+                int currencyBalance = StorageManager.getInstance().getVirtualCurrencyStorage().getBalance
+                        (virtualCurrency);
+                if (currencyBalance < total.getValue()){
+                    throw new InsufficientFundsException(virtualCurrency.getItemId());
+                }
+
+                virtualCurrencies.add(virtualCurrency);
+                currencyAmounts.add(total.getValue().intValue());
             }
+
+            // the user has enough, the virtual goods are purchased.
+            StorageManager.getInstance().getDatabase().runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    for (Map.Entry<VirtualGood, Integer> entry : quantities.entrySet()){
+                        StorageManager.getInstance().getVirtualGoodsStorage().add(entry.getKey(), entry.getValue());
+                    }
+                    for (int i = 0; i < virtualCurrencies.size(); i++){
+                        StorageManager.getInstance().getVirtualCurrencyStorage().remove(virtualCurrencies.get(i),
+                                currencyAmounts.get(i));
+                    }
+                }
+            });
         }
+    }
 
-        mLock.unlock();
-        return true;
+    /**
+     * Runs the given grant and records the given orderId as processed in the same database transaction, so an
+     * order can never be granted without being recorded (or recorded without being granted).
+     * @param orderId is the Google Play order id of the granted purchase.
+     * @param grant is the storage work that grants the purchased items.
+     */
+    private void grantOrder(final String orderId, final Runnable grant) {
+        StorageManager.getInstance().getDatabase().runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                grant.run();
+                StorageManager.getInstance().getProcessedOrdersStorage().add(orderId);
+            }
+        });
     }
 
-    private void stopBillingService() {
-        mLock.lock();
-        if (mBillingService != null) {
-            mBillingService.unbind();
-            mBillingService = null;
+    /**
+     * Sends a restore transactions request if the database was never initialized with the user's MANAGED items.
+     * The billing connection is held until the response arrives (see onRestoreTransactionsResponse).
+     */
+    private void tryRestoreTransactions() {
+        SharedPreferences prefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        boolean initialized = prefs.getBoolean(DB_INITIALIZED, false);
+        if (!initialized) {
+            if (StoreConfig.debug){
+                Log.d(TAG, "sending restore transaction request");
+            }
+            BillingService billingService = BillingConnectionManager.getInstance().acquire(mContext, false);
+            mRestoringTransactions = billingService.restoreTransactions();
+            if (!mRestoringTransactions) {
+                BillingConnectionManager.getInstance().release();
+            }
+        }
+    }
+
+    /**
+     * Asks Google Play to start the purchase of the given product. The billing connection is acquired just for the
+     * request; it stays up for its idle timeout while the purchase flow continues (and as long as the store is open).
+     */
+    private void requestPurchase(String productId) {
+        BillingService billingService = BillingConnectionManager.getInstance().acquire(mContext, false);
+        try {
+            if (!billingService.requestPurchase(productId, Consts.ITEM_TYPE_INAPP, "")){
+                StoreEventHandlers.getInstance().onUnexpectedErrorInStore();
+            }
+        } finally {
+            BillingConnectionManager.getInstance().release();
         }
-        mLock.unlock();
     }
 
     /** Singleton **/
@@ -458,7 +811,10 @@ public class StoreController extends PurchaseObserver {
     private boolean mInitialized          = false;
     private boolean mStoreOpen            = false;
 
-    private BillingService mBillingService;
+    private boolean mRestoringTransactions = false;
+
     private Context mContext;
-    private Lock    mLock = new ReentrantLock();
+
+    private ExecutorService mWorker;
+    private Executor        mMainThreadExecutor;
 }
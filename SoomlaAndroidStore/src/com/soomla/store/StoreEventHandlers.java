@@ -50,10 +50,28 @@ public class StoreEventHandlers {
     /**
      * A virtual good was just purchased.
      * @param good is the virtual good that was just purchased.
+     * @param quantity is the number of units that were purchased at once. Only handlers that also implement
+     *                 {@link IPurchaseQuantityHandler} are told about it.
      */
-    public void onVirtualGoodPurchased(VirtualGood good){
+    public void onVirtualGoodPurchased(VirtualGood good, int quantity){
         for(IStoreEventHandler handler : mEventHandlers){
             handler.onVirtualGoodPurchased(good);
+            if (handler instanceof IPurchaseQuantityHandler){
+                ((IPurchaseQuantityHandler) handler).onVirtualGoodPurchased(good, quantity);
+            }
+        }
+    }
+
+    /**
+     * All the virtual goods in a shopping cart were just purchased (after {@link #onVirtualGoodPurchased(VirtualGood, int)}
+     * was fired for each of them). Only handlers that also implement {@link IShoppingCartHandler} are told about it.
+     * @param cart is the shopping cart that was just purchased.
+     */
+    public void onShoppingCartPurchased(ShoppingCart cart){
+        for(IStoreEventHandler handler : mEventHandlers){
+            if (handler instanceof IShoppingCartHandler){
+                ((IShoppingCartHandler) handler).onShoppingCartPurchased(cart);
+            }
         }
     }
 
@@ -95,6 +113,19 @@ public class StoreEventHandlers {
         }
     }
 
+    /**
+     * A billing request didn't get a response from Google Play in time and was given up.
+     * Only handlers that also implement {@link IBillingTimeoutHandler} are told about it.
+     * @param method is the method of the request (for example: "REQUEST_PURCHASE").
+     */
+    public void onBillingRequestTimedOut(String method){
+        for(IStoreEventHandler handler : mEventHandlers){
+            if (handler instanceof IBillingTimeoutHandler){
+                ((IBillingTimeoutHandler) handler).onBillingRequestTimedOut(method);
+            }
+        }
+    }
+
     /**
      * Going to invoke the purchase process through the BillingService.
      */
@@ -1,11 +1,22 @@
 package com.soomla.store;
 
 import com.soomla.store.data.StorageManager;
+import com.soomla.store.data.StoreCatalog;
 import com.soomla.store.data.StoreInfo;
+import com.soomla.store.data.VirtualGoodsPrices;
 import com.soomla.store.domain.data.VirtualCurrency;
 import com.soomla.store.domain.data.VirtualGood;
 import com.soomla.store.exceptions.VirtualItemNotFoundException;
 
+import java.util.List;
+
+/**
+ * This class is the easy way to get and change the balances of virtual currencies and virtual goods.
+ *
+ * Every function that takes an itemId also has a version that takes an ordinal (see {@link StoreCatalog}). Look up
+ * the ordinals once with {@link #getCurrencyOrdinal(String)} and {@link #getGoodOrdinal(String)} and use them in hot
+ * paths (your game loop, for example): balance queries by ordinal don't hash or allocate anything.
+ */
 public class StoreInventory {
 
     /** Virtual Currencies **/
@@ -47,4 +58,144 @@ public class StoreInventory {
 
         return StorageManager.getInstance().getVirtualGoodsStorage().remove(good, amount);
     }
+
+    /** Ordinals **/
+
+    /**
+     * Fetch the ordinal of the virtual currency with the given itemId in the current catalog.
+     * @param currencyItemId is the item id of the required virtual currency.
+     * @return the ordinal of the required virtual currency.
+     * @throws VirtualItemNotFoundException
+     */
+    public static int getCurrencyOrdinal(String currencyItemId) throws VirtualItemNotFoundException {
+        int ordinal = StoreInfo.getInstance().getCatalog().getCurrencyOrdinal(currencyItemId);
+        if (ordinal < 0){
+            throw new VirtualItemNotFoundException("itemId", currencyItemId);
+        }
+
+        return ordinal;
+    }
+
+    /**
+     * Fetch the ordinal of the virtual good with the given itemId in the current catalog.
+     * @param goodItemId is the item id of the required virtual good.
+     * @return the ordinal of the required virtual good.
+     * @throws VirtualItemNotFoundException
+     */
+    public static int getGoodOrdinal(String goodItemId) throws VirtualItemNotFoundException {
+        int ordinal = StoreInfo.getInstance().getCatalog().getGoodOrdinal(goodItemId);
+        if (ordinal < 0){
+            throw new VirtualItemNotFoundException("itemId", goodItemId);
+        }
+
+        return ordinal;
+    }
+
+    /** Virtual Currencies (by ordinal) **/
+
+    public static int getCurrencyBalance(int currencyOrdinal) throws VirtualItemNotFoundException {
+        checkCurrencyOrdinal(currencyOrdinal);
+
+        return StorageManager.getInstance().getVirtualCurrencyStorage().getBalance(currencyOrdinal);
+    }
+
+    /**
+     * Copies the balances of all virtual currencies into the given array (indexed by ordinals).
+     * @param balances is an array of at least the number of virtual currencies.
+     * @return the number of balances copied.
+     */
+    public static int getCurrencyBalances(int[] balances) {
+        return StorageManager.getInstance().getVirtualCurrencyStorage().getBalances(balances);
+    }
+
+    public static int addCurrencyAmount(int currencyOrdinal, int amount) throws VirtualItemNotFoundException {
+        checkCurrencyOrdinal(currencyOrdinal);
+
+        return StorageManager.getInstance().getVirtualCurrencyStorage().add(currencyOrdinal, amount);
+    }
+
+    public static int removeCurrencyAmount(int currencyOrdinal, int amount) throws VirtualItemNotFoundException {
+        checkCurrencyOrdinal(currencyOrdinal);
+
+        return StorageManager.getInstance().getVirtualCurrencyStorage().remove(currencyOrdinal, amount);
+    }
+
+    /** Virtual Goods (by ordinal) **/
+
+    public static int getGoodBalance(int goodOrdinal) throws VirtualItemNotFoundException {
+        checkGoodOrdinal(goodOrdinal);
+
+        return StorageManager.getInstance().getVirtualGoodsStorage().getBalance(goodOrdinal);
+    }
+
+    /**
+     * Copies the balances of all virtual goods into the given array (indexed by ordinals).
+     * @param balances is an array of at least the number of virtual goods.
+     * @return the number of balances copied.
+     */
+    public static int getGoodBalances(int[] balances) {
+        return StorageManager.getInstance().getVirtualGoodsStorage().getBalances(balances);
+    }
+
+    public static int addGoodAmount(int goodOrdinal, int amount) throws VirtualItemNotFoundException {
+        checkGoodOrdinal(goodOrdinal);
+
+        return StorageManager.getInstance().getVirtualGoodsStorage().add(goodOrdinal, amount);
+    }
+
+    public static int removeGoodAmount(int goodOrdinal, int amount) throws VirtualItemNotFoundException {
+        checkGoodOrdinal(goodOrdinal);
+
+        return StorageManager.getInstance().getVirtualGoodsStorage().remove(goodOrdinal, amount);
+    }
+
+    /** Prices **/
+
+    /**
+     * Evaluates the current prices of the given virtual goods, and whether the user can afford them, in one pass
+     * over a single snapshot of the balances. Use this to render a store instead of calling
+     * {@link VirtualGood#getCurrencyValues()} for every virtual good.
+     * @param goods are the virtual goods to evaluate.
+     * @return the prices of the given virtual goods (see {@link VirtualGoodsPrices}).
+     */
+    public static VirtualGoodsPrices getGoodsPrices(List<VirtualGood> goods) {
+        return VirtualGoodsPrices.evaluate(goods);
+    }
+
+    /**
+     * The same as {@link #getGoodsPrices(List)} for a page of the virtual goods in the current catalog
+     * (see {@link StoreInfo#getVirtualGoods(int, int)}).
+     * @param offset is the ordinal of the first virtual good to evaluate.
+     * @param count is the maximum number of virtual goods to evaluate.
+     * @return the prices of the required virtual goods.
+     */
+    public static VirtualGoodsPrices getGoodsPrices(int offset, int count) {
+        return VirtualGoodsPrices.evaluate(StoreInfo.getInstance().getVirtualGoods(offset, count));
+    }
+
+    /**
+     * Fetch whether the user can afford the virtual good with the given itemId at its current price. The answer
+     * comes from the {@link com.soomla.store.data.AffordabilityIndex}, which is updated incrementally as balances
+     * change.
+     * @param goodItemId is the item id of the required virtual good.
+     * @return true if the user has enough of every currency in the price of the virtual good.
+     * @throws VirtualItemNotFoundException
+     */
+    public static boolean isAffordable(String goodItemId) throws VirtualItemNotFoundException {
+        return StorageManager.getInstance().getAffordabilityIndex().isAffordable(getGoodOrdinal(goodItemId));
+    }
+
+    /** Private functions **/
+
+    private static void checkCurrencyOrdinal(int ordinal) throws VirtualItemNotFoundException {
+        if (ordinal < 0 || ordinal >= StoreInfo.getInstance().getCatalog().getVirtualCurrencies().size()){
+            throw new VirtualItemNotFoundException("ordinal", "" + ordinal);
+        }
+    }
+
+    private static void checkGoodOrdinal(int ordinal) throws VirtualItemNotFoundException {
+        if (ordinal < 0 || ordinal >= StoreInfo.getInstance().getCatalog().getVirtualGoodsCount()){
+            throw new VirtualItemNotFoundException("ordinal", "" + ordinal);
+        }
+    }
 }
@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import android.util.Log;
+import com.soomla.store.IAffordabilityListener;
+import com.soomla.store.StoreConfig;
+import com.soomla.store.StoreController;
+import com.soomla.store.domain.data.AbstractPriceModel;
+import com.soomla.store.domain.data.PriceVector;
+import com.soomla.store.domain.data.VirtualGood;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * This class keeps track of which virtual goods the user can afford (has enough of every currency in their current
+ * price).
+ *
+ * Virtual goods are tracked on demand. A virtual good is tracked once it's created (all of them, in a catalog that's
+ * not lazy), once its affordability is asked for (see {@link #isAffordable(int)}) or once its balance changes. The
+ * index never creates virtual goods for itself, so it doesn't decode a lazy catalog (see
+ * {@link StoreCatalog#isLazy()}). Tracked virtual goods are updated incrementally by the storages: a change in a
+ * currency's balance only re-checks the tracked virtual goods whose price includes that currency, and a change in a
+ * virtual good's balance only re-checks that virtual good (its price may depend on its balance).
+ *
+ * Listeners are notified only about tracked virtual goods whose affordability flipped, and only once the change is
+ * committed: flips made inside a database transaction (see {@link StoreDatabase#runInTransaction(Runnable)}) are
+ * delivered after it's committed and dropped if it's rolled back. They're delivered on the executor the listener was
+ * added with (the main thread by default), never on the thread that changed the balance.
+ *
+ * The index is rebuilt when the catalog of {@link StoreInfo} is replaced (without notifying listeners, ordinals
+ * change with the catalog) and re-checked as a whole after a database transaction is rolled back (the balances are
+ * reloaded then).
+ */
+public class AffordabilityIndex {
+
+    /** Constructor
+     *
+     */
+    public AffordabilityIndex() {
+    }
+
+    /** Public functions **/
+
+    /**
+     * @param goodOrdinal is the ordinal of a virtual good in the current catalog.
+     * @return true if the user can afford the virtual good with the given ordinal.
+     */
+    public boolean isAffordable(int goodOrdinal) {
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            refresh();
+            track(goodOrdinal);
+            flushIfCommitted();
+            return mAffordable[goodOrdinal];
+        }
+    }
+
+    /**
+     * Copies the affordability of all virtual goods in the current catalog into the given array.
+     * NOTE: this tracks all virtual goods, so it creates all of the virtual goods of a lazy catalog.
+     * @param affordable is an array of at least the number of virtual goods. affordable[ordinal] is set to true if
+     *                   the user can afford the virtual good with that ordinal.
+     * @return the number of virtual goods.
+     */
+    public int getAffordable(boolean[] affordable) {
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            refresh();
+            for (int i = 0; i < mAffordable.length; i++) {
+                track(i);
+            }
+            flushIfCommitted();
+            System.arraycopy(mAffordable, 0, affordable, 0, mAffordable.length);
+            return mAffordable.length;
+        }
+    }
+
+    /**
+     * Adds a listener that's notified on the main thread.
+     * See {@link #addListener(IAffordabilityListener, Executor)}.
+     */
+    public void addListener(IAffordabilityListener listener) {
+        addListener(listener, StoreController.getInstance().getMainThreadExecutor());
+    }
+
+    /**
+     * Adds a listener to the affordability of the tracked virtual goods.
+     * @param listener is the listener to add.
+     * @param executor is the executor the listener is called on.
+     */
+    public void addListener(IAffordabilityListener listener, Executor executor) {
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            refresh();
+            flushIfCommitted();
+            mListeners.add(new Registration(listener, executor));
+        }
+    }
+
+    /**
+     * Removes a listener. Flips that were already handed to its executor aren't delivered to it.
+     * @param listener is the listener to remove.
+     */
+    public void removeListener(IAffordabilityListener listener) {
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            for (int i = 0; i < mListeners.size(); i++) {
+                Registration registration = mListeners.get(i);
+                if (registration.mListener == listener) {
+                    registration.mRemoved = true;
+                    mListeners.remove(i);
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Package-private functions (called by the storages and the database while holding the database lock) **/
+
+    void onCurrencyBalanceChanged(int currencyOrdinal) {
+        if (mCatalog == null) {
+            // nobody uses the index yet.
+            return;
+        }
+        refresh();
+
+        int[] goods = mGoodsByCurrency[currencyOrdinal];
+        int count = mGoodsByCurrencyCount[currencyOrdinal];
+        for (int i = 0; i < count; i++) {
+            check(goods[i]);
+        }
+        flushIfCommitted();
+    }
+
+    void onGoodBalanceChanged(int goodOrdinal) {
+        if (mCatalog == null) {
+            // nobody uses the index yet.
+            return;
+        }
+        refresh();
+
+        if (mPrices[goodOrdinal] == null) {
+            track(goodOrdinal);
+        } else {
+            PriceVector price = currentPrice(mCatalog.getVirtualGoodByOrdinal(goodOrdinal));
+            if (price != mPrices[goodOrdinal]) {
+                unindex(goodOrdinal);
+                mPrices[goodOrdinal] = price;
+                index(goodOrdinal);
+            }
+            check(goodOrdinal);
+        }
+        flushIfCommitted();
+    }
+
+    void onTransactionEnded(boolean committed) {
+        if (mCatalog == null) {
+            return;
+        }
+
+        if (committed) {
+            flush();
+            return;
+        }
+
+        // the balances go back to what they were before the transaction, and so does the affordability. refresh()
+        // re-checks everything against the reloaded balances.
+        for (int i = 0; i < mChangedCount; i++) {
+            int goodOrdinal = mChanged[i];
+            mAffordable[goodOrdinal] = mDelivered[goodOrdinal];
+            mChangedMarks[goodOrdinal] = false;
+        }
+        mChangedCount = 0;
+    }
+
+    /** Private functions **/
+
+    /**
+     * Brings the index up to date with the current catalog and balances.
+     */
+    private void refresh() {
+        StoreCatalog catalog = StoreInfo.getInstance().getCatalog();
+        int failedTransactions = StorageManager.getInstance().getDatabase().getFailedTransactionCount();
+        if (catalog != mCatalog) {
+            build(catalog);
+        } else {
+            if (failedTransactions != mFailedTransactionCount) {
+                // balances were reloaded after a rollback. all prices and balances may have changed.
+                for (int i = 0; i < mPrices.length; i++) {
+                    if (mPrices[i] != null) {
+                        unindex(i);
+                        mPrices[i] = currentPrice(catalog.getVirtualGoodByOrdinal(i));
+                        index(i);
+                    }
+                }
+                for (int i = 0; i < mPrices.length; i++) {
+                    if (mPrices[i] != null) {
+                        check(i);
+                    }
+                }
+            }
+            if (catalog.getCreatedVirtualGoodsCount() != mCreatedCount) {
+                trackCreated();
+            }
+        }
+        mFailedTransactionCount = failedTransactions;
+    }
+
+    private void build(StoreCatalog catalog) {
+        int goodsCount = catalog.getVirtualGoodsCount();
+        int currenciesCount = catalog.getVirtualCurrencies().size();
+
+        mCatalog = catalog;
+        mEmptyPrice = PriceVector.empty(catalog);
+        mPrices = new PriceVector[goodsCount];
+        mAffordable = new boolean[goodsCount];
+        mDelivered = new boolean[goodsCount];
+        mChangedMarks = new boolean[goodsCount];
+        mChanged = new int[16];
+        mChangedCount = 0;
+        mGoodsByCurrency = new int[currenciesCount][];
+        mGoodsByCurrencyCount = new int[currenciesCount];
+        for (int i = 0; i < currenciesCount; i++) {
+            mGoodsByCurrency[i] = new int[4];
+        }
+        trackCreated();
+
+        if (StoreConfig.debug) {
+            Log.d(TAG, "built affordability index of " + mCreatedCount + " out of " + goodsCount + " virtual goods.");
+        }
+    }
+
+    /**
+     * Tracks the virtual goods that were created since the last call.
+     */
+    private void trackCreated() {
+        mCreatedCount = mCatalog.getCreatedVirtualGoodsCount();
+        for (int i = 0; i < mPrices.length; i++) {
+            if (mPrices[i] == null) {
+                VirtualGood good = mCatalog.peekVirtualGoodByOrdinal(i);
+                if (good != null) {
+                    track(i, good);
+                }
+            }
+        }
+    }
+
+    private void track(int goodOrdinal) {
+        if (mPrices[goodOrdinal] == null) {
+            track(goodOrdinal, mCatalog.getVirtualGoodByOrdinal(goodOrdinal));
+        }
+    }
+
+    /**
+     * Starts tracking a virtual good. Its first affordability isn't a flip, so listeners aren't notified about it.
+     */
+    private void track(int goodOrdinal, VirtualGood good) {
+        mPrices[goodOrdinal] = currentPrice(good);
+        index(goodOrdinal);
+        mAffordable[goodOrdinal] = calculateAffordable(goodOrdinal);
+        mDelivered[goodOrdinal] = mAffordable[goodOrdinal];
+    }
+
+    /**
+     * @return the current price of the given virtual good. A virtual good without a price model (the catalog codec
+     * decodes one from {@code PRICE_MODEL_NONE}) costs nothing, so it's always affordable.
+     */
+    private PriceVector currentPrice(VirtualGood good) {
+        AbstractPriceModel priceModel = good.getPriceModel();
+        if (priceModel == null) {
+            return mEmptyPrice;
+        }
+        return priceModel.getCurrentPriceVector(good);
+    }
+
+    /**
+     * Re-checks the affordability of the (tracked) virtual good with the given ordinal against its indexed price.
+     */
+    private void check(int goodOrdinal) {
+        boolean affordable = calculateAffordable(goodOrdinal);
+        if (affordable != mAffordable[goodOrdinal]) {
+            mAffordable[goodOrdinal] = affordable;
+            if (!mChangedMarks[goodOrdinal]) {
+                mChangedMarks[goodOrdinal] = true;
+                if (mChangedCount == mChanged.length) {
+                    int[] grown = new int[mChanged.length * 2];
+                    System.arraycopy(mChanged, 0, grown, 0, mChangedCount);
+                    mChanged = grown;
+                }
+                mChanged[mChangedCount++] = goodOrdinal;
+            }
+        }
+    }
+
+    private boolean calculateAffordable(int goodOrdinal) {
+        VirtualCurrencyStorage currencyStorage = StorageManager.getInstance().getVirtualCurrencyStorage();
+        PriceVector price = mPrices[goodOrdinal];
+
+        for (int i = 0; i < price.size(); i++) {
+            int currencyOrdinal = price.getCurrencyOrdinal(i);
+            if (currencyOrdinal < 0 || currencyStorage.getBalance(currencyOrdinal) < price.getAmount(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Delivers the flips made so far, unless they're part of a transaction that's still running (they're delivered
+     * or dropped when it ends then, see {@link #onTransactionEnded(boolean)}).
+     */
+    private void flushIfCommitted() {
+        if (mChangedCount > 0 && !StorageManager.getInstance().getDatabase().inTransaction()) {
+            flush();
+        }
+    }
+
+    /**
+     * Hands the virtual goods whose affordability is different from what listeners were last told to the listeners'
+     * executors.
+     */
+    private void flush() {
+        ArrayList<Flip> flips = new ArrayList<Flip>();
+        for (int i = 0; i < mChangedCount; i++) {
+            int goodOrdinal = mChanged[i];
+            mChangedMarks[goodOrdinal] = false;
+            if (mAffordable[goodOrdinal] != mDelivered[goodOrdinal]) {
+                mDelivered[goodOrdinal] = mAffordable[goodOrdinal];
+                flips.add(new Flip(mCatalog.getVirtualGoodByOrdinal(goodOrdinal), goodOrdinal,
+                        mAffordable[goodOrdinal]));
+            }
+        }
+        mChangedCount = 0;
+
+        if (flips.isEmpty()) {
+            return;
+        }
+        for (Registration registration : mListeners) {
+            registration.deliver(flips);
+        }
+    }
+
+    private void index(int goodOrdinal) {
+        PriceVector price = mPrices[goodOrdinal];
+        for (int i = 0; i < price.size(); i++) {
+            int currencyOrdinal = price.getCurrencyOrdinal(i);
+            if (currencyOrdinal < 0) {
+                continue;
+            }
+
+            int count = mGoodsByCurrencyCount[currencyOrdinal];
+            int[] goods = mGoodsByCurrency[currencyOrdinal];
+            if (count == goods.length) {
+                int[] grown = new int[goods.length * 2];
+                System.arraycopy(goods, 0, grown, 0, count);
+                goods = grown;
+                mGoodsByCurrency[currencyOrdinal] = goods;
+            }
+            goods[count] = goodOrdinal;
+            mGoodsByCurrencyCount[currencyOrdinal] = count + 1;
+        }
+    }
+
+    private void unindex(int goodOrdinal) {
+        PriceVector price = mPrices[goodOrdinal];
+        for (int i = 0; i < price.size(); i++) {
+            int currencyOrdinal = price.getCurrencyOrdinal(i);
+            if (currencyOrdinal < 0) {
+                continue;
+            }
+
+            int[] goods = mGoodsByCurrency[currencyOrdinal];
+            int count = mGoodsByCurrencyCount[currencyOrdinal];
+            for (int j = 0; j < count; j++) {
+                if (goods[j] == goodOrdinal) {
+                    goods[j] = goods[count - 1];
+                    mGoodsByCurrencyCount[currencyOrdinal] = count - 1;
+                    break;
+                }
+            }
+        }
+    }
+
+    private static class Flip {
+
+        public Flip(VirtualGood good, int goodOrdinal, boolean affordable) {
+            mGood = good;
+            mGoodOrdinal = goodOrdinal;
+            mAffordable = affordable;
+        }
+
+        private final VirtualGood mGood;
+        private final int         mGoodOrdinal;
+        private final boolean     mAffordable;
+    }
+
+    private static class Registration {
+
+        public Registration(IAffordabilityListener listener, Executor executor) {
+            mListener = listener;
+            mExecutor = executor;
+        }
+
+        public void deliver(final List<Flip> flips) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Flip flip : flips) {
+                        if (mRemoved) {
+                            return;
+                        }
+                        mListener.onAffordabilityChanged(flip.mGood, flip.mGoodOrdinal, flip.mAffordable);
+                    }
+                }
+            });
+        }
+
+        private final IAffordabilityListener mListener;
+        private final Executor               mExecutor;
+        private volatile boolean             mRemoved;
+    }
+
+    /** Private members **/
+
+    private static final String TAG = "SOOMLA AffordabilityIndex";
+
+    private final List<Registration> mListeners = new ArrayList<Registration>();
+
+    private StoreCatalog  mCatalog;
+    private int           mFailedTransactionCount;
+    private int           mCreatedCount;
+    private PriceVector   mEmptyPrice;
+    private PriceVector[] mPrices;
+    private boolean[]     mAffordable;
+    private boolean[]     mDelivered;
+    private boolean[]     mChangedMarks;
+    private int[]         mChanged;
+    private int           mChangedCount;
+    private int[][]       mGoodsByCurrency;
+    private int[]         mGoodsByCurrencyCount;
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import android.database.Cursor;
+import android.util.Log;
+import com.soomla.billing.util.AESObfuscator;
+import com.soomla.store.StoreConfig;
+
+import java.util.HashMap;
+
+/**
+ * An in-memory, write-through copy of the balances of one kind of virtual items (currencies or goods), indexed by
+ * their ordinals in the current {@link StoreCatalog}.
+ * All balances are loaded from the database in one query the first time they're needed, and again whenever the
+ * catalog of {@link StoreInfo} is replaced or a database transaction is rolled back.
+ *
+ * Every balance also has a version that changes whenever the balance (may have) changed. Versions are never reused,
+ * not even after the balances are reloaded, so anything computed from a balance can be cached by its version.
+ *
+ * NOTE: all functions must be called while holding the database lock
+ * (synchronized on {@link StorageManager#getDatabase()}).
+ */
+abstract class BalanceCache {
+
+    /** Constructor
+     *
+     * @param tag is used in debug messages.
+     * @param itemIdColumn is the name of the item id column in the balances table.
+     * @param balanceColumn is the name of the balance column in the balances table.
+     */
+    BalanceCache(String tag, String itemIdColumn, String balanceColumn) {
+        mTag = tag;
+        mItemIdColumn = itemIdColumn;
+        mBalanceColumn = balanceColumn;
+    }
+
+    /**
+     * Fetch the balances array of the current catalog. The array is indexed by ordinals and must not be modified.
+     * @return the balances of all items in the current catalog.
+     */
+    int[] getBalances() {
+        StoreCatalog catalog = StoreInfo.getInstance().getCatalog();
+        int failedTransactions = StorageManager.getInstance().getDatabase().getFailedTransactionCount();
+        if (mBalances == null || catalog != mCatalog || failedTransactions != mFailedTransactionCount) {
+            load(catalog);
+            mFailedTransactionCount = failedTransactions;
+        }
+
+        return mBalances;
+    }
+
+    /**
+     * @return the catalog the current balances array belongs to.
+     */
+    StoreCatalog getCatalog() {
+        getBalances();
+        return mCatalog;
+    }
+
+    /**
+     * Updates the cached balance of the item with the given ordinal. Call this right after the balance was written
+     * to the database.
+     */
+    void set(int ordinal, int balance) {
+        getBalances()[ordinal] = balance;
+        mVersions[ordinal] = ++mLastVersion;
+    }
+
+    /**
+     * Fetch the version of the balance of the item with the given ordinal.
+     */
+    long getVersion(int ordinal) {
+        getBalances();
+        return mVersions[ordinal];
+    }
+
+    /** Protected functions **/
+
+    protected abstract int getItemCount(StoreCatalog catalog);
+
+    protected abstract String getItemId(StoreCatalog catalog, int ordinal);
+
+    protected abstract Cursor queryAll();
+
+    /** Private functions **/
+
+    private void load(StoreCatalog catalog) {
+        AESObfuscator obfuscator = StorageManager.getInstance().getObfuscator();
+
+        int count = getItemCount(catalog);
+        int[] balances = new int[count];
+
+        // item ids are saved obfuscated. the obfuscation is deterministic so we obfuscate the catalog's ids to find
+        // the rows that belong to them.
+        HashMap<String, Integer> ordinalsByStoredId = new HashMap<String, Integer>();
+        for (int i = 0; i < count; i++) {
+            String itemId = getItemId(catalog, i);
+            if (obfuscator != null) {
+                itemId = obfuscator.obfuscateString(itemId);
+            }
+            if (!ordinalsByStoredId.containsKey(itemId)) {
+                ordinalsByStoredId.put(itemId, i);
+            }
+        }
+
+        Cursor cursor = queryAll();
+        if (cursor != null) {
+            try {
+                int itemIdCol = cursor.getColumnIndexOrThrow(mItemIdColumn);
+                int balanceCol = cursor.getColumnIndexOrThrow(mBalanceColumn);
+                while (cursor.moveToNext()) {
+                    Integer ordinal = ordinalsByStoredId.get(cursor.getString(itemIdCol));
+                    String balanceStr = cursor.getString(balanceCol);
+                    if (ordinal == null || balanceStr == null) {
+                        continue;
+                    }
+
+                    try {
+                        balances[ordinal] = obfuscator != null ?
+                                obfuscator.unobfuscateToInt(balanceStr) : Integer.parseInt(balanceStr);
+                    } catch (AESObfuscator.ValidationException e) {
+                        e.printStackTrace();
+                    } catch (NumberFormatException e) {
+                        e.printStackTrace();
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        if (StoreConfig.debug) {
+            Log.d(mTag, "loaded " + count + " balances.");
+        }
+
+        long[] versions = new long[count];
+        long version = ++mLastVersion;
+        for (int i = 0; i < count; i++) {
+            versions[i] = version;
+        }
+
+        mCatalog = catalog;
+        mBalances = balances;
+        mVersions = versions;
+    }
+
+    /** Private members **/
+
+    private final String mTag;
+    private final String mItemIdColumn;
+    private final String mBalanceColumn;
+
+    private StoreCatalog mCatalog;
+    private int[]        mBalances;
+    private long[]       mVersions;
+    private long         mLastVersion;
+    private int          mFailedTransactionCount;
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.IAssetSource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link IAssetSource} that reads assets from a local directory. The reference of an asset is its path relative
+ * to the directory (the scheme and host of a URL reference are ignored, so the same storefront JSON works with both
+ * sources).
+ * Use it to test the {@link StoreAssetCache} without a network, or to ship assets with your application.
+ */
+public class FileAssetSource implements IAssetSource {
+
+    /** Constructor
+     *
+     * @param root is the directory the assets are read from.
+     */
+    public FileAssetSource(File root) {
+        mRoot = root;
+    }
+
+    /**
+     * docs in {@link IAssetSource#open(String)}.
+     */
+    @Override
+    public InputStream open(String reference) throws IOException {
+        String path = reference;
+        int schemeEnd = path.indexOf("://");
+        if (schemeEnd >= 0) {
+            int pathStart = path.indexOf('/', schemeEnd + 3);
+            path = pathStart >= 0 ? path.substring(pathStart + 1) : "";
+        }
+
+        File file = new File(mRoot, path);
+        String rootPath = mRoot.getCanonicalPath() + File.separator;
+        if (!file.getCanonicalPath().startsWith(rootPath)) {
+            throw new IOException("Asset is outside of " + mRoot + ": " + reference);
+        }
+
+        return new FileInputStream(file);
+    }
+
+    /** Private members **/
+
+    private final File mRoot;
+}
@@ -41,10 +41,17 @@ public class JSONConsts {
     public static final String GOOD_PRICE_MODEL_VALUES  = "values";
     public static final String GOOD_PRICE_MODEL_TYPE    = "type";
     public static final String GOOD_EQUIPPED            = "equipped";
+    public static final String GOOD_PRICE_MODEL_BASE    = "base";
+    public static final String GOOD_PRICE_MODEL_STEP    = "step";
+    public static final String GOOD_PRICE_MODEL_RATIO   = "ratio";
+    public static final String GOOD_PRICE_MODEL_POINTS  = "points";
+    public static final String GOOD_PRICE_MODEL_BALANCE = "balance";
+    public static final String GOOD_PRICE_MODEL_PRICE   = "price";
 
     public static final String CATEGORY_NAME            = "name";
     public static final String CATEGORY_ID              = "id";
     public static final String CATEGORY_TITLE           = "title";
+    public static final String CATEGORY_EQUIP_SLOTS     = "equipSlots";
 
     public static final String ITEM_NAME                = "name";
     public static final String ITEM_DESCRIPTION         = "description";
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import android.util.Log;
+import com.soomla.store.domain.data.VirtualCategory;
+import com.soomla.store.domain.data.VirtualCurrency;
+import com.soomla.store.domain.data.VirtualGood;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An unmodifiable list of virtual goods that are decoded from an encoded catalog (see {@link StoreCatalogCodec})
+ * only when they're first accessed.
+ * The list keeps the encoded bytes, and the itemId, offset and length of every virtual good record. A decoded
+ * virtual good is kept, so every call to {@link #get(int)} with the same index returns the same instance.
+ */
+class LazyVirtualGoodList extends AbstractList<VirtualGood> implements RandomAccess {
+
+    /** Constructor
+     *
+     * @param data is the (decrypted) encoded catalog.
+     * @param itemIds are the item ids of the virtual goods.
+     * @param offsets are the offsets of the virtual good records in data.
+     * @param lengths are the lengths of the virtual good records in data.
+     * @param currencies are the currencies of the catalog. price models reference them by index.
+     * @param categoriesById are the categories of the catalog.
+     */
+    LazyVirtualGoodList(byte[] data, String[] itemIds, int[] offsets, int[] lengths,
+                        List<VirtualCurrency> currencies, HashMap<Integer, VirtualCategory> categoriesById) {
+        mData = data;
+        mItemIds = itemIds;
+        mOffsets = offsets;
+        mLengths = lengths;
+        mCurrencies = currencies;
+        mCategoriesById = categoriesById;
+        mGoods = new VirtualGood[itemIds.length];
+    }
+
+    @Override
+    public VirtualGood get(int index) {
+        if (index < 0 || index >= mGoods.length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + mGoods.length);
+        }
+
+        synchronized (mGoods) {
+            VirtualGood good = mGoods[index];
+            if (good == null) {
+                try {
+                    good = StoreCatalogCodec.decodeGood(mData, mOffsets[index], mLengths[index],
+                            mCurrencies, mCategoriesById);
+                } catch (IOException e) {
+                    // the catalog was validated when it was decrypted so this really shouldn't happen.
+                    Log.e(TAG, "Can't decode virtual good: " + mItemIds[index]);
+                    throw new IllegalStateException("Corrupted catalog", e);
+                }
+                mGoods[index] = good;
+                mDecodedCount++;
+            }
+
+            return good;
+        }
+    }
+
+    @Override
+    public int size() {
+        return mGoods.length;
+    }
+
+    /**
+     * Fetch the itemId of the virtual good at the given index without decoding it.
+     * @param index is the index of the virtual good.
+     * @return the item id of the virtual good at the given index.
+     */
+    public String getItemId(int index) {
+        return mItemIds[index];
+    }
+
+    /**
+     * Fetch the virtual good at the given index only if it was already decoded.
+     * @param index is the index of the virtual good.
+     * @return the virtual good, or null if it wasn't decoded yet.
+     */
+    public VirtualGood peek(int index) {
+        synchronized (mGoods) {
+            return mGoods[index];
+        }
+    }
+
+    /**
+     * @return the number of virtual goods that were already decoded.
+     */
+    public int getDecodedCount() {
+        synchronized (mGoods) {
+            return mDecodedCount;
+        }
+    }
+
+    /** Private members **/
+
+    private static final String TAG = "SOOMLA LazyVirtualGoodList";
+
+    private final byte[]                             mData;
+    private final String[]                           mItemIds;
+    private final int[]                              mOffsets;
+    private final int[]                              mLengths;
+    private final List<VirtualCurrency>              mCurrencies;
+    private final HashMap<Integer, VirtualCategory>  mCategoriesById;
+    private final VirtualGood[]                      mGoods;
+    private int                                      mDecodedCount;
+}
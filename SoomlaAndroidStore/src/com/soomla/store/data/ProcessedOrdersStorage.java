@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.store.data;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+import android.util.Log;
+import com.soomla.billing.util.AESObfuscator;
+import com.soomla.store.StoreConfig;
+
+/**
+ * This class keeps track of the Google Play orders that were already granted to the user.
+ * Market can deliver the same PURCHASE_STATE_CHANGED notification more than once (and restore transactions
+ * replays old orders), so every grant is recorded with its orderId.
+ *
+ * Processed orders are persisted in the database. In addition, an in-memory bloom filter of all processed
+ * orderIds is kept so that checking a new order (the common case) doesn't touch the database at all.
+ * The database is only queried when the filter reports a possible match.
+ */
+public class ProcessedOrdersStorage {
+
+    /** Constructor
+     *
+     */
+    public ProcessedOrdersStorage() {
+    }
+
+    /** Public functions **/
+
+    /**
+     * Figure out if the order with the given orderId was already processed.
+     * @param orderId is the Google Play order id.
+     * @return whether the given order was already processed or not.
+     */
+    public boolean isProcessed(String orderId){
+        if (TextUtils.isEmpty(orderId)){
+            return false;
+        }
+
+        // we lock on the database (and not on this) so we're in the same lock order as
+        // StoreDatabase#runInTransaction(Runnable).
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            loadFilterIfNeeded();
+            if (!mFilter.mightContain(orderId)){
+                return false;
+            }
+
+            if (StoreConfig.debug){
+                Log.d(TAG, "order " + orderId + " might be processed. checking the database.");
+            }
+
+            String obfuscatedOrderId = orderId;
+            if (StorageManager.getInstance().getObfuscator() != null){
+                obfuscatedOrderId = StorageManager.getInstance().getObfuscator().obfuscateString(orderId);
+            }
+            Cursor cursor = StorageManager.getInstance().getDatabase().getProcessedOrder(obfuscatedOrderId);
+
+            if (cursor == null) {
+                return false;
+            }
+
+            try {
+                return cursor.moveToNext();
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Marks the order with the given orderId as processed.
+     * Call this function in the same database transaction that grants the order's items (see
+     * {@link StoreDatabase#runInTransaction(Runnable)}).
+     * @param orderId is the Google Play order id.
+     */
+    public void add(String orderId){
+        if (TextUtils.isEmpty(orderId)){
+            return;
+        }
+
+        if (StoreConfig.debug){
+            Log.d(TAG, "marking order " + orderId + " as processed.");
+        }
+
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            loadFilterIfNeeded();
+
+            String obfuscatedOrderId = orderId;
+            if (StorageManager.getInstance().getObfuscator() != null){
+                obfuscatedOrderId = StorageManager.getInstance().getObfuscator().obfuscateString(orderId);
+            }
+            StorageManager.getInstance().getDatabase().addProcessedOrder(obfuscatedOrderId);
+
+            // If the surrounding transaction is rolled back, the filter is left with an extra entry. That's fine,
+            // it only costs a database lookup for that orderId.
+            mFilter.add(orderId);
+            mFilterCount++;
+            if (mFilterCount > mFilter.getCapacity()){
+                // the false positive rate goes up from here. the filter will be rebuilt (bigger) on next use.
+                mFilter = null;
+            }
+        }
+    }
+
+    /** Private functions **/
+
+    /**
+     * Builds the bloom filter out of the processed orders in the database.
+     * This happens once (and again whenever the filter outgrows its capacity).
+     */
+    private void loadFilterIfNeeded(){
+        if (mFilter != null){
+            return;
+        }
+
+        Cursor cursor = StorageManager.getInstance().getDatabase().getProcessedOrders();
+        int count = cursor != null ? cursor.getCount() : 0;
+        mFilter = new OrderIdFilter(Math.max(MIN_FILTER_CAPACITY, count * 2));
+        mFilterCount = 0;
+
+        if (cursor == null) {
+            return;
+        }
+
+        try {
+            int orderIdCol = cursor.getColumnIndexOrThrow(
+                    StoreDatabase.PROCESSED_ORDERS_COLUMN_ORDER_ID);
+            while (cursor.moveToNext()) {
+                String orderId = cursor.getString(orderIdCol);
+                if (StorageManager.getInstance().getObfuscator() != null){
+                    try {
+                        orderId = StorageManager.getInstance().getObfuscator().unobfuscateToString(orderId);
+                    } catch (AESObfuscator.ValidationException e) {
+                        e.printStackTrace();
+                        continue;
+                    }
+                }
+                mFilter.add(orderId);
+                mFilterCount++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (StoreConfig.debug){
+            Log.d(TAG, "loaded " + mFilterCount + " processed orders.");
+        }
+    }
+
+    /**
+     * A compact bloom filter of orderIds. ~10 bits per expected entry with 7 hash functions
+     * gives a false positive rate of about 1%.
+     */
+    private static class OrderIdFilter {
+
+        public OrderIdFilter(int capacity) {
+            mCapacity = capacity;
+            mNumBits = ((capacity * BITS_PER_ENTRY + 63) / 64) * 64;
+            mBits = new long[mNumBits / 64];
+        }
+
+        public void add(String orderId) {
+            int h1 = orderId.hashCode();
+            int h2 = secondaryHash(orderId);
+            for (int i = 0; i < NUM_HASHES; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % mNumBits;
+                mBits[bit >>> 6] |= 1L << (bit & 63);
+            }
+        }
+
+        public boolean mightContain(String orderId) {
+            int h1 = orderId.hashCode();
+            int h2 = secondaryHash(orderId);
+            for (int i = 0; i < NUM_HASHES; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % mNumBits;
+                if ((mBits[bit >>> 6] & (1L << (bit & 63))) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int getCapacity() {
+            return mCapacity;
+        }
+
+        /** FNV-1a, so it's independent from String.hashCode(). */
+        private static int secondaryHash(String s) {
+            int hash = 0x811c9dc5;
+            for (int i = 0; i < s.length(); i++) {
+                hash ^= s.charAt(i);
+                hash *= 0x01000193;
+            }
+            return hash | 1;
+        }
+
+        private static final int BITS_PER_ENTRY = 10;
+        private static final int NUM_HASHES     = 7;
+
+        private final int    mCapacity;
+        private final int    mNumBits;
+        private final long[] mBits;
+    }
+
+    /** Private members **/
+
+    private static final String TAG = "SOOMLA ProcessedOrdersStorage";
+    private static final int MIN_FILTER_CAPACITY = 1024;
+
+    private OrderIdFilter mFilter;
+    private int           mFilterCount;
+}
@@ -67,6 +67,14 @@ public class StorageManager {
         mVirtualGoodsStorage =      new VirtualGoodsStorage();
         mGoogleManagedItemsStorage = new GoogleManagedItemsStorage();
         mKeyValueStorage = new KeyValueStorage();
+        mProcessedOrdersStorage = new ProcessedOrdersStorage();
+        mAffordabilityIndex = new AffordabilityIndex();
+        mDatabase.setTransactionListener(new StoreDatabase.TransactionListener() {
+            @Override
+            public void onTransactionEnded(boolean committed) {
+                mAffordabilityIndex.onTransactionEnded(committed);
+            }
+        });
     }
 
 
@@ -96,6 +104,14 @@ public class StorageManager {
         return mKeyValueStorage;
     }
 
+    public ProcessedOrdersStorage getProcessedOrdersStorage() {
+        return mProcessedOrdersStorage;
+    }
+
+    public AffordabilityIndex getAffordabilityIndex() {
+        return mAffordabilityIndex;
+    }
+
     private StorageManager(){ }
 
     /** Private members **/
@@ -108,6 +124,8 @@ public class StorageManager {
     private VirtualCurrencyStorage  mVirtualCurrencyStorage;
     private GoogleManagedItemsStorage mGoogleManagedItemsStorage;
     private KeyValueStorage         mKeyValueStorage;
+    private ProcessedOrdersStorage  mProcessedOrdersStorage;
+    private AffordabilityIndex      mAffordabilityIndex;
     private AESObfuscator           mObfuscator;
     private StoreDatabase           mDatabase;
 }
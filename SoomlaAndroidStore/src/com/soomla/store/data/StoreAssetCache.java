@@ -0,0 +1,521 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import com.soomla.store.IAssetSource;
+import com.soomla.store.StoreConfig;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A local cache of the assets (images) that are referenced by the storefront JSON.
+ *
+ * Assets are fetched from an {@link IAssetSource} and kept in two levels:
+ * - on disk, in the application's cache directory, up to {@link StoreConfig#ASSET_CACHE_DISK_SIZE} bytes. The least
+ *   recently used files are deleted first.
+ * - in memory, as decoded bitmaps, up to {@link StoreConfig#ASSET_CACHE_MEMORY_SIZE} bytes.
+ *
+ * There's no default source: set one with {@link #setSource(IAssetSource)} (for example a {@link UrlAssetSource}
+ * with the base URL of your assets). Until then only assets that are already on disk are available.
+ *
+ * When the store opens (and {@link StoreConfig#ASSET_PREFETCH} is true), {@link #prefetch()} downloads the assets of
+ * the storefront sections set with {@link #setPrefetchSections(List)} to disk on a background thread, so these
+ * sections don't wait for the network when they're shown.
+ *
+ * An asset reference is any string value of the storefront JSON that ends with an image extension
+ * (see {@link #isAssetReference(String)}). The reference is the cache key.
+ */
+public class StoreAssetCache {
+
+    public static StoreAssetCache getInstance(){
+        if (sInstance == null){
+            sInstance = new StoreAssetCache();
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Initializes the cache. Nothing is read from the disk until the cache is first used. The source and the
+     * sections to prefetch that were already set are kept.
+     * @param context is used to find the cache directory.
+     */
+    public synchronized void initialize(Context context) {
+        mDirectory = new File(context.getCacheDir(), DIRECTORY_NAME);
+        mDiskIndex = null;
+        mDiskSize = 0;
+        mMemoryCache = new BitmapCache(StoreConfig.ASSET_CACHE_MEMORY_SIZE);
+    }
+
+    /**
+     * Sets the source assets that are not on disk yet are fetched from. Assets that are already cached are kept.
+     * @param source is the new source. null means that only cached assets are available.
+     */
+    public synchronized void setSource(IAssetSource source) {
+        mSource = source;
+    }
+
+    /**
+     * Sets the sections of the storefront JSON (see {@link StorefrontInfo#getSection(String)}) whose assets
+     * {@link #prefetch()} downloads. Only these sections are read from the database when prefetching.
+     * @param sectionNames are the keys of the top-level sections to prefetch.
+     */
+    public synchronized void setPrefetchSections(List<String> sectionNames) {
+        mPrefetchSections = new ArrayList<String>(sectionNames);
+    }
+
+    /**
+     * Fetch the decoded asset with the given reference, from memory, disk or the source (in that order).
+     * NOTE: this may block on disk or network. Don't call it on the UI thread unless {@link #getCachedBitmap(String)}
+     * returned null and you're willing to wait.
+     * @param reference is the reference of the asset, as it appears in the storefront JSON.
+     * @return the decoded asset, or null if it can't be fetched or decoded.
+     */
+    public Bitmap getBitmap(String reference) {
+        Bitmap bitmap = getCachedBitmap(reference);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        try {
+            File file = getFile(reference);
+            bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+        } catch (IOException e) {
+            Log.e(TAG, "can't fetch the asset: " + reference);
+            return null;
+        }
+
+        if (bitmap == null) {
+            Log.e(TAG, "can't decode the asset: " + reference);
+            return null;
+        }
+
+        BitmapCache memoryCache = getMemoryCache();
+        if (memoryCache != null) {
+            memoryCache.put(reference, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Fetch the decoded asset with the given reference only if it's in memory. This never blocks.
+     * @param reference is the reference of the asset, as it appears in the storefront JSON.
+     * @return the decoded asset, or null if it's not in memory.
+     */
+    public Bitmap getCachedBitmap(String reference) {
+        BitmapCache memoryCache = getMemoryCache();
+        return memoryCache != null ? memoryCache.get(reference) : null;
+    }
+
+    /**
+     * Fetch the file of the asset with the given reference. The asset is fetched from the source if it's not on
+     * disk yet.
+     * NOTE: this may block on disk or network.
+     * @param reference is the reference of the asset, as it appears in the storefront JSON.
+     * @return the cached file of the asset.
+     * @throws IOException if the asset isn't cached and can't be fetched.
+     */
+    public File getFile(String reference) throws IOException {
+        String name = fileName(reference);
+        IAssetSource source;
+        File directory;
+        synchronized (this) {
+            if (mDirectory == null) {
+                throw new IOException("StoreAssetCache was never initialized.");
+            }
+            File file = new File(mDirectory, name);
+            if (getDiskIndex().get(name) != null && file.exists()) {
+                file.setLastModified(System.currentTimeMillis());
+                return file;
+            }
+            source = mSource;
+            directory = mDirectory;
+        }
+
+        if (source == null) {
+            throw new IOException("StoreAssetCache has no source.");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+
+        // downloads go to a temporary file first, so a failed download never leaves a partial asset in the cache.
+        File tmp = new File(directory, name + "." + Thread.currentThread().getId() + TMP_SUFFIX);
+        long size = download(source, reference, tmp);
+        File file = new File(directory, name);
+
+        synchronized (this) {
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Can't move " + tmp + " to " + file);
+            }
+
+            Long previous = getDiskIndex().put(name, size);
+            mDiskSize += size - (previous != null ? previous : 0);
+            trimDisk(name);
+        }
+
+        if (StoreConfig.debug){
+            Log.d(TAG, "fetched " + reference + " (" + size + " bytes)");
+        }
+        return file;
+    }
+
+    /**
+     * @param reference is the reference of an asset.
+     * @return true if the asset with the given reference is on disk.
+     */
+    public synchronized boolean isCached(String reference) {
+        if (mDirectory == null) {
+            return false;
+        }
+        String name = fileName(reference);
+        return getDiskIndex().containsKey(name) && new File(mDirectory, name).exists();
+    }
+
+    /**
+     * Downloads the assets referenced by the prefetch sections (see {@link #setPrefetchSections(List)}) to disk, on
+     * a background thread. Assets that are already on disk are not fetched again. Nothing is decoded.
+     * This does nothing if there's no source or no prefetch sections.
+     * This is called by {@link com.soomla.store.StoreController#storeOpening(android.app.Activity,
+     * android.os.Handler)} when {@link StoreConfig#ASSET_PREFETCH} is true.
+     */
+    public void prefetch() {
+        final List<String> sectionNames;
+        synchronized (this) {
+            if (mDirectory == null || mSource == null || mPrefetchSections.isEmpty()) {
+                if (StoreConfig.debug){
+                    Log.d(TAG, "nothing to prefetch. set a source and the sections to prefetch first.");
+                }
+                return;
+            }
+            sectionNames = mPrefetchSections;
+        }
+
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Set<String> referenceSet = new LinkedHashSet<String>();
+                for (String name : sectionNames) {
+                    collectAssetReferences(StorefrontInfo.getInstance().getSection(name), referenceSet);
+                }
+                List<String> references = new ArrayList<String>(referenceSet);
+
+                int fetched = 0;
+                for (String reference : references) {
+                    if (isCached(reference)) {
+                        continue;
+                    }
+                    try {
+                        getFile(reference);
+                        fetched++;
+                    } catch (IOException e) {
+                        Log.e(TAG, "can't prefetch the asset: " + reference);
+                    }
+                }
+
+                if (StoreConfig.debug){
+                    Log.d(TAG, "prefetched " + fetched + " of " + references.size() + " assets.");
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes all assets from memory and disk.
+     */
+    public synchronized void clear() {
+        if (mMemoryCache != null) {
+            mMemoryCache.evictAll();
+        }
+        if (mDirectory != null) {
+            File[] files = mDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+        mDiskIndex = null;
+        mDiskSize = 0;
+    }
+
+    /**
+     * Collects the asset references in the given storefront JSON, in the order they appear.
+     * @param storefrontObject is the storefront JSON (see {@link StorefrontInfo#getStorefrontObject()}).
+     * @return the distinct asset references.
+     */
+    public static List<String> getAssetReferences(JSONObject storefrontObject) {
+        Set<String> references = new LinkedHashSet<String>();
+        collectAssetReferences(storefrontObject, references);
+        return new ArrayList<String>(references);
+    }
+
+    /**
+     * @param value is a string value of the storefront JSON.
+     * @return true if the given value refers to an asset.
+     */
+    public static boolean isAssetReference(String value) {
+        String lower = value.toLowerCase(Locale.US);
+        int query = lower.indexOf('?');
+        if (query >= 0) {
+            lower = lower.substring(0, query);
+        }
+        for (String extension : ASSET_EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Getters **/
+
+    public synchronized long getDiskSize() {
+        if (mDirectory == null) {
+            return 0;
+        }
+        getDiskIndex();
+        return mDiskSize;
+    }
+
+    /** Private functions **/
+
+    private StoreAssetCache() { }
+
+    private synchronized BitmapCache getMemoryCache() {
+        return mMemoryCache;
+    }
+
+    /**
+     * Fetch the index of the files on disk, least recently used first. It's built from the cache directory the
+     * first time it's needed.
+     * NOTE: must be called while synchronized on this.
+     */
+    private LinkedHashMap<String, Long> getDiskIndex() {
+        if (mDiskIndex != null) {
+            return mDiskIndex;
+        }
+
+        mDiskIndex = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        mDiskSize = 0;
+
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File lhs, File rhs) {
+                    long l = lhs.lastModified();
+                    long r = rhs.lastModified();
+                    return l < r ? -1 : (l == r ? 0 : 1);
+                }
+            });
+            for (File file : files) {
+                if (file.getName().endsWith(TMP_SUFFIX)) {
+                    // left behind by a download that didn't finish.
+                    file.delete();
+                    continue;
+                }
+                mDiskIndex.put(file.getName(), file.length());
+                mDiskSize += file.length();
+            }
+        }
+        trimDisk(null);
+
+        if (StoreConfig.debug){
+            Log.d(TAG, "found " + mDiskIndex.size() + " cached assets (" + mDiskSize + " bytes)");
+        }
+        return mDiskIndex;
+    }
+
+    /**
+     * Deletes the least recently used files until the disk cache fits in its size. The given file is never deleted.
+     * NOTE: must be called while synchronized on this.
+     */
+    private void trimDisk(String keep) {
+        Iterator<Map.Entry<String, Long>> entries = mDiskIndex.entrySet().iterator();
+        while (mDiskSize > StoreConfig.ASSET_CACHE_DISK_SIZE && entries.hasNext()) {
+            Map.Entry<String, Long> entry = entries.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            new File(mDirectory, entry.getKey()).delete();
+            mDiskSize -= entry.getValue();
+            entries.remove();
+        }
+    }
+
+    private static long download(IAssetSource source, String reference, File file) throws IOException {
+        InputStream in = source.open(reference);
+        OutputStream out = null;
+        long size = 0;
+        boolean success = false;
+        try {
+            out = new FileOutputStream(file);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                size += read;
+            }
+            success = true;
+        } finally {
+            in.close();
+            if (out != null) {
+                out.close();
+            }
+            if (!success) {
+                file.delete();
+            }
+        }
+        return size;
+    }
+
+    private static void collectAssetReferences(Object value, Set<String> references) {
+        if (value instanceof JSONObject) {
+            JSONObject jsonObject = (JSONObject) value;
+            Iterator<?> keys = jsonObject.keys();
+            while (keys.hasNext()) {
+                collectAssetReferences(jsonObject.opt((String) keys.next()), references);
+            }
+        } else if (value instanceof JSONArray) {
+            JSONArray jsonArray = (JSONArray) value;
+            for (int i = 0; i < jsonArray.length(); i++) {
+                collectAssetReferences(jsonArray.opt(i), references);
+            }
+        } else if (value instanceof String && isAssetReference((String) value)) {
+            references.add((String) value);
+        }
+    }
+
+    /**
+     * @return the name of the file of the asset with the given reference: the SHA-1 of the reference, in hex.
+     */
+    private static String fileName(String reference) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(reference.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SoomlaAssetCache");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    /**
+     * A memory cache of decoded bitmaps, bounded by their size in bytes. The least recently used bitmaps are evicted
+     * first. (android.util.LruCache would do, but it needs API level 12.)
+     */
+    private static class BitmapCache {
+
+        public BitmapCache(int maxSize) {
+            mMaxSize = maxSize;
+        }
+
+        public synchronized Bitmap get(String key) {
+            return mBitmaps.get(key);
+        }
+
+        public synchronized void put(String key, Bitmap bitmap) {
+            Bitmap previous = mBitmaps.put(key, bitmap);
+            mSize += sizeOf(bitmap) - (previous != null ? sizeOf(previous) : 0);
+
+            Iterator<Map.Entry<String, Bitmap>> entries = mBitmaps.entrySet().iterator();
+            while (mSize > mMaxSize && entries.hasNext()) {
+                mSize -= sizeOf(entries.next().getValue());
+                entries.remove();
+            }
+        }
+
+        public synchronized void evictAll() {
+            mBitmaps.clear();
+            mSize = 0;
+        }
+
+        private static long sizeOf(Bitmap bitmap) {
+            return (long) bitmap.getRowBytes() * bitmap.getHeight();
+        }
+
+        private final LinkedHashMap<String, Bitmap> mBitmaps = new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+        private final int                           mMaxSize;
+        private long                                mSize;
+    }
+
+    /** Private members **/
+
+    private static final String TAG = "SOOMLA StoreAssetCache";
+
+    private static final String DIRECTORY_NAME = "soomla_assets";
+    private static final String TMP_SUFFIX     = ".tmp";
+
+    private static final String[] ASSET_EXTENSIONS = { ".png", ".jpg", ".jpeg", ".gif", ".webp", ".bmp" };
+
+    private static StoreAssetCache sInstance = null;
+    private static ExecutorService sExecutor = null;
+
+    private File                        mDirectory;
+    private IAssetSource                mSource;
+    private LinkedHashMap<String, Long> mDiskIndex;
+    private long                        mDiskSize;
+    private BitmapCache                 mMemoryCache;
+    private List<String>                mPrefetchSections = new ArrayList<String>();
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.IStoreAssets;
+import com.soomla.store.domain.data.*;
+import org.json.JSONException;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * This class calculates content hashes of the store's meta data.
+ * The hashes are saved in the database next to the meta data they describe, so the (relatively expensive) work of
+ * serializing, encrypting and writing the meta data is only done when it actually changed.
+ *
+ * The hash of {@link IStoreAssets} is calculated by walking its items directly. It doesn't serialize anything.
+ */
+public class StoreAssetsDigest {
+
+    /**
+     * Calculates a content hash of the given {@link IStoreAssets}.
+     * @param storeAssets is the definition of the application's assets.
+     * @return a hex string representing the content of the given assets.
+     */
+    public static String digest(IStoreAssets storeAssets) {
+        MessageDigest messageDigest = newMessageDigest();
+        DataOutputStream out = new DataOutputStream(new DigestOutputStream(NULL_OUTPUT_STREAM, messageDigest));
+        try {
+            VirtualCategory[] categories = storeAssets.getVirtualCategories();
+            out.writeInt(categories.length);
+            for (VirtualCategory category : categories) {
+                out.writeInt(category.getmId());
+                writeString(out, category.getName());
+                out.writeInt(category.getEquipSlots());
+            }
+
+            VirtualCurrency[] currencies = storeAssets.getVirtualCurrencies();
+            out.writeInt(currencies.length);
+            for (VirtualCurrency currency : currencies) {
+                writeItem(out, currency);
+            }
+
+            VirtualCurrencyPack[] packs = storeAssets.getVirtualCurrencyPacks();
+            out.writeInt(packs.length);
+            for (VirtualCurrencyPack pack : packs) {
+                writeItem(out, pack);
+                writeString(out, pack.getProductId());
+                out.writeDouble(pack.getPrice());
+                out.writeInt(pack.getCurrencyAmount());
+                writeString(out, pack.getVirtualCurrency() != null ? pack.getVirtualCurrency().getItemId() : null);
+            }
+
+            VirtualGood[] goods = storeAssets.getVirtualGoods();
+            out.writeInt(goods.length);
+            for (VirtualGood good : goods) {
+                writeItem(out, good);
+                out.writeInt(good.getCategory() != null ? good.getCategory().getmId() : -1);
+                out.writeBoolean(good.isEquipped());
+                writePriceModel(out, good.getPriceModel());
+            }
+
+            GoogleMarketItem[] managedItems = storeAssets.getGoogleManagedItems();
+            out.writeInt(managedItems.length);
+            for (GoogleMarketItem item : managedItems) {
+                writeString(out, item.getProductId());
+                writeString(out, item.getManaged().name());
+            }
+
+            out.flush();
+        } catch (IOException e) {
+            // can't happen, we're not writing anywhere.
+            throw new RuntimeException(e);
+        }
+
+        return toHex(messageDigest.digest());
+    }
+
+    /**
+     * Calculates a content hash of the given string.
+     * @param content is the string to hash.
+     * @return a hex string representing the given content.
+     */
+    public static String digest(String content) {
+        MessageDigest messageDigest = newMessageDigest();
+        try {
+            messageDigest.update(content.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Invalid environment", e);
+        }
+
+        return toHex(messageDigest.digest());
+    }
+
+    /** Private functions **/
+
+    private static void writeItem(DataOutputStream out, AbstractVirtualItem item) throws IOException {
+        writeString(out, item.getItemId());
+        writeString(out, item.getName());
+        writeString(out, item.getDescription());
+    }
+
+    private static void writePriceModel(DataOutputStream out, AbstractPriceModel priceModel) throws IOException {
+        if (priceModel instanceof StaticPriceModel) {
+            out.writeByte(1);
+            writeCurrencyValues(out, ((StaticPriceModel) priceModel).getCurrencyValue());
+        } else if (priceModel instanceof BalanceDrivenPriceModel) {
+            ArrayList<HashMap<String, Integer>> valuesPerBalance =
+                    ((BalanceDrivenPriceModel) priceModel).getCurrencyValuePerBalance();
+            out.writeByte(2);
+            out.writeInt(valuesPerBalance.size());
+            for (HashMap<String, Integer> values : valuesPerBalance) {
+                writeCurrencyValues(out, values);
+            }
+        } else if (priceModel != null) {
+            // any other price model is hashed by its JSON representation.
+            out.writeByte(0);
+            try {
+                writeString(out, priceModel.toJSONObject().toString());
+            } catch (JSONException e) {
+                writeString(out, priceModel.getClass().getName());
+            }
+        } else {
+            out.writeByte(-1);
+        }
+    }
+
+    private static void writeCurrencyValues(DataOutputStream out, HashMap<String, Integer> values) throws IOException {
+        // HashMap iteration order isn't defined, so the keys are sorted first.
+        ArrayList<String> keys = new ArrayList<String>(values.keySet());
+        Collections.sort(keys);
+        out.writeInt(keys.size());
+        for (String key : keys) {
+            writeString(out, key);
+            Integer value = values.get(key);
+            out.writeInt(value != null ? value : 0);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Invalid environment", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(HEX_DIGITS[(b >> 4) & 0xf]);
+            sb.append(HEX_DIGITS[b & 0xf]);
+        }
+        return sb.toString();
+    }
+
+    private StoreAssetsDigest() { }
+
+    /** Private members **/
+
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+}
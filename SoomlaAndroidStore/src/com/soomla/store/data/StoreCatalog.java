@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.domain.data.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the store's meta data, indexed for O(1) lookups.
+ * The catalog is built once when {@link StoreInfo} is loaded (from {@link com.soomla.store.IStoreAssets} or from
+ * the database) and is never changed afterwards. {@link StoreInfo} replaces the whole catalog when it's reloaded.
+ *
+ * If the same id is defined more than once, the first definition wins.
+ *
+ * A catalog that was decoded lazily (see {@link StoreCatalogCodec#decode(byte[], boolean)}) only creates a virtual
+ * good when it's first accessed. Use {@link #getVirtualGoods(int, int)} to page through the virtual goods of such a
+ * catalog (iterating over {@link #getVirtualGoods()} decodes all of them).
+ *
+ * Every virtual currency and virtual good has an ordinal: its index in {@link #getVirtualCurrencies()} or
+ * {@link #getVirtualGoods()}. Ordinals are dense (0..count-1) so they can index primitive arrays. They belong to a
+ * specific catalog: if StoreInfo is reloaded with a different catalog, ordinals must be looked up again.
+ */
+public class StoreCatalog {
+
+    /**
+     * A catalog without any items. This is the catalog of {@link StoreInfo} before it's initialized.
+     */
+    public static final StoreCatalog EMPTY = new StoreCatalog(
+            Collections.<VirtualCategory>emptyList(),
+            Collections.<VirtualCurrency>emptyList(),
+            Collections.<VirtualCurrencyPack>emptyList(),
+            Collections.<VirtualGood>emptyList(),
+            Collections.<GoogleMarketItem>emptyList());
+
+    /** Constructor
+     *
+     * @param virtualCategories are the virtual categories of the store.
+     * @param virtualCurrencies are the virtual currencies of the store.
+     * @param virtualCurrencyPacks are the virtual currency packs of the store.
+     * @param virtualGoods are the virtual goods of the store.
+     * @param googleManagedItems are the google MANAGED items of the store.
+     */
+    public StoreCatalog(List<VirtualCategory> virtualCategories,
+                        List<VirtualCurrency> virtualCurrencies,
+                        List<VirtualCurrencyPack> virtualCurrencyPacks,
+                        List<VirtualGood> virtualGoods,
+                        List<GoogleMarketItem> googleManagedItems) {
+        mVirtualCategories    = Collections.unmodifiableList(new ArrayList<VirtualCategory>(virtualCategories));
+        mVirtualCurrencies    = Collections.unmodifiableList(new ArrayList<VirtualCurrency>(virtualCurrencies));
+        mVirtualCurrencyPacks = Collections.unmodifiableList(new ArrayList<VirtualCurrencyPack>(virtualCurrencyPacks));
+        if (virtualGoods instanceof LazyVirtualGoodList){
+            // already unmodifiable. copying it would decode all of its virtual goods.
+            mVirtualGoods     = virtualGoods;
+        } else {
+            mVirtualGoods     = Collections.unmodifiableList(new ArrayList<VirtualGood>(virtualGoods));
+        }
+        mGoogleManagedItems   = Collections.unmodifiableList(new ArrayList<GoogleMarketItem>(googleManagedItems));
+
+        mCategoriesById = new HashMap<Integer, VirtualCategory>(capacityFor(mVirtualCategories.size()));
+        for (VirtualCategory category : mVirtualCategories){
+            if (!mCategoriesById.containsKey(category.getmId())){
+                mCategoriesById.put(category.getmId(), category);
+            }
+        }
+
+        mCurrencyOrdinalsByItemId = new HashMap<String, Integer>(capacityFor(mVirtualCurrencies.size()));
+        for (int i = 0; i < mVirtualCurrencies.size(); i++){
+            putIfAbsent(mCurrencyOrdinalsByItemId, mVirtualCurrencies.get(i).getItemId(), i);
+        }
+
+        mPacksByItemId = new HashMap<String, VirtualCurrencyPack>(capacityFor(mVirtualCurrencyPacks.size()));
+        mPacksByProductId = new HashMap<String, VirtualCurrencyPack>(capacityFor(mVirtualCurrencyPacks.size()));
+        for (VirtualCurrencyPack pack : mVirtualCurrencyPacks){
+            putIfAbsent(mPacksByItemId, pack.getItemId(), pack);
+            putIfAbsent(mPacksByProductId, pack.getProductId(), pack);
+        }
+
+        mGoodOrdinalsByItemId = new HashMap<String, Integer>(capacityFor(mVirtualGoods.size()));
+        for (int i = 0; i < mVirtualGoods.size(); i++){
+            putIfAbsent(mGoodOrdinalsByItemId, getVirtualGoodItemId(i), i);
+        }
+
+        mGoogleManagedItemsByProductId = new HashMap<String, GoogleMarketItem>(capacityFor(mGoogleManagedItems.size()));
+        for (GoogleMarketItem item : mGoogleManagedItems){
+            putIfAbsent(mGoogleManagedItemsByProductId, item.getProductId(), item);
+        }
+
+        // prices are compiled once, here. virtual goods of a lazy catalog compile their prices on first use.
+        if (!(mVirtualGoods instanceof LazyVirtualGoodList)){
+            for (VirtualGood good : mVirtualGoods){
+                if (good.getPriceModel() != null){
+                    good.getPriceModel().compile(this);
+                }
+            }
+        }
+    }
+
+    /** Lookups. All of these return null if the requested item doesn't exist. **/
+
+    public VirtualCategory getVirtualCategory(int id) {
+        return mCategoriesById.get(id);
+    }
+
+    public VirtualCurrency getVirtualCurrency(String itemId) {
+        Integer ordinal = mCurrencyOrdinalsByItemId.get(itemId);
+        return ordinal != null ? mVirtualCurrencies.get(ordinal) : null;
+    }
+
+    public VirtualCurrencyPack getPackByItemId(String itemId) {
+        return mPacksByItemId.get(itemId);
+    }
+
+    public VirtualCurrencyPack getPackByProductId(String productId) {
+        return mPacksByProductId.get(productId);
+    }
+
+    public VirtualGood getVirtualGood(String itemId) {
+        Integer ordinal = mGoodOrdinalsByItemId.get(itemId);
+        return ordinal != null ? mVirtualGoods.get(ordinal) : null;
+    }
+
+    public GoogleMarketItem getGoogleManagedItem(String productId) {
+        return mGoogleManagedItemsByProductId.get(productId);
+    }
+
+    /** Ordinals. The lookups by itemId return -1 if the requested item doesn't exist. **/
+
+    public int getCurrencyOrdinal(String itemId) {
+        Integer ordinal = mCurrencyOrdinalsByItemId.get(itemId);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    public int getGoodOrdinal(String itemId) {
+        Integer ordinal = mGoodOrdinalsByItemId.get(itemId);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    public VirtualCurrency getVirtualCurrencyByOrdinal(int ordinal) {
+        return mVirtualCurrencies.get(ordinal);
+    }
+
+    public VirtualGood getVirtualGoodByOrdinal(int ordinal) {
+        return mVirtualGoods.get(ordinal);
+    }
+
+    /**
+     * Fetch the itemId of a virtual good without creating it (in a lazy catalog).
+     * @param ordinal is the ordinal of the virtual good.
+     * @return the item id of the virtual good.
+     */
+    public String getVirtualGoodItemId(int ordinal) {
+        if (mVirtualGoods instanceof LazyVirtualGoodList){
+            return ((LazyVirtualGoodList) mVirtualGoods).getItemId(ordinal);
+        }
+        return mVirtualGoods.get(ordinal).getItemId();
+    }
+
+    /**
+     * Fetch a virtual good only if it was already created (in a lazy catalog, it's not decoded here).
+     * @param ordinal is the ordinal of the virtual good.
+     * @return the virtual good, or null if it wasn't created yet.
+     */
+    public VirtualGood peekVirtualGoodByOrdinal(int ordinal) {
+        if (mVirtualGoods instanceof LazyVirtualGoodList){
+            return ((LazyVirtualGoodList) mVirtualGoods).peek(ordinal);
+        }
+        return mVirtualGoods.get(ordinal);
+    }
+
+    /**
+     * @return the number of virtual goods that were already created (all of them, in a catalog that's not lazy).
+     */
+    public int getCreatedVirtualGoodsCount() {
+        if (mVirtualGoods instanceof LazyVirtualGoodList){
+            return ((LazyVirtualGoodList) mVirtualGoods).getDecodedCount();
+        }
+        return mVirtualGoods.size();
+    }
+
+    /** Getters. The returned lists are unmodifiable. **/
+
+    public List<VirtualCategory> getVirtualCategories() {
+        return mVirtualCategories;
+    }
+
+    public List<VirtualCurrency> getVirtualCurrencies() {
+        return mVirtualCurrencies;
+    }
+
+    public List<VirtualCurrencyPack> getVirtualCurrencyPacks() {
+        return mVirtualCurrencyPacks;
+    }
+
+    public List<VirtualGood> getVirtualGoods() {
+        return mVirtualGoods;
+    }
+
+    public List<GoogleMarketItem> getGoogleManagedItems() {
+        return mGoogleManagedItems;
+    }
+
+    /** Paging. Only the virtual goods of the requested page are created in a lazy catalog. **/
+
+    public int getVirtualGoodsCount() {
+        return mVirtualGoods.size();
+    }
+
+    /**
+     * Fetch a page of virtual goods.
+     * @param offset is the index of the first virtual good in the page.
+     * @param count is the maximum number of virtual goods in the page.
+     * @return an unmodifiable list of (at most) count virtual goods, starting at offset. The list is empty if offset
+     * is past the last virtual good.
+     */
+    public List<VirtualGood> getVirtualGoods(int offset, int count) {
+        if (offset < 0 || count < 0){
+            throw new IllegalArgumentException("offset and count can't be negative.");
+        }
+
+        int end = (int) Math.min((long) offset + count, mVirtualGoods.size());
+        if (offset >= end){
+            return Collections.emptyList();
+        }
+
+        ArrayList<VirtualGood> page = new ArrayList<VirtualGood>(end - offset);
+        for (int i = offset; i < end; i++){
+            page.add(mVirtualGoods.get(i));
+        }
+        return Collections.unmodifiableList(page);
+    }
+
+    /**
+     * @return whether the virtual goods of this catalog are created on first access.
+     */
+    public boolean isLazy() {
+        return mVirtualGoods instanceof LazyVirtualGoodList;
+    }
+
+    /** Private functions **/
+
+    private static <T> void putIfAbsent(HashMap<String, T> map, String key, T value) {
+        if (!map.containsKey(key)){
+            map.put(key, value);
+        }
+    }
+
+    private static int capacityFor(int size) {
+        return Math.max(16, (int) (size / 0.75f) + 1);
+    }
+
+    /** Private members **/
+
+    private final List<VirtualCategory>     mVirtualCategories;
+    private final List<VirtualCurrency>     mVirtualCurrencies;
+    private final List<VirtualCurrencyPack> mVirtualCurrencyPacks;
+    private final List<VirtualGood>         mVirtualGoods;
+    private final List<GoogleMarketItem>    mGoogleManagedItems;
+
+    private final HashMap<Integer, VirtualCategory>     mCategoriesById;
+    private final HashMap<String, Integer>              mCurrencyOrdinalsByItemId;
+    private final HashMap<String, VirtualCurrencyPack>  mPacksByItemId;
+    private final HashMap<String, VirtualCurrencyPack>  mPacksByProductId;
+    private final HashMap<String, Integer>              mGoodOrdinalsByItemId;
+    private final HashMap<String, GoogleMarketItem>     mGoogleManagedItemsByProductId;
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.domain.data.*;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class encodes a {@link StoreCatalog} into a compact binary format (and back).
+ * This is the format StoreInfo is saved in the metadata table. Unlike the JSON format, decoding doesn't build any
+ * intermediate tree: the domain objects are created directly from the bytes.
+ *
+ * The format is:
+ *   header:     int MAGIC, short FORMAT_VERSION
+ *   categories: int count, { int id, string name, int equipSlots }
+ *   currencies: int count, { string itemId, string name, string description }
+ *   packs:      int count, { string itemId, string name, string description, string productId, double price,
+ *                            int currencyAmount, int currencyIndex }
+ *   goods:      int count, { int recordLength, string itemId, string name, string description, int categoryId,
+ *                            boolean equipped, priceModel }
+ *   managed:    int count, { string productId, byte managed }
+ *
+ * Currencies are referenced by their index in the currencies section. Every virtual good record is prefixed with
+ * its length so a reader can skip over it without decoding it.
+ * If you change the format, bump FORMAT_VERSION.
+ */
+public class StoreCatalogCodec {
+
+    public static final short FORMAT_VERSION = 2;
+
+    /**
+     * Encodes the given catalog.
+     * @param catalog is the catalog to encode.
+     * @return the binary representation of the given catalog.
+     */
+    public static byte[] encode(StoreCatalog catalog) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT_VERSION);
+
+            List<VirtualCategory> categories = catalog.getVirtualCategories();
+            out.writeInt(categories.size());
+            for (VirtualCategory category : categories) {
+                out.writeInt(category.getmId());
+                writeString(out, category.getName());
+                out.writeInt(category.getEquipSlots());
+            }
+
+            List<VirtualCurrency> currencies = catalog.getVirtualCurrencies();
+            HashMap<String, Integer> currencyIndexes = new HashMap<String, Integer>();
+            out.writeInt(currencies.size());
+            for (int i = 0; i < currencies.size(); i++) {
+                VirtualCurrency currency = currencies.get(i);
+                writeItem(out, currency);
+                if (!currencyIndexes.containsKey(currency.getItemId())) {
+                    currencyIndexes.put(currency.getItemId(), i);
+                }
+            }
+
+            List<VirtualCurrencyPack> packs = catalog.getVirtualCurrencyPacks();
+            out.writeInt(packs.size());
+            for (VirtualCurrencyPack pack : packs) {
+                writeItem(out, pack);
+                writeString(out, pack.getProductId());
+                out.writeDouble(pack.getPrice());
+                out.writeInt(pack.getCurrencyAmount());
+                Integer currencyIndex = pack.getVirtualCurrency() != null ?
+                        currencyIndexes.get(pack.getVirtualCurrency().getItemId()) : null;
+                out.writeInt(currencyIndex != null ? currencyIndex : -1);
+            }
+
+            List<VirtualGood> goods = catalog.getVirtualGoods();
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+            DataOutputStream record = new DataOutputStream(recordBytes);
+            out.writeInt(goods.size());
+            for (VirtualGood good : goods) {
+                recordBytes.reset();
+                writeItem(record, good);
+                record.writeInt(good.getCategory() != null ? good.getCategory().getmId() : -1);
+                record.writeBoolean(good.isEquipped());
+                writePriceModel(record, good.getPriceModel(), currencyIndexes);
+                record.flush();
+
+                out.writeInt(recordBytes.size());
+                recordBytes.writeTo(out);
+            }
+
+            List<GoogleMarketItem> managedItems = catalog.getGoogleManagedItems();
+            out.writeInt(managedItems.size());
+            for (GoogleMarketItem item : managedItems) {
+                writeString(out, item.getProductId());
+                out.writeByte(item.getManaged().ordinal());
+            }
+
+            out.flush();
+        } catch (IOException e) {
+            // can't happen, we're writing to memory.
+            throw new RuntimeException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes the given bytes into a {@link StoreCatalog}.
+     * @param data is a binary representation of a catalog (as created by {@link #encode(StoreCatalog)}).
+     * @return the decoded catalog.
+     * @throws IOException if the given bytes are not a valid encoded catalog (or were encoded with another
+     * format version).
+     */
+    public static StoreCatalog decode(byte[] data) throws IOException {
+        return decode(data, false);
+    }
+
+    /**
+     * Decodes the given bytes into a {@link StoreCatalog}.
+     * @param data is a binary representation of a catalog (as created by {@link #encode(StoreCatalog)}).
+     * @param lazy if true, virtual goods are not decoded here. Only their item ids are read, and every virtual good
+     *             is decoded when it's first accessed. The returned catalog keeps a reference to data so don't
+     *             change it afterwards.
+     * @return the decoded catalog.
+     * @throws IOException if the given bytes are not a valid encoded catalog (or were encoded with another
+     * format version).
+     */
+    public static StoreCatalog decode(byte[] data, boolean lazy) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an encoded store catalog.");
+        }
+        short version = in.readShort();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported store catalog format version: " + version);
+        }
+
+        int count = readCount(in);
+        ArrayList<VirtualCategory> categories = new ArrayList<VirtualCategory>(count);
+        HashMap<Integer, VirtualCategory> categoriesById = new HashMap<Integer, VirtualCategory>();
+        for (int i = 0; i < count; i++) {
+            int id = in.readInt();
+            String name = readString(in);
+            VirtualCategory category = new VirtualCategory(name, id, in.readInt());
+            categories.add(category);
+            if (!categoriesById.containsKey(id)) {
+                categoriesById.put(id, category);
+            }
+        }
+
+        count = readCount(in);
+        ArrayList<VirtualCurrency> currencies = new ArrayList<VirtualCurrency>(count);
+        for (int i = 0; i < count; i++) {
+            String itemId = readString(in);
+            String name = readString(in);
+            String description = readString(in);
+            currencies.add(new VirtualCurrency(name, description, itemId));
+        }
+
+        count = readCount(in);
+        ArrayList<VirtualCurrencyPack> packs = new ArrayList<VirtualCurrencyPack>(count);
+        for (int i = 0; i < count; i++) {
+            String itemId = readString(in);
+            String name = readString(in);
+            String description = readString(in);
+            String productId = readString(in);
+            double price = in.readDouble();
+            int currencyAmount = in.readInt();
+            int currencyIndex = in.readInt();
+            VirtualCurrency currency = currencyIndex >= 0 && currencyIndex < currencies.size() ?
+                    currencies.get(currencyIndex) : null;
+            packs.add(new VirtualCurrencyPack(name, description, itemId, productId, price, currencyAmount, currency));
+        }
+
+        count = readCount(in);
+        List<VirtualGood> goods;
+        if (lazy) {
+            String[] itemIds = new String[count];
+            int[] offsets = new int[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                lengths[i] = readCount(in);
+                offsets[i] = data.length - in.available();
+                if (offsets[i] + lengths[i] > data.length) {
+                    throw new IOException("Invalid virtual good record length: " + lengths[i]);
+                }
+                itemIds[i] = readString(in);
+                in.skipBytes(offsets[i] + lengths[i] - (data.length - in.available()));
+            }
+            goods = new LazyVirtualGoodList(data, itemIds, offsets, lengths, currencies, categoriesById);
+        } else {
+            goods = new ArrayList<VirtualGood>(count);
+            for (int i = 0; i < count; i++) {
+                in.readInt(); // record length. we read the record anyway.
+                goods.add(readGood(in, currencies, categoriesById));
+            }
+        }
+
+        count = readCount(in);
+        GoogleMarketItem.Managed[] managedValues = GoogleMarketItem.Managed.values();
+        ArrayList<GoogleMarketItem> managedItems = new ArrayList<GoogleMarketItem>(count);
+        for (int i = 0; i < count; i++) {
+            String productId = readString(in);
+            int managed = in.readByte();
+            if (managed < 0 || managed >= managedValues.length) {
+                throw new IOException("Invalid managed type: " + managed);
+            }
+            managedItems.add(new GoogleMarketItem(productId, managedValues[managed]));
+        }
+
+        return new StoreCatalog(categories, currencies, packs, goods, managedItems);
+    }
+
+    /**
+     * Decodes a single virtual good record.
+     * Used by {@link LazyVirtualGoodList} to decode virtual goods on first access.
+     */
+    static VirtualGood decodeGood(byte[] data, int offset, int length, List<VirtualCurrency> currencies,
+                                  HashMap<Integer, VirtualCategory> categoriesById) throws IOException {
+        return readGood(new DataInputStream(new ByteArrayInputStream(data, offset, length)), currencies,
+                categoriesById);
+    }
+
+    /** Private functions **/
+
+    private static VirtualGood readGood(DataInputStream in, List<VirtualCurrency> currencies,
+                                        HashMap<Integer, VirtualCategory> categoriesById) throws IOException {
+        String itemId = readString(in);
+        String name = readString(in);
+        String description = readString(in);
+        int categoryId = in.readInt();
+        boolean equipped = in.readBoolean();
+        AbstractPriceModel priceModel = readPriceModel(in, currencies);
+
+        return new VirtualGood(name, description, priceModel, itemId, categoriesById.get(categoryId), equipped);
+    }
+
+    private static void writePriceModel(DataOutputStream out, AbstractPriceModel priceModel,
+                                        HashMap<String, Integer> currencyIndexes) throws IOException {
+        if (priceModel == null) {
+            out.writeByte(PRICE_MODEL_NONE);
+        } else if (priceModel instanceof StaticPriceModel) {
+            out.writeByte(PRICE_MODEL_STATIC);
+            writeCurrencyValues(out, ((StaticPriceModel) priceModel).getCurrencyValue(), currencyIndexes);
+        } else if (priceModel instanceof BalanceDrivenPriceModel) {
+            ArrayList<HashMap<String, Integer>> valuesPerBalance =
+                    ((BalanceDrivenPriceModel) priceModel).getCurrencyValuePerBalance();
+            out.writeByte(PRICE_MODEL_BALANCE);
+            out.writeInt(valuesPerBalance.size());
+            for (HashMap<String, Integer> values : valuesPerBalance) {
+                writeCurrencyValues(out, values, currencyIndexes);
+            }
+        } else {
+            // price models without a binary representation are kept as JSON.
+            out.writeByte(PRICE_MODEL_JSON);
+            try {
+                writeLongString(out, priceModel.toJSONObject().toString());
+            } catch (JSONException e) {
+                throw new IOException("Can't encode price model: " + e.getMessage());
+            }
+        }
+    }
+
+    private static AbstractPriceModel readPriceModel(DataInputStream in, List<VirtualCurrency> currencies)
+            throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case PRICE_MODEL_NONE:
+                return null;
+            case PRICE_MODEL_STATIC:
+                return new StaticPriceModel(readCurrencyValues(in, currencies));
+            case PRICE_MODEL_BALANCE:
+                int count = readCount(in);
+                ArrayList<HashMap<String, Integer>> valuesPerBalance = new ArrayList<HashMap<String, Integer>>(count);
+                for (int i = 0; i < count; i++) {
+                    valuesPerBalance.add(readCurrencyValues(in, currencies));
+                }
+                return new BalanceDrivenPriceModel(valuesPerBalance);
+            case PRICE_MODEL_JSON:
+                try {
+                    return AbstractPriceModel.fromJSONObject(new JSONObject(readLongString(in)));
+                } catch (JSONException e) {
+                    throw new IOException("Can't decode price model: " + e.getMessage());
+                }
+            default:
+                throw new IOException("Unknown price model type: " + type);
+        }
+    }
+
+    private static void writeCurrencyValues(DataOutputStream out, HashMap<String, Integer> values,
+                                            HashMap<String, Integer> currencyIndexes) throws IOException {
+        out.writeInt(values.size());
+        for (Map.Entry<String, Integer> entry : values.entrySet()) {
+            Integer index = currencyIndexes.get(entry.getKey());
+            if (index != null) {
+                out.writeInt(index);
+            } else {
+                // a currency that's not in the catalog. keep its itemId as is.
+                out.writeInt(-1);
+                writeString(out, entry.getKey());
+            }
+            out.writeInt(entry.getValue() != null ? entry.getValue() : 0);
+        }
+    }
+
+    private static HashMap<String, Integer> readCurrencyValues(DataInputStream in, List<VirtualCurrency> currencies)
+            throws IOException {
+        int count = readCount(in);
+        HashMap<String, Integer> values = new HashMap<String, Integer>();
+        for (int i = 0; i < count; i++) {
+            int index = in.readInt();
+            String itemId;
+            if (index < 0) {
+                itemId = readString(in);
+            } else if (index < currencies.size()) {
+                itemId = currencies.get(index).getItemId();
+            } else {
+                throw new IOException("Invalid currency index: " + index);
+            }
+            values.put(itemId, in.readInt());
+        }
+        return values;
+    }
+
+    private static void writeItem(DataOutputStream out, AbstractVirtualItem item) throws IOException {
+        writeString(out, item.getItemId());
+        writeString(out, item.getName());
+        writeString(out, item.getDescription());
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /** writeUTF is limited to 64KB, this one isn't. **/
+    private static void writeLongString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readLongString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readCount(in)];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid count: " + count);
+        }
+        return count;
+    }
+
+    private StoreCatalogCodec() { }
+
+    /** Private members **/
+
+    private static final int  MAGIC = 0x534f4d43; // "SOMC"
+
+    private static final byte PRICE_MODEL_NONE    = 0;
+    private static final byte PRICE_MODEL_STATIC  = 1;
+    private static final byte PRICE_MODEL_BALANCE = 2;
+    private static final byte PRICE_MODEL_JSON    = 3;
+}
@@ -0,0 +1,734 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.domain.data.*;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class writes a {@link StoreCatalog} as JSON straight to a stream, and reads it back from one, without
+ * building a tree of JSONObjects for the whole catalog (see {@link StoreInfo#toJSONObject()}).
+ *
+ * The JSON is the same as the one {@link StoreInfo#toJSONObject()} generates, so each side can read what the other
+ * wrote. The reader doesn't depend on the order of keys: currency packs and virtual goods are linked to their
+ * currencies and categories after the whole catalog was read.
+ *
+ * Only org.json is used (android.util.JsonReader and JsonWriter are API 11), so this works on every API level the
+ * library supports. The writer writes straight to the given Writer. The reader reads the text and walks it with a
+ * {@link JSONTokener}, creating the domain objects as it goes.
+ *
+ * The static and balance-driven price models are streamed as well (when their "type" comes first, as this writer
+ * puts it). Any other price model goes through its JSONObject representation, which is small.
+ */
+public class StoreCatalogJSON {
+
+    /**
+     * Writes the given catalog as JSON to the given writer. The writer is flushed but not closed.
+     * @param catalog is the catalog to write.
+     * @param writer is the writer to write to.
+     * @throws IOException
+     */
+    public static void write(StoreCatalog catalog, Writer writer) throws IOException {
+        JsonOut json = new JsonOut(writer);
+        json.beginObject();
+
+        json.name(JSONConsts.STORE_VIRTUALCATEGORIES).beginArray();
+        for (VirtualCategory category : catalog.getVirtualCategories()) {
+            json.beginObject();
+            json.name(JSONConsts.CATEGORY_NAME).value(category.getName());
+            json.name(JSONConsts.CATEGORY_ID).value(category.getmId());
+            json.name(JSONConsts.CATEGORY_EQUIP_SLOTS).value(category.getEquipSlots());
+            json.endObject();
+        }
+        json.endArray();
+
+        json.name(JSONConsts.STORE_VIRTUALCURRENCIES).beginArray();
+        for (VirtualCurrency currency : catalog.getVirtualCurrencies()) {
+            json.beginObject();
+            writeItem(json, currency);
+            json.endObject();
+        }
+        json.endArray();
+
+        json.name(JSONConsts.STORE_VIRTUALGOODS).beginArray();
+        for (VirtualGood good : catalog.getVirtualGoods()) {
+            json.beginObject();
+            writeItem(json, good);
+            json.name(JSONConsts.GOOD_PRICE_MODEL);
+            writePriceModel(json, good.getPriceModel());
+            json.name(JSONConsts.GOOD_CATEGORY_ID).value(good.getCategory() != null ? good.getCategory().getmId() : -1);
+            json.name(JSONConsts.GOOD_EQUIPPED).value(good.isEquipped());
+            json.endObject();
+        }
+        json.endArray();
+
+        json.name(JSONConsts.STORE_CURRENCYPACKS).beginArray();
+        for (VirtualCurrencyPack pack : catalog.getVirtualCurrencyPacks()) {
+            json.beginObject();
+            writeItem(json, pack);
+            json.name(JSONConsts.CURRENCYPACK_PRICE).value(pack.getPrice());
+            json.name(JSONConsts.CURRENCYPACK_PRODUCT_ID).value(pack.getProductId());
+            json.name(JSONConsts.CURRENCYPACK_AMOUNT).value(pack.getCurrencyAmount());
+            json.name(JSONConsts.CURRENCYPACK_CURRENCYITEMID).value(
+                    pack.getVirtualCurrency() != null ? pack.getVirtualCurrency().getItemId() : null);
+            json.endObject();
+        }
+        json.endArray();
+
+        json.name(JSONConsts.STORE_GOOGLEMANAGED).beginArray();
+        for (GoogleMarketItem item : catalog.getGoogleManagedItems()) {
+            json.beginObject();
+            json.name(JSONConsts.GOOGLEMANAGED_MANAGED).value(item.getManaged().name());
+            json.name(JSONConsts.GOOGLEMANAGED_PRODUCT_ID).value(item.getProductId());
+            json.endObject();
+        }
+        json.endArray();
+
+        json.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Writes the given catalog as UTF-8 encoded JSON to the given stream. The stream is flushed but not closed.
+     * @param catalog is the catalog to write.
+     * @param out is the stream to write to.
+     * @throws IOException
+     */
+    public static void write(StoreCatalog catalog, OutputStream out) throws IOException {
+        write(catalog, new OutputStreamWriter(out, "UTF-8"));
+    }
+
+    /**
+     * Reads a catalog from the JSON in the given reader.
+     * @param reader is the reader to read from.
+     * @return the catalog.
+     * @throws IOException if the JSON is malformed or doesn't describe a catalog.
+     */
+    public static StoreCatalog read(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder(8192);
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            text.append(buffer, 0, read);
+        }
+
+        try {
+            return readCatalog(new JsonIn(text.toString()));
+        } catch (JSONException e) {
+            throw new IOException("Unexpected JSON: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            // an unknown managed type.
+            throw new IOException("Unexpected JSON: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a catalog from the UTF-8 encoded JSON in the given stream.
+     * @param in is the stream to read from.
+     * @return the catalog.
+     * @throws IOException if the JSON is malformed or doesn't describe a catalog.
+     */
+    public static StoreCatalog read(InputStream in) throws IOException {
+        return read(new InputStreamReader(in, "UTF-8"));
+    }
+
+    /** Private functions **/
+
+    private static void writeItem(JsonOut json, AbstractVirtualItem item) throws IOException {
+        json.name(JSONConsts.ITEM_NAME).value(item.getName());
+        json.name(JSONConsts.ITEM_DESCRIPTION).value(item.getDescription());
+        json.name(JSONConsts.ITEM_ITEMID).value(item.getItemId());
+    }
+
+    private static void writePriceModel(JsonOut json, AbstractPriceModel priceModel) throws IOException {
+        if (priceModel instanceof StaticPriceModel) {
+            json.beginObject();
+            json.name(JSONConsts.GOOD_PRICE_MODEL_TYPE).value("static");
+            json.name(JSONConsts.GOOD_PRICE_MODEL_VALUES);
+            writeCurrencyValues(json, ((StaticPriceModel) priceModel).getCurrencyValue());
+            json.endObject();
+        } else if (priceModel instanceof BalanceDrivenPriceModel) {
+            json.beginObject();
+            json.name(JSONConsts.GOOD_PRICE_MODEL_TYPE).value("balance");
+            json.name(JSONConsts.GOOD_PRICE_MODEL_VALUES).beginArray();
+            for (HashMap<String, Integer> values : ((BalanceDrivenPriceModel) priceModel).getCurrencyValuePerBalance()) {
+                writeCurrencyValues(json, values);
+            }
+            json.endArray();
+            json.endObject();
+        } else if (priceModel != null) {
+            try {
+                json.rawValue(priceModel.toJSONObject().toString());
+            } catch (JSONException e) {
+                throw new IOException("Can't write price model: " + e.getMessage());
+            }
+        } else {
+            json.nullValue();
+        }
+    }
+
+    private static void writeCurrencyValues(JsonOut json, HashMap<String, Integer> values) throws IOException {
+        json.beginObject();
+        for (Map.Entry<String, Integer> entry : values.entrySet()) {
+            json.name(entry.getKey()).value(entry.getValue());
+        }
+        json.endObject();
+    }
+
+    private static StoreCatalog readCatalog(JsonIn json) throws JSONException {
+        List<VirtualCategory> categories = new ArrayList<VirtualCategory>();
+        List<VirtualCurrency> currencies = new ArrayList<VirtualCurrency>();
+        List<PackRecord> packRecords = new ArrayList<PackRecord>();
+        List<GoodRecord> goodRecords = new ArrayList<GoodRecord>();
+        List<GoogleMarketItem> managedItems = new ArrayList<GoogleMarketItem>();
+
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (name.equals(JSONConsts.STORE_VIRTUALCATEGORIES)) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    categories.add(readCategory(json));
+                }
+                json.endArray();
+            } else if (name.equals(JSONConsts.STORE_VIRTUALCURRENCIES)) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    ItemRecord record = new ItemRecord();
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        if (!record.readField(json, json.nextName())) {
+                            json.skipValue();
+                        }
+                    }
+                    json.endObject();
+                    currencies.add(new VirtualCurrency(record.mName, record.mDescription, record.mItemId));
+                }
+                json.endArray();
+            } else if (name.equals(JSONConsts.STORE_CURRENCYPACKS)) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    packRecords.add(readPack(json));
+                }
+                json.endArray();
+            } else if (name.equals(JSONConsts.STORE_VIRTUALGOODS)) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    goodRecords.add(readGood(json));
+                }
+                json.endArray();
+            } else if (name.equals(JSONConsts.STORE_GOOGLEMANAGED)) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    managedItems.add(readManagedItem(json));
+                }
+                json.endArray();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+
+        // linking currency packs and virtual goods to their currencies and categories.
+        HashMap<String, VirtualCurrency> currenciesByItemId = new HashMap<String, VirtualCurrency>();
+        for (VirtualCurrency currency : currencies) {
+            if (!currenciesByItemId.containsKey(currency.getItemId())) {
+                currenciesByItemId.put(currency.getItemId(), currency);
+            }
+        }
+        HashMap<Integer, VirtualCategory> categoriesById = new HashMap<Integer, VirtualCategory>();
+        for (VirtualCategory category : categories) {
+            if (!categoriesById.containsKey(category.getmId())) {
+                categoriesById.put(category.getmId(), category);
+            }
+        }
+
+        List<VirtualCurrencyPack> packs = new ArrayList<VirtualCurrencyPack>(packRecords.size());
+        for (PackRecord record : packRecords) {
+            packs.add(new VirtualCurrencyPack(record.mName, record.mDescription, record.mItemId, record.mProductId,
+                    record.mPrice, record.mCurrencyAmount, currenciesByItemId.get(record.mCurrencyItemId)));
+        }
+
+        List<VirtualGood> goods = new ArrayList<VirtualGood>(goodRecords.size());
+        for (GoodRecord record : goodRecords) {
+            goods.add(new VirtualGood(record.mName, record.mDescription, record.mPriceModel, record.mItemId,
+                    categoriesById.get(record.mCategoryId), record.mEquipped));
+        }
+
+        return new StoreCatalog(categories, currencies, packs, goods, managedItems);
+    }
+
+    private static VirtualCategory readCategory(JsonIn json) throws JSONException {
+        String name = null;
+        int id = 0;
+        int equipSlots = 0;
+        json.beginObject();
+        while (json.hasNext()) {
+            String key = json.nextName();
+            if (key.equals(JSONConsts.CATEGORY_NAME)) {
+                name = json.nextString();
+            } else if (key.equals(JSONConsts.CATEGORY_ID)) {
+                id = json.nextInt();
+            } else if (key.equals(JSONConsts.CATEGORY_EQUIP_SLOTS)) {
+                equipSlots = Math.max(0, json.nextInt());
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+
+        return new VirtualCategory(name, id, equipSlots);
+    }
+
+    private static PackRecord readPack(JsonIn json) throws JSONException {
+        PackRecord record = new PackRecord();
+        json.beginObject();
+        while (json.hasNext()) {
+            String key = json.nextName();
+            if (record.readField(json, key)) {
+                continue;
+            }
+
+            if (key.equals(JSONConsts.CURRENCYPACK_PRODUCT_ID)) {
+                record.mProductId = json.nextString();
+            } else if (key.equals(JSONConsts.CURRENCYPACK_PRICE)) {
+                record.mPrice = json.nextDouble();
+            } else if (key.equals(JSONConsts.CURRENCYPACK_AMOUNT)) {
+                record.mCurrencyAmount = json.nextInt();
+            } else if (key.equals(JSONConsts.CURRENCYPACK_CURRENCYITEMID)) {
+                record.mCurrencyItemId = json.nextString();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+
+        return record;
+    }
+
+    private static GoodRecord readGood(JsonIn json) throws JSONException {
+        GoodRecord record = new GoodRecord();
+        json.beginObject();
+        while (json.hasNext()) {
+            String key = json.nextName();
+            if (record.readField(json, key)) {
+                continue;
+            }
+
+            if (key.equals(JSONConsts.GOOD_PRICE_MODEL)) {
+                record.mPriceModel = readPriceModel(json);
+            } else if (key.equals(JSONConsts.GOOD_CATEGORY_ID)) {
+                record.mCategoryId = json.nextInt();
+            } else if (key.equals(JSONConsts.GOOD_EQUIPPED)) {
+                record.mEquipped = json.nextBoolean();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+
+        return record;
+    }
+
+    private static GoogleMarketItem readManagedItem(JsonIn json) throws JSONException {
+        String productId = null;
+        GoogleMarketItem.Managed managed = GoogleMarketItem.Managed.MANAGED;
+        json.beginObject();
+        while (json.hasNext()) {
+            String key = json.nextName();
+            if (key.equals(JSONConsts.GOOGLEMANAGED_PRODUCT_ID)) {
+                productId = json.nextString();
+            } else if (key.equals(JSONConsts.GOOGLEMANAGED_MANAGED)) {
+                managed = GoogleMarketItem.Managed.valueOf(json.nextString());
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+
+        return new GoogleMarketItem(productId, managed);
+    }
+
+    private static AbstractPriceModel readPriceModel(JsonIn json) throws JSONException {
+        if (json.peekNull()) {
+            json.nextValue();
+            return null;
+        }
+
+        json.beginObject();
+        if (!json.hasNext()) {
+            json.endObject();
+            return null;
+        }
+
+        String key = json.nextName();
+        if (!key.equals(JSONConsts.GOOD_PRICE_MODEL_TYPE)) {
+            // we can't tell how to stream the values before we know the type.
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put(key, json.nextValue());
+            readFields(json, jsonObject);
+            return AbstractPriceModel.fromJSONObject(jsonObject);
+        }
+
+        String type = json.nextString();
+        if ("static".equals(type)) {
+            HashMap<String, Integer> values = new HashMap<String, Integer>();
+            while (json.hasNext()) {
+                if (json.nextName().equals(JSONConsts.GOOD_PRICE_MODEL_VALUES)) {
+                    values = readCurrencyValues(json);
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+            return new StaticPriceModel(values);
+        }
+
+        if ("balance".equals(type)) {
+            ArrayList<HashMap<String, Integer>> valuesPerBalance = new ArrayList<HashMap<String, Integer>>();
+            while (json.hasNext()) {
+                if (json.nextName().equals(JSONConsts.GOOD_PRICE_MODEL_VALUES)) {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        valuesPerBalance.add(readCurrencyValues(json));
+                    }
+                    json.endArray();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+            return new BalanceDrivenPriceModel(valuesPerBalance);
+        }
+
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put(JSONConsts.GOOD_PRICE_MODEL_TYPE, type);
+        readFields(json, jsonObject);
+        return AbstractPriceModel.fromJSONObject(jsonObject);
+    }
+
+    private static HashMap<String, Integer> readCurrencyValues(JsonIn json) throws JSONException {
+        HashMap<String, Integer> values = new HashMap<String, Integer>();
+        json.beginObject();
+        while (json.hasNext()) {
+            String currencyItemId = json.nextName();
+            values.put(currencyItemId, json.nextInt());
+        }
+        json.endObject();
+
+        return values;
+    }
+
+    /**
+     * Reads the rest of the fields of the current object into the given JSONObject, and the end of the object.
+     */
+    private static void readFields(JsonIn json, JSONObject jsonObject) throws JSONException {
+        while (json.hasNext()) {
+            String key = json.nextName();
+            jsonObject.put(key, json.nextValue());
+        }
+        json.endObject();
+    }
+
+    /**
+     * Writes JSON tokens to a Writer. Commas and colons are added where they belong.
+     */
+    private static class JsonOut {
+
+        JsonOut(Writer writer) {
+            mWriter = writer;
+        }
+
+        JsonOut beginObject() throws IOException {
+            return open('{');
+        }
+
+        JsonOut endObject() throws IOException {
+            return close('}');
+        }
+
+        JsonOut beginArray() throws IOException {
+            return open('[');
+        }
+
+        JsonOut endArray() throws IOException {
+            return close(']');
+        }
+
+        JsonOut name(String name) throws IOException {
+            separate();
+            mWriter.write(JSONObject.quote(name));
+            mWriter.write(':');
+            mAfterName = true;
+            return this;
+        }
+
+        JsonOut value(String value) throws IOException {
+            return rawValue(value != null ? JSONObject.quote(value) : "null");
+        }
+
+        JsonOut value(long value) throws IOException {
+            return rawValue(Long.toString(value));
+        }
+
+        JsonOut value(double value) throws IOException {
+            try {
+                return rawValue(JSONObject.numberToString(value));
+            } catch (JSONException e) {
+                throw new IOException("Can't write number: " + value);
+            }
+        }
+
+        JsonOut value(boolean value) throws IOException {
+            return rawValue(value ? "true" : "false");
+        }
+
+        JsonOut nullValue() throws IOException {
+            return rawValue("null");
+        }
+
+        /**
+         * Writes the given JSON text as the next value.
+         */
+        JsonOut rawValue(String json) throws IOException {
+            separate();
+            mWriter.write(json);
+            return this;
+        }
+
+        private JsonOut open(char bracket) throws IOException {
+            separate();
+            mWriter.write(bracket);
+            if (mDepth == mEmpty.length) {
+                boolean[] empty = new boolean[mDepth * 2];
+                System.arraycopy(mEmpty, 0, empty, 0, mDepth);
+                mEmpty = empty;
+            }
+            mEmpty[mDepth++] = true;
+            return this;
+        }
+
+        private JsonOut close(char bracket) throws IOException {
+            mDepth--;
+            mWriter.write(bracket);
+            return this;
+        }
+
+        /**
+         * Writes the comma before a value (or a name), unless it's the first one in its object or array.
+         */
+        private void separate() throws IOException {
+            if (mAfterName) {
+                mAfterName = false;
+                return;
+            }
+            if (mDepth > 0) {
+                if (!mEmpty[mDepth - 1]) {
+                    mWriter.write(',');
+                }
+                mEmpty[mDepth - 1] = false;
+            }
+        }
+
+        private final Writer mWriter;
+        private boolean[]    mEmpty = new boolean[8];
+        private int          mDepth;
+        private boolean      mAfterName;
+    }
+
+    /**
+     * Reads JSON tokens one by one with a {@link JSONTokener}. Only values that are skipped, or that are kept as
+     * JSON anyway, are parsed into JSONObjects.
+     */
+    private static class JsonIn {
+
+        JsonIn(String json) {
+            mTokener = new JSONTokener(json);
+        }
+
+        void beginObject() throws JSONException {
+            expect('{');
+        }
+
+        void endObject() throws JSONException {
+            expect('}');
+            endValue();
+        }
+
+        void beginArray() throws JSONException {
+            expect('[');
+        }
+
+        void endArray() throws JSONException {
+            expect(']');
+            endValue();
+        }
+
+        /**
+         * @return whether the current object or array has another member.
+         */
+        boolean hasNext() throws JSONException {
+            char c = peek();
+            return c != '}' && c != ']' && c != 0;
+        }
+
+        String nextName() throws JSONException {
+            Object name = mTokener.nextValue();
+            if (!(name instanceof String)) {
+                throw mTokener.syntaxError("Expected a name but was " + name);
+            }
+            expect(':');
+            return (String) name;
+        }
+
+        /**
+         * @return the next value, parsed into a JSONObject or a JSONArray if it's not a single value.
+         */
+        Object nextValue() throws JSONException {
+            Object value = mTokener.nextValue();
+            endValue();
+            return value;
+        }
+
+        void skipValue() throws JSONException {
+            nextValue();
+        }
+
+        boolean peekNull() throws JSONException {
+            return peek() == 'n';
+        }
+
+        String nextString() throws JSONException {
+            Object value = nextSingleValue();
+            return value == JSONObject.NULL ? null : value.toString();
+        }
+
+        int nextInt() throws JSONException {
+            Object value = nextSingleValue();
+            if (!(value instanceof Number)) {
+                throw mTokener.syntaxError("Expected a number but was " + value);
+            }
+            return ((Number) value).intValue();
+        }
+
+        double nextDouble() throws JSONException {
+            Object value = nextSingleValue();
+            if (!(value instanceof Number)) {
+                throw mTokener.syntaxError("Expected a number but was " + value);
+            }
+            return ((Number) value).doubleValue();
+        }
+
+        boolean nextBoolean() throws JSONException {
+            Object value = nextSingleValue();
+            if (!(value instanceof Boolean)) {
+                throw mTokener.syntaxError("Expected a boolean but was " + value);
+            }
+            return (Boolean) value;
+        }
+
+        private Object nextSingleValue() throws JSONException {
+            char c = peek();
+            if (c == '{' || c == '[') {
+                throw mTokener.syntaxError("Expected a single value but was " + c);
+            }
+            return nextValue();
+        }
+
+        private void expect(char expected) throws JSONException {
+            char c = mTokener.nextClean();
+            if (c != expected) {
+                throw mTokener.syntaxError("Expected " + expected + " but was " + (c != 0 ? c : "the end"));
+            }
+        }
+
+        /**
+         * Consumes the comma after a value, if there's one.
+         */
+        private void endValue() throws JSONException {
+            if (peek() == ',') {
+                mTokener.nextClean();
+            }
+        }
+
+        /**
+         * @return the next character that's not white space, without consuming it. 0 at the end of the input.
+         */
+        private char peek() throws JSONException {
+            char c = mTokener.nextClean();
+            if (c != 0) {
+                mTokener.back();
+            }
+            return c;
+        }
+
+        private final JSONTokener mTokener;
+    }
+
+    /**
+     * The fields of a virtual item, read before the item itself can be created.
+     */
+    private static class ItemRecord {
+
+        /**
+         * Reads the value of the given key if it's a field of {@link AbstractVirtualItem}.
+         * @return true if the value was read.
+         */
+        boolean readField(JsonIn json, String key) throws JSONException {
+            if (key.equals(JSONConsts.ITEM_NAME)) {
+                mName = json.nextString();
+            } else if (key.equals(JSONConsts.ITEM_DESCRIPTION)) {
+                mDescription = json.nextString();
+            } else if (key.equals(JSONConsts.ITEM_ITEMID)) {
+                mItemId = json.nextString();
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        String mName;
+        String mDescription;
+        String mItemId;
+    }
+
+    private static class PackRecord extends ItemRecord {
+        String mProductId;
+        double mPrice;
+        int    mCurrencyAmount;
+        String mCurrencyItemId;
+    }
+
+    private static class GoodRecord extends ItemRecord {
+        AbstractPriceModel mPriceModel;
+        int                mCategoryId = -1;
+        boolean            mEquipped;
+    }
+}
@@ -22,6 +22,9 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import com.soomla.store.StoreConfig;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * The StoreDatabase provides basic SQLite database io functions for specific needs around the SDK.
  */
@@ -35,11 +38,6 @@ public class StoreDatabase {
 
         mDatabaseHelper = new DatabaseHelper(context);
         mStoreDB = mDatabaseHelper.getWritableDatabase();
-
-        if (StoreConfig.DB_VOLATILE_METADATA) {
-            mStoreDB.execSQL("drop table IF EXISTS " + METADATA_TABLE_NAME);
-            createDatabaseTables(mStoreDB);
-        }
     }
 
     /**
@@ -103,8 +101,18 @@ public class StoreDatabase {
     }
 
     public synchronized void updateVirtualGoodEquip(String itemId, boolean equipped){
+        updateVirtualGoodEquip(itemId, equipped ? 1 : 0);
+    }
+
+    /**
+     * Updates the equip state of the virtual good with the given itemId.
+     * @param itemId is the (obfuscated) item id of the virtual good.
+     * @param equipSequence is 0 if the virtual good is not equipped. Otherwise it's a positive number that's larger
+     *                      for virtual goods that were equipped later (see {@link VirtualGoodsStorage}).
+     */
+    public synchronized void updateVirtualGoodEquip(String itemId, long equipSequence){
         ContentValues values = new ContentValues();
-        values.put(VIRTUAL_GOODS_COLUMN_EQUIPPED, equipped);
+        values.put(VIRTUAL_GOODS_COLUMN_EQUIPPED, equipSequence);
 
         int affected = mStoreDB.update(VIRTUAL_GOODS_TABLE_NAME, values, VIRTUAL_CURRENCY_COLUMN_ITEM_ID + "=?",
                 new String[]{ itemId });
@@ -135,11 +143,13 @@ public class StoreDatabase {
 
     /**
      * Overwrites the current storeinfo information with a new one.
-     * @param storeinfo is the new store information.
+     * @param storeinfo is the new (encoded) store information (see {@link StoreCatalogCodec}).
+     * @param version is the content hash of the new store information (see {@link StoreAssetsDigest}).
      */
-    public synchronized void setStoreInfo(String storeinfo){
+    public synchronized void setStoreInfo(byte[] storeinfo, String version){
         ContentValues values = new ContentValues();
         values.put(METADATA_COLUMN_STOREINFO, storeinfo);
+        values.put(METADATA_COLUMN_STOREINFO_VERSION, version);
 
         int affected = mStoreDB.update(METADATA_TABLE_NAME, values, METADATA_COLUMN_PACKAGE + "='INFO'", null);
         if (affected == 0){
@@ -149,18 +159,51 @@ public class StoreDatabase {
     }
 
     /**
-     * Overwrites the current storefrontinfo information with a new one.
-     * @param storefrontinfo is the new storefront information.
+     * Overwrites the current storefrontinfo information with a new one. The storefront is saved in sections, and
+     * every section in chunks (see {@link StorefrontInfo}). All of it is replaced in a single transaction.
+     * @param storefrontinfo is the index of the new storefront information (the names of its sections).
+     * @param chunks are the chunks of every section of the new storefront information, by section name.
+     * @param version is the content hash of the new storefront information (see {@link StoreAssetsDigest}).
      */
-    public synchronized void setStorefrontInfo(String storefrontinfo){
-        ContentValues values = new ContentValues();
-        values.put(METADATA_COLUMN_STOREFRONTINFO, storefrontinfo);
+    public synchronized void setStorefrontInfo(final String storefrontinfo, final Map<String, List<byte[]>> chunks,
+                                               final String version){
+        runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                mStoreDB.delete(STOREFRONT_CHUNKS_TABLE_NAME, null, null);
+                for (Map.Entry<String, List<byte[]>> section : chunks.entrySet()) {
+                    List<byte[]> sectionChunks = section.getValue();
+                    for (int i = 0; i < sectionChunks.size(); i++) {
+                        ContentValues values = new ContentValues();
+                        values.put(STOREFRONT_CHUNKS_COLUMN_SECTION, section.getKey());
+                        values.put(STOREFRONT_CHUNKS_COLUMN_CHUNK, i);
+                        values.put(STOREFRONT_CHUNKS_COLUMN_DATA, sectionChunks.get(i));
+                        mStoreDB.insert(STOREFRONT_CHUNKS_TABLE_NAME, null, values);
+                    }
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(METADATA_COLUMN_STOREFRONTINFO, storefrontinfo);
+                values.put(METADATA_COLUMN_STOREFRONTINFO_VERSION, version);
+
+                int affected = mStoreDB.update(METADATA_TABLE_NAME, values, METADATA_COLUMN_PACKAGE + "='INFO'", null);
+                if (affected == 0){
+                    values.put(METADATA_COLUMN_PACKAGE, "INFO");
+                    mStoreDB.replace(METADATA_TABLE_NAME, null, values);
+                }
+            }
+        });
+    }
 
-        int affected = mStoreDB.update(METADATA_TABLE_NAME, values, METADATA_COLUMN_PACKAGE + "='INFO'", null);
-        if (affected == 0){
-            values.put(METADATA_COLUMN_PACKAGE, "INFO");
-            mStoreDB.replace(METADATA_TABLE_NAME, null, values);
-        }
+    /**
+     * Fetch the chunks of a single section of the storefront information.
+     * @param section is the name of the required section (as saved).
+     * @return a {@link Cursor} that represents the query response, ordered by chunk.
+     */
+    public synchronized Cursor getStorefrontChunks(String section){
+        return mStoreDB.query(STOREFRONT_CHUNKS_TABLE_NAME, STOREFRONT_CHUNKS_COLUMNS,
+                STOREFRONT_CHUNKS_COLUMN_SECTION + "=?", new String[]{ section }, null, null,
+                STOREFRONT_CHUNKS_COLUMN_CHUNK);
     }
 
     /**
@@ -191,6 +234,102 @@ public class StoreDatabase {
                 GOOGLE_MANAGED_ITEMS_COLUMN_PRODUCT_ID + "='" + productId + "'", null, null, null, null);
     }
 
+    /**
+     * Marks the order with the given orderId as processed.
+     * @param orderId is the (obfuscated) Google Play order id.
+     */
+    public synchronized void addProcessedOrder(String orderId){
+        ContentValues values = new ContentValues();
+        values.put(PROCESSED_ORDERS_COLUMN_ORDER_ID, orderId);
+
+        mStoreDB.replace(PROCESSED_ORDERS_TABLE_NAME, null, values);
+    }
+
+    /**
+     * Fetch a single processed order with the given orderId.
+     * @param orderId is the required order's (obfuscated) order id.
+     * @return a {@link Cursor} that represents the query response.
+     */
+    public synchronized Cursor getProcessedOrder(String orderId){
+        return mStoreDB.query(PROCESSED_ORDERS_TABLE_NAME, PROCESSED_ORDERS_COLUMNS,
+                PROCESSED_ORDERS_COLUMN_ORDER_ID + "=?", new String[]{ orderId }, null, null, null);
+    }
+
+    /**
+     * Fetch all processed orders from the database.
+     * @return a {@link Cursor} that represents the query response.
+     */
+    public synchronized Cursor getProcessedOrders(){
+        return mStoreDB.query(PROCESSED_ORDERS_TABLE_NAME, PROCESSED_ORDERS_COLUMNS,
+                null, null, null, null, null);
+    }
+
+    /**
+     * Runs the given task inside a single database transaction. Either all of the writes done by the task
+     * are committed or none of them are.
+     * NOTE: the database is locked for the calling thread until the task returns, so keep the task short.
+     * @param task is the task to run. All of its database calls must be made from the calling thread.
+     */
+    public synchronized void runInTransaction(Runnable task){
+        boolean success = false;
+        mStoreDB.beginTransaction();
+        mTransactionDepth++;
+        try {
+            task.run();
+            mStoreDB.setTransactionSuccessful();
+            success = true;
+        } finally {
+            mStoreDB.endTransaction();
+            mTransactionDepth--;
+            if (!success){
+                mFailedTransactionCount++;
+                // a nested transaction that fails rolls back the outermost one too.
+                mTransactionFailed = true;
+            }
+
+            if (mTransactionDepth == 0){
+                boolean committed = !mTransactionFailed;
+                mTransactionFailed = false;
+                if (mTransactionListener != null){
+                    mTransactionListener.onTransactionEnded(committed);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the calling thread is running a task with {@link #runInTransaction(Runnable)}, which means
+     * the writes it makes aren't committed yet.
+     * NOTE: only meaningful while holding the database lock.
+     */
+    public synchronized boolean inTransaction(){
+        return mTransactionDepth > 0;
+    }
+
+    /**
+     * In-memory caches of database values use this to find out that a transaction they wrote in was rolled back.
+     * @return the number of transactions (see {@link #runInTransaction(Runnable)}) that were rolled back.
+     */
+    public synchronized int getFailedTransactionCount(){
+        return mFailedTransactionCount;
+    }
+
+    /**
+     * Sets the listener that's notified when the outermost transaction (see {@link #runInTransaction(Runnable)})
+     * is committed or rolled back.
+     */
+    void setTransactionListener(TransactionListener listener){
+        mTransactionListener = listener;
+    }
+
+    /**
+     * A listener to the end of transactions. It's called while the database is still locked, on the thread that ran
+     * the transaction, so it must not block.
+     */
+    interface TransactionListener {
+        void onTransactionEnded(boolean committed);
+    }
+
     /**
      * Fetch the meta data information.
      * @return the meta-data information.
@@ -200,6 +339,35 @@ public class StoreDatabase {
                 null, null, null, null, null);
     }
 
+    /**
+     * Fetch the version (content hash) of the given meta-data column without fetching the meta-data itself.
+     * @param versionColumn is either {@link #METADATA_COLUMN_STOREINFO_VERSION} or
+     *                      {@link #METADATA_COLUMN_STOREFRONTINFO_VERSION}.
+     * @return the saved version or null if there's no saved meta-data.
+     */
+    public synchronized String getMetaDataVersion(String versionColumn){
+        return getMetaDataString(versionColumn);
+    }
+
+    /**
+     * Fetch a single text column of the meta-data.
+     * @param column is the name of the required column.
+     * @return the value of the given column or null if there's no saved meta-data.
+     */
+    public synchronized String getMetaDataString(String column){
+        Cursor cursor = mStoreDB.query(METADATA_TABLE_NAME, new String[]{ column },
+                METADATA_COLUMN_PACKAGE + "='INFO'", null, null, null, null);
+        if (cursor == null){
+            return null;
+        }
+
+        try {
+            return cursor.moveToNext() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * Sets the given value to the given key
      * @param key the key of the key-val pair.
@@ -243,10 +411,21 @@ public class StoreDatabase {
                 VIRTUAL_GOODS_COLUMN_BALANCE + " TEXT, " +
                 VIRTUAL_GOODS_COLUMN_EQUIPPED + " TEXT)");
 
+        sqLiteDatabase.execSQL("CREATE TABLE IF NOT EXISTS " + PROCESSED_ORDERS_TABLE_NAME + "(" +
+                PROCESSED_ORDERS_COLUMN_ORDER_ID + " TEXT PRIMARY KEY)");
+
         sqLiteDatabase.execSQL("CREATE TABLE IF NOT EXISTS " + METADATA_TABLE_NAME + "(" +
                 METADATA_COLUMN_PACKAGE + " TEXT PRIMARY KEY, " +
-                METADATA_COLUMN_STOREINFO + " TEXT, " +
-                METADATA_COLUMN_STOREFRONTINFO + " TEXT)");
+                METADATA_COLUMN_STOREINFO + " BLOB, " +
+                METADATA_COLUMN_STOREINFO_VERSION + " TEXT, " +
+                METADATA_COLUMN_STOREFRONTINFO + " TEXT, " +
+                METADATA_COLUMN_STOREFRONTINFO_VERSION + " TEXT)");
+
+        sqLiteDatabase.execSQL("CREATE TABLE IF NOT EXISTS " + STOREFRONT_CHUNKS_TABLE_NAME + "(" +
+                STOREFRONT_CHUNKS_COLUMN_SECTION + " TEXT, " +
+                STOREFRONT_CHUNKS_COLUMN_CHUNK + " INTEGER, " +
+                STOREFRONT_CHUNKS_COLUMN_DATA + " BLOB, " +
+                "PRIMARY KEY (" + STOREFRONT_CHUNKS_COLUMN_SECTION + ", " + STOREFRONT_CHUNKS_COLUMN_CHUNK + "))");
     }
 
     private class DatabaseHelper extends SQLiteOpenHelper{
@@ -270,6 +449,7 @@ public class StoreDatabase {
         @Override
         public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
             sqLiteDatabase.execSQL("drop table IF EXISTS " + METADATA_TABLE_NAME);
+            sqLiteDatabase.execSQL("drop table IF EXISTS " + STOREFRONT_CHUNKS_TABLE_NAME);
 
             createDatabaseTables(sqLiteDatabase);
         }
@@ -307,13 +487,32 @@ public class StoreDatabase {
             VIRTUAL_GOODS_COLUMN_ITEM_ID, VIRTUAL_GOODS_COLUMN_BALANCE, VIRTUAL_GOODS_COLUMN_EQUIPPED
     };
 
+    // Processed Orders Table
+    private static final String PROCESSED_ORDERS_TABLE_NAME     = "processed_orders";
+    public static final String PROCESSED_ORDERS_COLUMN_ORDER_ID = "order_id";
+    private static final String[] PROCESSED_ORDERS_COLUMNS = {
+            PROCESSED_ORDERS_COLUMN_ORDER_ID
+    };
+
     // Store Meta-Data Table
     private static final String METADATA_TABLE_NAME             = "metadata";
     public static final String METADATA_COLUMN_PACKAGE          = "package";
     public static final String METADATA_COLUMN_STOREINFO        = "store_info";
+    public static final String METADATA_COLUMN_STOREINFO_VERSION      = "store_info_version";
     public static final String METADATA_COLUMN_STOREFRONTINFO   = "storefront_info";
+    public static final String METADATA_COLUMN_STOREFRONTINFO_VERSION = "storefront_info_version";
     private static final String[] METADATA_COLUMNS = {
-            METADATA_COLUMN_PACKAGE, METADATA_COLUMN_STOREINFO, METADATA_COLUMN_STOREFRONTINFO
+            METADATA_COLUMN_PACKAGE, METADATA_COLUMN_STOREINFO, METADATA_COLUMN_STOREINFO_VERSION,
+            METADATA_COLUMN_STOREFRONTINFO, METADATA_COLUMN_STOREFRONTINFO_VERSION
+    };
+
+    // Storefront Chunks Table
+    private static final String STOREFRONT_CHUNKS_TABLE_NAME    = "storefront_chunks";
+    public static final String STOREFRONT_CHUNKS_COLUMN_SECTION = "section";
+    public static final String STOREFRONT_CHUNKS_COLUMN_CHUNK   = "chunk";
+    public static final String STOREFRONT_CHUNKS_COLUMN_DATA    = "data";
+    private static final String[] STOREFRONT_CHUNKS_COLUMNS = {
+            STOREFRONT_CHUNKS_COLUMN_SECTION, STOREFRONT_CHUNKS_COLUMN_CHUNK, STOREFRONT_CHUNKS_COLUMN_DATA
     };
 
 
@@ -321,8 +520,12 @@ public class StoreDatabase {
 
     private static final String TAG = "StoreDatabase";
     private static final String DATABASE_NAME               = "store.db";
-    private static final int    DATABASE_VERSION            = 1;
+    private static final int    DATABASE_VERSION            = 5;
 
     private SQLiteDatabase mStoreDB;
     private DatabaseHelper mDatabaseHelper;
+    private int            mFailedTransactionCount;
+    private int            mTransactionDepth;
+    private boolean        mTransactionFailed;
+    private volatile TransactionListener mTransactionListener;
 }
@@ -16,7 +16,6 @@
 package com.soomla.store.data;
 
 import android.database.Cursor;
-import android.text.TextUtils;
 import android.util.Log;
 import com.soomla.billing.util.AESObfuscator;
 import com.soomla.store.IStoreAssets;
@@ -27,8 +26,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -53,7 +53,11 @@ public class StoreInfo {
      * database doesn't have any previous version of the store metadata, StoreInfo
      * is being loaded from the given {@link IStoreAssets}. After the first initialization,
      * StoreInfo will be initialized from the database.
-     * NOTE: If you want to override the current StoreInfo, you'll have to bump the
+     *
+     * If {@link StoreConfig#DB_VOLATILE_METADATA} is true, the given {@link IStoreAssets} always win. The metadata in
+     * the database is only rewritten when the content hash of the given {@link IStoreAssets} is different from the
+     * hash that was saved with it (see {@link StoreAssetsDigest}).
+     * NOTE: If DB_VOLATILE_METADATA is false and you want to override the current StoreInfo, you'll have to bump the
      * database version (the old database will be destroyed).
      */
     public void initialize(IStoreAssets storeAssets){
@@ -62,20 +66,26 @@ public class StoreInfo {
             return;
         }
 
+        if (StoreConfig.DB_VOLATILE_METADATA){
+            String version = METADATA_FORMAT + StoreAssetsDigest.digest(storeAssets);
+            loadFromAssets(storeAssets);
+            if (version.equals(StorageManager.getInstance().getDatabase().getMetaDataVersion(
+                    StoreDatabase.METADATA_COLUMN_STOREINFO_VERSION))){
+                if (StoreConfig.debug){
+                    Log.d(TAG, "store assets didn't change (" + version + "). not rewriting the metadata.");
+                }
+                mCatalogVersion = version;
+                return;
+            }
+
+            saveToDB(version);
+            return;
+        }
+
         if (!initializeFromDB()){
             /// fall-back here if the json doesn't exist, we load the store from the given {@link IStoreAssets}.
-            mVirtualCategories    = Arrays.asList(storeAssets.getVirtualCategories());
-            mVirtualCurrencies    = Arrays.asList(storeAssets.getVirtualCurrencies());
-            mVirtualCurrencyPacks = Arrays.asList(storeAssets.getVirtualCurrencyPacks());
-            mVirtualGoods         = Arrays.asList(storeAssets.getVirtualGoods());
-            mGoogleManagedItems   = Arrays.asList(storeAssets.getGoogleManagedItems());
-
-            // put StoreInfo in the database as JSON
-            String store_json = toJSONObject().toString();
-            if (StorageManager.getInstance().getObfuscator() != null){
-                store_json = StorageManager.getInstance().getObfuscator().obfuscateString(store_json);
-            }
-            StorageManager.getInstance().getDatabase().setStoreInfo(store_json);
+            loadFromAssets(storeAssets);
+            saveToDB(METADATA_FORMAT + StoreAssetsDigest.digest(storeAssets));
         }
     }
 
@@ -83,45 +93,59 @@ public class StoreInfo {
         // first, trying to load StoreInfo from the local DB.
         Cursor cursor = StorageManager.getInstance().getDatabase().getMetaData();
         if (cursor != null) {
-            String storejson = "";
+            byte[] storeinfo = null;
+            String version = null;
             try {
                 int storeVal = cursor.getColumnIndexOrThrow(
                         StoreDatabase.METADATA_COLUMN_STOREINFO);
+                int versionVal = cursor.getColumnIndexOrThrow(
+                        StoreDatabase.METADATA_COLUMN_STOREINFO_VERSION);
                 if (cursor.moveToNext()) {
-                    storejson = cursor.getString(storeVal);
+                    version = cursor.getString(versionVal);
+                    if (version != null && version.equals(mCatalogVersion)){
+                        // the catalog we have in memory is exactly what's in the DB.
+                        if (StoreConfig.debug){
+                            Log.d(TAG, "metadata in DB didn't change (" + version + "). not reloading.");
+                        }
+                        return true;
+                    }
+
+                    storeinfo = cursor.getBlob(storeVal);
 
-                    if (TextUtils.isEmpty(storejson)){
+                    if (storeinfo == null || storeinfo.length == 0){
                         if (StoreConfig.debug){
-                            Log.d(TAG, "store json is not in DB yet ");
+                            Log.d(TAG, "store info is not in DB yet ");
                         }
                         return false;
                     }
 
                     if (StorageManager.getInstance().getObfuscator() != null){
-                        storejson = StorageManager.getInstance().getObfuscator().unobfuscateToString(storejson);
-                    }
-
-                    if (StoreConfig.debug){
-                        Log.d(TAG, "the metadata json (from DB) is " + storejson);
+                        storeinfo = StorageManager.getInstance().getObfuscator().unobfuscateToBytes(storeinfo);
                     }
                 }
             } catch (AESObfuscator.ValidationException e) {
                 e.printStackTrace();
+                storeinfo = null;
             } finally {
                 cursor.close();
             }
 
-            if (!TextUtils.isEmpty(storejson)){
+            if (storeinfo != null){
                 try {
-                    fromJSONObject(new JSONObject(storejson));
+                    mCatalog = StoreCatalogCodec.decode(storeinfo, StoreConfig.LAZY_CATALOG);
+                    mCatalogVersion = version;
+
+                    if (StoreConfig.debug){
+                        Log.d(TAG, "the metadata (from DB) was loaded. version: " + version);
+                    }
 
                     // everything went well... StoreInfo is initialized from the local DB.
                     // it's ok to return now.
                     return true;
-                } catch (JSONException e) {
+                } catch (IOException e) {
                     if (StoreConfig.debug){
-                        Log.d(TAG, "Can't parse metadata json. Going to return false and make " +
-                                "StoreInfo load from static data.: " + storejson);
+                        Log.d(TAG, "Can't decode metadata. Going to return false and make " +
+                                "StoreInfo load from static data.: " + e.getMessage());
                     }
                 }
             }
@@ -136,13 +160,12 @@ public class StoreInfo {
      * @throws VirtualItemNotFoundException
      */
     public VirtualCurrencyPack getPackByGoogleProductId(String productId) throws VirtualItemNotFoundException {
-        for(VirtualCurrencyPack p : mVirtualCurrencyPacks){
-            if (p.getmGoogleItem().getProductId().equals(productId)){
-                return p;
-            }
+        VirtualCurrencyPack pack = mCatalog.getPackByProductId(productId);
+        if (pack == null){
+            throw new VirtualItemNotFoundException("productId", productId);
         }
 
-        throw new VirtualItemNotFoundException("productId", productId);
+        return pack;
     }
 
     /**
@@ -152,13 +175,12 @@ public class StoreInfo {
      * @throws VirtualItemNotFoundException
      */
     public VirtualCurrencyPack getPackByItemId(String itemId) throws VirtualItemNotFoundException {
-        for(VirtualCurrencyPack p : mVirtualCurrencyPacks){
-            if (p.getItemId().equals(itemId)){
-                return p;
-            }
+        VirtualCurrencyPack pack = mCatalog.getPackByItemId(itemId);
+        if (pack == null){
+            throw new VirtualItemNotFoundException("itemId", itemId);
         }
 
-        throw new VirtualItemNotFoundException("itemId", itemId);
+        return pack;
     }
 
     /**
@@ -168,13 +190,12 @@ public class StoreInfo {
      * @throws VirtualItemNotFoundException
      */
     public VirtualGood getVirtualGoodByItemId(String itemId) throws VirtualItemNotFoundException {
-        for(VirtualGood g : mVirtualGoods){
-            if (g.getItemId().equals(itemId)){
-                return g;
-            }
+        VirtualGood good = mCatalog.getVirtualGood(itemId);
+        if (good == null){
+            throw new VirtualItemNotFoundException("itemId", itemId);
         }
 
-        throw new VirtualItemNotFoundException("itemId", itemId);
+        return good;
     }
 
     /**
@@ -184,13 +205,12 @@ public class StoreInfo {
      * @throws VirtualItemNotFoundException
      */
     public VirtualCategory getVirtualCategoryById(int id) throws VirtualItemNotFoundException {
-        for(VirtualCategory c : mVirtualCategories){
-            if (c.getmId() == id){
-                return c;
-            }
+        VirtualCategory category = mCatalog.getVirtualCategory(id);
+        if (category == null){
+            throw new VirtualItemNotFoundException("id", "" + id);
         }
 
-        throw new VirtualItemNotFoundException("id", "" + id);
+        return category;
     }
 
     /**
@@ -200,13 +220,12 @@ public class StoreInfo {
      * @throws VirtualItemNotFoundException
      */
     public VirtualCurrency getVirtualCurrencyByItemId(String itemId) throws VirtualItemNotFoundException {
-        for(VirtualCurrency c : mVirtualCurrencies){
-            if (c.getItemId().equals(itemId)){
-                return c;
-            }
+        VirtualCurrency currency = mCatalog.getVirtualCurrency(itemId);
+        if (currency == null){
+            throw new VirtualItemNotFoundException("itemId", itemId);
         }
 
-        throw new VirtualItemNotFoundException("itemId", itemId);
+        return currency;
     }
 
     /**
@@ -216,68 +235,86 @@ public class StoreInfo {
      * @throws VirtualItemNotFoundException
      */
     public GoogleMarketItem getGoogleManagedItemByProductId(String productId) throws VirtualItemNotFoundException {
-        for (GoogleMarketItem gmi : mGoogleManagedItems){
-            if (gmi.getProductId().equals(productId)){
-                return gmi;
-            }
+        GoogleMarketItem googleMarketItem = mCatalog.getGoogleManagedItem(productId);
+        if (googleMarketItem == null){
+            throw new VirtualItemNotFoundException("productId", productId);
         }
 
-        throw new VirtualItemNotFoundException("productId", productId);
+        return googleMarketItem;
     }
 
     /** Getters **/
 
     public List<VirtualCurrency> getVirtualCurrencies(){
-        return mVirtualCurrencies;
+        return mCatalog.getVirtualCurrencies();
     }
 
     public List<VirtualCurrencyPack> getCurrencyPacks() {
-        return mVirtualCurrencyPacks;
+        return mCatalog.getVirtualCurrencyPacks();
     }
 
     public List<VirtualGood> getVirtualGoods() {
-        return mVirtualGoods;
+        return mCatalog.getVirtualGoods();
     }
 
-    /** Private functions **/
+    public int getVirtualGoodsCount() {
+        return mCatalog.getVirtualGoodsCount();
+    }
 
-    private StoreInfo() { }
+    /**
+     * Use this function to page through the virtual goods (in a list UI, for example). When the catalog is lazy
+     * (see {@link StoreConfig#LAZY_CATALOG}) only the virtual goods of the requested page are created.
+     * @param offset is the index of the first virtual good in the page.
+     * @param count is the maximum number of virtual goods in the page.
+     * @return the requested page of virtual goods.
+     */
+    public List<VirtualGood> getVirtualGoods(int offset, int count) {
+        return mCatalog.getVirtualGoods(offset, count);
+    }
 
-    private void fromJSONObject(JSONObject jsonObject) throws JSONException{
-        JSONArray virtualCategories = jsonObject.getJSONArray(JSONConsts.STORE_VIRTUALCATEGORIES);
-        mVirtualCategories = new LinkedList<VirtualCategory>();
-        for(int i=0; i<virtualCategories.length(); i++){
-            JSONObject o = virtualCategories.getJSONObject(i);
-            mVirtualCategories.add(new VirtualCategory(o));
-        }
+    /**
+     * The catalog is immutable and is replaced as a whole whenever StoreInfo is (re)loaded, so it's safe to keep a
+     * reference to it and use it from any thread.
+     * @return the current catalog.
+     */
+    public StoreCatalog getCatalog() {
+        return mCatalog;
+    }
 
-        JSONArray virtualCurrencies = jsonObject.getJSONArray(JSONConsts.STORE_VIRTUALCURRENCIES);
-        mVirtualCurrencies = new LinkedList<VirtualCurrency>();
-        for (int i=0; i<virtualCurrencies.length(); i++){
-            JSONObject o = virtualCurrencies.getJSONObject(i);
-            mVirtualCurrencies.add(new VirtualCurrency(o));
-        }
+    /** Private functions **/
 
-        JSONArray currencyPacks = jsonObject.getJSONArray(JSONConsts.STORE_CURRENCYPACKS);
-        mVirtualCurrencyPacks = new LinkedList<VirtualCurrencyPack>();
-        for (int i=0; i<currencyPacks.length(); i++){
-            JSONObject o = currencyPacks.getJSONObject(i);
-            mVirtualCurrencyPacks.add(new VirtualCurrencyPack(o));
-        }
+    private StoreInfo() { }
 
-        JSONArray virtualGoods = jsonObject.getJSONArray(JSONConsts.STORE_VIRTUALGOODS);
-        mVirtualGoods = new LinkedList<VirtualGood>();
-        for (int i=0; i<virtualGoods.length(); i++){
-            JSONObject o = virtualGoods.getJSONObject(i);
-            mVirtualGoods.add(new VirtualGood(o));
-        }
+    private void loadFromAssets(IStoreAssets storeAssets) {
+        mCatalog = new StoreCatalog(
+                Arrays.asList(storeAssets.getVirtualCategories()),
+                Arrays.asList(storeAssets.getVirtualCurrencies()),
+                Arrays.asList(storeAssets.getVirtualCurrencyPacks()),
+                Arrays.asList(storeAssets.getVirtualGoods()),
+                Arrays.asList(storeAssets.getGoogleManagedItems()));
+    }
 
-        JSONArray googleManagedItems = jsonObject.getJSONArray(JSONConsts.STORE_GOOGLEMANAGED);
-        mGoogleManagedItems = new LinkedList<GoogleMarketItem>();
-        for (int i=0; i<googleManagedItems.length(); i++){
-            JSONObject o = googleManagedItems.getJSONObject(i);
-            mGoogleManagedItems.add(new GoogleMarketItem(o));
+    /**
+     * Puts StoreInfo in the database (see {@link StoreCatalogCodec}), together with its version.
+     * @param version is the content hash of the current catalog.
+     */
+    private void saveToDB(String version) {
+        byte[] storeinfo = StoreCatalogCodec.encode(mCatalog);
+        if (StorageManager.getInstance().getObfuscator() != null){
+            storeinfo = StorageManager.getInstance().getObfuscator().obfuscateBytes(storeinfo);
         }
+        StorageManager.getInstance().getDatabase().setStoreInfo(storeinfo, version);
+        mCatalogVersion = version;
+    }
+
+    /**
+     * Writes StoreInfo as JSON straight to the given writer, without building a JSONObject tree first (see
+     * {@link StoreCatalogJSON}). The JSON is the same as the one of {@link #toJSONObject()}.
+     * @param writer is the writer to write to. It's flushed but not closed.
+     * @throws IOException
+     */
+    public void writeJSON(Writer writer) throws IOException {
+        StoreCatalogJSON.write(mCatalog, writer);
     }
 
     /**
@@ -287,27 +324,27 @@ public class StoreInfo {
     public JSONObject toJSONObject(){
 
         JSONArray virtualCategories = new JSONArray();
-        for (VirtualCategory cat : mVirtualCategories){
+        for (VirtualCategory cat : mCatalog.getVirtualCategories()){
             virtualCategories.put(cat.toJSONObject());
         }
 
         JSONArray virtualCurrencies = new JSONArray();
-        for(VirtualCurrency c : mVirtualCurrencies){
+        for(VirtualCurrency c : mCatalog.getVirtualCurrencies()){
             virtualCurrencies.put(c.toJSONObject());
         }
 
         JSONArray currencyPacks = new JSONArray();
-        for(VirtualCurrencyPack pack : mVirtualCurrencyPacks){
+        for(VirtualCurrencyPack pack : mCatalog.getVirtualCurrencyPacks()){
             currencyPacks.put(pack.toJSONObject());
         }
 
         JSONArray virtualGoods = new JSONArray();
-        for(VirtualGood good : mVirtualGoods){
+        for(VirtualGood good : mCatalog.getVirtualGoods()){
             virtualGoods.put(good.toJSONObject());
         }
 
         JSONArray googleManagedItems = new JSONArray();
-        for(GoogleMarketItem gmi : mGoogleManagedItems){
+        for(GoogleMarketItem gmi : mCatalog.getGoogleManagedItems()){
             googleManagedItems.put(gmi.toJSONObject());
         }
 
@@ -332,9 +369,9 @@ public class StoreInfo {
     private static final String TAG = "SOOMLA StoreInfo";
     private static StoreInfo                        sInstance = null;
 
-    private List<VirtualCurrency>                   mVirtualCurrencies;
-    private List<VirtualCurrencyPack>               mVirtualCurrencyPacks;
-    private List<VirtualGood>                       mVirtualGoods;
-    private List<VirtualCategory>                   mVirtualCategories;
-    private List<GoogleMarketItem>                  mGoogleManagedItems;
+    // prefixed to the content hash of the metadata. change it whenever the way metadata is saved changes.
+    private static final String METADATA_FORMAT = "bin" + StoreCatalogCodec.FORMAT_VERSION + ":";
+
+    private volatile StoreCatalog                   mCatalog = StoreCatalog.EMPTY;
+    private String                                  mCatalogVersion;
 }
\ No newline at end of file
@@ -20,14 +20,41 @@ import android.text.TextUtils;
 import android.util.Log;
 import com.soomla.billing.util.AESObfuscator;
 import com.soomla.store.StoreConfig;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * This class is used to retrieve the storefront JSON when it's needed.
+ *
+ * The storefront JSON is saved in the database in sections: every top-level key of the JSON is a section, saved
+ * compressed (and obfuscated) in chunks of at most {@link #CHUNK_SIZE} bytes. The metadata table only keeps the
+ * names of the sections.
+ * Nothing is read from the database until it's needed: {@link #getSection(String)} reads, decompresses and parses
+ * only the required section, and {@link #getStorefrontJSON()} and {@link #getStorefrontObject()} put the whole
+ * document together. Everything that was parsed is cached until the storefront is initialized again.
  */
 public class StorefrontInfo {
 
+    /**
+     * The maximum size of a single chunk in the DB. Keeps every row far below the size of a cursor window.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
     public static StorefrontInfo getInstance(){
         if (sInstance == null){
             sInstance = new StorefrontInfo();
@@ -41,80 +68,335 @@ public class StorefrontInfo {
      * database doesn't have any previous version of the store metadata (JSON), StorefrontInfo
      * saves the given JSON to the DB. After the first initialization,
      * StorefrontInfo will load the JSON metadata when needed.
-     * NOTE: If you want to override the current StorefrontInfo metadata JSON file, you'll have to bump the
-     * database version (the old database will be destroyed but balances will be saved!!).
+     *
+     * If {@link StoreConfig#DB_VOLATILE_METADATA} is true, the given JSON always wins. It's only written to the DB
+     * when its content hash is different from the hash that was saved with it (see {@link StoreAssetsDigest}).
+     * NOTE: If DB_VOLATILE_METADATA is false and you want to override the current StorefrontInfo metadata JSON
+     * file, you'll have to bump the database version (the old database will be destroyed but balances will be
+     * saved!!).
      */
-    public void initialize(String storefrontJSON){
+    public synchronized void initialize(String storefrontJSON){
         if (TextUtils.isEmpty(storefrontJSON)){
             Log.e(TAG, "The given storefront JSON can't be null or empty !");
             return;
         }
+
+        String version = StoreAssetsDigest.digest(storefrontJSON);
+        if (StoreConfig.DB_VOLATILE_METADATA){
+            setStorefrontJSON(storefrontJSON);
+            if (version.equals(StorageManager.getInstance().getDatabase().getMetaDataVersion(
+                    StoreDatabase.METADATA_COLUMN_STOREFRONTINFO_VERSION))){
+                if (StoreConfig.debug){
+                    Log.d(TAG, "storefront json didn't change (" + version + "). not rewriting it.");
+                }
+                return;
+            }
+
+            saveToDB(version);
+            return;
+        }
+
         if (!initializeFromDB()) {
             // if the json doesn't already exist in the database, we load it into the DB here.
-            mStorefrontJSON = storefrontJSON;
-            if (StorageManager.getInstance().getObfuscator() != null){
-                storefrontJSON = StorageManager.getInstance().getObfuscator().obfuscateString(storefrontJSON);
+            setStorefrontJSON(storefrontJSON);
+            saveToDB(version);
+        }
+    }
+
+    /**
+     * Loads the names of the sections of the storefront JSON from the DB. The sections themselves are read when
+     * they're needed.
+     * @return true if the storefront JSON is in the DB.
+     */
+    public synchronized boolean initializeFromDB() {
+        String index = StorageManager.getInstance().getDatabase().getMetaDataString(
+                StoreDatabase.METADATA_COLUMN_STOREFRONTINFO);
+        if (TextUtils.isEmpty(index)){
+            if (StoreConfig.debug){
+                Log.d(TAG, "storefront json is not in DB yet ");
+            }
+            return false;
+        }
+
+        try {
+            AESObfuscator obfuscator = StorageManager.getInstance().getObfuscator();
+            if (obfuscator != null){
+                index = obfuscator.unobfuscateToString(index);
+            }
+
+            JSONArray sectionNames = new JSONArray(index);
+            List<String> names = new ArrayList<String>(sectionNames.length());
+            for (int i = 0; i < sectionNames.length(); i++) {
+                names.add(sectionNames.getString(i));
+            }
+
+            clear();
+            mSectionNames = names;
+            mInDB = true;
+
+            if (StoreConfig.debug){
+                Log.d(TAG, "the storefront json (from DB) has the sections " + names);
+            }
+            return true;
+        } catch (AESObfuscator.ValidationException e) {
+            if (StoreConfig.debug){
+                Log.d(TAG, "can't obfuscate storefrontJSON.");
+            }
+        } catch (JSONException e) {
+            if (StoreConfig.debug){
+                Log.d(TAG, "can't parse json object.");
             }
-            StorageManager.getInstance().getDatabase().setStorefrontInfo(storefrontJSON);
         }
+
+        return false;
     }
 
-    public boolean initializeFromDB() {
-        // first, trying to load StorefrontInfo from the local DB.
-        Cursor cursor = StorageManager.getInstance().getDatabase().getMetaData();
-        if (cursor != null) {
-            try {
-                int storefrontVal = cursor.getColumnIndexOrThrow(
-                        StoreDatabase.METADATA_COLUMN_STOREFRONTINFO);
-                if (cursor.moveToNext()) {
-                    mStorefrontJSON = cursor.getString(storefrontVal);
-                    if (TextUtils.isEmpty(mStorefrontJSON)){
-                        if (StoreConfig.debug){
-                            Log.d(TAG, "storefront json is not in DB yet ");
-                        }
-                        return false;
-                    }
-
-                    if (StorageManager.getInstance().getObfuscator() != null){
-                        mStorefrontJSON = StorageManager.getInstance().getObfuscator().unobfuscateToString(mStorefrontJSON);
-                    }
-
-                    if (StoreConfig.debug){
-                        Log.d(TAG, "the metadata json (from DB) is " + mStorefrontJSON);
-                    }
-
-                    JSONObject jsonObject = new JSONObject(mStorefrontJSON);
-
-                    return true;
-                }
-            } catch (AESObfuscator.ValidationException e) {
-                if (StoreConfig.debug){
-                    Log.d(TAG, "can't obfuscate storefrontJSON.");
+    /**
+     * Fetch the whole storefront JSON. If the storefront was loaded from the DB, all of its sections are read.
+     * @return the storefront JSON, or null if there's no storefront.
+     */
+    public synchronized String getStorefrontJSON() {
+        if (mStorefrontJSON == null){
+            JSONObject storefrontObject = getStorefrontObject();
+            if (storefrontObject != null){
+                mStorefrontJSON = storefrontObject.toString();
+            }
+        }
+
+        return mStorefrontJSON;
+    }
+
+    /**
+     * Fetch the parsed storefront JSON. It's parsed (or put together from its sections) once and cached.
+     * NOTE: the returned JSONObject is shared. Don't modify it.
+     * @return the storefront JSON as a JSONObject, or null if there's no storefront.
+     */
+    public synchronized JSONObject getStorefrontObject() {
+        if (mStorefrontObject != null){
+            return mStorefrontObject;
+        }
+
+        try {
+            if (mStorefrontJSON != null){
+                mStorefrontObject = new JSONObject(mStorefrontJSON);
+            } else if (mInDB){
+                JSONObject storefrontObject = new JSONObject();
+                for (String name : mSectionNames) {
+                    storefrontObject.put(name, getSection(name));
                 }
-            } catch (JSONException e) {
-                if (StoreConfig.debug){
-                    Log.d(TAG, "can't parse json object.");
+                mStorefrontObject = storefrontObject;
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "can't parse the storefront json.");
+        }
+
+        return mStorefrontObject;
+    }
+
+    /**
+     * Fetch a single top-level section of the storefront JSON (for example: "theme"). When the storefront was
+     * loaded from the DB, only the required section is read and parsed.
+     * @param name is the key of the required section.
+     * @return the value of the section (a JSONObject, a JSONArray, a String, a Number or a Boolean), or null if
+     * there's no such section.
+     */
+    public synchronized Object getSection(String name) {
+        if (mStorefrontObject != null){
+            return mStorefrontObject.opt(name);
+        }
+        if (mSections.containsKey(name)){
+            return mSections.get(name);
+        }
+
+        Object section = null;
+        try {
+            if (mInDB){
+                if (!mSectionNames.contains(name)){
+                    return null;
                 }
-            } finally {
-                cursor.close();
+                section = new JSONTokener(readSection(name)).nextValue();
+            } else if (getStorefrontObject() != null){
+                return mStorefrontObject.opt(name);
             }
+        } catch (JSONException e) {
+            Log.e(TAG, "can't parse the storefront section: " + name);
+        } catch (IOException e) {
+            Log.e(TAG, "can't read the storefront section: " + name);
+        } catch (AESObfuscator.ValidationException e) {
+            Log.e(TAG, "can't obfuscate the storefront section: " + name);
         }
 
-        return false;
+        mSections.put(name, section);
+        return section;
     }
 
-    public String getStorefrontJSON() {
-        return mStorefrontJSON;
+    /**
+     * @return the keys of the top-level sections of the storefront JSON.
+     */
+    public synchronized List<String> getSectionNames() {
+        if (!mInDB){
+            List<String> names = new ArrayList<String>();
+            JSONObject storefrontObject = getStorefrontObject();
+            if (storefrontObject != null){
+                Iterator<?> keys = storefrontObject.keys();
+                while (keys.hasNext()) {
+                    names.add((String) keys.next());
+                }
+            }
+            return names;
+        }
+
+        return Collections.unmodifiableList(mSectionNames);
     }
 
     /** Private functions **/
 
     private StorefrontInfo() { }
 
+    private void clear() {
+        mStorefrontJSON = null;
+        mStorefrontObject = null;
+        mSectionNames = Collections.emptyList();
+        mSections.clear();
+        mInDB = false;
+    }
+
+    private void setStorefrontJSON(String storefrontJSON) {
+        clear();
+        mStorefrontJSON = storefrontJSON;
+    }
+
+    /**
+     * Saves the current storefront JSON in the DB, in compressed chunks per section.
+     */
+    private void saveToDB(String version) {
+        JSONObject storefrontObject = getStorefrontObject();
+        if (storefrontObject == null){
+            return;
+        }
+
+        AESObfuscator obfuscator = StorageManager.getInstance().getObfuscator();
+        LinkedHashMap<String, List<byte[]>> chunks = new LinkedHashMap<String, List<byte[]>>();
+        JSONArray sectionNames = new JSONArray();
+        try {
+            Iterator<?> keys = storefrontObject.keys();
+            while (keys.hasNext()) {
+                String name = (String) keys.next();
+                Object value = storefrontObject.get(name);
+                String text = value instanceof String ? JSONObject.quote((String) value) : value.toString();
+
+                byte[] data = compress(text.getBytes("UTF-8"));
+                if (obfuscator != null){
+                    data = obfuscator.obfuscateBytes(data);
+                }
+                chunks.put(storedSectionName(name), split(data));
+                sectionNames.put(name);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "can't save the storefront json.");
+            return;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        String index = sectionNames.toString();
+        if (obfuscator != null){
+            index = obfuscator.obfuscateString(index);
+        }
+        StorageManager.getInstance().getDatabase().setStorefrontInfo(index, chunks, version);
+
+        if (StoreConfig.debug){
+            Log.d(TAG, "saved " + chunks.size() + " storefront sections.");
+        }
+    }
+
+    private String readSection(String name) throws IOException, AESObfuscator.ValidationException {
+        Cursor cursor = StorageManager.getInstance().getDatabase().getStorefrontChunks(storedSectionName(name));
+        if (cursor == null){
+            throw new IOException("no chunks");
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try {
+            int dataCol = cursor.getColumnIndexOrThrow(StoreDatabase.STOREFRONT_CHUNKS_COLUMN_DATA);
+            while (cursor.moveToNext()) {
+                data.write(cursor.getBlob(dataCol));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        byte[] bytes = data.toByteArray();
+        AESObfuscator obfuscator = StorageManager.getInstance().getObfuscator();
+        if (obfuscator != null){
+            bytes = obfuscator.unobfuscateToBytes(bytes);
+        }
+        return new String(decompress(bytes), "UTF-8");
+    }
+
+    private static String storedSectionName(String name) {
+        AESObfuscator obfuscator = StorageManager.getInstance().getObfuscator();
+        return obfuscator != null ? obfuscator.obfuscateString(name) : name;
+    }
+
+    private static List<byte[]> split(byte[] data) {
+        List<byte[]> chunks = new ArrayList<byte[]>(data.length / CHUNK_SIZE + 1);
+        for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+            // Arrays.copyOfRange is API 9.
+            byte[] chunk = new byte[Math.min(CHUNK_SIZE, data.length - offset)];
+            System.arraycopy(data, offset, chunk, 0, chunk.length);
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("truncated storefront section");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("corrupted storefront section");
+        } finally {
+            inflater.end();
+        }
+    }
+
     /** Private members **/
 
     private static final String TAG = "SOOMLA StorefrontInfo";
     private static StorefrontInfo sInstance = null;
 
-    private String  mStorefrontJSON;
-}
\ No newline at end of file
+    private String                  mStorefrontJSON;
+    private JSONObject              mStorefrontObject;
+    private List<String>            mSectionNames = Collections.emptyList();
+    private HashMap<String, Object> mSections = new HashMap<String, Object>();
+    private boolean                 mInDB;
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.IAssetSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * An {@link IAssetSource} that fetches assets over HTTP(S). References that aren't absolute URLs are resolved
+ * against the base URL given to the constructor.
+ */
+public class UrlAssetSource implements IAssetSource {
+
+    /** Constructor
+     *
+     * @param baseUrl is the URL relative references are resolved against (for example:
+     *                "https://cdn.example.com/store/").
+     */
+    public UrlAssetSource(URL baseUrl) {
+        if (baseUrl == null) {
+            throw new IllegalArgumentException("baseUrl can't be null.");
+        }
+        mBaseUrl = baseUrl;
+    }
+
+    /**
+     * docs in {@link IAssetSource#open(String)}.
+     */
+    @Override
+    public InputStream open(String reference) throws IOException {
+        URL url = new URL(mBaseUrl, reference);
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+
+        if (connection instanceof HttpURLConnection) {
+            int responseCode = ((HttpURLConnection) connection).getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                ((HttpURLConnection) connection).disconnect();
+                throw new IOException("Can't fetch " + url + ": HTTP " + responseCode);
+            }
+        }
+
+        return connection.getInputStream();
+    }
+
+    /** Private members **/
+
+    private static final int TIMEOUT_MILLIS = 15000;
+
+    private final URL mBaseUrl;
+}
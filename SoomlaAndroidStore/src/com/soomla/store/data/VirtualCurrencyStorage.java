@@ -13,7 +13,6 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package com.soomla.store.data;
 
 import android.database.Cursor;
@@ -24,6 +23,9 @@ import com.soomla.store.domain.data.VirtualCurrency;
 
 /**
  * This class provide basic storage operations on VirtualCurrencies.
+ *
+ * The balances of all the currencies in the current {@link StoreCatalog} are kept in memory (in an int array indexed
+ * by currency ordinals) and written through to the database. Reading a balance doesn't touch the database.
  */
 public class VirtualCurrencyStorage {
 
@@ -45,41 +47,41 @@ public class VirtualCurrencyStorage {
             Log.d(TAG, "trying to fetch balance for virtual currency");
         }
 
-        String itemId = virtualCurrency.getItemId();
-        if (StorageManager.getInstance().getObfuscator() != null){
-            itemId = StorageManager.getInstance().getObfuscator().obfuscateString(itemId);
-        }
-        Cursor cursor = StorageManager.getInstance().getDatabase().getVirtualCurrency(itemId);
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            int ordinal = mBalances.getCatalog().getCurrencyOrdinal(virtualCurrency.getItemId());
+            int balance = ordinal >= 0 ? mBalances.getBalances()[ordinal] : queryBalance(virtualCurrency.getItemId());
 
-        if (cursor == null) {
-            return 0;
+            if (StoreConfig.debug){
+                Log.d(TAG, "the currency balance is " + balance);
+            }
+            return balance;
         }
+    }
 
-        try {
-            int balanceCol = cursor.getColumnIndexOrThrow(
-                    StoreDatabase.VIRTUAL_CURRENCY_COLUMN_BALANCE);
-            if (cursor.moveToNext()) {
-                String balanceStr = cursor.getString(balanceCol);
-                int balance;
-                if (StorageManager.getInstance().getObfuscator() != null){
-                    balance = StorageManager.getInstance().getObfuscator().unobfuscateToInt(balanceStr);
-                }
-                else {
-                    balance = Integer.parseInt(balanceStr);
-                }
-
-                if (StoreConfig.debug){
-                    Log.d(TAG, "the currency balance is " + balance);
-                }
-                return balance;
-            }
-        } catch (AESObfuscator.ValidationException e) {
-            e.printStackTrace();
-        } finally {
-            cursor.close();
+    /**
+     * Fetch the balance of the virtual currency with the given ordinal (see {@link StoreCatalog}).
+     * This doesn't allocate anything.
+     * @param ordinal is the ordinal of the required virtual currency in the current catalog.
+     * @return the balance of the required virtual currency.
+     */
+    public int getBalance(int ordinal){
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            return mBalances.getBalances()[ordinal];
         }
+    }
 
-        return 0;
+    /**
+     * Copies the balances of all virtual currencies in the current catalog into the given array.
+     * @param balances is an array of at least the number of virtual currencies. balances[ordinal] is set to the
+     *                 balance of the virtual currency with that ordinal.
+     * @return the number of balances copied.
+     */
+    public int getBalances(int[] balances){
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            int[] cached = mBalances.getBalances();
+            System.arraycopy(cached, 0, balances, 0, cached.length);
+            return cached.length;
+        }
     }
 
     /**
@@ -93,16 +95,22 @@ public class VirtualCurrencyStorage {
             Log.d(TAG, "adding " + amount + " currencies.");
         }
 
-        int balance = getBalance(virtualCurrency);
-        String quantityStr = "" + (balance + amount);
-        String itemId = virtualCurrency.getItemId();
-        if (StorageManager.getInstance().getObfuscator() != null){
-            quantityStr = StorageManager.getInstance().getObfuscator().obfuscateString(quantityStr);
-            itemId      = StorageManager.getInstance().getObfuscator().obfuscateString(itemId);
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            int balance = getBalance(virtualCurrency);
+            return setBalance(virtualCurrency.getItemId(), balance + amount);
         }
-        StorageManager.getInstance().getDatabase().updateVirtualCurrencyBalance(itemId, quantityStr);
+    }
 
-        return balance + amount;
+    /**
+     * Adds the given amount of currency to the virtual currency with the given ordinal.
+     * @param ordinal is the ordinal of the required virtual currency in the current catalog.
+     * @param amount is the amount of currency to add.
+     * @return the new balance after adding amount.
+     */
+    public int add(int ordinal, int amount){
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            return add(mBalances.getCatalog().getVirtualCurrencyByOrdinal(ordinal), amount);
+        }
     }
 
     /**
@@ -115,20 +123,97 @@ public class VirtualCurrencyStorage {
             Log.d(TAG, "removing " + amount + " currencies.");
         }
 
-        String itemId = virtualCurrency.getItemId();
-        int quantity = getBalance(virtualCurrency) - amount;
-        quantity = quantity > 0 ? quantity : 0;
-        String quantityStr = "" + quantity;
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            int quantity = getBalance(virtualCurrency) - amount;
+            quantity = quantity > 0 ? quantity : 0;
+            return setBalance(virtualCurrency.getItemId(), quantity);
+        }
+    }
+
+    /**
+     * Removes the given amount of currency from the virtual currency with the given ordinal.
+     * @param ordinal is the ordinal of the required virtual currency in the current catalog.
+     * @param amount is the amount of currency to remove.
+     * @return the new balance after removing amount.
+     */
+    public int remove(int ordinal, int amount){
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            return remove(mBalances.getCatalog().getVirtualCurrencyByOrdinal(ordinal), amount);
+        }
+    }
+
+    /** Private functions **/
+
+    private int setBalance(String itemId, int balance){
+        String quantityStr = "" + balance;
+        String storedItemId = itemId;
         if (StorageManager.getInstance().getObfuscator() != null){
-            quantityStr = StorageManager.getInstance().getObfuscator().obfuscateString(quantityStr);
-            itemId      = StorageManager.getInstance().getObfuscator().obfuscateString(itemId);
+            quantityStr  = StorageManager.getInstance().getObfuscator().obfuscateString(quantityStr);
+            storedItemId = StorageManager.getInstance().getObfuscator().obfuscateString(storedItemId);
         }
-        StorageManager.getInstance().getDatabase().updateVirtualCurrencyBalance(itemId, quantityStr);
+        StorageManager.getInstance().getDatabase().updateVirtualCurrencyBalance(storedItemId, quantityStr);
 
-        return quantity;
+        int ordinal = mBalances.getCatalog().getCurrencyOrdinal(itemId);
+        if (ordinal >= 0){
+            mBalances.set(ordinal, balance);
+            StorageManager.getInstance().getAffordabilityIndex().onCurrencyBalanceChanged(ordinal);
+        }
+
+        return balance;
+    }
+
+    /**
+     * Reads the balance of a virtual currency that's not in the current catalog directly from the database.
+     */
+    private int queryBalance(String itemId){
+        if (StorageManager.getInstance().getObfuscator() != null){
+            itemId = StorageManager.getInstance().getObfuscator().obfuscateString(itemId);
+        }
+        Cursor cursor = StorageManager.getInstance().getDatabase().getVirtualCurrency(itemId);
+
+        if (cursor == null) {
+            return 0;
+        }
+
+        try {
+            int balanceCol = cursor.getColumnIndexOrThrow(
+                    StoreDatabase.VIRTUAL_CURRENCY_COLUMN_BALANCE);
+            if (cursor.moveToNext()) {
+                String balanceStr = cursor.getString(balanceCol);
+                if (StorageManager.getInstance().getObfuscator() != null){
+                    return StorageManager.getInstance().getObfuscator().unobfuscateToInt(balanceStr);
+                }
+                return Integer.parseInt(balanceStr);
+            }
+        } catch (AESObfuscator.ValidationException e) {
+            e.printStackTrace();
+        } finally {
+            cursor.close();
+        }
+
+        return 0;
     }
 
     /** Private members **/
 
     private static final String TAG = "SOOMLA VirtualCurrencyStorage";
+
+    private final BalanceCache mBalances = new BalanceCache(TAG,
+            StoreDatabase.VIRTUAL_CURRENCY_COLUMN_ITEM_ID, StoreDatabase.VIRTUAL_CURRENCY_COLUMN_BALANCE) {
+
+        @Override
+        protected int getItemCount(StoreCatalog catalog) {
+            return catalog.getVirtualCurrencies().size();
+        }
+
+        @Override
+        protected String getItemId(StoreCatalog catalog, int ordinal) {
+            return catalog.getVirtualCurrencyByOrdinal(ordinal).getItemId();
+        }
+
+        @Override
+        protected Cursor queryAll() {
+            return StorageManager.getInstance().getDatabase().getVirtualCurrencies();
+        }
+    };
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.domain.data.PriceVector;
+import com.soomla.store.domain.data.VirtualGood;
+
+import java.util.List;
+
+/**
+ * The current prices of a list of virtual goods, evaluated in one pass over a single snapshot of the balances.
+ *
+ * The result is kept in columns (primitive arrays) instead of a map per virtual good, so it's cheap to build and
+ * can back a list adapter as is: row i is the i-th virtual good of the evaluated list. The prices of all rows are
+ * kept in two flat arrays (currency ordinals and amounts) and every row points to its range in them.
+ *
+ * A virtual good is affordable if the user has enough of every currency in its price. A currency that's not in the
+ * catalog (ordinal -1) is never affordable.
+ */
+public class VirtualGoodsPrices {
+
+    /**
+     * Evaluates the current prices of the given virtual goods. The balances can't change during the evaluation.
+     * @param goods are the virtual goods to evaluate.
+     * @return the prices of the given virtual goods.
+     */
+    public static VirtualGoodsPrices evaluate(List<VirtualGood> goods) {
+        StorageManager storageManager = StorageManager.getInstance();
+        synchronized (storageManager.getDatabase()) {
+            StoreCatalog catalog = StoreInfo.getInstance().getCatalog();
+
+            int[] currencyBalances = new int[catalog.getVirtualCurrencies().size()];
+            storageManager.getVirtualCurrencyStorage().getBalances(currencyBalances);
+
+            int count = goods.size();
+            VirtualGood[] virtualGoods = new VirtualGood[count];
+            PriceVector[] prices = new PriceVector[count];
+            int[] goodBalances = new int[count];
+            int[] priceOffsets = new int[count + 1];
+            PriceVector emptyPrice = null;
+            for (int i = 0; i < count; i++) {
+                VirtualGood good = goods.get(i);
+                virtualGoods[i] = good;
+                goodBalances[i] = storageManager.getVirtualGoodsStorage().getBalance(good);
+                if (good.getPriceModel() != null) {
+                    prices[i] = good.getPriceModel().getCurrentPriceVector(good);
+                } else {
+                    // a virtual good without a price model costs nothing. its row gets an empty price range.
+                    if (emptyPrice == null) {
+                        emptyPrice = PriceVector.empty(catalog);
+                    }
+                    prices[i] = emptyPrice;
+                }
+                priceOffsets[i + 1] = priceOffsets[i] + prices[i].size();
+            }
+
+            int[] currencyOrdinals = new int[priceOffsets[count]];
+            int[] amounts = new int[priceOffsets[count]];
+            boolean[] affordable = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                prices[i].copyTo(currencyOrdinals, amounts, priceOffsets[i]);
+
+                boolean canAfford = true;
+                for (int j = priceOffsets[i]; j < priceOffsets[i + 1] && canAfford; j++) {
+                    canAfford = currencyOrdinals[j] >= 0 && currencyBalances[currencyOrdinals[j]] >= amounts[j];
+                }
+                affordable[i] = canAfford;
+            }
+
+            return new VirtualGoodsPrices(catalog, virtualGoods, goodBalances, priceOffsets, currencyOrdinals,
+                    amounts, affordable, currencyBalances);
+        }
+    }
+
+    /**
+     * @return the number of evaluated virtual goods (rows).
+     */
+    public int size() {
+        return mGoods.length;
+    }
+
+    /**
+     * @param row is the index of the virtual good in the evaluated list.
+     * @return the number of currencies in the price of the virtual good.
+     */
+    public int getPriceSize(int row) {
+        return mPriceOffsets[row + 1] - mPriceOffsets[row];
+    }
+
+    /**
+     * @param row is the index of the virtual good in the evaluated list.
+     * @param index is the index of the currency in the price (less than {@link #getPriceSize(int)}).
+     * @return the ordinal of the currency in the catalog, or -1 if it's not in the catalog.
+     */
+    public int getCurrencyOrdinal(int row, int index) {
+        return mCurrencyOrdinals[mPriceOffsets[row] + index];
+    }
+
+    /**
+     * @param row is the index of the virtual good in the evaluated list.
+     * @param index is the index of the currency in the price (less than {@link #getPriceSize(int)}).
+     * @return the needed amount of the currency.
+     */
+    public int getAmount(int row, int index) {
+        return mAmounts[mPriceOffsets[row] + index];
+    }
+
+    /**
+     * @param row is the index of the virtual good in the evaluated list.
+     * @return true if the user had enough currencies to buy one unit of the virtual good.
+     */
+    public boolean isAffordable(int row) {
+        return mAffordable[row];
+    }
+
+    /**
+     * @param row is the index of the virtual good in the evaluated list.
+     * @return the balance of the virtual good.
+     */
+    public int getBalance(int row) {
+        return mGoodBalances[row];
+    }
+
+    /**
+     * @param currencyOrdinal is the ordinal of a virtual currency in {@link #getCatalog()}.
+     * @return the balance of the virtual currency.
+     */
+    public int getCurrencyBalance(int currencyOrdinal) {
+        return mCurrencyBalances[currencyOrdinal];
+    }
+
+    /** Getters **/
+
+    public VirtualGood getVirtualGood(int row) {
+        return mGoods[row];
+    }
+
+    public StoreCatalog getCatalog() {
+        return mCatalog;
+    }
+
+    /** Private functions **/
+
+    private VirtualGoodsPrices(StoreCatalog catalog, VirtualGood[] goods, int[] goodBalances, int[] priceOffsets,
+                               int[] currencyOrdinals, int[] amounts, boolean[] affordable,
+                               int[] currencyBalances) {
+        mCatalog = catalog;
+        mGoods = goods;
+        mGoodBalances = goodBalances;
+        mPriceOffsets = priceOffsets;
+        mCurrencyOrdinals = currencyOrdinals;
+        mAmounts = amounts;
+        mAffordable = affordable;
+        mCurrencyBalances = currencyBalances;
+    }
+
+    /** Private members **/
+
+    private final StoreCatalog  mCatalog;
+    private final VirtualGood[] mGoods;
+    private final int[]         mGoodBalances;
+    private final int[]         mPriceOffsets;
+    private final int[]         mCurrencyOrdinals;
+    private final int[]         mAmounts;
+    private final boolean[]     mAffordable;
+    private final int[]         mCurrencyBalances;
+}
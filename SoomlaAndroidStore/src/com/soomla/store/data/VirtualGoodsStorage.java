@@ -19,10 +19,21 @@ import android.database.Cursor;
 import android.util.Log;
 import com.soomla.billing.util.AESObfuscator;
 import com.soomla.store.StoreConfig;
+import com.soomla.store.domain.data.VirtualCategory;
 import com.soomla.store.domain.data.VirtualGood;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
 /**
  * This class provide basic storage operations on VirtualGoods.
+ *
+ * The balances of all the virtual goods in the current {@link StoreCatalog} are kept in memory (in an int array
+ * indexed by virtual good ordinals) and written through to the database. Reading a balance doesn't touch the
+ * database.
  */
 public class VirtualGoodsStorage {
 
@@ -44,44 +55,58 @@ public class VirtualGoodsStorage {
         if (StoreConfig.debug){
             Log.d(TAG, "trying to fetch balance for virtual good with itemId: " + virtualGood.getItemId());
         }
-        String itemId = virtualGood.getItemId();
-        if (StorageManager.getInstance().getObfuscator() != null){
-            itemId = StorageManager.getInstance().getObfuscator().obfuscateString(itemId);
-        }
-        Cursor cursor = StorageManager.getInstance().getDatabase().getVirtualGood(itemId);
-
-        if (cursor == null) {
-            return 0;
-        }
 
-        try {
-            int balanceCol = cursor.getColumnIndexOrThrow(
-                    StoreDatabase.VIRTUAL_GOODS_COLUMN_BALANCE);
-            if (cursor.moveToNext()) {
-                String balanceStr = cursor.getString(balanceCol);
-                int balance;
-                if (StorageManager.getInstance().getObfuscator() != null){
-                    balance = StorageManager.getInstance().getObfuscator().unobfuscateToInt(balanceStr);
-                }
-                else {
-                    balance = Integer.parseInt(balanceStr);
-                }
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            int ordinal = mBalances.getCatalog().getGoodOrdinal(virtualGood.getItemId());
+            int balance = ordinal >= 0 ? mBalances.getBalances()[ordinal] : queryBalance(virtualGood.getItemId());
 
-                if (StoreConfig.debug){
-                    Log.d(TAG, "the balance for " + virtualGood.getItemId() + " is " + balance);
-                }
-                return balance;
+            if (StoreConfig.debug){
+                Log.d(TAG, "the balance for " + virtualGood.getItemId() + " is " + balance);
             }
-        } catch (AESObfuscator.ValidationException e) {
-            e.printStackTrace();
-        } finally {
-            cursor.close();
+            return balance;
         }
-
-        return 0;
 	}
 
+    /**
+     * Fetch the balance of the virtual good with the given ordinal (see {@link StoreCatalog}).
+     * This doesn't allocate anything.
+     * @param ordinal is the ordinal of the required virtual good in the current catalog.
+     * @return the balance of the required virtual good.
+     */
+    public int getBalance(int ordinal){
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            return mBalances.getBalances()[ordinal];
+        }
+    }
 
+    /**
+     * Fetch the version of the balance of the given virtual good. The version changes whenever the balance of the
+     * given virtual good changes, so values computed from the balance can be cached by it (see
+     * {@link com.soomla.store.domain.data.BalanceDrivenPriceModel}).
+     * @param virtualGood is the required virtual good.
+     * @return the version of the balance of the given virtual good, or -1 if the given virtual good is not in the
+     * current catalog (its balance can't be cached).
+     */
+    public long getBalanceVersion(VirtualGood virtualGood){
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            int ordinal = mBalances.getCatalog().getGoodOrdinal(virtualGood.getItemId());
+            return ordinal >= 0 ? mBalances.getVersion(ordinal) : -1;
+        }
+    }
+
+    /**
+     * Copies the balances of all virtual goods in the current catalog into the given array.
+     * @param balances is an array of at least the number of virtual goods. balances[ordinal] is set to the
+     *                 balance of the virtual good with that ordinal.
+     * @return the number of balances copied.
+     */
+    public int getBalances(int[] balances){
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            int[] cached = mBalances.getBalances();
+            System.arraycopy(cached, 0, balances, 0, cached.length);
+            return cached.length;
+        }
+    }
 
     /**
     * Adds the given amount of goods to the storage.
@@ -93,18 +118,24 @@ public class VirtualGoodsStorage {
             Log.d(TAG, "adding " + amount + " " + virtualGood.getName() + ".");
         }
 
-        String itemId = virtualGood.getItemId();
-        int balance = getBalance(virtualGood);
-        String quantityStr = "" + (balance + amount);
-        if (StorageManager.getInstance().getObfuscator() != null){
-            quantityStr = StorageManager.getInstance().getObfuscator().obfuscateString(quantityStr);
-            itemId      = StorageManager.getInstance().getObfuscator().obfuscateString(itemId);
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            int balance = getBalance(virtualGood);
+            return setBalance(virtualGood.getItemId(), balance + amount);
         }
-        StorageManager.getInstance().getDatabase().updateVirtualGoodBalance(itemId, quantityStr);
-
-        return balance + amount;
 	}
 
+    /**
+     * Adds the given amount to the virtual good with the given ordinal.
+     * @param ordinal is the ordinal of the required virtual good in the current catalog.
+     * @param amount is the amount of goods to add.
+     * @return the new balance after adding amount.
+     */
+    public int add(int ordinal, int amount){
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            return add(mBalances.getCatalog().getVirtualGoodByOrdinal(ordinal), amount);
+        }
+    }
+
     /**
      * Removes the given amount from the given virtual good's balance.
      * @param virtualGood is the virtual good to remove the given amount from.
@@ -115,62 +146,345 @@ public class VirtualGoodsStorage {
             Log.d(TAG, "removing " + amount + " " + virtualGood.getName() + ".");
         }
 
-        String itemId = virtualGood.getItemId();
-        int quantity = getBalance(virtualGood) - amount;
-        quantity = quantity > 0 ? quantity : 0;
-        String quantityStr = "" + quantity;
-        if (StorageManager.getInstance().getObfuscator() != null){
-            quantityStr = StorageManager.getInstance().getObfuscator().obfuscateString(quantityStr);
-            itemId      = StorageManager.getInstance().getObfuscator().obfuscateString(itemId);
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            int quantity = getBalance(virtualGood) - amount;
+            quantity = quantity > 0 ? quantity : 0;
+            return setBalance(virtualGood.getItemId(), quantity);
         }
-        StorageManager.getInstance().getDatabase().updateVirtualGoodBalance(itemId, quantityStr);
-
-        return quantity;
 	}
 
+    /**
+     * Removes the given amount from the virtual good with the given ordinal.
+     * @param ordinal is the ordinal of the required virtual good in the current catalog.
+     * @param amount is the amount to remove.
+     * @return the new balance after removing amount.
+     */
+    public int remove(int ordinal, int amount){
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            return remove(mBalances.getCatalog().getVirtualGoodByOrdinal(ordinal), amount);
+        }
+    }
+
+    /**
+     * Checks if the given virtual good is equipped. The equip states of all the virtual goods in the current catalog
+     * are kept in memory, so this doesn't touch the database.
+     * @param virtualGood is the required virtual good.
+     * @return true if the given virtual good is equipped.
+     */
     public boolean isEquipped(VirtualGood virtualGood){
         if (StoreConfig.debug){
             Log.d(TAG, "checking if virtual good with itemId: " + virtualGood.getItemId() + " is equipped.");
         }
-        String itemId = virtualGood.getItemId();
-        if (StorageManager.getInstance().getObfuscator() != null){
-            itemId = StorageManager.getInstance().getObfuscator().obfuscateString(itemId);
-        }
-        Cursor cursor = StorageManager.getInstance().getDatabase().getVirtualGood(itemId);
-
-        if (cursor == null) {
-            return false;
-        }
 
-        int equipCol = cursor.getColumnIndexOrThrow(
-                StoreDatabase.VIRTUAL_GOODS_COLUMN_EQUIPPED);
-        if (cursor.moveToNext()) {
-            boolean equipped = cursor.getInt(equipCol) > 0;
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            long[] sequences = getEquipSequences();
+            int ordinal = mEquipCatalog.getGoodOrdinal(virtualGood.getItemId());
+            boolean equipped = (ordinal >= 0 ? sequences[ordinal] : queryEquipSequence(virtualGood.getItemId())) > 0;
 
             if (StoreConfig.debug){
                 Log.d(TAG, "equipped status for " + virtualGood.getItemId() + " is " + equipped);
             }
             return equipped;
         }
-        cursor.close();
+    }
 
+    /**
+     * Equips or unequips the given virtual good.
+     * @param virtualGood is the required virtual good.
+     * @param equip is true to equip the virtual good (see {@link #equip(VirtualGood)}) and false to unequip it.
+     */
+    public void equip(VirtualGood virtualGood, boolean equip){
+        if (equip){
+            equip(virtualGood);
+        } else {
+            unequip(virtualGood);
+        }
+    }
+
+    /**
+     * Equips the given virtual good. If all the equip slots of its category are taken (see
+     * {@link VirtualCategory#getEquipSlots()}), the virtual goods of the category that were equipped first are
+     * unequipped to make room. The whole swap is written in a single database transaction.
+     * @param virtualGood is the virtual good to equip.
+     * @return the virtual goods that were unequipped to make room. Empty if there were free slots.
+     */
+    public List<VirtualGood> equip(final VirtualGood virtualGood){
+        if (StoreConfig.debug){
+            Log.d(TAG, "equipping " + virtualGood.getName() + ".");
+        }
+
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            long[] sequences = getEquipSequences();
+            StoreCatalog catalog = mEquipCatalog;
+            int ordinal = catalog.getGoodOrdinal(virtualGood.getItemId());
+
+            final List<VirtualGood> unequipped = new ArrayList<VirtualGood>();
+            final List<Integer> unequippedOrdinals = new ArrayList<Integer>();
+            VirtualCategory category = virtualGood.getCategory();
+            if (category != null && category.getEquipSlots() > 0 && ordinal >= 0){
+                List<Integer> equipped = getEquippedOrdinals(catalog, sequences, category.getmId(), ordinal);
+                for (int i = 0; i < equipped.size() - (category.getEquipSlots() - 1); i++){
+                    unequippedOrdinals.add(equipped.get(i));
+                    unequipped.add(catalog.getVirtualGoodByOrdinal(equipped.get(i)));
+                }
+            }
+
+            final long sequence = ++mLastEquipSequence;
+            StorageManager.getInstance().getDatabase().runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    for (VirtualGood good : unequipped){
+                        StorageManager.getInstance().getDatabase().updateVirtualGoodEquip(
+                                storedItemId(good.getItemId()), 0);
+                    }
+                    StorageManager.getInstance().getDatabase().updateVirtualGoodEquip(
+                            storedItemId(virtualGood.getItemId()), sequence);
+                }
+            });
 
-        return false;
+            for (int unequippedOrdinal : unequippedOrdinals){
+                sequences[unequippedOrdinal] = 0;
+            }
+            if (ordinal >= 0){
+                sequences[ordinal] = sequence;
+            }
+
+            if (StoreConfig.debug && !unequipped.isEmpty()){
+                Log.d(TAG, "unequipped " + unequipped.size() + " virtual goods to make room for " +
+                        virtualGood.getName() + ".");
+            }
+            return unequipped;
+        }
     }
 
-    public void equip(VirtualGood virtualGood, boolean equip){
+    /**
+     * Unequips the given virtual good.
+     * @param virtualGood is the virtual good to unequip.
+     */
+    public void unequip(VirtualGood virtualGood){
         if (StoreConfig.debug){
-            Log.d(TAG, (!equip ? "unequipping " : "equipping ") + virtualGood.getName() + ".");
+            Log.d(TAG, "unequipping " + virtualGood.getName() + ".");
         }
 
-        String itemId = virtualGood.getItemId();
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            long[] sequences = getEquipSequences();
+            int ordinal = mEquipCatalog.getGoodOrdinal(virtualGood.getItemId());
+
+            StorageManager.getInstance().getDatabase().updateVirtualGoodEquip(
+                    storedItemId(virtualGood.getItemId()), 0);
+            if (ordinal >= 0){
+                sequences[ordinal] = 0;
+            }
+        }
+    }
+
+    /**
+     * Fetch the equipped virtual goods of the given category, in the order they were equipped.
+     * @param category is the required category.
+     * @return the equipped virtual goods of the given category.
+     */
+    public List<VirtualGood> getEquippedGoods(VirtualCategory category){
+        synchronized (StorageManager.getInstance().getDatabase()) {
+            long[] sequences = getEquipSequences();
+            List<VirtualGood> goods = new ArrayList<VirtualGood>();
+            for (int ordinal : getEquippedOrdinals(mEquipCatalog, sequences, category.getmId(), -1)){
+                goods.add(mEquipCatalog.getVirtualGoodByOrdinal(ordinal));
+            }
+            return goods;
+        }
+    }
+
+    /** Private functions **/
+
+    /**
+     * Fetch the equip sequences of all the virtual goods in the current catalog, indexed by ordinals: 0 if the
+     * virtual good is not equipped, otherwise a number that's larger for virtual goods that were equipped later.
+     * They're loaded from the database in one query the first time they're needed, and again whenever the catalog
+     * is replaced or a database transaction is rolled back.
+     * NOTE: must be called while holding the database lock.
+     */
+    private long[] getEquipSequences(){
+        StoreCatalog catalog = StoreInfo.getInstance().getCatalog();
+        int failedTransactions = StorageManager.getInstance().getDatabase().getFailedTransactionCount();
+        if (mEquipSequences == null || catalog != mEquipCatalog || failedTransactions != mEquipFailedTransactionCount){
+            loadEquipSequences(catalog);
+            mEquipFailedTransactionCount = failedTransactions;
+        }
+        return mEquipSequences;
+    }
+
+    private void loadEquipSequences(StoreCatalog catalog){
+        int count = catalog.getVirtualGoodsCount();
+        long[] sequences = new long[count];
+
+        // item ids are saved obfuscated. the obfuscation is deterministic so we obfuscate the catalog's ids to find
+        // the rows that belong to them.
+        HashMap<String, Integer> ordinalsByStoredId = new HashMap<String, Integer>();
+        for (int i = 0; i < count; i++) {
+            String storedId = storedItemId(catalog.getVirtualGoodItemId(i));
+            if (!ordinalsByStoredId.containsKey(storedId)) {
+                ordinalsByStoredId.put(storedId, i);
+            }
+        }
+
+        Cursor cursor = StorageManager.getInstance().getDatabase().getVirtualGoods();
+        if (cursor != null) {
+            try {
+                int itemIdCol = cursor.getColumnIndexOrThrow(StoreDatabase.VIRTUAL_GOODS_COLUMN_ITEM_ID);
+                int equipCol = cursor.getColumnIndexOrThrow(StoreDatabase.VIRTUAL_GOODS_COLUMN_EQUIPPED);
+                while (cursor.moveToNext()) {
+                    Integer ordinal = ordinalsByStoredId.get(cursor.getString(itemIdCol));
+                    if (ordinal != null && !cursor.isNull(equipCol)) {
+                        sequences[ordinal] = Math.max(0, cursor.getLong(equipCol));
+                        mLastEquipSequence = Math.max(mLastEquipSequence, sequences[ordinal]);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        if (StoreConfig.debug){
+            Log.d(TAG, "loaded " + count + " equip states.");
+        }
+
+        mEquipCatalog = catalog;
+        mEquipSequences = sequences;
+    }
+
+    /**
+     * Fetch the ordinals of the equipped virtual goods of the category with the given id, in the order they were
+     * equipped (oldest first).
+     * @param excludedOrdinal is an ordinal to leave out, or -1.
+     */
+    private static List<Integer> getEquippedOrdinals(StoreCatalog catalog, final long[] sequences, int categoryId,
+                                                     int excludedOrdinal){
+        List<Integer> ordinals = new ArrayList<Integer>();
+        for (int i = 0; i < sequences.length; i++){
+            if (sequences[i] <= 0 || i == excludedOrdinal){
+                continue;
+            }
+            VirtualCategory category = catalog.getVirtualGoodByOrdinal(i).getCategory();
+            if (category != null && category.getmId() == categoryId){
+                ordinals.add(i);
+            }
+        }
+
+        Collections.sort(ordinals, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                long l = sequences[lhs];
+                long r = sequences[rhs];
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        return ordinals;
+    }
+
+    /**
+     * Reads the equip sequence of a virtual good that's not in the current catalog directly from the database.
+     */
+    private long queryEquipSequence(String itemId){
+        Cursor cursor = StorageManager.getInstance().getDatabase().getVirtualGood(storedItemId(itemId));
+
+        if (cursor == null) {
+            return 0;
+        }
+
+        try {
+            int equipCol = cursor.getColumnIndexOrThrow(
+                    StoreDatabase.VIRTUAL_GOODS_COLUMN_EQUIPPED);
+            if (cursor.moveToNext() && !cursor.isNull(equipCol)) {
+                return cursor.getLong(equipCol);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return 0;
+    }
+
+    private static String storedItemId(String itemId){
+        if (StorageManager.getInstance().getObfuscator() != null){
+            return StorageManager.getInstance().getObfuscator().obfuscateString(itemId);
+        }
+        return itemId;
+    }
+
+    private int setBalance(String itemId, int balance){
+        String quantityStr = "" + balance;
+        String storedItemId = itemId;
+        if (StorageManager.getInstance().getObfuscator() != null){
+            quantityStr  = StorageManager.getInstance().getObfuscator().obfuscateString(quantityStr);
+            storedItemId = StorageManager.getInstance().getObfuscator().obfuscateString(storedItemId);
+        }
+        StorageManager.getInstance().getDatabase().updateVirtualGoodBalance(storedItemId, quantityStr);
+
+        int ordinal = mBalances.getCatalog().getGoodOrdinal(itemId);
+        if (ordinal >= 0){
+            mBalances.set(ordinal, balance);
+            StorageManager.getInstance().getAffordabilityIndex().onGoodBalanceChanged(ordinal);
+        }
+
+        return balance;
+    }
+
+    /**
+     * Reads the balance of a virtual good that's not in the current catalog directly from the database.
+     */
+    private int queryBalance(String itemId){
         if (StorageManager.getInstance().getObfuscator() != null){
             itemId = StorageManager.getInstance().getObfuscator().obfuscateString(itemId);
         }
+        Cursor cursor = StorageManager.getInstance().getDatabase().getVirtualGood(itemId);
+
+        if (cursor == null) {
+            return 0;
+        }
 
-        StorageManager.getInstance().getDatabase().updateVirtualGoodEquip(itemId, equip);
+        try {
+            int balanceCol = cursor.getColumnIndexOrThrow(
+                    StoreDatabase.VIRTUAL_GOODS_COLUMN_BALANCE);
+            if (cursor.moveToNext()) {
+                String balanceStr = cursor.getString(balanceCol);
+                if (StorageManager.getInstance().getObfuscator() != null){
+                    return StorageManager.getInstance().getObfuscator().unobfuscateToInt(balanceStr);
+                }
+                return Integer.parseInt(balanceStr);
+            }
+        } catch (AESObfuscator.ValidationException e) {
+            e.printStackTrace();
+        } finally {
+            cursor.close();
+        }
+
+        return 0;
     }
 
     /** Private members **/
     private static final String TAG = "SOOMLA VirtualGoodsStorage";
+
+    private StoreCatalog mEquipCatalog;
+    private long[]       mEquipSequences;
+    private long         mLastEquipSequence;
+    private int          mEquipFailedTransactionCount;
+
+    private final BalanceCache mBalances = new BalanceCache(TAG,
+            StoreDatabase.VIRTUAL_GOODS_COLUMN_ITEM_ID, StoreDatabase.VIRTUAL_GOODS_COLUMN_BALANCE) {
+
+        @Override
+        protected int getItemCount(StoreCatalog catalog) {
+            return catalog.getVirtualGoodsCount();
+        }
+
+        @Override
+        protected String getItemId(StoreCatalog catalog, int ordinal) {
+            return catalog.getVirtualGoodItemId(ordinal);
+        }
+
+        @Override
+        protected Cursor queryAll() {
+            return StorageManager.getInstance().getDatabase().getVirtualGoods();
+        }
+    };
 }
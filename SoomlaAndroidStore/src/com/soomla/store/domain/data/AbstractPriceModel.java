@@ -17,6 +17,8 @@ package com.soomla.store.domain.data;
 
 
 import com.soomla.store.data.JSONConsts;
+import com.soomla.store.data.StoreCatalog;
+import com.soomla.store.data.StoreInfo;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -39,6 +41,60 @@ public abstract class AbstractPriceModel {
      */
     public abstract HashMap<String, Integer> getCurrentPrice(VirtualGood good);
 
+    /**
+     * Fetch the compiled price of the given {@link VirtualGood} in the current catalog (see {@link PriceVector}).
+     *
+     * This implementation compiles the result of {@link #getCurrentPrice(VirtualGood)} on every call. Price models
+     * that can, compile their prices once per catalog (see {@link #compile(StoreCatalog)}) and return them as is.
+     * @param good is the virtual good to fetch the price for.
+     * @return the compiled price of the given virtual good.
+     */
+    public PriceVector getCurrentPriceVector(VirtualGood good) {
+        return PriceVector.compile(getCurrentPrice(good), StoreInfo.getInstance().getCatalog());
+    }
+
+    /**
+     * Fetch the price of the given {@link VirtualGood} into the given buffers. For the static and balance-driven
+     * price models this doesn't allocate anything.
+     * @param good is the virtual good to fetch the price for.
+     * @param currencyOrdinals is filled with the ordinals of the needed currencies (-1 for a currency that's not
+     *                         in the catalog).
+     * @param amounts is filled with the needed amount of each currency.
+     * @return the number of currencies in the price.
+     */
+    public int getCurrentPrice(VirtualGood good, int[] currencyOrdinals, int[] amounts) {
+        return getCurrentPriceVector(good).copyTo(currencyOrdinals, amounts);
+    }
+
+    /**
+     * Fetch the total price of buying the given quantity of the given {@link VirtualGood}, one unit after the other,
+     * starting at its current balance.
+     *
+     * This implementation multiplies the current price by the quantity, which is right for price models that don't
+     * depend on the balance. Price models that do, override it.
+     * @param good is the virtual good to fetch the total price for.
+     * @param quantity is the number of units to buy.
+     * @return the total price of the given quantity of the given virtual good. Totals that don't fit in an int are
+     * capped at Integer.MAX_VALUE.
+     */
+    public HashMap<String, Integer> getTotalPrice(VirtualGood good, int quantity) {
+        HashMap<String, Integer> total = new HashMap<String, Integer>();
+        HashMap<String, Integer> price = getCurrentPrice(good);
+        for (String currencyItemId : price.keySet()) {
+            total.put(currencyItemId, capTotal((long) price.get(currencyItemId) * quantity));
+        }
+
+        return total;
+    }
+
+    /**
+     * Compiles the prices of this price model against the given catalog. {@link StoreCatalog} calls this when it's
+     * created, so prices are compiled once when the catalog is loaded and not when they're used.
+     * @param catalog is the catalog to compile against.
+     */
+    public void compile(StoreCatalog catalog) {
+    }
+
     /**
      * Converts the current {@link AbstractPriceModel} to a JSONObject.
      * @return a JSONObject representation of the current {@link AbstractPriceModel}.
@@ -63,6 +119,14 @@ public abstract class AbstractPriceModel {
             return StaticPriceModel.fromJSONObject(jsonObject);
         } else if (type.equals("balance")){
             return BalanceDrivenPriceModel.fromJSONObject(jsonObject);
+        } else if (type.equals(ArithmeticPriceModel.TYPE)){
+            return ArithmeticPriceModel.fromJSONObject(jsonObject);
+        } else if (type.equals(GeometricPriceModel.TYPE)){
+            return GeometricPriceModel.fromJSONObject(jsonObject);
+        } else if (type.equals(PiecewiseLinearPriceModel.TYPE)){
+            return PiecewiseLinearPriceModel.fromJSONObject(jsonObject);
+        } else if (type.equals(StepPriceModel.TYPE)){
+            return StepPriceModel.fromJSONObject(jsonObject);
         }
 
         return null;
@@ -81,5 +145,12 @@ public abstract class AbstractPriceModel {
 
     protected AbstractPriceModel(){}
 
+    /**
+     * Caps a total price calculated in a long into an int.
+     */
+    protected static int capTotal(long total) {
+        return total > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) total;
+    }
+
     protected String mType = "abstract";
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.domain.data;
+
+import com.soomla.store.data.JSONConsts;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * This price model gives the associated virtual good a price that grows by a fixed amount with every unit of
+ * balance: price = base + step * balance (for every currency).
+ *
+ * JSON: { "type": "arithmetic", "values": { "currency_coin": { "base": 100, "step": 25 } } }
+ */
+public class ArithmeticPriceModel extends CurvePriceModel {
+
+    public static final String TYPE = "arithmetic";
+
+    /** Constructor
+     * Creates an instance of {@link ArithmeticPriceModel}.
+     * @param basePrices are the prices when the balance is 0, by currency itemId.
+     * @param steps are the amounts added to the price with every unit of balance, by currency itemId. A currency
+     *              without a step has a static price.
+     */
+    public ArithmeticPriceModel(HashMap<String, Integer> basePrices, HashMap<String, Integer> steps) {
+        super(TYPE, basePrices.keySet());
+
+        ArrayList<String> itemIds = sortedItemIds(basePrices.keySet());
+        mBasePrices = new int[itemIds.size()];
+        mSteps = new int[itemIds.size()];
+        for (int i = 0; i < itemIds.size(); i++) {
+            mBasePrices[i] = basePrices.get(itemIds.get(i));
+            Integer step = steps.get(itemIds.get(i));
+            mSteps[i] = step != null ? step : 0;
+        }
+    }
+
+    /**
+     * docs in {@link CurvePriceModel#getPrice(int, int)}.
+     */
+    @Override
+    public int getPrice(int currency, int balance) {
+        return clampPrice(mBasePrices[currency] + (double) mSteps[currency] * balance);
+    }
+
+    /**
+     * docs in {@link CurvePriceModel#getTotalPrice(int, int, int)}.
+     * The total is the sum of an arithmetic series over the units whose price is above 0, so it's exact.
+     */
+    @Override
+    public long getTotalPrice(int currency, int balance, int quantity) {
+        long base = mBasePrices[currency];
+        long step = mSteps[currency];
+        long first = balance;
+        long last = (long) balance + quantity - 1;
+
+        // narrowing the range of balances to the ones with a positive price.
+        if (step > 0) {
+            first = Math.max(first, floorDiv(-base, step) + 1);
+        } else if (step < 0) {
+            last = Math.min(last, floorDiv(base - 1, -step));
+        } else if (base <= 0) {
+            return 0;
+        }
+        if (last < first) {
+            return 0;
+        }
+
+        double count = last - first + 1;
+        return clampTotal(count * base + step * ((double) (first + last) * count / 2));
+    }
+
+    /**
+     * Creates an {@link ArithmeticPriceModel} with the given JSONObject.
+     * @param jsonObject is a JSONObject representation of the required {@link ArithmeticPriceModel}.
+     * @return an instance of {@link ArithmeticPriceModel}.
+     * @throws JSONException
+     */
+    public static ArithmeticPriceModel fromJSONObject(JSONObject jsonObject) throws JSONException {
+        HashMap<String, JSONObject> curves = curvesFromJSONObject(jsonObject);
+        HashMap<String, Integer> basePrices = new HashMap<String, Integer>();
+        HashMap<String, Integer> steps = new HashMap<String, Integer>();
+        for (String itemId : curves.keySet()) {
+            JSONObject curve = curves.get(itemId);
+            basePrices.put(itemId, curve.getInt(JSONConsts.GOOD_PRICE_MODEL_BASE));
+            steps.put(itemId, curve.optInt(JSONConsts.GOOD_PRICE_MODEL_STEP, 0));
+        }
+
+        return new ArithmeticPriceModel(basePrices, steps);
+    }
+
+    /** Protected functions **/
+
+    @Override
+    protected void curveToJSONObject(int currency, JSONObject curve) throws JSONException {
+        curve.put(JSONConsts.GOOD_PRICE_MODEL_BASE, mBasePrices[currency]);
+        curve.put(JSONConsts.GOOD_PRICE_MODEL_STEP, mSteps[currency]);
+    }
+
+    /** Private functions **/
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        if (dividend % divisor != 0 && (dividend ^ divisor) < 0) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    /** Private Members **/
+
+    private final int[] mBasePrices;
+    private final int[] mSteps;
+}
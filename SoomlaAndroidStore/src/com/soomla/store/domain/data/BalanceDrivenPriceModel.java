@@ -18,6 +18,9 @@ package com.soomla.store.domain.data;
 
 import com.soomla.store.data.JSONConsts;
 import com.soomla.store.data.StorageManager;
+import com.soomla.store.data.StoreCatalog;
+import com.soomla.store.data.StoreInfo;
+import com.soomla.store.data.VirtualGoodsStorage;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -56,14 +59,66 @@ public class BalanceDrivenPriceModel extends AbstractPriceModel{
      */
     @Override
     public HashMap<String, Integer> getCurrentPrice(VirtualGood good) {
+        return mCurrencyValuePerBalance.get(getPriceIndex(good));
+    }
+
+    /**
+     * docs in {@link AbstractPriceModel#getTotalPrice(VirtualGood, int)}.
+     * The prices between the current balance and the end of the prices-per-balance list are summed in one pass, and
+     * every unit after that costs the last price.
+     */
+    @Override
+    public HashMap<String, Integer> getTotalPrice(VirtualGood good, int quantity) {
         int balance = StorageManager.getInstance().getVirtualGoodsStorage().getBalance(good);
+        int last = mCurrencyValuePerBalance.size() - 1;
+
+        HashMap<String, Long> totals = new HashMap<String, Long>();
+        int units = 0;
+        for (int i = Math.min(balance, last); units < quantity; i++, units++) {
+            int remaining = i == last ? quantity - units : 1;
+            HashMap<String, Integer> price = mCurrencyValuePerBalance.get(i);
+            for (String currencyItemId : price.keySet()) {
+                Long total = totals.get(currencyItemId);
+                totals.put(currencyItemId,
+                        (total != null ? total : 0) + (long) price.get(currencyItemId) * remaining);
+            }
+            if (i == last) {
+                break;
+            }
+        }
 
-        // if the balance is bigger than the size of the array, return the last value in the array.
-        if (balance >= mCurrencyValuePerBalance.size()){
-            return mCurrencyValuePerBalance.get(mCurrencyValuePerBalance.size()-1);
+        HashMap<String, Integer> totalPrice = new HashMap<String, Integer>();
+        for (String currencyItemId : totals.keySet()) {
+            totalPrice.put(currencyItemId, capTotal(totals.get(currencyItemId)));
         }
+        return totalPrice;
+    }
 
-        return mCurrencyValuePerBalance.get(balance);
+    /**
+     * docs in {@link AbstractPriceModel#getCurrentPriceVector(VirtualGood)}.
+     */
+    @Override
+    public PriceVector getCurrentPriceVector(VirtualGood good) {
+        StoreCatalog catalog = StoreInfo.getInstance().getCatalog();
+        PriceVector[] priceVectors = mPriceVectors;
+        if (priceVectors == null || priceVectors[0].getCatalog() != catalog){
+            compile(catalog);
+            priceVectors = mPriceVectors;
+        }
+
+        return priceVectors[getPriceIndex(good)];
+    }
+
+    /**
+     * docs in {@link AbstractPriceModel#compile(StoreCatalog)}.
+     */
+    @Override
+    public void compile(StoreCatalog catalog) {
+        PriceVector[] priceVectors = new PriceVector[mCurrencyValuePerBalance.size()];
+        for (int i = 0; i < priceVectors.length; i++) {
+            priceVectors[i] = PriceVector.compile(mCurrencyValuePerBalance.get(i), catalog);
+        }
+        mPriceVectors = priceVectors;
     }
 
     /**
@@ -71,15 +126,7 @@ public class BalanceDrivenPriceModel extends AbstractPriceModel{
      */
     @Override
     public JSONObject toJSONObject() throws JSONException {
-        JSONObject parentJsonObject = super.toJSONObject();
-        JSONObject jsonObject = new JSONObject();
-
-        Iterator<?> keys = parentJsonObject.keys();
-        while(keys.hasNext())
-        {
-            String key = (String)keys.next();
-            jsonObject.put(key, parentJsonObject.get(key));
-        }
+        JSONObject jsonObject = super.toJSONObject();
 
         JSONArray valuesPerBalance = new JSONArray();
         for (HashMap<String, Integer> currencyValue : mCurrencyValuePerBalance) {
@@ -120,7 +167,59 @@ public class BalanceDrivenPriceModel extends AbstractPriceModel{
     }
 
 
+    /** Private functions **/
+
+    /**
+     * Figures out which price applies to the given virtual good. The result is cached by the version of the virtual
+     * good's balance (see {@link com.soomla.store.data.VirtualGoodsStorage#getBalanceVersion(VirtualGood)}), so the
+     * balance is only read again after it changed.
+     */
+    private int getPriceIndex(VirtualGood good) {
+        VirtualGoodsStorage storage = StorageManager.getInstance().getVirtualGoodsStorage();
+        long version = storage.getBalanceVersion(good);
+
+        PriceIndexCache cache = mPriceIndexCache;
+        if (version >= 0 && cache != null && cache.mGood == good && cache.mBalanceVersion == version){
+            return cache.mPriceIndex;
+        }
+
+        int balance = storage.getBalance(good);
+
+        // if the balance is bigger than the size of the array, the last value in the array is the price.
+        int priceIndex = Math.min(balance, mCurrencyValuePerBalance.size() - 1);
+        if (version >= 0){
+            mPriceIndexCache = new PriceIndexCache(good, version, priceIndex);
+        }
+
+        return priceIndex;
+    }
+
+    /**
+     * The last price index that was calculated, with the balance version it was calculated for. A price model usually
+     * belongs to a single virtual good so one entry is enough.
+     */
+    private static class PriceIndexCache {
+
+        public PriceIndexCache(VirtualGood good, long balanceVersion, int priceIndex) {
+            mGood = good;
+            mBalanceVersion = balanceVersion;
+            mPriceIndex = priceIndex;
+        }
+
+        private final VirtualGood mGood;
+        private final long        mBalanceVersion;
+        private final int         mPriceIndex;
+    }
+
+    /** Getters **/
+
+    public ArrayList<HashMap<String, Integer>> getCurrencyValuePerBalance() {
+        return mCurrencyValuePerBalance;
+    }
+
     /** Private Members **/
 
     private ArrayList<HashMap<String, Integer>> mCurrencyValuePerBalance;
+    private volatile PriceVector[]              mPriceVectors;
+    private volatile PriceIndexCache            mPriceIndexCache;
 }
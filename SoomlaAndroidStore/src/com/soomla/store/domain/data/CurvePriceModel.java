@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.domain.data;
+
+import com.soomla.store.data.JSONConsts;
+import com.soomla.store.data.StorageManager;
+import com.soomla.store.data.StoreCatalog;
+import com.soomla.store.data.StoreInfo;
+import com.soomla.store.data.VirtualGoodsStorage;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * This is the base of price models that calculate the price of a virtual good from its balance with a formula,
+ * instead of keeping a price for every balance (like {@link BalanceDrivenPriceModel} does).
+ * Every currency in the price has its own curve. Subclasses only keep the parameters of their curves, so a price
+ * model for an item with hundreds of levels is as small as a price model for an item with one level.
+ *
+ * The JSON representation of a curve price model is:
+ *     { "type": <type>, "values": { <currency itemId>: { <curve parameters> }, ... } }
+ */
+public abstract class CurvePriceModel extends AbstractPriceModel {
+
+    /** Constructor
+     *
+     * @param type is the type of the price model (as used in its JSON representation).
+     * @param currencyItemIds are the item ids of the currencies in the price. The curves of the subclass are
+     *                        indexed in the order returned by {@link #sortedItemIds(Collection)}.
+     */
+    protected CurvePriceModel(String type, Collection<String> currencyItemIds) {
+        mType = type;
+        mCurrencyItemIds = sortedItemIds(currencyItemIds).toArray(new String[currencyItemIds.size()]);
+    }
+
+    /**
+     * Calculates the price in the currency with the given index when the balance is the given balance.
+     * @param currency is the index of the currency (in {@link #getCurrencyItemIds()}).
+     * @param balance is the balance of the virtual good.
+     * @return the price. must not be negative.
+     */
+    public abstract int getPrice(int currency, int balance);
+
+    /**
+     * Calculates the total price in the currency with the given index of buying the given quantity, one unit after
+     * the other, starting at the given balance.
+     *
+     * This implementation sums the prices of all units. Subclasses calculate it faster, but the total must always be
+     * the sum of the (rounded) prices of all units, so buying a quantity at once costs the same as buying the units
+     * one after the other.
+     * @param currency is the index of the currency (in {@link #getCurrencyItemIds()}).
+     * @param balance is the balance of the virtual good before the first unit is bought.
+     * @param quantity is the number of units to buy.
+     * @return the total price.
+     */
+    public long getTotalPrice(int currency, int balance, int quantity) {
+        long total = 0;
+        for (int i = 0; i < quantity; i++) {
+            total += getPrice(currency, (int) Math.min((long) balance + i, Integer.MAX_VALUE));
+        }
+        return total;
+    }
+
+    /**
+     * docs in {@link AbstractPriceModel#getCurrentPrice(VirtualGood)}.
+     */
+    @Override
+    public HashMap<String, Integer> getCurrentPrice(VirtualGood good) {
+        int balance = StorageManager.getInstance().getVirtualGoodsStorage().getBalance(good);
+
+        HashMap<String, Integer> price = new HashMap<String, Integer>();
+        for (int i = 0; i < mCurrencyItemIds.length; i++) {
+            price.put(mCurrencyItemIds[i], getPrice(i, balance));
+        }
+        return price;
+    }
+
+    /**
+     * docs in {@link AbstractPriceModel#getTotalPrice(VirtualGood, int)}.
+     */
+    @Override
+    public HashMap<String, Integer> getTotalPrice(VirtualGood good, int quantity) {
+        int balance = StorageManager.getInstance().getVirtualGoodsStorage().getBalance(good);
+
+        HashMap<String, Integer> price = new HashMap<String, Integer>();
+        for (int i = 0; i < mCurrencyItemIds.length; i++) {
+            price.put(mCurrencyItemIds[i], capTotal(getTotalPrice(i, balance, quantity)));
+        }
+        return price;
+    }
+
+    /**
+     * docs in {@link AbstractPriceModel#getCurrentPriceVector(VirtualGood)}.
+     * The last calculated price is cached by the version of the virtual good's balance.
+     */
+    @Override
+    public PriceVector getCurrentPriceVector(VirtualGood good) {
+        VirtualGoodsStorage storage = StorageManager.getInstance().getVirtualGoodsStorage();
+        StoreCatalog catalog = StoreInfo.getInstance().getCatalog();
+        long version = storage.getBalanceVersion(good);
+
+        PriceVectorCache cache = mPriceVectorCache;
+        if (version >= 0 && cache != null && cache.mGood == good && cache.mBalanceVersion == version
+                && cache.mPriceVector.getCatalog() == catalog) {
+            return cache.mPriceVector;
+        }
+
+        int balance = storage.getBalance(good);
+        int[] amounts = new int[mCurrencyItemIds.length];
+        for (int i = 0; i < amounts.length; i++) {
+            amounts[i] = getPrice(i, balance);
+        }
+        PriceVector priceVector = new PriceVector(catalog, getCurrencyOrdinals(catalog), amounts);
+
+        if (version >= 0) {
+            mPriceVectorCache = new PriceVectorCache(good, version, priceVector);
+        }
+        return priceVector;
+    }
+
+    /**
+     * docs in {@link AbstractPriceModel#getCurrentPrice(VirtualGood, int[], int[])}.
+     * This never allocates anything.
+     */
+    @Override
+    public int getCurrentPrice(VirtualGood good, int[] currencyOrdinals, int[] amounts) {
+        int balance = StorageManager.getInstance().getVirtualGoodsStorage().getBalance(good);
+        int[] ordinals = getCurrencyOrdinals(StoreInfo.getInstance().getCatalog());
+
+        System.arraycopy(ordinals, 0, currencyOrdinals, 0, ordinals.length);
+        for (int i = 0; i < mCurrencyItemIds.length; i++) {
+            amounts[i] = getPrice(i, balance);
+        }
+        return mCurrencyItemIds.length;
+    }
+
+    /**
+     * docs in {@link AbstractPriceModel#compile(StoreCatalog)}.
+     */
+    @Override
+    public void compile(StoreCatalog catalog) {
+        getCurrencyOrdinals(catalog);
+    }
+
+    /**
+     * docs in {@link AbstractPriceModel#toJSONObject()}
+     */
+    @Override
+    public JSONObject toJSONObject() throws JSONException {
+        JSONObject jsonObject = super.toJSONObject();
+
+        JSONObject values = new JSONObject();
+        for (int i = 0; i < mCurrencyItemIds.length; i++) {
+            JSONObject curve = new JSONObject();
+            curveToJSONObject(i, curve);
+            values.put(mCurrencyItemIds[i], curve);
+        }
+        jsonObject.put(JSONConsts.GOOD_PRICE_MODEL_VALUES, values);
+
+        return jsonObject;
+    }
+
+    /** Getters **/
+
+    public String[] getCurrencyItemIds() {
+        return mCurrencyItemIds.clone();
+    }
+
+    public int getCurrencyCount() {
+        return mCurrencyItemIds.length;
+    }
+
+    /** Protected functions **/
+
+    /**
+     * Puts the parameters of the curve of the currency with the given index in the given JSONObject.
+     */
+    protected abstract void curveToJSONObject(int currency, JSONObject curve) throws JSONException;
+
+    /**
+     * @return the given item ids, sorted. Curves are indexed in this order.
+     */
+    protected static ArrayList<String> sortedItemIds(Collection<String> currencyItemIds) {
+        ArrayList<String> itemIds = new ArrayList<String>(currencyItemIds);
+        Collections.sort(itemIds);
+        return itemIds;
+    }
+
+    /**
+     * @return the curves of the given JSONObject (see the JSON representation above), by currency itemId.
+     */
+    protected static HashMap<String, JSONObject> curvesFromJSONObject(JSONObject jsonObject) throws JSONException {
+        JSONObject values = jsonObject.getJSONObject(JSONConsts.GOOD_PRICE_MODEL_VALUES);
+        HashMap<String, JSONObject> curves = new HashMap<String, JSONObject>();
+        Iterator<?> keys = values.keys();
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+            curves.put(key, values.getJSONObject(key));
+        }
+        return curves;
+    }
+
+    /**
+     * Clamps a calculated price into the range of valid prices.
+     */
+    protected static int clampPrice(double price) {
+        if (price <= 0 || Double.isNaN(price)) {
+            return 0;
+        }
+        if (price >= Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.round(price);
+    }
+
+    /**
+     * Clamps a total price calculated in closed form into the range of valid totals.
+     */
+    protected static long clampTotal(double total) {
+        if (total <= 0 || Double.isNaN(total)) {
+            return 0;
+        }
+        if (total >= Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.round(total);
+    }
+
+    /** Private functions **/
+
+    private int[] getCurrencyOrdinals(StoreCatalog catalog) {
+        CompiledOrdinals compiled = mCompiledOrdinals;
+        if (compiled == null || compiled.mCatalog != catalog) {
+            int[] ordinals = new int[mCurrencyItemIds.length];
+            for (int i = 0; i < ordinals.length; i++) {
+                ordinals[i] = catalog.getCurrencyOrdinal(mCurrencyItemIds[i]);
+            }
+            compiled = new CompiledOrdinals(catalog, ordinals);
+            mCompiledOrdinals = compiled;
+        }
+        return compiled.mOrdinals;
+    }
+
+    private static class CompiledOrdinals {
+
+        public CompiledOrdinals(StoreCatalog catalog, int[] ordinals) {
+            mCatalog = catalog;
+            mOrdinals = ordinals;
+        }
+
+        private final StoreCatalog mCatalog;
+        private final int[]        mOrdinals;
+    }
+
+    private static class PriceVectorCache {
+
+        public PriceVectorCache(VirtualGood good, long balanceVersion, PriceVector priceVector) {
+            mGood = good;
+            mBalanceVersion = balanceVersion;
+            mPriceVector = priceVector;
+        }
+
+        private final VirtualGood mGood;
+        private final long        mBalanceVersion;
+        private final PriceVector mPriceVector;
+    }
+
+    /** Private members **/
+
+    private final String[]             mCurrencyItemIds;
+    private volatile CompiledOrdinals  mCompiledOrdinals;
+    private volatile PriceVectorCache  mPriceVectorCache;
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.domain.data;
+
+import com.soomla.store.data.JSONConsts;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * This price model gives the associated virtual good a price that's multiplied by a fixed ratio with every unit of
+ * balance: price = round(base * ratio ^ balance) (for every currency).
+ *
+ * JSON: { "type": "geometric", "values": { "currency_coin": { "base": 100, "ratio": 1.15 } } }
+ */
+public class GeometricPriceModel extends CurvePriceModel {
+
+    public static final String TYPE = "geometric";
+
+    /** Constructor
+     * Creates an instance of {@link GeometricPriceModel}.
+     * @param basePrices are the prices when the balance is 0, by currency itemId.
+     * @param ratios are the ratios the price is multiplied by with every unit of balance, by currency itemId. A
+     *               currency without a ratio has a static price.
+     */
+    public GeometricPriceModel(HashMap<String, Integer> basePrices, HashMap<String, Double> ratios) {
+        super(TYPE, basePrices.keySet());
+
+        ArrayList<String> itemIds = sortedItemIds(basePrices.keySet());
+        mBasePrices = new int[itemIds.size()];
+        mRatios = new double[itemIds.size()];
+        for (int i = 0; i < itemIds.size(); i++) {
+            mBasePrices[i] = basePrices.get(itemIds.get(i));
+            Double ratio = ratios.get(itemIds.get(i));
+            mRatios[i] = ratio != null ? ratio : 1.0;
+        }
+    }
+
+    /**
+     * docs in {@link CurvePriceModel#getPrice(int, int)}.
+     */
+    @Override
+    public int getPrice(int currency, int balance) {
+        return clampPrice(mBasePrices[currency] * Math.pow(mRatios[currency], balance));
+    }
+
+    /**
+     * docs in {@link CurvePriceModel#getTotalPrice(int, int, int)}.
+     * With a ratio that's not negative the prices only go one way, so the units that are rounded to the same price
+     * are a range of balances. The total sums these ranges (finding the end of each one with a binary search),
+     * so it's exactly the sum of the prices of all units, and its cost depends on the number of distinct prices and
+     * not on the quantity.
+     */
+    @Override
+    public long getTotalPrice(int currency, int balance, int quantity) {
+        if (mRatios[currency] < 0) {
+            // prices with alternating signs are clamped per unit, they're not monotonic.
+            return super.getTotalPrice(currency, balance, quantity);
+        }
+
+        long last = (long) balance + quantity - 1;
+        long total = 0;
+        long from = balance;
+        while (from <= last) {
+            int price = getPriceAt(currency, from);
+
+            // galloping to a balance past the end of the range, and then searching the end between the two.
+            long to = from;
+            long step = 1;
+            while (to + step <= last && getPriceAt(currency, to + step) == price) {
+                to += step;
+                step <<= 1;
+            }
+            long past = Math.min(to + step, last + 1);
+            while (past - to > 1) {
+                long middle = (to + past) >>> 1;
+                if (getPriceAt(currency, middle) == price) {
+                    to = middle;
+                } else {
+                    past = middle;
+                }
+            }
+
+            total += (to - from + 1) * price;
+            if (total >= Integer.MAX_VALUE) {
+                return Integer.MAX_VALUE;
+            }
+            from = to + 1;
+        }
+        return total;
+    }
+
+    /**
+     * Creates a {@link GeometricPriceModel} with the given JSONObject.
+     * @param jsonObject is a JSONObject representation of the required {@link GeometricPriceModel}.
+     * @return an instance of {@link GeometricPriceModel}.
+     * @throws JSONException
+     */
+    public static GeometricPriceModel fromJSONObject(JSONObject jsonObject) throws JSONException {
+        HashMap<String, JSONObject> curves = curvesFromJSONObject(jsonObject);
+        HashMap<String, Integer> basePrices = new HashMap<String, Integer>();
+        HashMap<String, Double> ratios = new HashMap<String, Double>();
+        for (String itemId : curves.keySet()) {
+            JSONObject curve = curves.get(itemId);
+            basePrices.put(itemId, curve.getInt(JSONConsts.GOOD_PRICE_MODEL_BASE));
+            ratios.put(itemId, curve.optDouble(JSONConsts.GOOD_PRICE_MODEL_RATIO, 1.0));
+        }
+
+        return new GeometricPriceModel(basePrices, ratios);
+    }
+
+    /** Protected functions **/
+
+    @Override
+    protected void curveToJSONObject(int currency, JSONObject curve) throws JSONException {
+        curve.put(JSONConsts.GOOD_PRICE_MODEL_BASE, mBasePrices[currency]);
+        curve.put(JSONConsts.GOOD_PRICE_MODEL_RATIO, mRatios[currency]);
+    }
+
+    /** Private functions **/
+
+    private int getPriceAt(int currency, long balance) {
+        return getPrice(currency, (int) Math.min(balance, Integer.MAX_VALUE));
+    }
+
+    /** Private Members **/
+
+    private final int[]    mBasePrices;
+    private final double[] mRatios;
+}
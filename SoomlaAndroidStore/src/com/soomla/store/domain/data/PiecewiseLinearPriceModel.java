@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.domain.data;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * This price model gives the associated virtual good a price that's linearly interpolated between a few points
+ * (balance, price), for every currency. Below the first point the price of the first point is used, above the last
+ * point the price of the last point is used.
+ * Only the points are kept, so the cost of a price doesn't depend on the number of balances the points span.
+ *
+ * JSON: { "type": "piecewise", "values": { "currency_coin": { "points": [ { "balance": 0, "price": 100 },
+ *                                                                         { "balance": 50, "price": 1000 } ] } } }
+ */
+public class PiecewiseLinearPriceModel extends CurvePriceModel {
+
+    public static final String TYPE = "piecewise";
+
+    /** Constructor
+     * Creates an instance of {@link PiecewiseLinearPriceModel}.
+     * @param points are the points of each currency's curve (balance to price), by currency itemId. Every curve
+     *               must have at least one point.
+     */
+    public PiecewiseLinearPriceModel(HashMap<String, TreeMap<Integer, Integer>> points) {
+        super(TYPE, points.keySet());
+
+        mPoints = new PricePoints(sortedItemIds(points.keySet()), points);
+    }
+
+    /**
+     * docs in {@link CurvePriceModel#getPrice(int, int)}.
+     * The interpolated price is rounded half up with integer arithmetic, so it's exact.
+     */
+    @Override
+    public int getPrice(int currency, int balance) {
+        int[] balances = mPoints.getBalances(currency);
+        int[] prices = mPoints.getPrices(currency);
+
+        int index = mPoints.floorIndex(currency, balance);
+        if (index < 0) {
+            return prices[0];
+        }
+        if (index == balances.length - 1) {
+            return prices[index];
+        }
+
+        long width = (long) balances[index + 1] - balances[index];
+        long offset = (long) balance - balances[index];
+        long rise = (long) prices[index + 1] - prices[index];
+
+        // price = prices[index] + offset * rise / width, rounded half up.
+        long product = offset * Math.abs(rise);
+        long quotient = product / width;
+        long twiceRemainder = 2 * (product % width);
+        if (rise >= 0) {
+            return (int) (prices[index] + quotient + (twiceRemainder >= width ? 1 : 0));
+        }
+        return (int) (prices[index] - quotient - (twiceRemainder > width ? 1 : 0));
+    }
+
+    /**
+     * docs in {@link CurvePriceModel#getTotalPrice(int, int, int)}.
+     * The total is summed per segment between two points, with integer arithmetic, so it's exactly the sum of the
+     * prices of all units, and its cost depends on the number of points and not on the quantity.
+     */
+    @Override
+    public long getTotalPrice(int currency, int balance, int quantity) {
+        int[] balances = mPoints.getBalances(currency);
+        int[] prices = mPoints.getPrices(currency);
+        long last = (long) balance + quantity - 1;
+
+        long total = 0;
+        long from = balance;
+
+        // before the first point the price is flat.
+        if (from < balances[0]) {
+            long to = Math.min(last, balances[0] - 1L);
+            total += (to - from + 1) * prices[0];
+            from = to + 1;
+        }
+
+        for (int i = Math.max(mPoints.floorIndex(currency, (int) Math.min(from, Integer.MAX_VALUE)), 0);
+             i < balances.length && from <= last && total < Integer.MAX_VALUE; i++) {
+            if (i == balances.length - 1) {
+                // after the last point the price is flat.
+                total += (last - from + 1) * prices[i];
+                break;
+            }
+
+            long to = Math.min(last, balances[i + 1] - 1L);
+            total += segmentTotal(prices[i], prices[i + 1], (long) balances[i + 1] - balances[i],
+                    from - balances[i], to - from + 1);
+            from = to + 1;
+        }
+
+        return Math.min(total, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a {@link PiecewiseLinearPriceModel} with the given JSONObject.
+     * @param jsonObject is a JSONObject representation of the required {@link PiecewiseLinearPriceModel}.
+     * @return an instance of {@link PiecewiseLinearPriceModel}.
+     * @throws JSONException
+     */
+    public static PiecewiseLinearPriceModel fromJSONObject(JSONObject jsonObject) throws JSONException {
+        return new PiecewiseLinearPriceModel(PricePoints.fromJSONObject(curvesFromJSONObject(jsonObject)));
+    }
+
+    /** Protected functions **/
+
+    @Override
+    protected void curveToJSONObject(int currency, JSONObject curve) throws JSONException {
+        mPoints.toJSONObject(currency, curve);
+    }
+
+    /** Private functions **/
+
+    /**
+     * Sums the prices of the given number of units of a segment, starting at the given offset into the segment.
+     * @param startPrice is the price at the start of the segment.
+     * @param endPrice is the price at the end of the segment.
+     * @param width is the number of balances between the start and the end of the segment.
+     * @param offset is the offset of the first unit from the start of the segment.
+     * @param count is the number of units.
+     * @return the total, or a number bigger than Integer.MAX_VALUE if the total is bigger than that.
+     */
+    private static long segmentTotal(long startPrice, long endPrice, long width, long offset, long count) {
+        if (endPrice < startPrice) {
+            // rounding half up the prices of a falling segment is the same as rounding half up the prices of the
+            // rising segment that's read from the end.
+            return segmentTotal(endPrice, startPrice, width, width - (offset + count - 1), count);
+        }
+
+        long total = count * startPrice;
+        if (total > Integer.MAX_VALUE) {
+            return total;
+        }
+
+        // the price of the unit at offset k is startPrice + floor((2 * k * rise + width) / (2 * width)). the sum of
+        // these floors is a floor sum, whose numerators are reduced first so nothing overflows.
+        long rise = endPrice - startPrice;
+        long product = offset * rise;
+        total += multiplySaturated(count, product / width);
+        if (total > Integer.MAX_VALUE) {
+            return total;
+        }
+        return total + floorSum(count, 2 * width, 2 * rise, 2 * (product % width) + width);
+    }
+
+    /**
+     * Calculates the sum of floor((a * i + b) / m) for i from 0 to n - 1, in O(log m) steps (with the Euclid-like
+     * reduction of the floor sum). All the arguments must not be negative and m must be positive.
+     * @return the sum, or a number bigger than Integer.MAX_VALUE if the sum is bigger than that.
+     */
+    private static long floorSum(long n, long m, long a, long b) {
+        long sum = 0;
+        while (true) {
+            if (a >= m) {
+                sum += multiplySaturated(multiplySaturated(n, n - 1) / 2, a / m);
+                a %= m;
+            }
+            if (b >= m) {
+                sum += multiplySaturated(n, b / m);
+                b %= m;
+            }
+            if (sum > Integer.MAX_VALUE) {
+                return sum;
+            }
+
+            long yMax = multiplySaturated(a, n);
+            if (yMax == SATURATED) {
+                // a * n this big means the sum is way bigger than Integer.MAX_VALUE.
+                return SATURATED;
+            }
+            yMax += b;
+            if (yMax < m) {
+                return sum;
+            }
+
+            n = yMax / m;
+            b = yMax % m;
+            long swap = m;
+            m = a;
+            a = swap;
+        }
+    }
+
+    /**
+     * @return x * y (both not negative), or {@link #SATURATED} if it's not smaller than that.
+     */
+    private static long multiplySaturated(long x, long y) {
+        if (x != 0 && y >= SATURATED / x) {
+            return SATURATED;
+        }
+        return x * y;
+    }
+
+    /** Private Members **/
+
+    private static final long SATURATED = Long.MAX_VALUE / 4;
+
+
+    private final PricePoints mPoints;
+}
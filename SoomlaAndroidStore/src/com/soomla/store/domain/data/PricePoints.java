@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.domain.data;
+
+import com.soomla.store.data.JSONConsts;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The (balance, price) points of the curves of {@link PiecewiseLinearPriceModel} and {@link StepPriceModel}, kept
+ * as sorted primitive arrays per currency.
+ */
+class PricePoints {
+
+    PricePoints(List<String> sortedItemIds, HashMap<String, TreeMap<Integer, Integer>> points) {
+        mBalances = new int[sortedItemIds.size()][];
+        mPrices = new int[sortedItemIds.size()][];
+        for (int i = 0; i < sortedItemIds.size(); i++) {
+            TreeMap<Integer, Integer> curve = points.get(sortedItemIds.get(i));
+            if (curve == null || curve.isEmpty()) {
+                throw new IllegalArgumentException("No price points for currency: " + sortedItemIds.get(i));
+            }
+
+            mBalances[i] = new int[curve.size()];
+            mPrices[i] = new int[curve.size()];
+            int j = 0;
+            for (Map.Entry<Integer, Integer> point : curve.entrySet()) {
+                mBalances[i][j] = point.getKey();
+                mPrices[i][j] = Math.max(0, point.getValue());
+                j++;
+            }
+        }
+    }
+
+    /**
+     * @return the index of the last point of the given currency whose balance is not bigger than the given balance,
+     * or -1 if the given balance is below the first point.
+     */
+    int floorIndex(int currency, int balance) {
+        int index = Arrays.binarySearch(mBalances[currency], balance);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    int[] getBalances(int currency) {
+        return mBalances[currency];
+    }
+
+    int[] getPrices(int currency) {
+        return mPrices[currency];
+    }
+
+    void toJSONObject(int currency, JSONObject curve) throws JSONException {
+        JSONArray points = new JSONArray();
+        for (int i = 0; i < mBalances[currency].length; i++) {
+            JSONObject point = new JSONObject();
+            point.put(JSONConsts.GOOD_PRICE_MODEL_BALANCE, mBalances[currency][i]);
+            point.put(JSONConsts.GOOD_PRICE_MODEL_PRICE, mPrices[currency][i]);
+            points.put(point);
+        }
+        curve.put(JSONConsts.GOOD_PRICE_MODEL_POINTS, points);
+    }
+
+    static HashMap<String, TreeMap<Integer, Integer>> fromJSONObject(HashMap<String, JSONObject> curves)
+            throws JSONException {
+        HashMap<String, TreeMap<Integer, Integer>> points = new HashMap<String, TreeMap<Integer, Integer>>();
+        for (String itemId : curves.keySet()) {
+            JSONArray pointsJSON = curves.get(itemId).getJSONArray(JSONConsts.GOOD_PRICE_MODEL_POINTS);
+            TreeMap<Integer, Integer> curve = new TreeMap<Integer, Integer>();
+            for (int i = 0; i < pointsJSON.length(); i++) {
+                JSONObject point = pointsJSON.getJSONObject(i);
+                curve.put(point.getInt(JSONConsts.GOOD_PRICE_MODEL_BALANCE),
+                        point.getInt(JSONConsts.GOOD_PRICE_MODEL_PRICE));
+            }
+            if (curve.isEmpty()) {
+                throw new JSONException("No price points for currency: " + itemId);
+            }
+            points.put(itemId, curve);
+        }
+        return points;
+    }
+
+    /** Private members **/
+
+    private final int[][] mBalances;
+    private final int[][] mPrices;
+}
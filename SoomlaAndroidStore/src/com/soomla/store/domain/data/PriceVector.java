@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.domain.data;
+
+import com.soomla.store.data.StoreCatalog;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compiled price: parallel arrays of currency ordinals (see {@link StoreCatalog}) and the amounts needed of each
+ * currency. A price vector is immutable and belongs to the catalog it was compiled against.
+ *
+ * A currency that doesn't exist in the catalog gets the ordinal -1.
+ */
+public final class PriceVector {
+
+    /**
+     * Compiles the given price against the given catalog.
+     * @param price is a price as a map of currency itemIds to amounts.
+     * @param catalog is the catalog to take the currency ordinals from.
+     * @return the compiled price.
+     */
+    public static PriceVector compile(HashMap<String, Integer> price, StoreCatalog catalog) {
+        int[] currencyOrdinals = new int[price.size()];
+        int[] amounts = new int[price.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : price.entrySet()) {
+            currencyOrdinals[i] = catalog.getCurrencyOrdinal(entry.getKey());
+            amounts[i] = entry.getValue() != null ? entry.getValue() : 0;
+            i++;
+        }
+
+        return new PriceVector(catalog, currencyOrdinals, amounts);
+    }
+
+    /**
+     * @param catalog is the catalog the price belongs to.
+     * @return a price of nothing. used for virtual goods without a price model, which are always affordable.
+     */
+    public static PriceVector empty(StoreCatalog catalog) {
+        return new PriceVector(catalog, new int[0], new int[0]);
+    }
+
+    /**
+     * Copies this price into the given buffers. This doesn't allocate anything.
+     * @param currencyOrdinals is filled with the currency ordinals. must have room for {@link #size()} elements.
+     * @param amounts is filled with the amounts of each currency. must have room for {@link #size()} elements.
+     * @return the number of currencies in this price.
+     */
+    public int copyTo(int[] currencyOrdinals, int[] amounts) {
+        System.arraycopy(mCurrencyOrdinals, 0, currencyOrdinals, 0, mCurrencyOrdinals.length);
+        System.arraycopy(mAmounts, 0, amounts, 0, mAmounts.length);
+        return mCurrencyOrdinals.length;
+    }
+
+    /**
+     * Copies this price into the given buffers, starting at the given offset. This doesn't allocate anything.
+     * @param currencyOrdinals is filled with the currency ordinals.
+     * @param amounts is filled with the amounts of each currency.
+     * @param offset is the index in the buffers to copy the first currency to.
+     * @return the number of currencies in this price.
+     */
+    public int copyTo(int[] currencyOrdinals, int[] amounts, int offset) {
+        System.arraycopy(mCurrencyOrdinals, 0, currencyOrdinals, offset, mCurrencyOrdinals.length);
+        System.arraycopy(mAmounts, 0, amounts, offset, mAmounts.length);
+        return mCurrencyOrdinals.length;
+    }
+
+    /** Getters **/
+
+    public int size() {
+        return mCurrencyOrdinals.length;
+    }
+
+    public int getCurrencyOrdinal(int index) {
+        return mCurrencyOrdinals[index];
+    }
+
+    public int getAmount(int index) {
+        return mAmounts[index];
+    }
+
+    public StoreCatalog getCatalog() {
+        return mCatalog;
+    }
+
+    /** Constructor
+     * Used by price models that calculate their prices (see {@link CurvePriceModel}).
+     */
+    PriceVector(StoreCatalog catalog, int[] currencyOrdinals, int[] amounts) {
+        mCatalog = catalog;
+        mCurrencyOrdinals = currencyOrdinals;
+        mAmounts = amounts;
+    }
+
+    /** Private members **/
+
+    private final StoreCatalog mCatalog;
+    private final int[]        mCurrencyOrdinals;
+    private final int[]        mAmounts;
+}
@@ -16,6 +16,8 @@
 package com.soomla.store.domain.data;
 
 import com.soomla.store.data.JSONConsts;
+import com.soomla.store.data.StoreCatalog;
+import com.soomla.store.data.StoreInfo;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -50,20 +52,35 @@ public class StaticPriceModel extends AbstractPriceModel {
         return mCurrencyValue;
     }
 
+    /**
+     * docs in {@link AbstractPriceModel#getCurrentPriceVector(VirtualGood)}.
+     */
+    @Override
+    public PriceVector getCurrentPriceVector(VirtualGood good) {
+        StoreCatalog catalog = StoreInfo.getInstance().getCatalog();
+        PriceVector priceVector = mPriceVector;
+        if (priceVector == null || priceVector.getCatalog() != catalog){
+            compile(catalog);
+            priceVector = mPriceVector;
+        }
+
+        return priceVector;
+    }
+
+    /**
+     * docs in {@link AbstractPriceModel#compile(StoreCatalog)}.
+     */
+    @Override
+    public void compile(StoreCatalog catalog) {
+        mPriceVector = PriceVector.compile(mCurrencyValue, catalog);
+    }
+
     /**
      * docs in {@link AbstractPriceModel#toJSONObject()}
      */
     @Override
     public JSONObject toJSONObject() throws JSONException {
-        JSONObject parentJsonObject = super.toJSONObject();
-        JSONObject jsonObject = new JSONObject();
-
-        Iterator<?> keys = parentJsonObject.keys();
-        while(keys.hasNext())
-        {
-            String key = (String)keys.next();
-            jsonObject.put(key, parentJsonObject.get(key));
-        }
+        JSONObject jsonObject = super.toJSONObject();
 
         JSONObject currencyValues = new JSONObject();
         for(String key : mCurrencyValue.keySet()){
@@ -93,7 +110,14 @@ public class StaticPriceModel extends AbstractPriceModel {
     }
 
 
+    /** Getters **/
+
+    public HashMap<String, Integer> getCurrencyValue() {
+        return mCurrencyValue;
+    }
+
     /** Private Members **/
 
     private HashMap<String, Integer> mCurrencyValue;
+    private volatile PriceVector     mPriceVector;
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.domain.data;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * This price model gives the associated virtual good a price that changes in steps. Every point (balance, price)
+ * starts a step: the price is the price of the last point whose balance is not bigger than the good's balance (for
+ * every currency). Below the first point the price of the first point is used.
+ * Only the points are kept, so the cost of a price doesn't depend on the number of balances the steps span.
+ *
+ * JSON: { "type": "step", "values": { "currency_coin": { "points": [ { "balance": 0, "price": 100 },
+ *                                                                    { "balance": 10, "price": 250 } ] } } }
+ */
+public class StepPriceModel extends CurvePriceModel {
+
+    public static final String TYPE = "step";
+
+    /** Constructor
+     * Creates an instance of {@link StepPriceModel}.
+     * @param points are the points where each currency's steps start (balance to price), by currency itemId.
+     *               Every curve must have at least one point.
+     */
+    public StepPriceModel(HashMap<String, TreeMap<Integer, Integer>> points) {
+        super(TYPE, points.keySet());
+
+        mPoints = new PricePoints(sortedItemIds(points.keySet()), points);
+    }
+
+    /**
+     * docs in {@link CurvePriceModel#getPrice(int, int)}.
+     */
+    @Override
+    public int getPrice(int currency, int balance) {
+        int index = mPoints.floorIndex(currency, balance);
+        return mPoints.getPrices(currency)[index < 0 ? 0 : index];
+    }
+
+    /**
+     * docs in {@link CurvePriceModel#getTotalPrice(int, int, int)}.
+     * The total is summed per step, so it's exact and its cost depends on the number of points and not on the
+     * quantity.
+     */
+    @Override
+    public long getTotalPrice(int currency, int balance, int quantity) {
+        int[] balances = mPoints.getBalances(currency);
+        int[] prices = mPoints.getPrices(currency);
+        long last = (long) balance + quantity - 1;
+
+        long total = 0;
+        long from = balance;
+        for (int i = Math.max(mPoints.floorIndex(currency, balance), 0); i < balances.length && from <= last; i++) {
+            long to = i + 1 < balances.length ? Math.min(last, balances[i + 1] - 1L) : last;
+            total += (to - from + 1) * prices[i];
+            from = to + 1;
+        }
+        return total;
+    }
+
+    /**
+     * Creates a {@link StepPriceModel} with the given JSONObject.
+     * @param jsonObject is a JSONObject representation of the required {@link StepPriceModel}.
+     * @return an instance of {@link StepPriceModel}.
+     * @throws JSONException
+     */
+    public static StepPriceModel fromJSONObject(JSONObject jsonObject) throws JSONException {
+        return new StepPriceModel(PricePoints.fromJSONObject(curvesFromJSONObject(jsonObject)));
+    }
+
+    /** Protected functions **/
+
+    @Override
+    protected void curveToJSONObject(int currency, JSONObject curve) throws JSONException {
+        mPoints.toJSONObject(currency, curve);
+    }
+
+    /** Private Members **/
+
+    private final PricePoints mPoints;
+}
@@ -26,6 +26,9 @@ import org.json.JSONObject;
  * The purposes of virtual category are:
  * 1. You can use it to arrange virtual goods to their specific categories.
  * 2. SOOMLA's storefront uses this to show the goods in their categories on the UI (for supported themes only).
+ * 3. It limits how many of its virtual goods can be equipped at the same time (its equip slots). Equipping a virtual
+ *    good when all the slots are taken unequips the one that was equipped first. A category with one slot lets the
+ *    user equip a single virtual good (a skin, for example). 0 means there's no limit.
  */
 public class VirtualCategory {
 
@@ -35,8 +38,23 @@ public class VirtualCategory {
      * @param mId is the category's unique id.
      */
     public VirtualCategory(String mName, int mId) {
+        this(mName, mId, 0);
+    }
+
+    /** Constructor
+     *
+     * @param mName is the category's name.
+     * @param mId is the category's unique id.
+     * @param mEquipSlots is the number of virtual goods of this category that can be equipped at the same time.
+     *                    0 means there's no limit.
+     */
+    public VirtualCategory(String mName, int mId, int mEquipSlots) {
+        if (mEquipSlots < 0){
+            throw new IllegalArgumentException("equip slots can't be negative: " + mEquipSlots);
+        }
         this.mName = mName;
         this.mId = mId;
+        this.mEquipSlots = mEquipSlots;
     }
 
     /** Constructor
@@ -48,6 +66,7 @@ public class VirtualCategory {
     public VirtualCategory(JSONObject jsonObject) throws JSONException{
         this.mName = jsonObject.getString(JSONConsts.CATEGORY_NAME);
         this.mId   = jsonObject.getInt(JSONConsts.CATEGORY_ID);
+        this.mEquipSlots = Math.max(0, jsonObject.optInt(JSONConsts.CATEGORY_EQUIP_SLOTS, 0));
     }
 
     /**
@@ -59,6 +78,7 @@ public class VirtualCategory {
         try {
             jsonObject.put(JSONConsts.CATEGORY_NAME, mName);
             jsonObject.put(JSONConsts.CATEGORY_ID, mId);
+            jsonObject.put(JSONConsts.CATEGORY_EQUIP_SLOTS, mEquipSlots);
         } catch (JSONException e) {
             if (StoreConfig.debug){
                 Log.d(TAG, "An error occurred while generating JSON object.");
@@ -72,10 +92,19 @@ public class VirtualCategory {
         return mId;
     }
 
+    public String getName() {
+        return mName;
+    }
+
+    public int getEquipSlots() {
+        return mEquipSlots;
+    }
+
     /** Private members **/
 
     private static final String TAG = "SOOMLA VirtualCategory";
 
     private String  mName;
     private int     mId;
+    private int     mEquipSlots;
 }
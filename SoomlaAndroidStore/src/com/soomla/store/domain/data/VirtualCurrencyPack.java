@@ -23,8 +23,6 @@ import com.soomla.store.exceptions.VirtualItemNotFoundException;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Iterator;
-
 /**
  * This class represents a pack of the game's virtual currency.
  * For example: If you have a "Coin" as a virtual currency, you might
@@ -82,20 +80,12 @@ public class VirtualCurrencyPack extends AbstractVirtualItem {
      * @return a JSONObject representation of the current {@link VirtualCurrencyPack}.
      */
     public JSONObject toJSONObject(){
-        JSONObject parentJsonObject = super.toJSONObject();
-        JSONObject jsonObject = new JSONObject();
+        JSONObject jsonObject = super.toJSONObject();
         try {
             jsonObject.put(JSONConsts.CURRENCYPACK_PRICE, new Double(mPrice));
             jsonObject.put(JSONConsts.CURRENCYPACK_PRODUCT_ID, mGoogleItem.getProductId());
             jsonObject.put(JSONConsts.CURRENCYPACK_AMOUNT, new Integer(mCurrencyAmount));
             jsonObject.put(JSONConsts.CURRENCYPACK_CURRENCYITEMID, mCurrency.getItemId());
-
-            Iterator<?> keys = parentJsonObject.keys();
-            while(keys.hasNext())
-            {
-                String key = (String)keys.next();
-                jsonObject.put(key, parentJsonObject.get(key));
-            }
         } catch (JSONException e) {
             if (StoreConfig.debug){
                 Log.d(TAG, "An error occured while generating JSON object.");
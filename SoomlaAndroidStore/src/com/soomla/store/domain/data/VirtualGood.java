@@ -24,7 +24,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.HashMap;
-import java.util.Iterator;
 
 /**
  * This is a representation of the application's virtual good.
@@ -76,16 +75,8 @@ public class VirtualGood extends AbstractVirtualItem {
      * @return a JSONObject representation of the current {@link VirtualGood}.
      */
     public JSONObject toJSONObject(){
-        JSONObject parentJsonObject = super.toJSONObject();
-        JSONObject jsonObject = new JSONObject();
+        JSONObject jsonObject = super.toJSONObject();
         try {
-            Iterator<?> keys = parentJsonObject.keys();
-            while(keys.hasNext())
-            {
-                String key = (String)keys.next();
-                jsonObject.put(key, parentJsonObject.get(key));
-            }
-
             JSONObject priceModelObject = AbstractPriceModel.priceModelToJSONObject(mPriceModel);
             jsonObject.put(JSONConsts.GOOD_PRICE_MODEL, priceModelObject);
             jsonObject.put(JSONConsts.GOOD_CATEGORY_ID, mCategory != null ? mCategory.getmId() : -1);
@@ -134,6 +125,14 @@ public class VirtualGood extends AbstractVirtualItem {
         return mEquipped;
     }
 
+    public AbstractPriceModel getPriceModel() {
+        return mPriceModel;
+    }
+
+    public VirtualCategory getCategory() {
+        return mCategory;
+    }
+
     /** Private members **/
 
     private static final String TAG = "SOOMLA VirtualGood";
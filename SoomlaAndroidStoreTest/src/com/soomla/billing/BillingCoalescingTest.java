@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.billing;
+
+import android.content.Intent;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Notification commands that arrive together are sent to Android Market in one request per method. The coalescing
+ * window is driven by Robolectric's UI thread scheduler.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BillingCoalescingTest {
+
+    private static final String GET_PURCHASE_INFORMATION = PersistentRequestQueue.GET_PURCHASE_INFORMATION;
+    private static final String CONFIRM_NOTIFICATIONS    = PersistentRequestQueue.CONFIRM_NOTIFICATIONS;
+
+    /** More than the coalescing window of {@link BillingService}. */
+    private static final long WINDOW_MILLIS = 1000;
+
+    private BillingService mService;
+    private BillingMetrics mMetrics;
+
+    @Before
+    public void setUp() {
+        mService = new BillingService();
+        mService.setContext(Robolectric.application.getApplicationContext());
+        mMetrics = BillingMetrics.getInstance();
+
+        // sending whatever an earlier test left in the window.
+        Robolectric.getUiThreadScheduler().advanceBy(WINDOW_MILLIS);
+    }
+
+    @Test
+    public void testPurchaseInformation() {
+        long submits = mMetrics.getSubmitCount(GET_PURCHASE_INFORMATION);
+        long requests = mMetrics.getRequestCount(GET_PURCHASE_INFORMATION);
+
+        mService.handleCommand(purchaseInformation("n1"), 1);
+        mService.handleCommand(purchaseInformation("n2"), 2);
+        mService.handleCommand(purchaseInformation("n3"), 3);
+
+        // nothing is sent before the window is over.
+        Assert.assertEquals(submits + 3, mMetrics.getSubmitCount(GET_PURCHASE_INFORMATION));
+        Assert.assertEquals(requests, mMetrics.getRequestCount(GET_PURCHASE_INFORMATION));
+
+        Robolectric.getUiThreadScheduler().advanceBy(WINDOW_MILLIS);
+        Assert.assertEquals(requests + 1, mMetrics.getRequestCount(GET_PURCHASE_INFORMATION));
+    }
+
+    @Test
+    public void testConfirmations() {
+        long requests = mMetrics.getRequestCount(CONFIRM_NOTIFICATIONS);
+
+        Assert.assertTrue(mService.confirmNotifications(4, new String[]{ "n1", "n2" }));
+        Assert.assertTrue(mService.confirmNotifications(5, new String[]{ "n2", "n3" }));
+        Robolectric.getUiThreadScheduler().advanceBy(WINDOW_MILLIS);
+
+        Assert.assertEquals(requests + 1, mMetrics.getRequestCount(CONFIRM_NOTIFICATIONS));
+    }
+
+    @Test
+    public void testMethodsAreSentSeparately() {
+        long purchaseInfoRequests = mMetrics.getRequestCount(GET_PURCHASE_INFORMATION);
+        long confirmRequests = mMetrics.getRequestCount(CONFIRM_NOTIFICATIONS);
+
+        mService.handleCommand(purchaseInformation("n1"), 1);
+        mService.confirmNotifications(2, new String[]{ "n0" });
+        Robolectric.getUiThreadScheduler().advanceBy(WINDOW_MILLIS);
+
+        Assert.assertEquals(purchaseInfoRequests + 1, mMetrics.getRequestCount(GET_PURCHASE_INFORMATION));
+        Assert.assertEquals(confirmRequests + 1, mMetrics.getRequestCount(CONFIRM_NOTIFICATIONS));
+    }
+
+    @Test
+    public void testNextWindow() {
+        long requests = mMetrics.getRequestCount(GET_PURCHASE_INFORMATION);
+
+        mService.handleCommand(purchaseInformation("n1"), 1);
+        Robolectric.getUiThreadScheduler().advanceBy(WINDOW_MILLIS);
+        mService.handleCommand(purchaseInformation("n2"), 2);
+        Robolectric.getUiThreadScheduler().advanceBy(WINDOW_MILLIS);
+
+        // commands that arrive after the window was sent start a new window.
+        Assert.assertEquals(requests + 2, mMetrics.getRequestCount(GET_PURCHASE_INFORMATION));
+    }
+
+    /** Private functions **/
+
+    private static Intent purchaseInformation(String notifyId) {
+        Intent intent = new Intent(Consts.ACTION_GET_PURCHASE_INFORMATION);
+        intent.putExtra(Consts.NOTIFICATION_ID, notifyId);
+        return intent;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.billing;
+
+import android.content.Context;
+import com.soomla.store.StoreConfig;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * The idle timeout is driven by Robolectric's UI thread scheduler, so these tests don't wait for it.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BillingConnectionManagerTest {
+
+    private BillingConnectionManager mManager;
+    private Context                  mContext;
+
+    @Before
+    public void setUp() {
+        mContext = Robolectric.application.getApplicationContext();
+        mManager = BillingConnectionManager.getInstance();
+
+        // the manager is a singleton. dropping whatever an earlier test left behind.
+        while (mManager.isAcquired()) {
+            mManager.release();
+        }
+        Robolectric.getUiThreadScheduler().advanceBy(StoreConfig.BILLING_IDLE_TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void testSharedConnection() {
+        BillingService first = mManager.acquire(mContext, false);
+        BillingService second = mManager.acquire(mContext, false);
+        Assert.assertSame(first, second);
+
+        mManager.release();
+        Assert.assertTrue(mManager.isAcquired());
+        mManager.release();
+        Assert.assertFalse(mManager.isAcquired());
+    }
+
+    @Test
+    public void testKeptWhileIdle() {
+        BillingService first = mManager.acquire(mContext, false);
+        mManager.release();
+
+        // opening the store again before the idle timeout reuses the connection.
+        Robolectric.getUiThreadScheduler().advanceBy(StoreConfig.BILLING_IDLE_TIMEOUT_MILLIS - 1);
+        Assert.assertSame(first, mManager.getBillingService());
+        Assert.assertSame(first, mManager.acquire(mContext, false));
+        mManager.release();
+    }
+
+    @Test
+    public void testClosedAfterIdleTimeout() {
+        BillingService first = mManager.acquire(mContext, false);
+        mManager.release();
+
+        Robolectric.getUiThreadScheduler().advanceBy(StoreConfig.BILLING_IDLE_TIMEOUT_MILLIS);
+        Assert.assertNull(mManager.getBillingService());
+        Assert.assertFalse(mManager.shouldReconnect(first));
+
+        BillingService second = mManager.acquire(mContext, false);
+        Assert.assertNotSame(first, second);
+        mManager.release();
+    }
+
+    @Test
+    public void testAcquireCancelsIdleTimeout() {
+        BillingService first = mManager.acquire(mContext, false);
+        mManager.release();
+        Robolectric.getUiThreadScheduler().advanceBy(StoreConfig.BILLING_IDLE_TIMEOUT_MILLIS / 2);
+        mManager.acquire(mContext, false);
+
+        // the timeout of the first release must not close the connection that is referenced again.
+        Robolectric.getUiThreadScheduler().advanceBy(StoreConfig.BILLING_IDLE_TIMEOUT_MILLIS);
+        Assert.assertSame(first, mManager.getBillingService());
+        Assert.assertTrue(mManager.shouldReconnect(first));
+        mManager.release();
+    }
+
+    @Test
+    public void testExtraRelease() {
+        mManager.release();
+        mManager.acquire(mContext, false);
+
+        // a release without an acquire doesn't drop the reference of a later acquire.
+        Assert.assertTrue(mManager.isAcquired());
+        mManager.release();
+        Assert.assertFalse(mManager.isAcquired());
+    }
+
+    @Test
+    public void testStartedServiceHoldsConnection() {
+        BillingService started = new BillingService();
+        started.setContext(mContext);
+
+        started.onCreate();
+        Assert.assertTrue(mManager.isAcquired());
+        started.onDestroy();
+        Assert.assertFalse(mManager.isAcquired());
+    }
+}
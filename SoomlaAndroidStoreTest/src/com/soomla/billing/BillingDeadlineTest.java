@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.billing;
+
+import android.content.Context;
+import android.content.Intent;
+import com.soomla.store.StoreConfig;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sweep of expired billing requests. Nothing answers the requests here (there's no MarketBillingService), so they
+ * wait for the connection until their deadline.
+ *
+ * The sweep runs on Robolectric's UI thread scheduler. Deadlines are compared with SystemClock, which the scheduler
+ * doesn't move, so {@link #expireRequests()} moves the deadlines instead.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BillingDeadlineTest {
+
+    private static final String GET_PURCHASE_INFORMATION = PersistentRequestQueue.GET_PURCHASE_INFORMATION;
+
+    /** More than the coalescing window of {@link BillingService}. */
+    private static final long WINDOW_MILLIS = 1000;
+
+    private Context        mContext;
+    private BillingService mService;
+    private BillingMetrics mMetrics;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = Robolectric.application.getApplicationContext();
+        mService = new BillingService();
+        mService.setContext(mContext);
+        mMetrics = BillingMetrics.getInstance();
+
+        // Robolectric drops the runnables that were posted in earlier tests, but the requests and the flags that say
+        // the runnables are posted are static.
+        ((Collection<?>) getStatic("mPendingRequests")).clear();
+        ((Map<?, ?>) getStatic("mSentRequests")).clear();
+        setStatic("sSweepScheduled", false);
+        setStatic("sCoalescingScheduled", false);
+    }
+
+    @Test
+    public void testWaitingRequestExpires() throws Exception {
+        long timeouts = mMetrics.getTimeoutCount(GET_PURCHASE_INFORMATION);
+        mService.handleCommand(purchaseInformation("lost"), 7);
+        Robolectric.getUiThreadScheduler().advanceBy(WINDOW_MILLIS);
+        Assert.assertTrue(mMetrics.getPendingRequestCount() > 0);
+
+        expireRequests();
+        Robolectric.getUiThreadScheduler().advanceBy(StoreConfig.BILLING_SWEEP_INTERVAL_MILLIS);
+
+        // a request that never ran isn't sent again. it fails, and its notification id is left to be replayed.
+        Assert.assertEquals(timeouts + 1, mMetrics.getTimeoutCount(GET_PURCHASE_INFORMATION));
+        Assert.assertEquals(0, mMetrics.getPendingRequestCount());
+        Assert.assertEquals(0, getRequests("mPendingRequests").size());
+        List<String> replayed = Arrays.asList(new PersistentRequestQueue(mContext).replay(
+                GET_PURCHASE_INFORMATION, Collections.<String>emptyList()));
+        Assert.assertTrue(replayed.contains("lost"));
+    }
+
+    @Test
+    public void testRequestBeforeDeadline() throws Exception {
+        long timeouts = mMetrics.getTimeoutCount(GET_PURCHASE_INFORMATION);
+        mService.handleCommand(purchaseInformation("waiting"), 8);
+        Robolectric.getUiThreadScheduler().advanceBy(WINDOW_MILLIS);
+
+        // the sweep runs, but the request still has time.
+        Robolectric.getUiThreadScheduler().advanceBy(StoreConfig.BILLING_SWEEP_INTERVAL_MILLIS);
+        Assert.assertEquals(timeouts, mMetrics.getTimeoutCount(GET_PURCHASE_INFORMATION));
+        Assert.assertTrue(mMetrics.getPendingRequestCount() > 0);
+
+        // the sweep keeps running while requests wait.
+        expireRequests();
+        Robolectric.getUiThreadScheduler().advanceBy(StoreConfig.BILLING_SWEEP_INTERVAL_MILLIS);
+        Assert.assertEquals(timeouts + 1, mMetrics.getTimeoutCount(GET_PURCHASE_INFORMATION));
+    }
+
+    /** Private functions **/
+
+    private static Intent purchaseInformation(String notifyId) {
+        Intent intent = new Intent(Consts.ACTION_GET_PURCHASE_INFORMATION);
+        intent.putExtra(Consts.NOTIFICATION_ID, notifyId);
+        return intent;
+    }
+
+    /**
+     * Moves the deadlines of all the waiting and sent requests to the past, so the next sweep expires them.
+     */
+    private static void expireRequests() throws Exception {
+        List<Object> requests = getRequests("mPendingRequests");
+        requests.addAll(getRequests("mSentRequests"));
+
+        Field deadline = BillingService.BillingRequest.class.getDeclaredField("mDeadline");
+        deadline.setAccessible(true);
+        for (Object request : requests) {
+            deadline.setLong(request, 0);
+        }
+    }
+
+    private static List<Object> getRequests(String name) throws Exception {
+        Object requests = getStatic(name);
+        if (requests instanceof Map) {
+            return new ArrayList<Object>(((Map<?, ?>) requests).values());
+        }
+        return new ArrayList<Object>((Collection<?>) requests);
+    }
+
+    private static Object getStatic(String name) throws Exception {
+        Field field = BillingService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(null);
+    }
+
+    private static void setStatic(String name, boolean value) throws Exception {
+        Field field = BillingService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.setBoolean(null, value);
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.billing;
+
+import android.app.PendingIntent;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.util.Log;
+import com.android.vending.billing.IMarketBillingService;
+import com.soomla.billing.util.Base64;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+/**
+ * An in-process stand-in for Google Play's MarketBillingService (in-app billing v2), for load and latency tests that
+ * run without a market app.
+ *
+ * It answers the requests of a {@link BillingService} the way Android Market does: every request gets a request id
+ * and later a RESPONSE_CODE broadcast. Purchases are announced with IN_APP_NOTIFY broadcasts and their details are sent
+ * in PURCHASE_STATE_CHANGED broadcasts, in response to GET_PURCHASE_INFORMATION and RESTORE_TRANSACTIONS. The purchase
+ * data is signed with a test RSA key that is generated for every instance: use {@link #getEncodedPublicKey()} as the
+ * public key when you initialize StoreController.
+ * Broadcasts go through the real {@link BillingReceiver} and are delivered on the main thread, so the whole path from
+ * the receiver through {@link Security}, {@link ResponseHandler} and StoreController to the storage is exercised.
+ *
+ * Latency and failures can be injected:
+ * - binder latency: every sendBillingRequest call blocks for this time.
+ * - broadcast latency: broadcasts are delivered after a random delay in the given range.
+ * - crash rate: the probability that a sendBillingRequest call throws a RemoteException.
+ * - drop rate: the probability that a RESPONSE_CODE broadcast is lost.
+ * - bad signature rate: the probability that a PURCHASE_STATE_CHANGED broadcast has an invalid signature.
+ * - response codes: the response code of all the requests of a given method.
+ *
+ * Usage:
+ *   FakeMarketBillingService market = new FakeMarketBillingService(context, 42);
+ *   StoreController.getInstance().initialize(context, storeAssets, market.getEncodedPublicKey(), false);
+ *   market.connect(BillingConnectionManager.getInstance().acquire(context, false));
+ *   market.emitPurchases("android.test.purchased", 1000);
+ *   // ... wait until market.getUnconfirmedCount() is 0.
+ *
+ * NOTE: Android starts a new BillingService for every broadcast the receiver forwards. Here all of them are handed
+ *       to the connected service, with increasing startIds.
+ */
+public class FakeMarketBillingService extends IMarketBillingService.Stub {
+
+    /** Constructor
+     *
+     * @param context is the application's context. it's used to deliver the broadcasts.
+     * @param seed is the seed of the random failures and latencies, so runs can be repeated.
+     */
+    public FakeMarketBillingService(Context context, long seed) {
+        mContext = new ServiceContext(context);
+        mPackageName = context.getPackageName();
+        mRandom = new Random(seed);
+        mHandler = new Handler(Looper.getMainLooper());
+        mBuyPageIntent = PendingIntent.getBroadcast(context, 0, new Intent(ACTION_BUY_PAGE), 0);
+
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(KEY_SIZE);
+            mKeyPair = generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("can't generate the test key", e);
+        }
+    }
+
+    /**
+     * @return the Base64-encoded public key of the test key. Purchase data is signed with its private key.
+     */
+    public String getEncodedPublicKey() {
+        return Base64.encode(mKeyPair.getPublic().getEncoded());
+    }
+
+    /**
+     * Connects the given service to this fake, as if its bind to the MarketBillingService succeeded.
+     * Call this on the main thread.
+     * @param service is the service to connect. broadcasts are delivered to it.
+     */
+    public void connect(BillingService service) {
+        synchronized (this) {
+            mService = service;
+        }
+        service.onServiceConnected(COMPONENT, this);
+    }
+
+    /**
+     * Disconnects the connected service, as if the MarketBillingService crashed.
+     * Call this on the main thread.
+     */
+    public void disconnect() {
+        BillingService service;
+        synchronized (this) {
+            service = mService;
+        }
+        if (service != null) {
+            service.onServiceDisconnected(COMPONENT);
+        }
+    }
+
+    /**
+     * Simulates purchases that were made outside of the application (on another device, for example): each one gets
+     * an order and an IN_APP_NOTIFY broadcast. The application then asks for the purchase information.
+     * @param productId is the product id of the purchased item.
+     * @param count is the number of purchases.
+     * @return the order ids of the purchases.
+     */
+    public String[] emitPurchases(String productId, int count) {
+        String[] orderIds = new String[count];
+        for (int i = 0; i < count; i++) {
+            Order order;
+            synchronized (this) {
+                order = newOrder(productId, Consts.PurchaseState.PURCHASED, null);
+            }
+            orderIds[i] = order.mOrderId;
+            deliverNotify(order.mNotificationId);
+        }
+        return orderIds;
+    }
+
+    /**
+     * Refunds the given order. It gets a new notification and the application is notified about it.
+     * @param orderId is the id of the order to refund.
+     * @return false if there's no such order.
+     */
+    public boolean refund(String orderId) {
+        String notificationId;
+        synchronized (this) {
+            Order order = mOrders.get(orderId);
+            if (order == null) {
+                return false;
+            }
+            order.mPurchaseState = Consts.PurchaseState.REFUNDED;
+            order.mNotificationId = String.valueOf(mNextNotificationId++);
+            mUnconfirmed.put(order.mNotificationId, order);
+            notificationId = order.mNotificationId;
+        }
+        deliverNotify(notificationId);
+        return true;
+    }
+
+    /** Fault injection **/
+
+    public synchronized void setBinderLatency(long millis) {
+        mBinderLatencyMillis = millis;
+    }
+
+    public synchronized void setBroadcastLatency(long minMillis, long maxMillis) {
+        mMinBroadcastLatencyMillis = minMillis;
+        mMaxBroadcastLatencyMillis = maxMillis;
+    }
+
+    public synchronized void setCrashRate(double rate) {
+        mCrashRate = rate;
+    }
+
+    public synchronized void setDropRate(double rate) {
+        mDropRate = rate;
+    }
+
+    public synchronized void setBadSignatureRate(double rate) {
+        mBadSignatureRate = rate;
+    }
+
+    /**
+     * @param method is a request method (for example: "REQUEST_PURCHASE").
+     * @param responseCode is the response code all the requests with the given method get. RESULT_OK by default.
+     */
+    public synchronized void setResponseCode(String method, Consts.ResponseCode responseCode) {
+        mResponseCodes.put(method, responseCode);
+    }
+
+    /** Counters **/
+
+    public synchronized long getRequestCount() {
+        return mRequestCount;
+    }
+
+    public synchronized long getCrashCount() {
+        return mCrashCount;
+    }
+
+    public synchronized long getDroppedResponseCount() {
+        return mDroppedResponseCount;
+    }
+
+    /**
+     * @return the number of notifications the application didn't confirm yet.
+     */
+    public synchronized int getUnconfirmedCount() {
+        return mUnconfirmed.size();
+    }
+
+    /** IMarketBillingService **/
+
+    @Override
+    public Bundle sendBillingRequest(Bundle request) throws RemoteException {
+        String method = request.getString(Consts.BILLING_REQUEST_METHOD);
+        long binderLatency;
+        Consts.ResponseCode responseCode;
+        long requestId;
+        synchronized (this) {
+            mRequestCount++;
+            if (mRandom.nextDouble() < mCrashRate) {
+                mCrashCount++;
+                throw new RemoteException("injected crash of " + method);
+            }
+            binderLatency = mBinderLatencyMillis;
+            responseCode = mResponseCodes.containsKey(method) ? mResponseCodes.get(method) : Consts.ResponseCode.RESULT_OK;
+            requestId = mNextRequestId++;
+        }
+        sleep(binderLatency);
+
+        Bundle response = new Bundle();
+        response.putInt(Consts.BILLING_RESPONSE_RESPONSE_CODE, responseCode.ordinal());
+        if ("CHECK_BILLING_SUPPORTED".equals(method)) {
+            return response;
+        }
+        response.putLong(Consts.BILLING_RESPONSE_REQUEST_ID, requestId);
+
+        if ("REQUEST_PURCHASE".equals(method) && responseCode == Consts.ResponseCode.RESULT_OK) {
+            response.putParcelable(Consts.BILLING_RESPONSE_PURCHASE_INTENT, mBuyPageIntent);
+        }
+
+        deliverResponseCode(requestId, responseCode);
+        if (responseCode != Consts.ResponseCode.RESULT_OK) {
+            return response;
+        }
+
+        if ("REQUEST_PURCHASE".equals(method)) {
+            // the user goes through the buy page and the purchase is charged right away.
+            Order order;
+            synchronized (this) {
+                order = newOrder(request.getString(Consts.BILLING_REQUEST_ITEM_ID), Consts.PurchaseState.PURCHASED,
+                        request.getString(Consts.BILLING_REQUEST_DEVELOPER_PAYLOAD));
+            }
+            deliverNotify(order.mNotificationId);
+        } else if ("GET_PURCHASE_INFORMATION".equals(method)) {
+            ArrayList<Order> orders = new ArrayList<Order>();
+            synchronized (this) {
+                for (String notifyId : request.getStringArray(Consts.BILLING_REQUEST_NOTIFY_IDS)) {
+                    Order order = mUnconfirmed.get(notifyId);
+                    if (order != null) {
+                        orders.add(order);
+                    }
+                }
+            }
+            deliverPurchaseStateChanged(request.getLong(Consts.BILLING_REQUEST_NONCE), orders);
+        } else if ("CONFIRM_NOTIFICATIONS".equals(method)) {
+            synchronized (this) {
+                for (String notifyId : request.getStringArray(Consts.BILLING_REQUEST_NOTIFY_IDS)) {
+                    mUnconfirmed.remove(notifyId);
+                }
+            }
+        } else if ("RESTORE_TRANSACTIONS".equals(method)) {
+            ArrayList<Order> orders;
+            synchronized (this) {
+                orders = new ArrayList<Order>(mOrders.values());
+            }
+            deliverPurchaseStateChanged(request.getLong(Consts.BILLING_REQUEST_NONCE), orders);
+        }
+
+        return response;
+    }
+
+    /** Package functions (used by benchmarks) **/
+
+    /**
+     * Signs the given purchase data with the test key, the way Android Market signs PURCHASE_STATE_CHANGED data.
+     * @return the Base64-encoded signature.
+     */
+    String sign(String data) {
+        try {
+            Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+            signature.initSign(mKeyPair.getPrivate());
+            signature.update(data.getBytes());
+            return Base64.encode(signature.sign());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("can't sign the purchase data", e);
+        }
+    }
+
+    /** Private functions **/
+
+    private Order newOrder(String productId, Consts.PurchaseState purchaseState, String developerPayload) {
+        Order order = new Order();
+        order.mOrderId = "fake." + mNextOrderId++;
+        order.mNotificationId = String.valueOf(mNextNotificationId++);
+        order.mProductId = productId;
+        order.mPurchaseState = purchaseState;
+        order.mPurchaseTime = System.currentTimeMillis();
+        order.mDeveloperPayload = developerPayload;
+
+        mOrders.put(order.mOrderId, order);
+        mUnconfirmed.put(order.mNotificationId, order);
+        return order;
+    }
+
+    private void deliverNotify(String notifyId) {
+        Intent intent = new Intent(Consts.ACTION_NOTIFY);
+        intent.putExtra(Consts.NOTIFICATION_ID, notifyId);
+        deliver(intent);
+    }
+
+    private void deliverResponseCode(long requestId, Consts.ResponseCode responseCode) {
+        synchronized (this) {
+            if (mRandom.nextDouble() < mDropRate) {
+                mDroppedResponseCount++;
+                return;
+            }
+        }
+
+        Intent intent = new Intent(Consts.ACTION_RESPONSE_CODE);
+        intent.putExtra(Consts.INAPP_REQUEST_ID, requestId);
+        intent.putExtra(Consts.INAPP_RESPONSE_CODE, responseCode.ordinal());
+        deliver(intent);
+    }
+
+    private void deliverPurchaseStateChanged(long nonce, ArrayList<Order> orders) {
+        String signedData;
+        try {
+            JSONArray jOrders = new JSONArray();
+            synchronized (this) {
+                for (Order order : orders) {
+                    jOrders.put(order.toJSONObject(mPackageName));
+                }
+            }
+
+            JSONObject jObject = new JSONObject();
+            jObject.put("nonce", nonce);
+            jObject.put("orders", jOrders);
+            signedData = jObject.toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException("can't create the purchase data", e);
+        }
+
+        boolean badSignature;
+        synchronized (this) {
+            badSignature = mRandom.nextDouble() < mBadSignatureRate;
+        }
+
+        Intent intent = new Intent(Consts.ACTION_PURCHASE_STATE_CHANGED);
+        intent.putExtra(Consts.INAPP_SIGNED_DATA, signedData);
+        intent.putExtra(Consts.INAPP_SIGNATURE, sign(badSignature ? signedData + " " : signedData));
+        deliver(intent);
+    }
+
+    /**
+     * Hands the given broadcast to the {@link BillingReceiver} on the main thread, after the broadcast latency.
+     */
+    private void deliver(final Intent intent) {
+        long delay;
+        synchronized (this) {
+            delay = mMinBroadcastLatencyMillis;
+            if (mMaxBroadcastLatencyMillis > mMinBroadcastLatencyMillis) {
+                delay += (long) (mRandom.nextDouble() * (mMaxBroadcastLatencyMillis - mMinBroadcastLatencyMillis));
+            }
+        }
+
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                mReceiver.onReceive(mContext, intent);
+            }
+        }, delay);
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Routes the services the {@link BillingReceiver} starts to the connected {@link BillingService}.
+     */
+    private class ServiceContext extends ContextWrapper {
+
+        public ServiceContext(Context base) {
+            super(base);
+        }
+
+        @Override
+        public ComponentName startService(Intent intent) {
+            BillingService service;
+            synchronized (FakeMarketBillingService.this) {
+                service = mService;
+            }
+            if (service == null) {
+                Log.w(TAG, "no service is connected. dropping " + intent.getAction());
+                return null;
+            }
+
+            service.onStartCommand(intent, 0, ++mStartId);
+            return COMPONENT;
+        }
+    }
+
+    private static class Order {
+
+        public JSONObject toJSONObject(String packageName) throws JSONException {
+            JSONObject jObject = new JSONObject();
+            jObject.put("notificationId", mNotificationId);
+            jObject.put("orderId", mOrderId);
+            jObject.put("packageName", packageName);
+            jObject.put("productId", mProductId);
+            jObject.put("purchaseTime", mPurchaseTime);
+            jObject.put("purchaseState", mPurchaseState.ordinal());
+            if (mDeveloperPayload != null) {
+                jObject.put("developerPayload", mDeveloperPayload);
+            }
+            return jObject;
+        }
+
+        private String                mNotificationId;
+        private String                mOrderId;
+        private String                mProductId;
+        private Consts.PurchaseState  mPurchaseState;
+        private long                  mPurchaseTime;
+        private String                mDeveloperPayload;
+    }
+
+    /** Private members **/
+
+    private static final String TAG                 = "SOOMLA FakeMarketBillingService";
+    private static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+    private static final int    KEY_SIZE            = 2048;
+    private static final String ACTION_BUY_PAGE     = "com.soomla.billing.FAKE_BUY_PAGE";
+
+    private static final ComponentName COMPONENT =
+            new ComponentName("com.android.vending", "com.android.vending.billing.MarketBillingService");
+
+    private final Context        mContext;
+    private final String         mPackageName;
+    private final Random         mRandom;
+    private final Handler        mHandler;
+    private final KeyPair        mKeyPair;
+    private final PendingIntent  mBuyPageIntent;
+    private final BillingReceiver mReceiver = new BillingReceiver();
+
+    private BillingService mService;
+    private int            mStartId = 0;
+
+    private final LinkedHashMap<String, Order>              mOrders        = new LinkedHashMap<String, Order>();
+    private final LinkedHashMap<String, Order>              mUnconfirmed   = new LinkedHashMap<String, Order>();
+    private final HashMap<String, Consts.ResponseCode>      mResponseCodes = new HashMap<String, Consts.ResponseCode>();
+
+    private long mNextRequestId      = 1;
+    private long mNextOrderId        = 1;
+    private long mNextNotificationId = 1;
+
+    private long   mBinderLatencyMillis       = 0;
+    private long   mMinBroadcastLatencyMillis = 0;
+    private long   mMaxBroadcastLatencyMillis = 0;
+    private double mCrashRate                 = 0;
+    private double mDropRate                  = 0;
+    private double mBadSignatureRate          = 0;
+
+    private long mRequestCount         = 0;
+    private long mCrashCount           = 0;
+    private long mDroppedResponseCount = 0;
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.billing;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.soomla.store.StoreConfig;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class PersistentRequestQueueTest {
+
+    private static final String       METHOD   = PersistentRequestQueue.GET_PURCHASE_INFORMATION;
+    private static final List<String> NOTHING  = Collections.emptyList();
+
+    private Context           mContext;
+    private SharedPreferences mPrefs;
+
+    @Before
+    public void setUp() {
+        mContext = Robolectric.application.getApplicationContext();
+        mPrefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+    }
+
+    @Test
+    public void testReplayInOrder() {
+        PersistentRequestQueue queue = new PersistentRequestQueue(mContext);
+        queue.add(METHOD, new String[]{ "a", "b" });
+        queue.add(METHOD, new String[]{ "b", "c" });
+
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), Arrays.asList(queue.replay(METHOD, NOTHING)));
+        Assert.assertEquals(0, queue.replay(PersistentRequestQueue.CONFIRM_NOTIFICATIONS, NOTHING).length);
+    }
+
+    @Test
+    public void testRemoveAndExclude() {
+        PersistentRequestQueue queue = new PersistentRequestQueue(mContext);
+        queue.add(METHOD, new String[]{ "a", "b", "c" });
+        queue.remove(METHOD, new String[]{ "b" });
+
+        // ids of requests that are already queued in memory aren't replayed.
+        Assert.assertEquals(Arrays.asList("c"), Arrays.asList(queue.replay(METHOD, Arrays.asList("a"))));
+    }
+
+    @Test
+    public void testReplayCap() {
+        PersistentRequestQueue queue = new PersistentRequestQueue(mContext);
+        queue.add(METHOD, new String[]{ "a" });
+
+        for (int i = 0; i < StoreConfig.BILLING_MAX_REPLAYS; i++) {
+            Assert.assertEquals(Arrays.asList("a"), Arrays.asList(queue.replay(METHOD, NOTHING)));
+        }
+        Assert.assertEquals(0, queue.replay(METHOD, NOTHING).length);
+
+        // the dropped id is gone, not just skipped.
+        queue.add(METHOD, new String[]{ "a" });
+        Assert.assertEquals(Arrays.asList("a"), Arrays.asList(queue.replay(METHOD, NOTHING)));
+    }
+
+    @Test
+    public void testExcludedIsNotCounted() {
+        PersistentRequestQueue queue = new PersistentRequestQueue(mContext);
+        queue.add(METHOD, new String[]{ "a" });
+
+        for (int i = 0; i <= StoreConfig.BILLING_MAX_REPLAYS; i++) {
+            Assert.assertEquals(0, queue.replay(METHOD, Arrays.asList("a")).length);
+        }
+        Assert.assertEquals(Arrays.asList("a"), Arrays.asList(queue.replay(METHOD, NOTHING)));
+    }
+
+    @Test
+    public void testSurvivesTheProcess() throws Exception {
+        PersistentRequestQueue queue = new PersistentRequestQueue(mContext);
+        queue.add(METHOD, new String[]{ "a", "b" });
+        queue.remove(METHOD, new String[]{ "a" });
+        queue.replay(METHOD, NOTHING);
+        waitForSaved("b\t1");
+
+        // a new queue (in a new process) reads the ids and their replay counts from the shared preferences.
+        PersistentRequestQueue restarted = new PersistentRequestQueue(mContext);
+        for (int i = 1; i < StoreConfig.BILLING_MAX_REPLAYS; i++) {
+            Assert.assertEquals(Arrays.asList("b"), Arrays.asList(restarted.replay(METHOD, NOTHING)));
+        }
+        Assert.assertEquals(0, restarted.replay(METHOD, NOTHING).length);
+    }
+
+    /** Private functions **/
+
+    /**
+     * The queue writes the shared preferences asynchronously. Waits until the given value was written.
+     */
+    private void waitForSaved(String expected) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (expected.equals(mPrefs.getString(METHOD, null))) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        Assert.fail("the queue wasn't saved: " + mPrefs.getString(METHOD, null));
+    }
+
+    /** Private members **/
+
+    /** The name of the shared preferences of {@link PersistentRequestQueue}. */
+    private static final String PREFS_NAME = "soomla.billing.requests";
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.billing;
+
+import android.content.Intent;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays streams of signed PURCHASE_STATE_CHANGED notifications through the purchase path of the store and measures
+ * it: {@link BillingService#handleCommand(android.content.Intent, int)}, then {@link Security#verifyPurchase} and
+ * {@link ResponseHandler#purchaseResponse} in the {@link PurchaseNotificationPipeline}, then StoreController (which
+ * writes to the storage).
+ *
+ * Every run reports the throughput (purchases per second, from the first handleCommand until the last purchase was
+ * applied), p50/p99 latencies per stage and the bytes allocated per purchase:
+ * - handleCommand: the call to handleCommand on the calling thread.
+ * - queue: waiting for a verification thread.
+ * - verify: signature verification and parsing.
+ * - order: waiting for the grants of the notifications that were received before.
+ * - grant: applying the purchases (ResponseHandler, StoreController and the storage).
+ * - total: from handleCommand until the purchases were applied.
+ * The events that StoreController posts to the UI thread afterwards are not included.
+ *
+ * The streams can be synthetic (signed with the key of a {@link FakeMarketBillingService}) or recorded (see
+ * {@link #readRecording(java.io.Reader)} and {@link #restamp(java.util.List)}), with any number of purchases per
+ * notification. A restore is a single
+ * notification with all the restored purchases.
+ *
+ * Usage:
+ *   FakeMarketBillingService market = new FakeMarketBillingService(context, 42);
+ *   StoreController.getInstance().initialize(context, storeAssets, market.getEncodedPublicKey(), false);
+ *   PurchaseNotificationBenchmark benchmark = new PurchaseNotificationBenchmark(
+ *           BillingConnectionManager.getInstance().acquire(context, false), market);
+ *   System.out.println(benchmark.run("android.test.purchased", 1000, 5));
+ *   System.out.println(benchmark.restore("android.test.purchased", 2000));
+ *
+ * The product ids should belong to items in your IStoreAssets. Every run uses new order ids, so purchases are never
+ * dropped as replayed orders.
+ */
+public class PurchaseNotificationBenchmark {
+
+    /** Constructor
+     *
+     * @param service is the service that handles the notifications.
+     * @param market signs the synthetic notifications. its public key should be the one StoreController was
+     *               initialized with.
+     */
+    public PurchaseNotificationBenchmark(BillingService service, FakeMarketBillingService market) {
+        mService = service;
+        mMarket = market;
+    }
+
+    /**
+     * Sets the time to wait for a run to finish. 10 minutes by default.
+     */
+    public void setTimeout(long millis) {
+        mTimeoutMillis = millis;
+    }
+
+    /**
+     * Replays synthetic purchase notifications.
+     * @param productId is the product id of the purchases.
+     * @param notifications is the number of notifications.
+     * @param batchSize is the number of purchases in every notification.
+     * @return the measurements of the run.
+     */
+    public Result run(String productId, int notifications, int batchSize) throws InterruptedException {
+        return replay(createNotifications(productId, notifications, batchSize));
+    }
+
+    /**
+     * Replays a synthetic RESTORE_TRANSACTIONS response.
+     * @param productId is the product id of the restored purchases.
+     * @param restoreSize is the number of restored purchases.
+     * @return the measurements of the run.
+     */
+    public Result restore(String productId, int restoreSize) throws InterruptedException {
+        return replay(createNotifications(productId, 1, restoreSize));
+    }
+
+    /**
+     * Replays the given notifications, in order. Their nonces must come from {@link Security#generateNonce()} in this
+     * process, otherwise they're rejected by the verification.
+     * @param notifications are the notifications to replay.
+     * @return the measurements of the run.
+     */
+    public Result replay(List<SignedNotification> notifications) throws InterruptedException {
+        final Result result = new Result(notifications.size());
+        final CountDownLatch done = new CountDownLatch(notifications.size());
+        PurchaseNotificationPipeline.setStageListener(new PurchaseNotificationPipeline.StageListener() {
+            @Override
+            public void onNotificationProcessed(PurchaseNotificationPipeline.StageTimes times, boolean verified,
+                                                int purchases) {
+                result.add(times, verified, purchases);
+                done.countDown();
+            }
+        });
+
+        try {
+            long allocatedBefore = getAllocatedBytes();
+            result.mStarted = System.nanoTime();
+            for (SignedNotification notification : notifications) {
+                Intent intent = new Intent(Consts.ACTION_PURCHASE_STATE_CHANGED);
+                intent.putExtra(Consts.INAPP_SIGNED_DATA, notification.mSignedData);
+                intent.putExtra(Consts.INAPP_SIGNATURE, notification.mSignature);
+
+                long started = System.nanoTime();
+                mService.handleCommand(intent, -1);
+                result.addHandleCommand(System.nanoTime() - started);
+            }
+
+            if (!done.await(mTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("only " + (notifications.size() - done.getCount()) + " of " +
+                        notifications.size() + " notifications were processed in " + mTimeoutMillis + "ms");
+            }
+
+            long allocatedAfter = getAllocatedBytes();
+            if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+                result.mAllocatedBytes = allocatedAfter - allocatedBefore;
+            }
+        } finally {
+            PurchaseNotificationPipeline.setStageListener(null);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads recorded notifications: one notification per line, the signed data and the signature separated by a tab.
+     * The nonces of recorded notifications were generated by another process, so they're rejected as they are. Use
+     * {@link #restamp(java.util.List)} before replaying them. Their orders are applied once: replaying them again
+     * drops them as replayed orders.
+     * @param reader is the recording.
+     * @return the notifications, in the order they were recorded.
+     */
+    public static List<SignedNotification> readRecording(Reader reader) throws IOException, JSONException {
+        ArrayList<SignedNotification> notifications = new ArrayList<SignedNotification>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (line.trim().length() == 0) {
+                continue;
+            }
+
+            int tab = line.lastIndexOf('\t');
+            if (tab < 0) {
+                throw new IOException("a recorded notification is missing its signature: " + line);
+            }
+            notifications.add(new SignedNotification(line.substring(0, tab), line.substring(tab + 1)));
+        }
+        return notifications;
+    }
+
+    /**
+     * Gives recorded notifications new nonces (from {@link Security#generateNonce()}) and signs them again with the
+     * key of the market, so they can be replayed in this process. Their orders are kept as they were recorded.
+     * @param notifications are the recorded notifications.
+     * @return the restamped notifications, in the same order.
+     */
+    public List<SignedNotification> restamp(List<SignedNotification> notifications) throws JSONException {
+        ArrayList<SignedNotification> restamped = new ArrayList<SignedNotification>(notifications.size());
+        for (SignedNotification notification : notifications) {
+            JSONObject jObject = new JSONObject(notification.mSignedData);
+            jObject.put("nonce", Security.generateNonce());
+            String signedData = jObject.toString();
+            restamped.add(new SignedNotification(signedData, mMarket.sign(signedData)));
+        }
+        return restamped;
+    }
+
+    /**
+     * A PURCHASE_STATE_CHANGED notification, as it arrives from Android Market.
+     */
+    public static class SignedNotification {
+
+        public SignedNotification(String signedData, String signature) {
+            mSignedData = signedData;
+            mSignature = signature;
+        }
+
+        private final String mSignedData;
+        private final String mSignature;
+    }
+
+    /**
+     * The measurements of a single run.
+     */
+    public static class Result {
+
+        public int getNotificationCount() {
+            return mNotifications;
+        }
+
+        public synchronized int getPurchaseCount() {
+            return mPurchases;
+        }
+
+        public synchronized int getRejectedCount() {
+            return mRejected;
+        }
+
+        /**
+         * @return the purchases applied per second.
+         */
+        public synchronized double getThroughput() {
+            long elapsed = mFinished - mStarted;
+            return elapsed > 0 ? mPurchases * 1e9 / elapsed : 0;
+        }
+
+        /**
+         * @param stage is one of STAGES.
+         * @param percentile is a number between 0 and 100.
+         * @return the latency of the given stage at the given percentile, in milliseconds.
+         */
+        public synchronized double getLatencyMillis(String stage, double percentile) {
+            long[] latencies = mLatencies[Arrays.asList(STAGES).indexOf(stage)].toArray();
+            if (latencies.length == 0) {
+                return 0;
+            }
+            Arrays.sort(latencies);
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, index)] / 1e6;
+        }
+
+        /**
+         * @return the bytes allocated by all threads during the run, or -1 if the VM can't tell.
+         */
+        public long getAllocatedBytes() {
+            return mAllocatedBytes;
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US, "%d notifications, %d purchases (%d rejected) in %.1fms: %.1f purchases/s%n",
+                    mNotifications, mPurchases, mRejected, (mFinished - mStarted) / 1e6, getThroughput()));
+            for (String stage : STAGES) {
+                sb.append(String.format(Locale.US, "  %-14s p50 %8.3fms  p99 %8.3fms%n",
+                        stage, getLatencyMillis(stage, 50), getLatencyMillis(stage, 99)));
+            }
+            if (mAllocatedBytes >= 0) {
+                sb.append(String.format(Locale.US, "  allocated %.1fKB (%.0f bytes per purchase)%n",
+                        mAllocatedBytes / 1024.0, mPurchases > 0 ? (double) mAllocatedBytes / mPurchases : 0));
+            } else {
+                sb.append(String.format("  allocated n/a%n"));
+            }
+            return sb.toString();
+        }
+
+        public static final String[] STAGES = { "handleCommand", "queue", "verify", "order", "grant", "total" };
+
+        /** Private functions **/
+
+        private Result(int notifications) {
+            mNotifications = notifications;
+            for (int i = 0; i < mLatencies.length; i++) {
+                mLatencies[i] = new LongList(notifications);
+            }
+        }
+
+        private synchronized void addHandleCommand(long nanos) {
+            mLatencies[0].add(nanos);
+        }
+
+        private synchronized void add(PurchaseNotificationPipeline.StageTimes times, boolean verified,
+                                      int purchases) {
+            if (verified) {
+                mPurchases += purchases;
+            } else {
+                mRejected++;
+            }
+            mLatencies[1].add(times.verifyStarted - times.submitted);
+            mLatencies[2].add(times.verifyFinished - times.verifyStarted);
+            mLatencies[3].add(times.grantStarted - times.verifyFinished);
+            mLatencies[4].add(times.grantFinished - times.grantStarted);
+            mLatencies[5].add(times.grantFinished - times.submitted);
+            mFinished = Math.max(mFinished, times.grantFinished);
+        }
+
+        /** Private members **/
+
+        private final int        mNotifications;
+        private final LongList[] mLatencies = new LongList[STAGES.length];
+
+        private int  mPurchases      = 0;
+        private int  mRejected       = 0;
+        private long mStarted        = 0;
+        private long mFinished       = 0;
+        private long mAllocatedBytes = -1;
+    }
+
+    /** Private functions **/
+
+    private List<SignedNotification> createNotifications(String productId, int notifications, int batchSize) {
+        ArrayList<SignedNotification> signed = new ArrayList<SignedNotification>(notifications);
+        String runId = Long.toString(System.nanoTime(), 36);
+        long purchaseTime = System.currentTimeMillis();
+        int orderId = 0;
+
+        try {
+            for (int i = 0; i < notifications; i++) {
+                JSONArray jOrders = new JSONArray();
+                for (int j = 0; j < batchSize; j++, orderId++) {
+                    JSONObject jOrder = new JSONObject();
+                    jOrder.put("notificationId", "bench." + runId + "." + orderId);
+                    jOrder.put("orderId", "bench." + runId + "." + orderId);
+                    jOrder.put("packageName", "com.soomla.benchmark");
+                    jOrder.put("productId", productId);
+                    jOrder.put("purchaseTime", purchaseTime);
+                    jOrder.put("purchaseState", Consts.PurchaseState.PURCHASED.ordinal());
+                    jOrders.put(jOrder);
+                }
+
+                JSONObject jObject = new JSONObject();
+                jObject.put("nonce", Security.generateNonce());
+                jObject.put("orders", jOrders);
+                String signedData = jObject.toString();
+                signed.add(new SignedNotification(signedData, mMarket.sign(signedData)));
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException("can't create the purchase data", e);
+        }
+
+        return signed;
+    }
+
+    /**
+     * Sums the bytes allocated by all the live threads, with com.sun.management.ThreadMXBean (found by reflection
+     * because it's not available on every VM).
+     * @return the allocated bytes, or -1 if the VM can't tell.
+     */
+    private static long getAllocatedBytes() {
+        try {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            Method getThreadAllocatedBytes = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long[].class);
+            long[] allocated = (long[]) getThreadAllocatedBytes.invoke(threads, (Object) threads.getAllThreadIds());
+
+            long sum = 0;
+            for (long bytes : allocated) {
+                if (bytes > 0) {
+                    sum += bytes;
+                }
+            }
+            return sum;
+        } catch (Throwable e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A growable array of longs, so recording a latency doesn't box it.
+     */
+    private static class LongList {
+
+        public LongList(int capacity) {
+            mValues = new long[Math.max(capacity, 1)];
+        }
+
+        public void add(long value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        public long[] toArray() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+
+        private long[] mValues;
+        private int    mSize = 0;
+    }
+
+    /** Private members **/
+
+    private final BillingService           mService;
+    private final FakeMarketBillingService mMarket;
+
+    private long mTimeoutMillis = 10 * 60 * 1000;
+}
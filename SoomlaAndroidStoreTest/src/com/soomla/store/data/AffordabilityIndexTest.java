@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.IAffordabilityListener;
+import com.soomla.store.domain.data.VirtualCurrency;
+import com.soomla.store.domain.data.VirtualGood;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+@RunWith(RobolectricTestRunner.class)
+public class AffordabilityIndexTest {
+
+    public static final String FREE_ITEM_ID = "test_free";
+
+    private AffordabilityIndex     mIndex;
+    private VirtualCurrencyStorage mCurrencies;
+    private VirtualCurrency        mCoin;
+    private int                    mBoardOrdinal;
+    private final List<Boolean>    mBoardFlips = new ArrayList<Boolean>();
+
+    private final IAffordabilityListener mListener = new IAffordabilityListener() {
+        @Override
+        public void onAffordabilityChanged(VirtualGood good, int goodOrdinal, boolean affordable) {
+            if (goodOrdinal == mBoardOrdinal){
+                mBoardFlips.add(affordable);
+            }
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        StorageManager.getInstance().initialize(Robolectric.application.getApplicationContext());
+        StoreInfo.getInstance().initialize(new FreeGoodStoreAssets());
+        mIndex = StorageManager.getInstance().getAffordabilityIndex();
+        mCurrencies = StorageManager.getInstance().getVirtualCurrencyStorage();
+
+        mCoin = StoreInfo.getInstance().getVirtualCurrencyByItemId(TestStoreAssets.COIN_ITEM_ID);
+        mBoardOrdinal = StoreInfo.getInstance().getCatalog().getGoodOrdinal(TestStoreAssets.BOARD_ITEM_IDS[0]);
+
+        setBalance(TestStoreAssets.BOARD_PRICE - 1);
+        Assert.assertFalse(mIndex.isAffordable(mBoardOrdinal));
+
+        // listeners are called right away, on the thread that committed the change.
+        mIndex.addListener(mListener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mIndex.removeListener(mListener);
+    }
+
+    @Test
+    public void testFlips() {
+        mCurrencies.add(mCoin, 1);
+        Assert.assertTrue(mIndex.isAffordable(mBoardOrdinal));
+
+        mCurrencies.remove(mCoin, 1);
+        Assert.assertFalse(mIndex.isAffordable(mBoardOrdinal));
+
+        // a change that doesn't flip the affordability isn't delivered.
+        mCurrencies.remove(mCoin, 1);
+        Assert.assertEquals(2, mBoardFlips.size());
+        Assert.assertTrue(mBoardFlips.get(0));
+        Assert.assertFalse(mBoardFlips.get(1));
+    }
+
+    @Test
+    public void testFlipsAfterCommit() {
+        StorageManager.getInstance().getDatabase().runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                mCurrencies.add(mCoin, 1);
+                Assert.assertTrue(mBoardFlips.isEmpty());
+            }
+        });
+
+        Assert.assertEquals(1, mBoardFlips.size());
+        Assert.assertTrue(mBoardFlips.get(0));
+    }
+
+    @Test
+    public void testNoFlipsAfterRollback() {
+        try {
+            StorageManager.getInstance().getDatabase().runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    mCurrencies.add(mCoin, 1);
+                    throw new IllegalStateException("the purchase failed");
+                }
+            });
+            Assert.fail("the transaction should have failed");
+        } catch (IllegalStateException e) {
+            // expected.
+        }
+
+        Assert.assertFalse(mIndex.isAffordable(mBoardOrdinal));
+        Assert.assertTrue(mBoardFlips.isEmpty());
+    }
+
+    @Test
+    public void testWithoutPriceModel() {
+        // a virtual good without a price model costs nothing.
+        int freeOrdinal = StoreInfo.getInstance().getCatalog().getGoodOrdinal(FREE_ITEM_ID);
+        setBalance(0);
+        Assert.assertTrue(mIndex.isAffordable(freeOrdinal));
+
+        boolean[] affordable = new boolean[StoreInfo.getInstance().getVirtualGoodsCount()];
+        mIndex.getAffordable(affordable);
+        Assert.assertTrue(affordable[freeOrdinal]);
+        Assert.assertFalse(affordable[mBoardOrdinal]);
+    }
+
+    @Test
+    public void testPricesWithoutPriceModel() throws Exception {
+        setBalance(0);
+        VirtualGoodsPrices prices = VirtualGoodsPrices.evaluate(Arrays.asList(
+                StoreInfo.getInstance().getVirtualGoodByItemId(FREE_ITEM_ID),
+                StoreInfo.getInstance().getVirtualGoodByItemId(TestStoreAssets.BOARD_ITEM_IDS[0])));
+
+        Assert.assertEquals(0, prices.getPriceSize(0));
+        Assert.assertTrue(prices.isAffordable(0));
+        Assert.assertEquals(1, prices.getPriceSize(1));
+        Assert.assertFalse(prices.isAffordable(1));
+    }
+
+    /** Private functions **/
+
+    private void setBalance(int balance){
+        mCurrencies.remove(mCoin, mCurrencies.getBalance(mCoin));
+        mCurrencies.add(mCoin, balance);
+    }
+
+    /**
+     * The test store assets with one more virtual good, which has no price model.
+     */
+    private static class FreeGoodStoreAssets extends TestStoreAssets {
+
+        @Override
+        public VirtualGood[] getVirtualGoods() {
+            VirtualGood[] goods = super.getVirtualGoods();
+            VirtualGood[] withFree = new VirtualGood[goods.length + 1];
+            System.arraycopy(goods, 0, withFree, 0, goods.length);
+            withFree[goods.length] = new VirtualGood(FREE_ITEM_ID, "A free good", null, FREE_ITEM_ID, null, false);
+            return withFree;
+        }
+    }
+}
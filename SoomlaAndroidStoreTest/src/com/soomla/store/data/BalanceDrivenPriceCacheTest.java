@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.domain.data.BalanceDrivenPriceModel;
+import com.soomla.store.domain.data.VirtualGood;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The prices of a {@link BalanceDrivenPriceModel} are cached by the version of the good's balance, so they must
+ * follow every change of the balance, including a rollback.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BalanceDrivenPriceCacheTest {
+
+    private VirtualGoodsStorage     mStorage;
+    private VirtualGood             mBoard;
+    private BalanceDrivenPriceModel mPriceModel;
+
+    @Before
+    public void setUp() throws Exception {
+        StorageManager.getInstance().initialize(Robolectric.application.getApplicationContext());
+        StoreInfo.getInstance().initialize(new TestStoreAssets());
+        mStorage = StorageManager.getInstance().getVirtualGoodsStorage();
+        mBoard = StoreInfo.getInstance().getVirtualGoodByItemId(TestStoreAssets.BOARD_ITEM_IDS[0]);
+
+        // one coin at balance 0, two at balance 1 and three from balance 2 on.
+        ArrayList<HashMap<String, Integer>> valuesPerBalance = new ArrayList<HashMap<String, Integer>>();
+        for (int coins = 1; coins <= 3; coins++){
+            HashMap<String, Integer> values = new HashMap<String, Integer>();
+            values.put(TestStoreAssets.COIN_ITEM_ID, coins);
+            valuesPerBalance.add(values);
+        }
+        mPriceModel = new BalanceDrivenPriceModel(valuesPerBalance);
+
+        mStorage.remove(mBoard, mStorage.getBalance(mBoard));
+    }
+
+    @Test
+    public void testVersion() {
+        long version = mStorage.getBalanceVersion(mBoard);
+        Assert.assertEquals(version, mStorage.getBalanceVersion(mBoard));
+
+        mStorage.add(mBoard, 1);
+        long added = mStorage.getBalanceVersion(mBoard);
+        Assert.assertTrue(added != version);
+
+        mStorage.remove(mBoard, 1);
+        Assert.assertTrue(mStorage.getBalanceVersion(mBoard) != added);
+        Assert.assertTrue(mStorage.getBalanceVersion(mBoard) != version);
+    }
+
+    @Test
+    public void testPriceFollowsBalance() {
+        Assert.assertEquals(1, coins());
+        Assert.assertEquals(1, coins());
+
+        mStorage.add(mBoard, 1);
+        Assert.assertEquals(2, coins());
+
+        // the last price applies to every balance after the end of the list.
+        mStorage.add(mBoard, 5);
+        Assert.assertEquals(3, coins());
+
+        mStorage.remove(mBoard, mStorage.getBalance(mBoard));
+        Assert.assertEquals(1, coins());
+    }
+
+    @Test
+    public void testPriceVectorFollowsBalance() {
+        Assert.assertEquals(1, mPriceModel.getCurrentPriceVector(mBoard).getAmount(0));
+
+        mStorage.add(mBoard, 1);
+        Assert.assertEquals(2, mPriceModel.getCurrentPriceVector(mBoard).getAmount(0));
+    }
+
+    @Test
+    public void testPriceAfterRollback() {
+        Assert.assertEquals(1, coins());
+        try {
+            StorageManager.getInstance().getDatabase().runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    mStorage.add(mBoard, 1);
+                    Assert.assertEquals(2, coins());
+                    throw new IllegalStateException("the purchase failed");
+                }
+            });
+            Assert.fail("the transaction should have failed");
+        } catch (IllegalStateException e) {
+            // expected.
+        }
+
+        // the balance is reloaded with a new version, so the price cached inside the transaction isn't used.
+        Assert.assertEquals(0, mStorage.getBalance(mBoard));
+        Assert.assertEquals(1, coins());
+    }
+
+    /** Private functions **/
+
+    private int coins(){
+        return mPriceModel.getCurrentPrice(mBoard).get(TestStoreAssets.COIN_ITEM_ID);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.domain.data.*;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * The totals of the curve price models must be the sums of their unit prices, so buying a quantity at once costs the
+ * same as buying the units one after the other.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CurvePriceModelTest {
+
+    @Test
+    public void testArithmetic(){
+        assertTotals(new ArithmeticPriceModel(values(100), values(7)));
+        assertTotals(new ArithmeticPriceModel(values(100), values(-7)));
+        assertTotals(new ArithmeticPriceModel(values(0), values(0)));
+    }
+
+    @Test
+    public void testGeometric(){
+        assertTotals(new GeometricPriceModel(values(10), ratios(1.1)));
+        assertTotals(new GeometricPriceModel(values(1000), ratios(0.9)));
+        assertTotals(new GeometricPriceModel(values(3), ratios(1.013)));
+        assertTotals(new GeometricPriceModel(values(50), ratios(-1.5)));
+    }
+
+    @Test
+    public void testGeometricOverflow(){
+        GeometricPriceModel model = new GeometricPriceModel(values(1000), ratios(2.0));
+        Assert.assertEquals(Integer.MAX_VALUE, model.getPrice(0, 40));
+        Assert.assertEquals(Integer.MAX_VALUE, Math.min(model.getTotalPrice(0, 0, 100), Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testPiecewiseLinear(){
+        // rising and falling segments with widths that don't divide their rises, so prices are rounded.
+        assertTotals(new PiecewiseLinearPriceModel(points(0, 100, 7, 150, 20, 37, 33, 37, 41, 1000)));
+        assertTotals(new PiecewiseLinearPriceModel(points(0, 5, 3, 6, 9, 0)));
+        assertTotals(new PiecewiseLinearPriceModel(points(10, 42)));
+    }
+
+    @Test
+    public void testPiecewiseLinearHalfUp(){
+        // 0 to 1 over 2 units: the middle price is exactly half way, and is rounded up on the way up.
+        PiecewiseLinearPriceModel rising = new PiecewiseLinearPriceModel(points(0, 0, 2, 1));
+        Assert.assertEquals(1, rising.getPrice(0, 1));
+
+        // on the way down the half is rounded up as well (towards the higher price).
+        PiecewiseLinearPriceModel falling = new PiecewiseLinearPriceModel(points(0, 1, 2, 0));
+        Assert.assertEquals(1, falling.getPrice(0, 1));
+    }
+
+    @Test
+    public void testStep(){
+        assertTotals(new StepPriceModel(points(0, 10, 5, 20, 12, 15, 30, 100)));
+        assertTotals(new StepPriceModel(points(3, 7)));
+    }
+
+    @Test
+    public void testTotalOfZeroUnits(){
+        CurvePriceModel model = new ArithmeticPriceModel(values(100), values(7));
+        Assert.assertEquals(0, model.getTotalPrice(0, 10, 0));
+    }
+
+    /** Private functions **/
+
+    /**
+     * Compares the totals of the given model with the sums of its unit prices, over ranges that start before, inside
+     * and after its segments.
+     */
+    private static void assertTotals(CurvePriceModel model){
+        for (int balance = 0; balance <= 60; balance++){
+            long sum = 0;
+            for (int quantity = 1; quantity <= 80; quantity++){
+                sum += model.getPrice(0, balance + quantity - 1);
+                Assert.assertEquals(model.getClass().getSimpleName() + " balance " + balance + " quantity " +
+                        quantity, sum, model.getTotalPrice(0, balance, quantity));
+            }
+        }
+    }
+
+    private static HashMap<String, Integer> values(int value){
+        HashMap<String, Integer> values = new HashMap<String, Integer>();
+        values.put(TestStoreAssets.COIN_ITEM_ID, value);
+        return values;
+    }
+
+    private static HashMap<String, Double> ratios(double ratio){
+        HashMap<String, Double> ratios = new HashMap<String, Double>();
+        ratios.put(TestStoreAssets.COIN_ITEM_ID, ratio);
+        return ratios;
+    }
+
+    /**
+     * @param balancesAndPrices are pairs of a balance and the price at that balance.
+     */
+    private static HashMap<String, TreeMap<Integer, Integer>> points(int... balancesAndPrices){
+        TreeMap<Integer, Integer> points = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < balancesAndPrices.length; i += 2){
+            points.put(balancesAndPrices[i], balancesAndPrices[i + 1]);
+        }
+
+        HashMap<String, TreeMap<Integer, Integer>> curves = new HashMap<String, TreeMap<Integer, Integer>>();
+        curves.put(TestStoreAssets.COIN_ITEM_ID, points);
+        return curves;
+    }
+}
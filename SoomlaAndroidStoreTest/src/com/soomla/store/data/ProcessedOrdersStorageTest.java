@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.billing.Consts;
+import com.soomla.store.StoreController;
+import com.soomla.store.domain.data.VirtualCurrency;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(RobolectricTestRunner.class)
+public class ProcessedOrdersStorageTest {
+
+    private ProcessedOrdersStorage mStorage;
+    private VirtualCurrency        mCoin;
+
+    @Before
+    public void setUp() throws Exception {
+        StorageManager.getInstance().initialize(Robolectric.application.getApplicationContext());
+        StoreInfo.getInstance().initialize(new TestStoreAssets());
+        mStorage = StorageManager.getInstance().getProcessedOrdersStorage();
+        mCoin = StoreInfo.getInstance().getVirtualCurrencyByItemId(TestStoreAssets.COIN_ITEM_ID);
+    }
+
+    @Test
+    public void testAdd(){
+        String orderId = newOrderId();
+        Assert.assertFalse(mStorage.isProcessed(orderId));
+
+        mStorage.add(orderId);
+        Assert.assertTrue(mStorage.isProcessed(orderId));
+    }
+
+    @Test
+    public void testAddTwice(){
+        String orderId = newOrderId();
+        mStorage.add(orderId);
+        mStorage.add(orderId);
+        Assert.assertTrue(mStorage.isProcessed(orderId));
+    }
+
+    @Test
+    public void testEmptyOrderId(){
+        mStorage.add("");
+        Assert.assertFalse(mStorage.isProcessed(""));
+        Assert.assertFalse(mStorage.isProcessed(null));
+    }
+
+    @Test
+    public void testFilterRebuild(){
+        // more orders than the filter was built for, so it's dropped and rebuilt from the database.
+        String[] orderIds = new String[2500];
+        for (int i = 0; i < orderIds.length; i++){
+            orderIds[i] = newOrderId();
+            mStorage.add(orderIds[i]);
+        }
+
+        for (String orderId : orderIds){
+            Assert.assertTrue(mStorage.isProcessed(orderId));
+        }
+        Assert.assertFalse(mStorage.isProcessed(newOrderId()));
+
+        // a new storage builds its filter out of the database.
+        ProcessedOrdersStorage reloaded = new ProcessedOrdersStorage();
+        for (String orderId : orderIds){
+            Assert.assertTrue(reloaded.isProcessed(orderId));
+        }
+        Assert.assertFalse(reloaded.isProcessed(newOrderId()));
+    }
+
+    @Test
+    public void testGrantOrder(){
+        String orderId = newOrderId();
+        int balance = StorageManager.getInstance().getVirtualCurrencyStorage().getBalance(mCoin);
+
+        Assert.assertTrue(StoreController.getInstance().applyPurchaseStateChange(Consts.PurchaseState.PURCHASED,
+                TestStoreAssets.COIN_PACK_ID, orderId, System.currentTimeMillis(), null));
+        Assert.assertTrue(mStorage.isProcessed(orderId));
+        Assert.assertEquals(balance + TestStoreAssets.COIN_PACK_AMOUNT,
+                StorageManager.getInstance().getVirtualCurrencyStorage().getBalance(mCoin));
+
+        // market delivered the same notification again.
+        Assert.assertFalse(StoreController.getInstance().applyPurchaseStateChange(Consts.PurchaseState.PURCHASED,
+                TestStoreAssets.COIN_PACK_ID, orderId, System.currentTimeMillis(), null));
+        Assert.assertEquals(balance + TestStoreAssets.COIN_PACK_AMOUNT,
+                StorageManager.getInstance().getVirtualCurrencyStorage().getBalance(mCoin));
+    }
+
+    @Test
+    public void testGrantRolledBackWithOrder(){
+        final String orderId = newOrderId();
+        int balance = StorageManager.getInstance().getVirtualCurrencyStorage().getBalance(mCoin);
+
+        try {
+            StorageManager.getInstance().getDatabase().runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    StorageManager.getInstance().getVirtualCurrencyStorage().add(mCoin,
+                            TestStoreAssets.COIN_PACK_AMOUNT);
+                    mStorage.add(orderId);
+                    throw new IllegalStateException("the grant failed");
+                }
+            });
+            Assert.fail("the transaction should have failed");
+        } catch (IllegalStateException e) {
+            // expected.
+        }
+
+        // neither the grant nor the order were saved, so the order can still be granted.
+        Assert.assertFalse(mStorage.isProcessed(orderId));
+        Assert.assertEquals(balance, StorageManager.getInstance().getVirtualCurrencyStorage().getBalance(mCoin));
+    }
+
+    /** Private functions **/
+
+    private static String newOrderId(){
+        return "test." + System.nanoTime() + "." + (sOrders++);
+    }
+
+    /** Private members **/
+
+    private static int sOrders = 0;
+}
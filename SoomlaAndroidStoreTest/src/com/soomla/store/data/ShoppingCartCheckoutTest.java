@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.ShoppingCart;
+import com.soomla.store.StoreController;
+import com.soomla.store.domain.data.VirtualCurrency;
+import com.soomla.store.domain.data.VirtualGood;
+import com.soomla.store.exceptions.InsufficientFundsException;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(RobolectricTestRunner.class)
+public class ShoppingCartCheckoutTest {
+
+    private VirtualCurrencyStorage mCurrencies;
+    private VirtualGoodsStorage    mGoods;
+    private VirtualCurrency        mCoin;
+    private VirtualCurrency        mGem;
+    private VirtualGood            mBoard;
+    private VirtualGood            mSkin;
+
+    @Before
+    public void setUp() throws Exception {
+        StorageManager.getInstance().initialize(Robolectric.application.getApplicationContext());
+        StoreInfo.getInstance().initialize(new TestStoreAssets());
+        mCurrencies = StorageManager.getInstance().getVirtualCurrencyStorage();
+        mGoods = StorageManager.getInstance().getVirtualGoodsStorage();
+
+        mCoin = StoreInfo.getInstance().getVirtualCurrencyByItemId(TestStoreAssets.COIN_ITEM_ID);
+        mGem = StoreInfo.getInstance().getVirtualCurrencyByItemId(TestStoreAssets.GEM_ITEM_ID);
+        mBoard = StoreInfo.getInstance().getVirtualGoodByItemId(TestStoreAssets.BOARD_ITEM_IDS[0]);
+        mSkin = StoreInfo.getInstance().getVirtualGoodByItemId(TestStoreAssets.SKIN_ITEM_IDS[0]);
+    }
+
+    @Test
+    public void testCheckout() throws Exception {
+        setBalance(mCoin, 100);
+        setBalance(mGem, 10);
+        int boards = mGoods.getBalance(mBoard);
+        int skins = mGoods.getBalance(mSkin);
+
+        ShoppingCart cart = new ShoppingCart();
+        cart.add(mBoard, 2);
+        cart.add(mSkin, 1);
+        cart.add(mBoard, 1);
+        StoreController.getInstance().checkout(cart);
+
+        Assert.assertEquals(boards + 3, mGoods.getBalance(mBoard));
+        Assert.assertEquals(skins + 1, mGoods.getBalance(mSkin));
+        Assert.assertEquals(100 - 3 * TestStoreAssets.BOARD_PRICE, mCurrencies.getBalance(mCoin));
+        Assert.assertEquals(10 - TestStoreAssets.SKIN_PRICE, mCurrencies.getBalance(mGem));
+    }
+
+    @Test
+    public void testCheckoutIsAllOrNothing() throws Exception {
+        // enough coins for the boards, but not enough gems for the skins.
+        setBalance(mCoin, 100);
+        setBalance(mGem, 2 * TestStoreAssets.SKIN_PRICE - 1);
+        int boards = mGoods.getBalance(mBoard);
+        int skins = mGoods.getBalance(mSkin);
+
+        ShoppingCart cart = new ShoppingCart();
+        cart.add(mBoard, 2);
+        cart.add(mSkin, 2);
+        try {
+            StoreController.getInstance().checkout(cart);
+            Assert.fail("the checkout should have failed");
+        } catch (InsufficientFundsException e) {
+            Assert.assertEquals(TestStoreAssets.GEM_ITEM_ID, e.getItemId());
+        }
+
+        Assert.assertEquals(boards, mGoods.getBalance(mBoard));
+        Assert.assertEquals(skins, mGoods.getBalance(mSkin));
+        Assert.assertEquals(100, mCurrencies.getBalance(mCoin));
+        Assert.assertEquals(2 * TestStoreAssets.SKIN_PRICE - 1, mCurrencies.getBalance(mGem));
+    }
+
+    @Test
+    public void testBuyQuantity() throws Exception {
+        setBalance(mCoin, 5 * TestStoreAssets.BOARD_PRICE);
+        int boards = mGoods.getBalance(mBoard);
+
+        StoreController.getInstance().buyVirtualGood(mBoard.getItemId(), 5);
+        Assert.assertEquals(boards + 5, mGoods.getBalance(mBoard));
+        Assert.assertEquals(0, mCurrencies.getBalance(mCoin));
+
+        try {
+            StoreController.getInstance().buyVirtualGood(mBoard.getItemId(), 1);
+            Assert.fail("the purchase should have failed");
+        } catch (InsufficientFundsException e) {
+            // expected.
+        }
+        Assert.assertEquals(boards + 5, mGoods.getBalance(mBoard));
+    }
+
+    @Test
+    public void testRollback() {
+        setBalance(mCoin, 100);
+        int boards = mGoods.getBalance(mBoard);
+
+        try {
+            StorageManager.getInstance().getDatabase().runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    mGoods.add(mBoard, 1);
+                    mCurrencies.remove(mCoin, TestStoreAssets.BOARD_PRICE);
+                    throw new IllegalStateException("the purchase failed");
+                }
+            });
+            Assert.fail("the transaction should have failed");
+        } catch (IllegalStateException e) {
+            // expected.
+        }
+
+        // the in-memory balances are rolled back with the database.
+        Assert.assertEquals(boards, mGoods.getBalance(mBoard));
+        Assert.assertEquals(100, mCurrencies.getBalance(mCoin));
+    }
+
+    /** Private functions **/
+
+    private void setBalance(VirtualCurrency currency, int balance){
+        mCurrencies.remove(currency, mCurrencies.getBalance(currency));
+        mCurrencies.add(currency, balance);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.IAssetSource;
+import com.soomla.store.StoreConfig;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class StoreAssetCacheTest {
+
+    /** Three assets of this size don't fit on disk, two do. */
+    private static final long ASSET_SIZE = StoreConfig.ASSET_CACHE_DISK_SIZE / 3 + 1;
+
+    private StoreAssetCache mCache;
+    private CountingSource  mSource;
+
+    @Before
+    public void setUp() {
+        mCache = StoreAssetCache.getInstance();
+        mCache.initialize(Robolectric.application.getApplicationContext());
+        mCache.clear();
+
+        mSource = new CountingSource();
+        mCache.setSource(mSource);
+    }
+
+    @After
+    public void tearDown() {
+        mCache.clear();
+        mCache.setSource(null);
+    }
+
+    @Test
+    public void testFetchesOnce() throws Exception {
+        File file = mCache.getFile("a.png");
+        Assert.assertEquals(ASSET_SIZE, file.length());
+        Assert.assertTrue(mCache.isCached("a.png"));
+
+        mCache.getFile("a.png");
+        Assert.assertEquals(Arrays.asList("a.png"), mSource.mOpened);
+        Assert.assertEquals(ASSET_SIZE, mCache.getDiskSize());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        mCache.getFile("a.png");
+        mCache.getFile("b.png");
+
+        // using a.png again makes b.png the least recently used asset.
+        mCache.getFile("a.png");
+        mCache.getFile("c.png");
+
+        Assert.assertTrue(mCache.isCached("a.png"));
+        Assert.assertFalse(mCache.isCached("b.png"));
+        Assert.assertTrue(mCache.isCached("c.png"));
+        Assert.assertEquals(2 * ASSET_SIZE, mCache.getDiskSize());
+        Assert.assertTrue(mCache.getDiskSize() <= StoreConfig.ASSET_CACHE_DISK_SIZE);
+
+        // an evicted asset is fetched again.
+        mCache.getFile("b.png");
+        Assert.assertEquals(Arrays.asList("a.png", "b.png", "c.png", "b.png"), mSource.mOpened);
+    }
+
+    @Test
+    public void testIndexFromDisk() throws Exception {
+        mCache.getFile("a.png");
+
+        // a new process finds the assets in the cache directory, without a source.
+        mCache.initialize(Robolectric.application.getApplicationContext());
+        mCache.setSource(null);
+        Assert.assertTrue(mCache.isCached("a.png"));
+        Assert.assertEquals(ASSET_SIZE, mCache.getDiskSize());
+        Assert.assertEquals(ASSET_SIZE, mCache.getFile("a.png").length());
+    }
+
+    @Test
+    public void testFailedDownload() throws Exception {
+        mSource.mFailAfter = ASSET_SIZE / 2;
+        try {
+            mCache.getFile("a.png");
+            Assert.fail("the download should have failed");
+        } catch (IOException e) {
+            // expected.
+        }
+
+        // nothing is left behind, not even the partial download.
+        Assert.assertFalse(mCache.isCached("a.png"));
+        Assert.assertEquals(0, mCache.getDiskSize());
+        File directory = mCache.getFile("b.png").getParentFile();
+        Assert.assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void testAssetReferences() throws Exception {
+        JSONObject storefront = new JSONObject("{\"background\": \"images/bg.PNG\", \"title\": \"Store\", " +
+                "\"items\": [{\"icon\": \"icons/a.jpg?v=2\"}, {\"icon\": \"icons/a.jpg?v=2\"}, {\"columns\": 3}]}");
+
+        List<String> references = StoreAssetCache.getAssetReferences(storefront);
+        Assert.assertEquals(2, references.size());
+        Assert.assertTrue(references.contains("images/bg.PNG"));
+        Assert.assertTrue(references.contains("icons/a.jpg?v=2"));
+        Assert.assertFalse(StoreAssetCache.isAssetReference("Store"));
+    }
+
+    /**
+     * Serves assets of {@link #ASSET_SIZE} bytes without keeping them in memory, and remembers what was opened.
+     */
+    private static class CountingSource implements IAssetSource {
+
+        @Override
+        public InputStream open(String reference) throws IOException {
+            mOpened.add(reference);
+            final long failAfter = mFailAfter;
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) == -1 ? -1 : b[0];
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    if (mRead >= ASSET_SIZE) {
+                        return -1;
+                    }
+                    if (failAfter >= 0 && mRead >= failAfter) {
+                        throw new IOException("connection lost");
+                    }
+                    int count = (int) Math.min(length, ASSET_SIZE - mRead);
+                    Arrays.fill(buffer, offset, offset + count, (byte) 7);
+                    mRead += count;
+                    return count;
+                }
+
+                private long mRead;
+            };
+        }
+
+        private final List<String> mOpened = new ArrayList<String>();
+        private long               mFailAfter = -1;
+    }
+}
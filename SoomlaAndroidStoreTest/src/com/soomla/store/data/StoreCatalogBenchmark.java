@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import android.util.Log;
+import com.soomla.billing.util.AESObfuscator;
+import com.soomla.store.StoreConfig;
+import com.soomla.store.domain.data.*;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A startup benchmark that compares loading a catalog from its (encrypted) JSON representation with loading it from
+ * its (encrypted) binary representation (see {@link StoreCatalogCodec}).
+ *
+ * Both paths start from what would be saved in the database, so they include decryption and parsing. The binary and
+ * the streamed JSON (see {@link StoreCatalogJSON}) paths end with a ready catalog. The JSON tree path ends with the
+ * parsed JSONObject tree, before any domain object is created, so it's a lower bound of loading through a tree.
+ * The database read itself is the same for all of them and is not measured.
+ *
+ * It also compares writing the JSON representation through a JSONObject tree with streaming it. Use
+ * {@link #createCatalog(int, int, int)} to measure catalogs bigger than the one of your application.
+ *
+ * The benchmark never touches {@link StoreInfo}, so it can run next to a live store:
+ *     System.out.println(StoreCatalogBenchmark.run(20, StoreCatalogBenchmark.createCatalog(5, 2000, 10)));
+ */
+public class StoreCatalogBenchmark {
+
+    /**
+     * The results of a single benchmark run. All times are averages per load, in nanoseconds.
+     */
+    public static class Result {
+
+        public long getJsonLoadNanos() {
+            return mJsonLoadNanos;
+        }
+
+        public long getBinaryLoadNanos() {
+            return mBinaryLoadNanos;
+        }
+
+        public long getJsonWriteNanos() {
+            return mJsonWriteNanos;
+        }
+
+        public long getStreamWriteNanos() {
+            return mStreamWriteNanos;
+        }
+
+        public long getStreamLoadNanos() {
+            return mStreamLoadNanos;
+        }
+
+        public int getJsonBytes() {
+            return mJsonBytes;
+        }
+
+        public int getBinaryBytes() {
+            return mBinaryBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "catalog load: json " + (mJsonLoadNanos / 1000) + "us (" + mJsonBytes + " bytes), binary " +
+                    (mBinaryLoadNanos / 1000) + "us (" + mBinaryBytes + " bytes), streamed json " +
+                    (mStreamLoadNanos / 1000) + "us; json write: tree " + (mJsonWriteNanos / 1000) +
+                    "us, streamed " + (mStreamWriteNanos / 1000) + "us";
+        }
+
+        private long mJsonLoadNanos;
+        private long mBinaryLoadNanos;
+        private long mStreamLoadNanos;
+        private long mJsonWriteNanos;
+        private long mStreamWriteNanos;
+        private int  mJsonBytes;
+        private int  mBinaryBytes;
+    }
+
+    /**
+     * Runs the benchmark on the current catalog of {@link StoreInfo}. The catalog is only read.
+     * @param iterations is the number of times each path is measured (after one warm up round).
+     * @return the results of the benchmark.
+     */
+    public static Result run(int iterations) {
+        return run(iterations, StoreInfo.getInstance().getCatalog());
+    }
+
+    /**
+     * Runs the benchmark on the given catalog.
+     * @param iterations is the number of times each path is measured (after one warm up round).
+     * @param catalog is the catalog to measure (see {@link #createCatalog(int, int, int)}).
+     * @return the results of the benchmark.
+     */
+    public static Result run(int iterations, StoreCatalog catalog) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be positive.");
+        }
+
+        AESObfuscator obfuscator = StorageManager.getInstance().getObfuscator();
+
+        Result result = new Result();
+        try {
+            String json = toJSONObject(catalog).toString();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                toJSONObject(catalog).toString();
+            }
+            result.mJsonWriteNanos = (System.nanoTime() - start) / iterations;
+
+            writeStream(catalog);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                writeStream(catalog);
+            }
+            result.mStreamWriteNanos = (System.nanoTime() - start) / iterations;
+
+            byte[] binary = StoreCatalogCodec.encode(catalog);
+            String encryptedJson = json;
+            if (obfuscator != null) {
+                encryptedJson = obfuscator.obfuscateString(json);
+                binary = obfuscator.obfuscateBytes(binary);
+            }
+            result.mJsonBytes = encryptedJson.length();
+            result.mBinaryBytes = binary.length;
+
+            loadJSON(encryptedJson, obfuscator);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                loadJSON(encryptedJson, obfuscator);
+            }
+            result.mJsonLoadNanos = (System.nanoTime() - start) / iterations;
+
+            loadStream(encryptedJson, obfuscator);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                loadStream(encryptedJson, obfuscator);
+            }
+            result.mStreamLoadNanos = (System.nanoTime() - start) / iterations;
+
+            loadBinary(binary, obfuscator);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                loadBinary(binary, obfuscator);
+            }
+            result.mBinaryLoadNanos = (System.nanoTime() - start) / iterations;
+        } catch (Exception e) {
+            throw new RuntimeException("Catalog benchmark failed", e);
+        }
+
+        if (StoreConfig.debug){
+            Log.d(TAG, result.toString());
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates a synthetic catalog to benchmark with.
+     * @param currencies is the number of virtual currencies.
+     * @param goods is the number of virtual goods. Every virtual good has a balance-driven price in two currencies.
+     * @param levels is the number of prices of every virtual good's balance-driven price model.
+     * @return the catalog.
+     */
+    public static StoreCatalog createCatalog(int currencies, int goods, int levels) {
+        if (currencies < 1 || levels < 1) {
+            throw new IllegalArgumentException("currencies and levels must be positive.");
+        }
+
+        List<VirtualCategory> categoryList = new ArrayList<VirtualCategory>();
+        for (int i = 0; i < 10; i++) {
+            categoryList.add(new VirtualCategory("Category " + i, i));
+        }
+
+        List<VirtualCurrency> currencyList = new ArrayList<VirtualCurrency>(currencies);
+        List<VirtualCurrencyPack> packList = new ArrayList<VirtualCurrencyPack>(currencies);
+        for (int i = 0; i < currencies; i++) {
+            VirtualCurrency currency = new VirtualCurrency("Currency " + i, "Benchmark currency " + i,
+                    "benchmark_currency_" + i);
+            currencyList.add(currency);
+            packList.add(new VirtualCurrencyPack("Pack " + i, "Benchmark pack " + i, "benchmark_pack_" + i,
+                    "benchmark_product_" + i, 0.99, 100, currency));
+        }
+
+        List<VirtualGood> goodList = new ArrayList<VirtualGood>(goods);
+        for (int i = 0; i < goods; i++) {
+            ArrayList<HashMap<String, Integer>> prices = new ArrayList<HashMap<String, Integer>>(levels);
+            for (int level = 0; level < levels; level++) {
+                HashMap<String, Integer> price = new HashMap<String, Integer>();
+                price.put(currencyList.get(i % currencies).getItemId(), 10 + level * 5);
+                price.put(currencyList.get((i + 1) % currencies).getItemId(), 1 + level);
+                prices.add(price);
+            }
+            goodList.add(new VirtualGood("Good " + i, "Benchmark good " + i, new BalanceDrivenPriceModel(prices),
+                    "benchmark_good_" + i, categoryList.get(i % categoryList.size()), false));
+        }
+
+        return new StoreCatalog(categoryList, currencyList, packList, goodList, new ArrayList<GoogleMarketItem>());
+    }
+
+    /** Private functions **/
+
+    /**
+     * Builds the same JSONObject tree {@link StoreInfo#toJSONObject()} builds, for the given catalog.
+     */
+    private static JSONObject toJSONObject(StoreCatalog catalog) throws JSONException {
+        JSONArray virtualCategories = new JSONArray();
+        for (VirtualCategory cat : catalog.getVirtualCategories()){
+            virtualCategories.put(cat.toJSONObject());
+        }
+
+        JSONArray virtualCurrencies = new JSONArray();
+        for(VirtualCurrency c : catalog.getVirtualCurrencies()){
+            virtualCurrencies.put(c.toJSONObject());
+        }
+
+        JSONArray currencyPacks = new JSONArray();
+        for(VirtualCurrencyPack pack : catalog.getVirtualCurrencyPacks()){
+            currencyPacks.put(pack.toJSONObject());
+        }
+
+        JSONArray virtualGoods = new JSONArray();
+        for(VirtualGood good : catalog.getVirtualGoods()){
+            virtualGoods.put(good.toJSONObject());
+        }
+
+        JSONArray googleManagedItems = new JSONArray();
+        for(GoogleMarketItem gmi : catalog.getGoogleManagedItems()){
+            googleManagedItems.put(gmi.toJSONObject());
+        }
+
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put(JSONConsts.STORE_VIRTUALCATEGORIES, virtualCategories);
+        jsonObject.put(JSONConsts.STORE_VIRTUALCURRENCIES, virtualCurrencies);
+        jsonObject.put(JSONConsts.STORE_VIRTUALGOODS, virtualGoods);
+        jsonObject.put(JSONConsts.STORE_CURRENCYPACKS, currencyPacks);
+        jsonObject.put(JSONConsts.STORE_GOOGLEMANAGED, googleManagedItems);
+        return jsonObject;
+    }
+
+    private static void loadJSON(String json, AESObfuscator obfuscator)
+            throws AESObfuscator.ValidationException, JSONException {
+        if (obfuscator != null) {
+            json = obfuscator.unobfuscateToString(json);
+        }
+        new JSONObject(json);
+    }
+
+    private static void writeStream(StoreCatalog catalog) throws IOException {
+        StringWriter writer = new StringWriter(4096);
+        StoreCatalogJSON.write(catalog, writer);
+        writer.toString();
+    }
+
+    private static void loadStream(String json, AESObfuscator obfuscator)
+            throws AESObfuscator.ValidationException, IOException {
+        if (obfuscator != null) {
+            json = obfuscator.unobfuscateToString(json);
+        }
+        StoreCatalogJSON.read(new StringReader(json));
+    }
+
+    private static void loadBinary(byte[] binary, AESObfuscator obfuscator)
+            throws AESObfuscator.ValidationException, IOException {
+        if (obfuscator != null) {
+            binary = obfuscator.unobfuscateToBytes(binary);
+        }
+        StoreCatalogCodec.decode(binary);
+    }
+
+    private StoreCatalogBenchmark() { }
+
+    /** Private members **/
+
+    private static final String TAG = "SOOMLA StoreCatalogBenchmark";
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.domain.data.*;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+public class StoreCatalogCodecTest {
+
+    private StoreCatalog mCatalog;
+
+    @Before
+    public void setUp() {
+        StorageManager.getInstance().initialize(Robolectric.application.getApplicationContext());
+        StoreInfo.getInstance().initialize(new TestStoreAssets());
+        mCatalog = StoreInfo.getInstance().getCatalog();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        assertSameCatalog(mCatalog, StoreCatalogCodec.decode(StoreCatalogCodec.encode(mCatalog)));
+    }
+
+    @Test
+    public void testLazyRoundTrip() throws Exception {
+        StoreCatalog decoded = StoreCatalogCodec.decode(StoreCatalogCodec.encode(mCatalog), true);
+        Assert.assertTrue(decoded.isLazy());
+        Assert.assertEquals(0, decoded.getCreatedVirtualGoodsCount());
+
+        // item ids and ordinals are known before any virtual good is created.
+        for (int i = 0; i < mCatalog.getVirtualGoodsCount(); i++){
+            String itemId = mCatalog.getVirtualGoodItemId(i);
+            Assert.assertEquals(itemId, decoded.getVirtualGoodItemId(i));
+            Assert.assertEquals(i, decoded.getGoodOrdinal(itemId));
+        }
+        Assert.assertEquals(0, decoded.getCreatedVirtualGoodsCount());
+
+        assertSameCatalog(mCatalog, decoded);
+    }
+
+    @Test
+    public void testEncodeIsStable() {
+        Assert.assertTrue(Arrays.equals(StoreCatalogCodec.encode(mCatalog), StoreCatalogCodec.encode(mCatalog)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testVersionMismatch() throws Exception {
+        byte[] data = StoreCatalogCodec.encode(mCatalog);
+
+        // the format version is the short right after the magic int.
+        short version = (short) (StoreCatalogCodec.FORMAT_VERSION + 1);
+        data[4] = (byte) (version >>> 8);
+        data[5] = (byte) version;
+        StoreCatalogCodec.decode(data);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotACatalog() throws Exception {
+        StoreCatalogCodec.decode("{\"virtualGoods\":[]}".getBytes("UTF-8"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws Exception {
+        byte[] data = StoreCatalogCodec.encode(mCatalog);
+        StoreCatalogCodec.decode(Arrays.copyOf(data, data.length / 2));
+    }
+
+    /** Private functions **/
+
+    private static void assertSameCatalog(StoreCatalog expected, StoreCatalog actual) throws Exception {
+        Assert.assertEquals(expected.getVirtualCategories().size(), actual.getVirtualCategories().size());
+        for (VirtualCategory category : expected.getVirtualCategories()){
+            VirtualCategory decoded = actual.getVirtualCategory(category.getmId());
+            Assert.assertNotNull(decoded);
+            Assert.assertEquals(category.getName(), decoded.getName());
+            Assert.assertEquals(category.getEquipSlots(), decoded.getEquipSlots());
+        }
+
+        Assert.assertEquals(expected.getVirtualCurrencies().size(), actual.getVirtualCurrencies().size());
+        for (int i = 0; i < expected.getVirtualCurrencies().size(); i++){
+            Assert.assertEquals(expected.getVirtualCurrencyByOrdinal(i).toJSONObject().toString(),
+                    actual.getVirtualCurrencyByOrdinal(i).toJSONObject().toString());
+        }
+
+        Assert.assertEquals(expected.getVirtualCurrencyPacks().size(), actual.getVirtualCurrencyPacks().size());
+        for (VirtualCurrencyPack pack : expected.getVirtualCurrencyPacks()){
+            VirtualCurrencyPack decoded = actual.getPackByProductId(pack.getProductId());
+            Assert.assertNotNull(decoded);
+            Assert.assertEquals(pack.getItemId(), decoded.getItemId());
+            Assert.assertEquals(pack.getCurrencyAmount(), decoded.getCurrencyAmount());
+            Assert.assertEquals(pack.getPrice(), decoded.getPrice(), 0);
+            Assert.assertEquals(pack.getVirtualCurrency().getItemId(), decoded.getVirtualCurrency().getItemId());
+        }
+
+        Assert.assertEquals(expected.getVirtualGoodsCount(), actual.getVirtualGoodsCount());
+        for (int i = 0; i < expected.getVirtualGoodsCount(); i++){
+            VirtualGood good = expected.getVirtualGoodByOrdinal(i);
+            VirtualGood decoded = actual.getVirtualGoodByOrdinal(i);
+            Assert.assertEquals(good.getItemId(), decoded.getItemId());
+            Assert.assertEquals(good.getName(), decoded.getName());
+            Assert.assertEquals(good.getDescription(), decoded.getDescription());
+            Assert.assertEquals(AbstractPriceModel.priceModelToJSONObject(good.getPriceModel()).toString(),
+                    AbstractPriceModel.priceModelToJSONObject(decoded.getPriceModel()).toString());
+            if (good.getCategory() == null){
+                Assert.assertNull(decoded.getCategory());
+            } else {
+                Assert.assertEquals(good.getCategory().getmId(), decoded.getCategory().getmId());
+            }
+        }
+
+        Assert.assertEquals(expected.getGoogleManagedItems().size(), actual.getGoogleManagedItems().size());
+        for (GoogleMarketItem item : expected.getGoogleManagedItems()){
+            GoogleMarketItem decoded = actual.getGoogleManagedItem(item.getProductId());
+            Assert.assertNotNull(decoded);
+            Assert.assertEquals(item.getManaged(), decoded.getManaged());
+        }
+    }
+}
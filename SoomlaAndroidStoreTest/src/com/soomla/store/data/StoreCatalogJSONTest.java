@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.domain.data.VirtualGood;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+@RunWith(RobolectricTestRunner.class)
+public class StoreCatalogJSONTest {
+
+    @Before
+    public void setUp() {
+        StorageManager.getInstance().initialize(Robolectric.application.getApplicationContext());
+        StoreInfo.getInstance().initialize(new TestStoreAssets());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        StringWriter written = new StringWriter();
+        StoreInfo.getInstance().writeJSON(written);
+
+        // the streamed JSON is plain JSON, and reads back to the same catalog.
+        JSONObject parsed = new JSONObject(written.toString());
+        Assert.assertEquals(StoreInfo.getInstance().getVirtualGoodsCount(),
+                parsed.getJSONArray(JSONConsts.STORE_VIRTUALGOODS).length());
+
+        StoreCatalog read = StoreCatalogJSON.read(new StringReader(written.toString()));
+        StringWriter rewritten = new StringWriter();
+        StoreCatalogJSON.write(read, rewritten);
+        Assert.assertEquals(written.toString(), rewritten.toString());
+    }
+
+    @Test
+    public void testReadsTreeJSON() throws Exception {
+        // the JSON of StoreInfo.toJSONObject() has its keys in any order.
+        StoreCatalog read = StoreCatalogJSON.read(new StringReader(StoreInfo.getInstance().toJSONObject().toString()));
+
+        for (VirtualGood good : StoreInfo.getInstance().getVirtualGoods()){
+            VirtualGood readGood = read.getVirtualGood(good.getItemId());
+            Assert.assertNotNull(readGood);
+            Assert.assertEquals(good.getName(), readGood.getName());
+        }
+        Assert.assertEquals(StoreInfo.getInstance().getCatalog().getVirtualCategories().size(),
+                read.getVirtualCategories().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformed() throws Exception {
+        StoreCatalogJSON.read(new StringReader("{\"" + JSONConsts.STORE_VIRTUALGOODS + "\": [ {\"name\": } ]}"));
+    }
+}
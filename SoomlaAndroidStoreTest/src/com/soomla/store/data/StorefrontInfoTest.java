@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+public class StorefrontInfoTest {
+
+    private JSONObject mStorefront;
+
+    @Before
+    public void setUp() throws Exception {
+        StorageManager.getInstance().initialize(Robolectric.application.getApplicationContext());
+
+        // random text hardly compresses, so the big section is saved in several chunks.
+        Random random = new Random(42);
+        JSONArray big = new JSONArray();
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 4 * StorefrontInfo.CHUNK_SIZE){
+            String item = Long.toString(random.nextLong(), 36);
+            big.put(item);
+            text.append(item);
+        }
+
+        mStorefront = new JSONObject();
+        mStorefront.put("theme", new JSONObject().put("name", "test").put("columns", 3));
+        mStorefront.put("title", "Test \"Store\"");
+        mStorefront.put("big", big);
+        mStorefront.put("empty", new JSONArray());
+    }
+
+    @Test
+    public void testChunksRoundTrip() throws Exception {
+        StorefrontInfo.getInstance().initialize(mStorefront.toString());
+
+        // reloading drops everything from memory, so the sections are read from their chunks.
+        Assert.assertTrue(StorefrontInfo.getInstance().initializeFromDB());
+        Assert.assertEquals(4, StorefrontInfo.getInstance().getSectionNames().size());
+
+        Assert.assertEquals(mStorefront.get("big").toString(),
+                StorefrontInfo.getInstance().getSection("big").toString());
+        Assert.assertEquals(mStorefront.getString("title"), StorefrontInfo.getInstance().getSection("title"));
+        Assert.assertEquals(mStorefront.getJSONObject("theme").toString(),
+                StorefrontInfo.getInstance().getSection("theme").toString());
+        Assert.assertEquals(0, ((JSONArray) StorefrontInfo.getInstance().getSection("empty")).length());
+        Assert.assertNull(StorefrontInfo.getInstance().getSection("missing"));
+    }
+
+    @Test
+    public void testWholeStorefrontFromChunks() throws Exception {
+        StorefrontInfo.getInstance().initialize(mStorefront.toString());
+        Assert.assertTrue(StorefrontInfo.getInstance().initializeFromDB());
+
+        JSONObject loaded = new JSONObject(StorefrontInfo.getInstance().getStorefrontJSON());
+        Assert.assertEquals(mStorefront.length(), loaded.length());
+        Assert.assertEquals(mStorefront.get("big").toString(), loaded.get("big").toString());
+    }
+}
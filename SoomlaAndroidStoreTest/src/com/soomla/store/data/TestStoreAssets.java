@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.IStoreAssets;
+import com.soomla.store.domain.data.*;
+
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * The store assets the storage tests run against: two currencies, a category with two equip slots, a category with
+ * a single equip slot and virtual goods with static and balance-driven prices.
+ */
+public class TestStoreAssets implements IStoreAssets {
+
+    public static final String COIN_ITEM_ID      = "test_coin";
+    public static final String GEM_ITEM_ID       = "test_gem";
+    public static final String COIN_PACK_ID      = "test_coin_pack";
+    public static final String NO_ADS_PRODUCT_ID = "test_no_ads";
+
+    public static final int COIN_PACK_AMOUNT = 100;
+    public static final int BOARD_PRICE      = 10;
+    public static final int SKIN_PRICE       = 3;
+
+    public static final String[] BOARD_ITEM_IDS = { "test_board_a", "test_board_b", "test_board_c" };
+    public static final String[] SKIN_ITEM_IDS  = { "test_skin_a", "test_skin_b" };
+    public static final String   LEVEL_ITEM_ID  = "test_level";
+
+    public static final int BOARD_SLOTS = 2;
+
+    @Override
+    public VirtualCurrency[] getVirtualCurrencies() {
+        return new VirtualCurrency[]{ COIN, GEM };
+    }
+
+    @Override
+    public VirtualGood[] getVirtualGoods() {
+        VirtualGood[] goods = new VirtualGood[BOARD_ITEM_IDS.length + SKIN_ITEM_IDS.length + 1];
+        int i = 0;
+        for (String itemId : BOARD_ITEM_IDS) {
+            goods[i++] = new VirtualGood(itemId, "A board", price(COIN_ITEM_ID, BOARD_PRICE), itemId, BOARDS, false);
+        }
+        for (String itemId : SKIN_ITEM_IDS) {
+            goods[i++] = new VirtualGood(itemId, "A skin", price(GEM_ITEM_ID, SKIN_PRICE), itemId, SKINS, false);
+        }
+
+        TreeMap<Integer, Integer> points = new TreeMap<Integer, Integer>();
+        points.put(0, 5);
+        points.put(10, 50);
+        HashMap<String, TreeMap<Integer, Integer>> curves = new HashMap<String, TreeMap<Integer, Integer>>();
+        curves.put(COIN_ITEM_ID, points);
+        goods[i] = new VirtualGood(LEVEL_ITEM_ID, "A level", new PiecewiseLinearPriceModel(curves), LEVEL_ITEM_ID,
+                null, false);
+        return goods;
+    }
+
+    @Override
+    public VirtualCurrencyPack[] getVirtualCurrencyPacks() {
+        return new VirtualCurrencyPack[]{
+                new VirtualCurrencyPack("Coin Pack", "Some coins", COIN_PACK_ID, COIN_PACK_ID, 0.99,
+                        COIN_PACK_AMOUNT, COIN)
+        };
+    }
+
+    @Override
+    public VirtualCategory[] getVirtualCategories() {
+        return new VirtualCategory[]{ BOARDS, SKINS };
+    }
+
+    @Override
+    public GoogleMarketItem[] getGoogleManagedItems() {
+        return new GoogleMarketItem[]{
+                new GoogleMarketItem(NO_ADS_PRODUCT_ID, GoogleMarketItem.Managed.MANAGED)
+        };
+    }
+
+    /** Private functions **/
+
+    private static StaticPriceModel price(String currencyItemId, int amount) {
+        HashMap<String, Integer> price = new HashMap<String, Integer>();
+        price.put(currencyItemId, amount);
+        return new StaticPriceModel(price);
+    }
+
+    /** Private members **/
+
+    private static final VirtualCurrency COIN = new VirtualCurrency("Coins", "", COIN_ITEM_ID);
+    private static final VirtualCurrency GEM  = new VirtualCurrency("Gems", "", GEM_ITEM_ID);
+
+    private static final VirtualCategory BOARDS = new VirtualCategory("Boards", 1, BOARD_SLOTS);
+    private static final VirtualCategory SKINS  = new VirtualCategory("Skins", 2, 1);
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2012 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.data;
+
+import com.soomla.store.StoreController;
+import com.soomla.store.domain.data.VirtualGood;
+import com.soomla.store.exceptions.NotEnoughGoodsException;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class VirtualGoodsEquipTest {
+
+    private VirtualGoodsStorage mStorage;
+    private VirtualGood[]       mBoards;
+    private VirtualGood[]       mSkins;
+
+    @Before
+    public void setUp() throws Exception {
+        StorageManager.getInstance().initialize(Robolectric.application.getApplicationContext());
+        StoreInfo.getInstance().initialize(new TestStoreAssets());
+        mStorage = StorageManager.getInstance().getVirtualGoodsStorage();
+
+        mBoards = new VirtualGood[TestStoreAssets.BOARD_ITEM_IDS.length];
+        for (int i = 0; i < mBoards.length; i++){
+            mBoards[i] = StoreInfo.getInstance().getVirtualGoodByItemId(TestStoreAssets.BOARD_ITEM_IDS[i]);
+            mStorage.unequip(mBoards[i]);
+        }
+        mSkins = new VirtualGood[TestStoreAssets.SKIN_ITEM_IDS.length];
+        for (int i = 0; i < mSkins.length; i++){
+            mSkins[i] = StoreInfo.getInstance().getVirtualGoodByItemId(TestStoreAssets.SKIN_ITEM_IDS[i]);
+            mStorage.unequip(mSkins[i]);
+        }
+    }
+
+    @Test
+    public void testFreeSlots(){
+        Assert.assertTrue(mStorage.equip(mBoards[0]).isEmpty());
+        Assert.assertTrue(mStorage.equip(mBoards[1]).isEmpty());
+
+        Assert.assertTrue(mStorage.isEquipped(mBoards[0]));
+        Assert.assertTrue(mStorage.isEquipped(mBoards[1]));
+        Assert.assertEquals(Arrays.asList(mBoards[0], mBoards[1]), mStorage.getEquippedGoods(mBoards[0].getCategory()));
+    }
+
+    @Test
+    public void testEvictsFirstEquipped(){
+        mStorage.equip(mBoards[0]);
+        mStorage.equip(mBoards[1]);
+
+        List<VirtualGood> unequipped = mStorage.equip(mBoards[2]);
+        Assert.assertEquals(Collections.singletonList(mBoards[0]), unequipped);
+        Assert.assertFalse(mStorage.isEquipped(mBoards[0]));
+        Assert.assertEquals(Arrays.asList(mBoards[1], mBoards[2]), mStorage.getEquippedGoods(mBoards[0].getCategory()));
+    }
+
+    @Test
+    public void testEquipAgain(){
+        mStorage.equip(mBoards[0]);
+        mStorage.equip(mBoards[1]);
+
+        // equipping an equipped virtual good doesn't take another slot. it becomes the last one equipped.
+        Assert.assertTrue(mStorage.equip(mBoards[0]).isEmpty());
+        Assert.assertEquals(Arrays.asList(mBoards[1], mBoards[0]), mStorage.getEquippedGoods(mBoards[0].getCategory()));
+
+        Assert.assertEquals(Collections.singletonList(mBoards[1]), mStorage.equip(mBoards[2]));
+    }
+
+    @Test
+    public void testSingleSlot(){
+        mStorage.equip(mSkins[0]);
+
+        Assert.assertEquals(Collections.singletonList(mSkins[0]), mStorage.equip(mSkins[1]));
+        Assert.assertFalse(mStorage.isEquipped(mSkins[0]));
+        Assert.assertTrue(mStorage.isEquipped(mSkins[1]));
+
+        // the other category isn't affected.
+        mStorage.equip(mBoards[0]);
+        Assert.assertTrue(mStorage.isEquipped(mSkins[1]));
+    }
+
+    @Test
+    public void testEquipWithoutBalance() throws Exception {
+        mStorage.remove(mBoards[0], mStorage.getBalance(mBoards[0]));
+        try {
+            StoreController.getInstance().equipVirtualGood(mBoards[0].getItemId());
+            Assert.fail("equipping should have failed");
+        } catch (NotEnoughGoodsException e) {
+            // expected.
+        }
+        Assert.assertFalse(mStorage.isEquipped(mBoards[0]));
+
+        mStorage.add(mBoards[0], 1);
+        StoreController.getInstance().equipVirtualGood(mBoards[0].getItemId());
+        Assert.assertTrue(mStorage.isEquipped(mBoards[0]));
+    }
+}